@@ -0,0 +1,74 @@
+package simpledb;
+
+import simpledb.systemtest.SystemTestUtil;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+
+/**
+ * Heap footprint and GC benchmark for off-heap buffer pool frames.
+ * <p>
+ * A table exactly as large as the buffer pool is scanned a few times, so
+ * that every page is cached and every tuple has been read.  The benchmark
+ * then reports how much of the heap is still in use after a full
+ * collection, and how long the collector ran during the scans, for a pool
+ * that keeps pages on the heap and for one that keeps them in a
+ * {@link PageArena}.  Run it with a few pool sizes: on the heap both numbers
+ * grow with the pool, off the heap they should barely move.
+ * <p>
+ * Usage: ant runbench -Dbenchmark=ArenaBenchmark -Dbenchargs="[poolPages] [scans]"
+ */
+public class ArenaBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int poolPages = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+        int scans = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+
+        // two int columns -> 504 tuples per page
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, poolPages * 504, null, null);
+        System.out.printf("pool and table of %d pages%n", table.numPages());
+
+        for (boolean offHeap : new boolean[] { false, true }) {
+            Database.resetBufferPool(1, false);
+            long before = heapUsed();
+            long gcBefore = gcMillis();
+            BufferPool bp = Database.resetBufferPool((long) poolPages * BufferPool.PAGE_SIZE, offHeap);
+            for (int s = 0; s < scans; s++)
+                scan(bp, table);
+            long gc = gcMillis() - gcBefore;
+            long used = heapUsed() - before;
+            System.out.printf("%-8s : heap in use %7.1f MB, GC time %5d ms%n",
+                    offHeap ? "off-heap" : "heap", used / 1e6, gc);
+        }
+        table.close();
+    }
+
+    static void scan(BufferPool bp, HeapFile table) throws Exception {
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = table.iterator(tid);
+        it.open();
+        long sum = 0;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            sum += ((IntField) t.getField(0)).getValue() + ((IntField) t.getField(1)).getValue();
+        }
+        it.close();
+        bp.transactionComplete(tid);
+        if (sum == 42)
+            System.out.println();
+    }
+
+    static long heapUsed() {
+        for (int i = 0; i < 3; i++)
+            System.gc();
+        Runtime rt = Runtime.getRuntime();
+        return rt.totalMemory() - rt.freeMemory();
+    }
+
+    static long gcMillis() {
+        long total = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+            total += Math.max(0, gc.getCollectionTime());
+        return total;
+    }
+}
@@ -0,0 +1,104 @@
+package simpledb;
+
+import simpledb.systemtest.SystemTestUtil;
+
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Throughput benchmark for concurrent transactions in the buffer pool.
+ * <p>
+ * Each thread runs short transactions back to back for a fixed time.  In
+ * the "read" workload a transaction reads a few random pages of a table
+ * that fits in the buffer pool, so every request is a hit under a shared
+ * lock and throughput should grow with the number of cores.  In the "hot
+ * write" workload a transaction takes an exclusive lock on one of a few hot
+ * pages, so most threads wait; waiting threads should sleep, leaving the
+ * CPU time per transaction about the same as the number of threads grows.
+ * <p>
+ * Usage: ant runbench -Dbenchmark=ConcurrencyBenchmark -Dbenchargs="[maxThreads] [millis]"
+ */
+public class ConcurrencyBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int maxThreads = args.length > 0 ? Integer.parseInt(args[0]) : 64;
+        long millis = args.length > 1 ? Long.parseLong(args[1]) : 1000;
+
+        // two int columns -> 504 tuples per page
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, 200 * 504, null, null);
+        System.out.printf("%d cores, table of %d pages%n",
+                Runtime.getRuntime().availableProcessors(), table.numPages());
+
+        for (int hotPages = 0; hotPages <= 4; hotPages += 4) {
+            System.out.println(hotPages == 0 ? "read:" : "hot write (" + hotPages + " pages):");
+            for (int threads = 1; threads <= maxThreads; threads *= 2) {
+                Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+                long cpu = processCpuNanos();
+                long txns = run(table, threads, hotPages, millis);
+                cpu = processCpuNanos() - cpu;
+                System.out.printf("  %3d threads : %9.0f txn/s, %7.1f us cpu/txn%n",
+                        threads, txns * 1000.0 / millis, cpu / 1000.0 / Math.max(txns, 1));
+            }
+        }
+        table.close();
+    }
+
+    static long processCpuNanos() {
+        return ((com.sun.management.OperatingSystemMXBean)
+                ManagementFactory.getOperatingSystemMXBean()).getProcessCpuTime();
+    }
+
+    /**
+     * Runs transactions on the specified number of threads for the specified
+     * time.
+     *
+     * @param hotPages if 0, transactions read four random pages; otherwise
+     *   they write one of the first hotPages pages
+     * @return the number of transactions that committed
+     */
+    static long run(final HeapFile table, int threads, final int hotPages, long millis)
+            throws Exception {
+        final AtomicLong committed = new AtomicLong();
+        final long deadline = System.currentTimeMillis() + millis;
+        Thread[] workers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            final Random r = new Random(i);
+            workers[i] = new Thread() {
+                public void run() {
+                    BufferPool bp = Database.getBufferPool();
+                    int pages = table.numPages();
+                    while (System.currentTimeMillis() < deadline) {
+                        TransactionId tid = new TransactionId();
+                        try {
+                            if (hotPages == 0) {
+                                for (int j = 0; j < 4; j++)
+                                    bp.getPage(tid, new HeapPageId(table.getId(), r.nextInt(pages)),
+                                            Permissions.READ_ONLY);
+                            } else {
+                                bp.getPage(tid, new HeapPageId(table.getId(), r.nextInt(hotPages)),
+                                        Permissions.READ_WRITE);
+                            }
+                            bp.transactionComplete(tid);
+                            committed.incrementAndGet();
+                        } catch (TransactionAbortedException e) {
+                            try {
+                                bp.transactionComplete(tid, false);
+                            } catch (java.io.IOException e2) {
+                                e2.printStackTrace();
+                            }
+                        } catch (Exception e) {
+                            e.printStackTrace();
+                            return;
+                        }
+                    }
+                }
+            };
+        }
+        for (Thread t : workers)
+            t.start();
+        for (Thread t : workers)
+            t.join();
+        return committed.get();
+    }
+}
@@ -0,0 +1,112 @@
+package simpledb;
+
+import simpledb.systemtest.SystemTestUtil;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Contention benchmark for the deadlock policies.
+ * <p>
+ * Each thread runs the transactions of {@link DeadlockTest} back to back
+ * on a few hot pages: read one page and write another, write two pages, or
+ * read a page and upgrade to writing it.  Between its two requests a
+ * transaction pauses briefly, so that the others get in its way.  A
+ * transaction that aborts releases its locks, backs off for a random
+ * moment, as the deadlock tests do, and runs again under the same
+ * TransactionId, keeping its age, as wait-die and wound-wait assume.  For every {@link DeadlockPolicy} the benchmark reports the
+ * commits per second and the aborts per commit.
+ * <p>
+ * Usage: ant runbench -Dbenchmark=DeadlockBenchmark -Dbenchargs="[maxThreads] [millis] [hotPages]"
+ */
+public class DeadlockBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int maxThreads = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+        long millis = args.length > 1 ? Long.parseLong(args[1]) : 1000;
+        int hotPages = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+
+        // two int columns -> 504 tuples per page
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, hotPages * 504, null, null);
+        System.out.printf("%d cores, %d hot pages%n",
+                Runtime.getRuntime().availableProcessors(), table.numPages());
+
+        for (DeadlockPolicy policy : DeadlockPolicy.values()) {
+            System.out.println(policy + ":");
+            for (int threads = 2; threads <= maxThreads; threads *= 2) {
+                Database.resetBufferPool(BufferPool.DEFAULT_PAGES).setDeadlockPolicy(policy);
+                AtomicLong aborts = new AtomicLong();
+                long commits = run(table, threads, millis, aborts);
+                System.out.printf("  %3d threads : %8.0f commits/s, %6.2f aborts/commit%n",
+                        threads, commits * 1000.0 / millis, (double) aborts.get() / Math.max(commits, 1));
+            }
+        }
+        table.close();
+    }
+
+    static long run(final HeapFile table, int threads, long millis, final AtomicLong aborts)
+            throws Exception {
+        final AtomicLong committed = new AtomicLong();
+        final long deadline = System.currentTimeMillis() + millis;
+        Thread[] workers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            final Random r = new Random(i);
+            workers[i] = new Thread() {
+                public void run() {
+                    BufferPool bp = Database.getBufferPool();
+                    int pages = table.numPages();
+                    TransactionId tid = new TransactionId();
+                    PageId a = null;
+                    PageId b = null;
+                    int kind = 0;
+                    while (System.currentTimeMillis() < deadline) {
+                        if (a == null) {
+                            a = new HeapPageId(table.getId(), r.nextInt(pages));
+                            b = new HeapPageId(table.getId(), r.nextInt(pages));
+                            kind = r.nextInt(3);
+                        }
+                        try {
+                            switch (kind) {
+                            case 0: // read then write
+                                bp.getPage(tid, a, Permissions.READ_ONLY);
+                                LockSupport.parkNanos(20000);
+                                bp.getPage(tid, b, Permissions.READ_WRITE);
+                                break;
+                            case 1: // write then write
+                                bp.getPage(tid, a, Permissions.READ_WRITE);
+                                LockSupport.parkNanos(20000);
+                                bp.getPage(tid, b, Permissions.READ_WRITE);
+                                break;
+                            default: // read then upgrade
+                                bp.getPage(tid, a, Permissions.READ_ONLY);
+                                LockSupport.parkNanos(20000);
+                                bp.getPage(tid, a, Permissions.READ_WRITE);
+                            }
+                            bp.transactionComplete(tid);
+                            committed.incrementAndGet();
+                            tid = new TransactionId();
+                            a = null;
+                        } catch (TransactionAbortedException e) {
+                            aborts.incrementAndGet();
+                            try {
+                                bp.transactionComplete(tid, false);
+                            } catch (java.io.IOException e2) {
+                                e2.printStackTrace();
+                            }
+                            LockSupport.parkNanos(r.nextInt(100000));
+                        } catch (Exception e) {
+                            e.printStackTrace();
+                            return;
+                        }
+                    }
+                }
+            };
+        }
+        for (Thread t : workers)
+            t.start();
+        for (Thread t : workers)
+            t.join();
+        return committed.get();
+    }
+}
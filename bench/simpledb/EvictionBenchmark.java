@@ -0,0 +1,114 @@
+package simpledb;
+
+import simpledb.systemtest.SystemTestUtil;
+
+import java.util.HashSet;
+import java.util.Random;
+
+/**
+ * Hit ratio benchmark for the buffer pool's replacement policies.
+ * <p>
+ * Point queries keep requesting random pages of a small "hot" table while a
+ * full scan of a large table runs alongside them, two point queries per
+ * scanned page.  The hot table fits in the buffer pool several times over,
+ * so a good policy serves nearly all point queries from memory even while
+ * the scan streams through pages that will not be read again.  The
+ * baseline is the eviction the buffer pool used to do: the first clean page
+ * in hash table order.
+ * <p>
+ * Usage: ant runbench -Dbenchmark=EvictionBenchmark -Dbenchargs="[poolPages] [hotPages] [scanPages] [scans]"
+ */
+public class EvictionBenchmark {
+
+    /** Evicts whichever clean page a hash table iteration returns first. */
+    static class HashOrderPolicy implements ReplacementPolicy {
+        private final HashSet<PageId> resident = new HashSet<PageId>();
+
+        public synchronized void pageAdded(PageId pid) {
+            resident.add(pid);
+        }
+
+        public void pageAccessed(PageId pid) {
+        }
+
+        public synchronized void pageRemoved(PageId pid) {
+            resident.remove(pid);
+        }
+
+        public synchronized PageId chooseVictim(Evictable evictable) {
+            for (PageId pid : resident)
+                if (evictable.canEvict(pid))
+                    return pid;
+            return null;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int poolPages = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        int hotPages = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+        int scanPages = args.length > 2 ? Integer.parseInt(args[2]) : 2000;
+        int scans = args.length > 3 ? Integer.parseInt(args[3]) : 3;
+
+        // two int columns -> 504 tuples per page
+        HeapFile hot = SystemTestUtil.createRandomHeapFile(2, hotPages * 504, null, null);
+        HeapFile big = SystemTestUtil.createRandomHeapFile(2, scanPages * 504, null, null);
+        System.out.printf("pool %d pages, hot table %d pages, scanned table %d pages%n",
+                poolPages, hot.numPages(), big.numPages());
+
+        String[] names = {"hash order", "CLOCK", "LRU-2", "2Q"};
+        for (int i = 0; i < names.length; i++) {
+            ReplacementPolicy policy;
+            if (i == 0)
+                policy = new HashOrderPolicy();
+            else if (i == 1)
+                policy = new ClockPolicy();
+            else if (i == 2)
+                policy = new LruKPolicy();
+            else
+                policy = new TwoQueuePolicy();
+            BufferPool bp = Database.resetBufferPool(poolPages, policy);
+            double[] ratios = run(bp, hot, big, scans);
+            System.out.printf("%-10s : point queries %5.1f%% hits, overall %5.1f%% hits%n",
+                    names[i], 100 * ratios[0], 100 * ratios[1]);
+        }
+        hot.close();
+        big.close();
+    }
+
+    /**
+     * @return the hit ratio of the point queries and of all page requests
+     */
+    static double[] run(BufferPool bp, HeapFile hot, HeapFile big, int scans) throws Exception {
+        Random r = new Random(0);
+        int hotPages = hot.numPages();
+        long pointHits = 0;
+        long pointRequests = 0;
+
+        // let the point queries warm up the pool first
+        for (int i = 0; i < 4 * hotPages; i++)
+            pointQuery(bp, hot, r.nextInt(hotPages));
+        bp.resetStatistics();
+
+        for (int s = 0; s < scans; s++) {
+            TransactionId scan = new TransactionId();
+            for (int p = 0; p < big.numPages(); p++) {
+                bp.getPage(scan, new HeapPageId(big.getId(), p), Permissions.READ_ONLY);
+                for (int q = 0; q < 2; q++) {
+                    long before = bp.getHits();
+                    pointQuery(bp, hot, r.nextInt(hotPages));
+                    pointHits += bp.getHits() - before;
+                    pointRequests++;
+                }
+            }
+            bp.transactionComplete(scan);
+        }
+        double overall = (double) bp.getHits() / (bp.getHits() + bp.getMisses());
+        return new double[] {(double) pointHits / pointRequests, overall};
+    }
+
+    static void pointQuery(BufferPool bp, HeapFile hot, int page) throws Exception {
+        TransactionId tid = new TransactionId();
+        bp.getPage(tid, new HeapPageId(hot.getId(), page), Permissions.READ_ONLY);
+        bp.transactionComplete(tid);
+    }
+}
@@ -0,0 +1,73 @@
+package simpledb;
+
+import simpledb.systemtest.SystemTestUtil;
+
+import java.util.Collections;
+import java.util.HashSet;
+
+/**
+ * Commit-time flush benchmark for the buffer pool.
+ * <p>
+ * A transaction dirties every page of a table, as a bulk insert or update
+ * would, and then commits.  The baseline writes and forces the dirty pages
+ * one at a time in hash set order, which is what a durable commit cost
+ * before flushes were grouped; the buffer pool writes each run of
+ * neighbouring pages at once and forces the file a single time.  Without
+ * force at commit the pages are only logged and the log forced once.
+ * <p>
+ * Usage: ant runbench -Dbenchmark=FlushBenchmark -Dbenchargs="[pages] [rounds]"
+ */
+public class FlushBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int pages = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        // two int columns -> 504 tuples per page
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, pages * 504, null, null);
+        System.out.printf("committing %d dirty pages%n", table.numPages());
+
+        for (int r = 0; r < rounds; r++) {
+            long single = commit(table, false, true);
+            long grouped = commit(table, true, true);
+            long logged = commit(table, true, false);
+            System.out.printf("round %d : one at a time %6.1f ms, grouped %6.1f ms, no force %6.1f ms%n",
+                    r, single / 1e6, grouped / 1e6, logged / 1e6);
+        }
+        table.close();
+    }
+
+    /**
+     * Dirties every page of the table in one transaction and commits it.
+     *
+     * @param grouped if true commit through the buffer pool; otherwise
+     *   write and force each page separately first
+     * @param force the buffer pool's force setting
+     * @return the time the flush took, in nanoseconds
+     */
+    static long commit(HeapFile table, boolean grouped, boolean force) throws Exception {
+        BufferPool bp = Database.resetBufferPool(table.numPages() + 10);
+        bp.setForceAtCommit(force);
+        TransactionId tid = new TransactionId();
+        HashSet<Page> dirty = new HashSet<Page>();
+        for (int p = 0; p < table.numPages(); p++) {
+            Page page = bp.getPage(tid, new HeapPageId(table.getId(), p), Permissions.READ_WRITE);
+            page.markDirty(true, tid);
+            dirty.add(page);
+        }
+
+        long start = System.nanoTime();
+        if (grouped) {
+            bp.transactionComplete(tid);
+        } else {
+            for (Page page : dirty) {
+                table.writePages(Collections.singletonList(page));
+                page.markDirty(false, null);
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        if (!grouped)
+            bp.transactionComplete(tid);
+        return elapsed;
+    }
+}
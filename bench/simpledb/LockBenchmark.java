@@ -0,0 +1,83 @@
+package simpledb;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Throughput benchmark for the lock manager alone.
+ * <p>
+ * Each thread runs transactions that take shared locks on a few random
+ * pages of a large table and then release them all, for a fixed time.  No
+ * two requests conflict, so the throughput shows how well lock traffic on
+ * different pages proceeds in parallel; it should grow about linearly with
+ * the number of cores.
+ * <p>
+ * It then locks every page of the table for one transaction, as a scan
+ * does, with and without lock escalation, and reports how many entries the
+ * lock table holds at the end and the cost per page.
+ * <p>
+ * Usage: ant runbench -Dbenchmark=LockBenchmark -Dbenchargs="[maxThreads] [millis] [pages]"
+ */
+public class LockBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int maxThreads = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+        long millis = args.length > 1 ? Long.parseLong(args[1]) : 1000;
+        int pages = args.length > 2 ? Integer.parseInt(args[2]) : 10000;
+        System.out.printf("%d cores, %d pages, 4 shared locks per transaction%n",
+                Runtime.getRuntime().availableProcessors(), pages);
+
+        // warm up
+        run(new LockManager(), 1, millis, pages);
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            long txns = run(new LockManager(), threads, millis, pages);
+            System.out.printf("  %3d threads : %10.0f lock+unlock/s%n", threads, txns * 4 * 1000.0 / millis);
+        }
+
+        System.out.printf("scan of %d pages:%n", pages);
+        for (int threshold : new int[] { Integer.MAX_VALUE, LockManager.DEFAULT_ESCALATION_THRESHOLD }) {
+            LockManager lm = new LockManager();
+            lm.setEscalationThreshold(threshold);
+            TransactionId tid = new TransactionId();
+            long start = System.nanoTime();
+            for (int p = 0; p < pages; p++)
+                lm.acquireLock(tid, new HeapPageId(1, p), false);
+            long elapsed = System.nanoTime() - start;
+            int locks = lm.getNumLocks();
+            lm.unlockAllPages(tid);
+            System.out.printf("  %-19s : %6d lock entries, %6.0f ns/page%n",
+                    threshold == Integer.MAX_VALUE ? "no escalation" : "escalation at " + threshold,
+                    locks, (double) elapsed / pages);
+        }
+    }
+
+    static long run(final LockManager lm, int threads, long millis, final int pages) throws Exception {
+        final AtomicLong done = new AtomicLong();
+        final long deadline = System.currentTimeMillis() + millis;
+        Thread[] workers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            final Random r = new Random(i);
+            workers[i] = new Thread() {
+                public void run() {
+                    long n = 0;
+                    try {
+                        while (System.currentTimeMillis() < deadline) {
+                            TransactionId tid = new TransactionId();
+                            for (int j = 0; j < 4; j++)
+                                lm.acquireLock(tid, new HeapPageId(1, r.nextInt(pages)), false);
+                            lm.unlockAllPages(tid);
+                            n++;
+                        }
+                    } catch (TransactionAbortedException e) {
+                        e.printStackTrace();
+                    }
+                    done.addAndGet(n);
+                }
+            };
+            workers[i].start();
+        }
+        for (Thread t : workers)
+            t.join();
+        return done.get();
+    }
+}
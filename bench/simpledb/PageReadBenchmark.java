@@ -0,0 +1,104 @@
+package simpledb;
+
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+/**
+ * Microbenchmark for random page reads out of a HeapFile.
+ * <p>
+ * Compares the old page read path, which opened a FileInputStream, skipped to
+ * the page and closed the stream again on every read, against
+ * {@link HeapFile#readPage}, which does a positional read on a FileChannel
+ * that stays open for the lifetime of the file.
+ * <p>
+ * Usage: ant runbench -Dbenchmark=PageReadBenchmark -Dbenchargs="[pages] [reads] [threads]"
+ */
+public class PageReadBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int pages = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        final int reads = args.length > 1 ? Integer.parseInt(args[1]) : 100000;
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : 1;
+
+        // two int columns -> 504 tuples per page
+        final HeapFile hf = SystemTestUtil.createRandomHeapFile(2, pages * 504, null, null);
+        System.out.println("Table has " + hf.numPages() + " pages");
+
+        // warm up the OS page cache and the JIT for every path
+        for (boolean legacy : new boolean[]{true, false})
+            for (boolean decode : new boolean[]{true, false})
+                run(hf, reads / 10, 1, legacy, decode);
+
+        for (boolean decode : new boolean[]{false, true}) {
+            double legacy = run(hf, reads, threads, true, decode);
+            double channel = run(hf, reads, threads, false, decode);
+            String what = decode ? "readPage" : "raw I/O ";
+            System.out.printf("%s open/skip/close : %10.0f pages/s%n", what, legacy);
+            System.out.printf("%s FileChannel     : %10.0f pages/s (%.2fx)%n", what, channel, channel / legacy);
+        }
+        hf.close();
+    }
+
+    /** The page read path HeapFile used before it kept a channel open. */
+    static byte[] legacyRead(HeapFile hf, HeapPageId pid) throws IOException {
+        byte[] pageData = new byte[BufferPool.PAGE_SIZE];
+        FileInputStream fis = new FileInputStream(hf.getFile().getAbsoluteFile());
+        fis.skip((long) pid.pageno() * BufferPool.PAGE_SIZE);
+        fis.read(pageData);
+        fis.close();
+        return pageData;
+    }
+
+    static byte[] channelRead(PageChannel channel, HeapPageId pid) throws IOException {
+        byte[] pageData = new byte[BufferPool.PAGE_SIZE];
+        channel.read(ByteBuffer.wrap(pageData), (long) pid.pageno() * BufferPool.PAGE_SIZE);
+        return pageData;
+    }
+
+    /**
+     * @param legacy use the open/skip/close path rather than a shared channel
+     * @param decode also build a HeapPage out of the bytes, as readPage does
+     * @return page reads per second over all threads
+     */
+    static double run(final HeapFile hf, final int reads, int threads,
+                      final boolean legacy, final boolean decode) throws Exception {
+        final PageChannel channel = new PageChannel(hf.getFile());
+        final int numPages = hf.numPages();
+        final int perThread = reads / threads;
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            final Random r = new Random(t);
+            workers[t] = new Thread() {
+                public void run() {
+                    try {
+                        for (int i = 0; i < perThread; i++) {
+                            HeapPageId pid = new HeapPageId(hf.getId(), r.nextInt(numPages));
+                            if (legacy) {
+                                byte[] data = legacyRead(hf, pid);
+                                if (decode)
+                                    new HeapPage(pid, data);
+                            } else if (decode) {
+                                hf.readPage(pid);
+                            } else {
+                                channelRead(channel, pid);
+                            }
+                        }
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            };
+        }
+        long start = System.nanoTime();
+        for (Thread t : workers)
+            t.start();
+        for (Thread t : workers)
+            t.join();
+        long elapsed = System.nanoTime() - start;
+        channel.close();
+        return perThread * threads / (elapsed / 1e9);
+    }
+}
@@ -0,0 +1,68 @@
+package simpledb;
+
+import simpledb.systemtest.SystemTestUtil;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Point lookup latency benchmark for buffer pool partitions.
+ * <p>
+ * Point lookups request random pages of a small table while a scan of a
+ * large table runs alongside them, two lookups per scanned page.  Without
+ * partitions the scan competes with the lookups for the whole pool; with
+ * the scanned table in a partition of a quarter of the pool, it can only
+ * evict its own pages.  The benchmark reports the lookups' hit ratio and
+ * their 50th and 99th percentile latency.
+ * <p>
+ * Usage: ant runbench -Dbenchmark=PartitionBenchmark -Dbenchargs="[poolPages] [hotPages] [scanPages] [scans]"
+ */
+public class PartitionBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int poolPages = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        int hotPages = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+        int scanPages = args.length > 2 ? Integer.parseInt(args[2]) : 2000;
+        int scans = args.length > 3 ? Integer.parseInt(args[3]) : 3;
+
+        // two int columns -> 504 tuples per page
+        HeapFile hot = SystemTestUtil.createRandomHeapFile(2, hotPages * 504, null, null);
+        HeapFile big = SystemTestUtil.createRandomHeapFile(2, scanPages * 504, null, null);
+        System.out.printf("pool %d pages, hot table %d pages, scanned table %d pages%n",
+                poolPages, hot.numPages(), big.numPages());
+
+        for (boolean partitioned : new boolean[] { false, true }) {
+            if (partitioned) {
+                Database.getCatalog().addPartition("reports", poolPages / 4);
+                Database.getCatalog().setPartition(big.getId(), "reports");
+            }
+            BufferPool bp = Database.resetBufferPool(poolPages);
+            Random rand = new Random(42);
+            long[] latencies = new long[scans * big.numPages() * 2];
+            int n = 0;
+            long hits = 0;
+            TransactionId tid = new TransactionId();
+            for (int s = 0; s < scans; s++) {
+                for (int p = 0; p < big.numPages(); p++) {
+                    bp.getPage(tid, new HeapPageId(big.getId(), p), Permissions.READ_ONLY);
+                    for (int i = 0; i < 2; i++) {
+                        PageId pid = new HeapPageId(hot.getId(), rand.nextInt(hot.numPages()));
+                        long misses = bp.getMisses();
+                        long start = System.nanoTime();
+                        bp.getPage(tid, pid, Permissions.READ_ONLY);
+                        latencies[n++] = System.nanoTime() - start;
+                        if (bp.getMisses() == misses)
+                            hits++;
+                    }
+                }
+            }
+            bp.transactionComplete(tid);
+            Arrays.sort(latencies);
+            System.out.printf("%-12s : lookup hit ratio %5.1f%%, p50 %6.1f us, p99 %6.1f us%n",
+                    partitioned ? "partitioned" : "shared", 100.0 * hits / n,
+                    latencies[n / 2] / 1e3, latencies[n * 99 / 100] / 1e3);
+        }
+        hot.close();
+        big.close();
+    }
+}
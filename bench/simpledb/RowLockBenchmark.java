@@ -0,0 +1,143 @@
+package simpledb;
+
+import simpledb.systemtest.SystemTestUtil;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Update throughput benchmark for tuple locking.
+ * <p>
+ * Each thread runs small update transactions back to back on a table that
+ * fits on one page: each transaction replaces two random rows, deleting
+ * each and inserting its new version, with a pause before the second, as
+ * if waiting for its client.  Commits log without forcing pages
+ * (NO-FORCE), so that what is measured is mostly the waiting for locks
+ * rather than the writing of pages; each commit still forces the log.  With page locks every update
+ * holds the whole page until it commits; with the table locked by tuple
+ * (see {@link Catalog#setRowLocked}) updates of different rows run side by
+ * side.  A transaction that deadlocks aborts and starts over with two new
+ * rows.  The benchmark reports commits per second and aborts per commit.
+ * <p>
+ * Usage: ant runbench -Dbenchmark=RowLockBenchmark -Dbenchargs="[maxThreads] [millis] [rows] [pauseMicros]"
+ */
+public class RowLockBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int maxThreads = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+        long millis = args.length > 1 ? Long.parseLong(args[1]) : 1000;
+        int rows = args.length > 2 ? Integer.parseInt(args[2]) : 200;
+        long pause = args.length > 3 ? Long.parseLong(args[3]) * 1000 : 200000;
+
+        for (boolean rowLocked : new boolean[] { false, true }) {
+            System.out.println(rowLocked ? "tuple locks:" : "page locks:");
+            for (int threads = 1; threads <= maxThreads; threads *= 2) {
+                HeapFile table = SystemTestUtil.createRandomHeapFile(2, rows, null, null);
+                Database.getCatalog().setRowLocked(table.getId(), rowLocked);
+                Database.resetBufferPool(BufferPool.DEFAULT_PAGES).setForceAtCommit(false);
+                AtomicLong aborts = new AtomicLong();
+                long commits = run(table, threads, millis, pause, aborts);
+                System.out.printf("  %3d threads : %8.0f commits/s, %6.2f aborts/commit, %d pages%n",
+                        threads, commits * 1000.0 / millis,
+                        (double) aborts.get() / Math.max(commits, 1), table.numPages());
+                table.close();
+            }
+        }
+    }
+
+    static long run(final HeapFile table, int threads, long millis, final long pause,
+            final AtomicLong aborts)
+            throws Exception {
+        // where each row is now; a transaction moving a row publishes the
+        // new place while it still holds the old one
+        final AtomicReferenceArray<RecordId> rows = locate(table);
+        final AtomicLong committed = new AtomicLong();
+        final long deadline = System.currentTimeMillis() + millis;
+        Thread[] workers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            final Random r = new Random(i);
+            workers[i] = new Thread() {
+                public void run() {
+                    BufferPool bp = Database.getBufferPool();
+                    while (System.currentTimeMillis() < deadline) {
+                        TransactionId tid = new TransactionId();
+                        int[] picked = { r.nextInt(rows.length()), r.nextInt(rows.length()) };
+                        RecordId[] old = new RecordId[2];
+                        try {
+                            for (int k = 0; k < 2; k++) {
+                                if (k == 1 && picked[1] == picked[0])
+                                    break;
+                                if (k == 1)
+                                    LockSupport.parkNanos(pause);
+                                old[k] = update(bp, tid, table, rows, picked[k], r);
+                            }
+                            bp.transactionComplete(tid);
+                            committed.incrementAndGet();
+                        } catch (TransactionAbortedException e) {
+                            aborts.incrementAndGet();
+                            // put the rows back where the abort puts them
+                            for (int k = 0; k < 2; k++)
+                                if (old[k] != null)
+                                    rows.set(picked[k], old[k]);
+                            try {
+                                bp.transactionComplete(tid, false);
+                            } catch (java.io.IOException e2) {
+                                e2.printStackTrace();
+                            }
+                        } catch (Exception e) {
+                            e.printStackTrace();
+                            return;
+                        }
+                    }
+                }
+            };
+        }
+        for (Thread t : workers)
+            t.start();
+        for (Thread t : workers)
+            t.join();
+        return committed.get();
+    }
+
+    /**
+     * Replaces a row with a new version, once tid holds the lock on where
+     * the row is.
+     *
+     * @return where the row was
+     */
+    static RecordId update(BufferPool bp, TransactionId tid, HeapFile table,
+            AtomicReferenceArray<RecordId> rows, int row, Random r) throws Exception {
+        RecordId rid;
+        while (true) {
+            rid = rows.get(row);
+            if (Database.getCatalog().isRowLocked(table.getId()))
+                bp.lockRow(tid, rid, true);
+            else
+                bp.getPage(tid, rid.getPageId(), Permissions.READ_WRITE);
+            // another transaction may have moved the row before we got it
+            if (rid.equals(rows.get(row)))
+                break;
+        }
+        Tuple t = Utility.getHeapTuple(r.nextInt(), 2);
+        Tuple old = new Tuple(t.getTupleDesc());
+        old.setRecordId(rid);
+        bp.deleteTuple(tid, old);
+        bp.insertTuple(tid, table.getId(), t);
+        rows.set(row, t.getRecordId());
+        return rid;
+    }
+
+    static AtomicReferenceArray<RecordId> locate(HeapFile table) throws Exception {
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = table.iterator(tid);
+        java.util.ArrayList<RecordId> rids = new java.util.ArrayList<RecordId>();
+        it.open();
+        while (it.hasNext())
+            rids.add(it.next().getRecordId());
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return new AtomicReferenceArray<RecordId>(rids.toArray(new RecordId[0]));
+    }
+}
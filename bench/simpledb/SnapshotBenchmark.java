@@ -0,0 +1,116 @@
+package simpledb;
+
+import simpledb.systemtest.SystemTestUtil;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Ingest throughput while a reporting query runs, with and without
+ * snapshot reads.
+ * <p>
+ * Ingest threads insert one tuple per transaction into a row-locked table
+ * (see {@link Catalog#setRowLocked}), committing without forcing pages.
+ * Meanwhile one reporting thread runs reports over and over, each a
+ * transaction that scans the whole table twice, pausing on every page as
+ * if working on its tuples.  With locked reads a report holds shared locks
+ * on the pages it has read until it completes, and the inserts into those
+ * pages wait for it; with snapshot reads (see
+ * {@link BufferPool#beginSnapshot}) it takes no locks at all.
+ * The benchmark reports inserts and reports per second.
+ * <p>
+ * Usage: ant runbench -Dbenchmark=SnapshotBenchmark -Dbenchargs="[maxThreads] [millis] [rows] [pauseMicros]"
+ */
+public class SnapshotBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int maxThreads = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        long millis = args.length > 1 ? Long.parseLong(args[1]) : 1000;
+        int rows = args.length > 2 ? Integer.parseInt(args[2]) : 5000;
+        long pause = args.length > 3 ? Long.parseLong(args[3]) * 1000 : 1000000;
+
+        for (boolean snapshots : new boolean[] { false, true }) {
+            System.out.println(snapshots ? "snapshot reads:" : "locked reads:");
+            for (int threads = 1; threads <= maxThreads; threads *= 2) {
+                HeapFile table = SystemTestUtil.createRandomHeapFile(2, rows, null, null);
+                Database.getCatalog().setRowLocked(table.getId(), true);
+                Database.resetBufferPool(BufferPool.DEFAULT_PAGES).setForceAtCommit(false);
+                AtomicLong reports = new AtomicLong();
+                long inserts = run(table, threads, millis, pause, snapshots, reports);
+                System.out.printf("  %3d threads : %8.0f inserts/s, %6.1f reports/s%n",
+                        threads, inserts * 1000.0 / millis, reports.get() * 1000.0 / millis);
+                table.close();
+            }
+        }
+    }
+
+    static long run(final HeapFile table, int threads, long millis, final long pause,
+            final boolean snapshots, final AtomicLong reports)
+            throws Exception {
+        final AtomicLong inserted = new AtomicLong();
+        final long deadline = System.currentTimeMillis() + millis;
+        Thread report = new Thread() {
+            public void run() {
+                while (System.currentTimeMillis() < deadline) {
+                    Transaction t = new Transaction();
+                    if (snapshots)
+                        t.start();
+                    try {
+                        // two queries in one transaction, as a report would
+                        for (int q = 0; q < 2; q++) {
+                            DbFileIterator it = table.iterator(t.getId());
+                            it.open();
+                            int page = -1;
+                            while (it.hasNext()) {
+                                int p = it.next().getRecordId().getPageId().pageno();
+                                if (p != page)
+                                    LockSupport.parkNanos(pause);
+                                page = p;
+                            }
+                            it.close();
+                        }
+                        Database.getBufferPool().transactionComplete(t.getId());
+                        reports.incrementAndGet();
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                        return;
+                    }
+                }
+            }
+        };
+        Thread[] workers = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            final Random r = new Random(i);
+            workers[i] = new Thread() {
+                public void run() {
+                    BufferPool bp = Database.getBufferPool();
+                    while (System.currentTimeMillis() < deadline) {
+                        TransactionId tid = new TransactionId();
+                        try {
+                            bp.insertTuple(tid, table.getId(), Utility.getHeapTuple(r.nextInt(), 2));
+                            bp.transactionComplete(tid);
+                            inserted.incrementAndGet();
+                        } catch (TransactionAbortedException e) {
+                            try {
+                                bp.transactionComplete(tid, false);
+                            } catch (java.io.IOException e2) {
+                                e2.printStackTrace();
+                            }
+                        } catch (Exception e) {
+                            e.printStackTrace();
+                            return;
+                        }
+                    }
+                }
+            };
+        }
+        report.start();
+        for (Thread t : workers)
+            t.start();
+        for (Thread t : workers)
+            t.join();
+        report.join();
+        return inserted.get();
+    }
+}
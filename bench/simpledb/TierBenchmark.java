@@ -0,0 +1,72 @@
+package simpledb;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.util.Random;
+
+/**
+ * Benchmark for the compressed second cache tier.
+ * <p>
+ * Random pages of a table with a short name in a STRING column are
+ * requested over and over.  Both configurations get the same memory: the
+ * first spends all of it on the buffer pool, the second splits it evenly
+ * between the pool and a {@link CompressedPageCache}.  The benchmark reports
+ * how many requests had to read the file, and how many pages the second
+ * tier holds per page of memory it was given.
+ * <p>
+ * Usage: ant runbench -Dbenchmark=TierBenchmark -Dbenchargs="[memoryPages] [tablePages] [requests]"
+ */
+public class TierBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int memoryPages = args.length > 0 ? Integer.parseInt(args[0]) : 60;
+        int tablePages = args.length > 1 ? Integer.parseInt(args[1]) : 300;
+        int requests = args.length > 2 ? Integer.parseInt(args[2]) : 20000;
+
+        // an INT and a STRING column -> 30 tuples per page
+        Type[] types = new Type[] { Type.INT_TYPE, Type.STRING_TYPE };
+        File text = File.createTempFile("tier", ".txt");
+        text.deleteOnExit();
+        BufferedWriter out = new BufferedWriter(new FileWriter(text));
+        for (int i = 0; i < tablePages * 30; i++)
+            out.write(i + ",customer#" + i + "\n");
+        out.close();
+        File data = File.createTempFile("tier", ".dat");
+        data.deleteOnExit();
+        HeapFileEncoder.convert(text, data, BufferPool.PAGE_SIZE, 2, types);
+        HeapFile table = new HeapFile(data, new TupleDesc(types));
+        Database.getCatalog().addTable(table, "tier");
+        System.out.printf("%d requests for random pages of a %d page table, memory for %d pages%n",
+                requests, table.numPages(), memoryPages);
+
+        for (boolean tiered : new boolean[] { false, true }) {
+            int poolPages = tiered ? memoryPages / 2 : memoryPages;
+            BufferPool bp = Database.resetBufferPool(poolPages);
+            CompressedPageCache tier = null;
+            if (tiered) {
+                tier = new CompressedPageCache((long) (memoryPages - poolPages) * BufferPool.PAGE_SIZE);
+                bp.setCompressedCache(tier);
+            }
+            Random rand = new Random(42);
+            TransactionId tid = new TransactionId();
+            long start = System.nanoTime();
+            for (int i = 0; i < requests; i++) {
+                PageId pid = new HeapPageId(table.getId(), rand.nextInt(table.numPages()));
+                bp.getPage(tid, pid, Permissions.READ_ONLY);
+            }
+            long elapsed = System.nanoTime() - start;
+            bp.transactionComplete(tid);
+
+            long fileReads = bp.getMisses() - (tier == null ? 0 : tier.getHits());
+            System.out.printf("%-16s : %6d file reads, %6.1f ms", tiered ? "pool + tier" : "pool only",
+                    fileReads, elapsed / 1e6);
+            if (tier != null)
+                System.out.printf(", tier holds %d pages in %d pages of memory (%.1fx)",
+                        tier.getNumPages(), memoryPages - poolPages,
+                        (double) tier.getRawBytes() / tier.getUsedBytes());
+            System.out.println();
+        }
+        table.close();
+    }
+}
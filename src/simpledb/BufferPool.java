@@ -1,10 +1,23 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
-import java.util.HashMap;
+import java.util.NoSuchElementException;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 
 /**
@@ -17,7 +30,10 @@ import java.util.Set;
  * to read/write the page.
  */
 public class BufferPool {
-	/** Bytes per page, including header. */
+	/**
+	 * Bytes per page, including header, of files that do not choose their own
+	 * page size.  See {@link DbFile#getPageSize}.
+	 */
 	public static final int PAGE_SIZE = 4096;
 
 	/**
@@ -27,19 +43,343 @@ public class BufferPool {
 	 */
 	public static final int DEFAULT_PAGES = 500;
 
+	/**
+	 * Frames an off-heap pool allocates beyond its capacity, for pages that
+	 * are read before a page has been evicted to make room for them.
+	 */
+	public static final int SPARE_FRAMES = 16;
+
 	private int numPages;
-	private HashMap<PageId, Page> idToPage;
-	private LockManager lockManager;
+	// the pool holds as many bytes of pages as numPages pages of PAGE_SIZE
+	private long capacityBytes;
+	private long usedBytes;
+	// bytes of resident pages in each partition of the catalog, and the
+	// partition each resident page was counted in; guarded by this
+	private HashMap<String, Long> partitionBytes;
+	private HashMap<PageId, String> pagePartitions;
+	private ConcurrentHashMap<PageId, Page> idToPage;
+	private ConcurrentHashMap<PageId, Integer> frameBytes;
+	// requests for each resident page since it was loaded, saved for warm-up
+	private ConcurrentHashMap<PageId, AtomicInteger> accessCounts;
+	// pages in use by iterators, which must stay resident, and the pins
+	// each transaction holds, which go when it completes; guarded by this
+	private HashMap<PageId, Integer> pinCounts;
+	private HashMap<TransactionId, HashMap<PageId, Integer>> txPins;
+	private ReplacementPolicy policy;
+	private ReplacementPolicy.Evictable clean;
+	private ReplacementPolicy.Evictable unpinned;
+	// transactions with pages written to disk before they completed, or
+	// with changes to row-locked tables, which have UPDATE or ROW records in
+	// the log and must be rolled back if they abort
+	private Set<TransactionId> stolen;
+	// transactions that are committing or aborting, whose pages the page
+	// writer must leave alone; changed with this monitor held
+	private Set<TransactionId> completing;
+	// pages of committed transactions that are in the log but not yet on
+	// disk (NO-FORCE); they must be written before they can be evicted
+	private Set<PageId> unwritten;
+	private volatile boolean forceAtCommit = true;
+	private AtomicLong hits = new AtomicLong();
+	private AtomicLong misses = new AtomicLong();
+	// pages currently being read from disk, so that concurrent misses on the same page share one read
+	private ConcurrentHashMap<PageId, FutureTask<Page>> loading;
+	private volatile LockManager lockManager;
+	// off-heap frames pages are read into, or null to keep pages on the heap
+	private PageArena arena;
+	// the arena frame of each resident page that has one
+	private ConcurrentHashMap<PageId, Integer> frames;
+	// second tier that evicted clean pages go to, or null
+	private volatile CompressedPageCache compressed;
+	// old versions of the tuples of row-locked tables, for snapshot reads
+	private VersionStore versions;
 
 	/**
-	 * Creates a BufferPool that caches up to numPages pages.
+	 * Creates a BufferPool that caches up to numPages pages of PAGE_SIZE
+	 * bytes.  Space is accounted for in bytes, so the pool holds fewer pages
+	 * of tables with larger pages and more of tables with smaller ones.
 	 *
 	 * @param nPages maximum number of pages in this buffer pool.
 	 */
 	public BufferPool(int nPages) {
-		numPages = nPages;
-		idToPage = new HashMap<PageId, Page>();
+		this(nPages, new TwoQueuePolicy());
+	}
+
+	/**
+	 * Creates a BufferPool that caches up to numPages pages of PAGE_SIZE
+	 * bytes and uses the specified policy to choose which page to evict.
+	 * Pinned pages are never evicted, whatever the policy, and dirty pages
+	 * only once there is no clean page to evict.
+	 * <p>
+	 * The catalog can further split the pool: the pages of the tables in a
+	 * partition (see {@link Catalog#addPartition}) never take up more than
+	 * the partition's quota, as a page read into a full partition evicts
+	 * another page of the same partition, and the pages of pinned tables
+	 * (see {@link Catalog#setPinned}) are never evicted.
+	 *
+	 * @param nPages maximum number of pages in this buffer pool.
+	 * @param policy the replacement policy; not shared with any other pool
+	 */
+	public BufferPool(int nPages, ReplacementPolicy policy) {
+		this((long) nPages * PAGE_SIZE, policy, false);
+	}
+
+	/**
+	 * Creates a BufferPool that caches up to capacityBytes bytes of pages.
+	 * <p>
+	 * If offHeap is true, the pool allocates all its memory up front, as
+	 * a {@link PageArena} of PAGE_SIZE frames outside the Java heap, and
+	 * reads HeapFile pages straight into those frames.  Such pages decode
+	 * tuples out of their frame on demand and keep no tuples of their own,
+	 * so the heap holds little more than one small object per cached page,
+	 * however large the pool.  Pages of other files and other page sizes
+	 * are kept on the heap as usual.
+	 *
+	 * @param capacityBytes maximum number of bytes of pages in this pool
+	 * @param policy the replacement policy; not shared with any other pool
+	 * @param offHeap if true, keep page contents in off-heap frames
+	 */
+	public BufferPool(long capacityBytes, ReplacementPolicy policy, boolean offHeap) {
+		this.policy = policy;
+		this.clean = new ReplacementPolicy.Evictable() {
+			public boolean canEvict(PageId pid) {
+				Page p = idToPage.get(pid);
+				return p != null && p.isDirty() == null && !unwritten.contains(pid)
+						&& !pinCounts.containsKey(pid) && !isPinnedTable(pid);
+			}
+		};
+		this.unpinned = new ReplacementPolicy.Evictable() {
+			public boolean canEvict(PageId pid) {
+				return idToPage.containsKey(pid) && !pinCounts.containsKey(pid) && !isPinnedTable(pid);
+			}
+		};
+		numPages = (int) (capacityBytes / PAGE_SIZE);
+		this.capacityBytes = capacityBytes;
+		usedBytes = 0;
+		partitionBytes = new HashMap<String, Long>();
+		pagePartitions = new HashMap<PageId, String>();
+		idToPage = new ConcurrentHashMap<PageId, Page>();
+		frameBytes = new ConcurrentHashMap<PageId, Integer>();
+		accessCounts = new ConcurrentHashMap<PageId, AtomicInteger>();
+		pinCounts = new HashMap<PageId, Integer>();
+		txPins = new HashMap<TransactionId, HashMap<PageId, Integer>>();
+		loading = new ConcurrentHashMap<PageId, FutureTask<Page>>();
 		lockManager = new LockManager();
+		versions = new VersionStore();
+		stolen = Collections.newSetFromMap(new ConcurrentHashMap<TransactionId, Boolean>());
+		completing = Collections.newSetFromMap(new ConcurrentHashMap<TransactionId, Boolean>());
+		frames = new ConcurrentHashMap<PageId, Integer>();
+		if(offHeap)
+			arena = new PageArena(capacityBytes + (long) SPARE_FRAMES * PAGE_SIZE, PAGE_SIZE);
+		unwritten = Collections.newSetFromMap(new ConcurrentHashMap<PageId, Boolean>());
+		PageWriter.startFor(this);
+	}
+
+	/**
+	 * @return the maximum number of pages this buffer pool caches
+	 */
+	public int getCapacity() {
+		return numPages;
+	}
+
+	/**
+	 * @return the number of bytes of pages this buffer pool caches
+	 */
+	public long getCapacityBytes() {
+		return capacityBytes;
+	}
+
+	/**
+	 * @return the number of bytes taken up by the pages in the buffer pool
+	 */
+	public synchronized long getUsedBytes() {
+		return usedBytes;
+	}
+
+	/**
+	 * Chooses what a commit writes.  With force (the default) a commit writes
+	 * the transaction's dirty pages to their files.  Without it (NO-FORCE) a
+	 * commit only logs the pages and forces the log; the pages are written
+	 * later, when they are evicted or at a checkpoint, and
+	 * {@link LogFile#recover} redoes them after a crash.
+	 */
+	public void setForceAtCommit(boolean force) {
+		forceAtCommit = force;
+	}
+
+	/**
+	 * Chooses how transactions waiting for each other's locks are kept from
+	 * deadlocking; see {@link DeadlockPolicy}.  This replaces the lock
+	 * table, so it must be called before any transaction takes a lock.
+	 */
+	public void setDeadlockPolicy(DeadlockPolicy policy) {
+		LockManager lm = new LockManager(policy);
+		lm.setEscalationThreshold(lockManager.getEscalationThreshold());
+		lockManager = lm;
+	}
+
+	/**
+	 * @return the policy that keeps lock waits from deadlocking
+	 */
+	public DeadlockPolicy getDeadlockPolicy() {
+		return lockManager.getDeadlockPolicy();
+	}
+
+	/**
+	 * Sets how many page locks a transaction may hold on one table before
+	 * they are escalated to a single lock on the table; see
+	 * {@link LockManager}.
+	 */
+	public void setLockEscalationThreshold(int pageLocks) {
+		lockManager.setEscalationThreshold(pageLocks);
+	}
+
+	public int getLockEscalationThreshold() {
+		return lockManager.getEscalationThreshold();
+	}
+
+	LockManager getLockManager() {
+		return lockManager;
+	}
+
+	VersionStore getVersionStore() {
+		return versions;
+	}
+
+	/**
+	 * Gives transaction tid a snapshot of the database as the transactions
+	 * committed so far left it.  Until tid completes, its scans of
+	 * row-locked tables (see {@link Catalog#setRowLocked}) return the
+	 * tuples of that snapshot, plus tid's own changes, without taking any
+	 * lock: they neither wait for writers nor hold writers up.  A tuple that
+	 * another transaction changed after the snapshot was taken can't be
+	 * deleted by tid, which aborts instead.
+	 * <p>
+	 * Tables locked by page keep no old versions, so tid still reads them
+	 * with shared page locks.  {@link Transaction#start} calls this.
+	 */
+	public void beginSnapshot(TransactionId tid) {
+		versions.beginSnapshot(tid);
+	}
+
+	/**
+	 * @return true if transaction tid reads the specified table from its
+	 *   snapshot, without locks; see {@link #beginSnapshot}
+	 */
+	public boolean readsSnapshot(TransactionId tid, int tableId) {
+		return versions.snapshotOf(tid) != null && Database.getCatalog().isRowLocked(tableId);
+	}
+
+	/**
+	 * Returns the tuples of a page of a row-locked table that transaction
+	 * tid sees from its snapshot, taking no lock.  The tuples are copies, as
+	 * the page may change as soon as this returns.
+	 *
+	 * @see #beginSnapshot
+	 */
+	public List<Tuple> snapshotTuples(TransactionId tid, HeapPageId pid) throws DbException {
+		long snapshot = versions.snapshotOf(tid);
+		// pinned so that the page read is the one writers change
+		pin(tid, pid);
+		try {
+			HeapPage page = (HeapPage) fetchPage(pid);
+			List<Tuple> tuples = new ArrayList<Tuple>();
+			synchronized (versions.latch(pid)) {
+				for(int slot = 0; slot < page.numSlots; slot++) {
+					byte[] tuple = versions.read(tid, snapshot, new RecordId(pid, slot), page.getSlotData(slot));
+					if(tuple != null)
+						tuples.add(page.tupleOf(slot, tuple));
+				}
+			}
+			return tuples;
+		} finally {
+			unpinPage(tid, pid);
+		}
+	}
+
+	/**
+	 * @return true if transaction tid has a snapshot that doesn't see the
+	 *   newest version of the specified tuple, so that tid must not change
+	 *   it.  Call with the tuple's lock held.
+	 */
+	public boolean changedSinceSnapshot(TransactionId tid, RecordId rid) {
+		return versions.changedSince(tid, rid);
+	}
+
+	/**
+	 * @return true if commits write the transaction's pages to their files
+	 */
+	public boolean getForceAtCommit() {
+		return forceAtCommit;
+	}
+
+	/**
+	 * @return the off-heap frames of this buffer pool, or null if it keeps
+	 *   pages on the heap
+	 */
+	public PageArena getArena() {
+		return arena;
+	}
+
+	/**
+	 * Adds a second cache tier that keeps the clean HeapFile pages this
+	 * pool evicts in compressed form; misses are served from it before the
+	 * file is read.  Pass null to remove the tier.
+	 */
+	public void setCompressedCache(CompressedPageCache cache) {
+		compressed = cache;
+	}
+
+	/**
+	 * @return the compressed second tier of this buffer pool, or null
+	 */
+	public CompressedPageCache getCompressedCache() {
+		return compressed;
+	}
+
+	/**
+	 * @return the replacement policy of this buffer pool
+	 */
+	public ReplacementPolicy getPolicy() {
+		return policy;
+	}
+
+	/**
+	 * @return the number of page requests served from the buffer pool.
+	 *   Pages read ahead count as hits when they are requested.
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * @return the number of page requests that had to read the page
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/** Resets the hit and miss counters. */
+	public void resetStatistics() {
+		hits.set(0);
+		misses.set(0);
+	}
+
+	/**
+	 * @return true if the specified page is in the buffer pool
+	 */
+	public boolean isResident(PageId pid) {
+		return idToPage.containsKey(pid);
+	}
+
+	/**
+	 * Returns the pages in the buffer pool, with the number of times each
+	 * has been requested since it was read.  See {@link WarmUp}.
+	 */
+	public Map<PageId, Integer> getResidentPages() {
+		Map<PageId, Integer> pages = new HashMap<PageId, Integer>();
+		for(Map.Entry<PageId, AtomicInteger> e : accessCounts.entrySet())
+			pages.put(e.getKey(), e.getValue().get());
+		return pages;
 	}
 
 	/**
@@ -59,31 +399,414 @@ public class BufferPool {
 	public Page getPage(TransactionId tid, PageId pid, Permissions perm)
 			throws TransactionAbortedException, DbException{
 
-	    // block until lock is acquired
+	    // block until lock is acquired; the thread sleeps while it waits
 		boolean readWritePermissions = perm != null && Permissions.READ_WRITE.permLevel == perm.permLevel;
-        while(!lockManager.lockPage(tid, pid, readWritePermissions))
-        	continue;
+		lockManager.acquireLock(tid, pid, readWritePermissions);
 
-        // evict pages if necessary
-        if(idToPage.size() >= numPages)
-        	evictPage();
+		Page page = fetchPage(pid);
+		// pages only keep a copy of their before image once someone may write them
+		if(readWritePermissions)
+			page.captureBeforeImage();
+		return page;
+	}
 
-		if(idToPage.containsKey(pid))
-			return idToPage.get(pid);
-		else {
+	/**
+	 * Retrieves the specified page like {@link #getPage}, without taking
+	 * any lock.
+	 */
+	Page fetchPage(PageId pid) throws DbException {
+		Page page = idToPage.get(pid);
+		if(page == null) {
+			misses.incrementAndGet();
+			page = loadPage(pid, false);
+		} else {
+			hits.incrementAndGet();
+		}
+		policy.pageAccessed(pid);
+		AtomicInteger accesses = accessCounts.get(pid);
+		if(accesses != null)
+			accesses.incrementAndGet();
+		return page;
+	}
+
+	/**
+	 * Retrieves the specified page like {@link #getPage} and pins it: the
+	 * page is not evicted until every pin on it has been released with
+	 * {@link #unpinPage}, or tid completes.  Iterators pin the page they
+	 * are reading so that the page they hold is the one other requests get.
+	 */
+	public Page pinPage(TransactionId tid, PageId pid, Permissions perm)
+			throws TransactionAbortedException, DbException {
+		// pin first, so the page can't be evicted between loading and returning it
+		pin(tid, pid);
+		boolean done = false;
+		try {
+			Page page = getPage(tid, pid, perm);
+			done = true;
+			return page;
+		} finally {
+			if(!done)
+				unpinPage(tid, pid);
+		}
+	}
+
+	/**
+	 * Retrieves and pins a page of a table locked by tuple (see
+	 * {@link Catalog#setRowLocked}) for transaction tid to change some of
+	 * its tuples.  Rather than a page lock, tid takes IX on the page and its
+	 * table, so that other transactions can change other tuples of the page
+	 * meanwhile; each tuple is locked with {@link #lockRow} and changed with
+	 * {@link #writeRow}.  Release the pin with {@link #unpinPage}.
+	 */
+	public HeapPage pinRowPage(TransactionId tid, PageId pid)
+			throws TransactionAbortedException, DbException {
+		pin(tid, pid);
+		boolean done = false;
+		try {
+			lockManager.acquireRowIntent(tid, pid);
+			HeapPage page = (HeapPage) fetchPage(pid);
+			done = true;
+			return page;
+		} finally {
+			if(!done)
+				unpinPage(tid, pid);
+		}
+	}
+
+	/**
+	 * Acquires an exclusive lock on the specified tuple of a row-locked
+	 * table for transaction tid, until it completes.
+	 *
+	 * @param wait if false, give up at once if another transaction holds
+	 *   the tuple
+	 * @return true if tid holds the tuple
+	 */
+	public boolean lockRow(TransactionId tid, RecordId rid, boolean wait)
+			throws TransactionAbortedException {
+		return lockManager.acquireRowLock(tid, rid, wait);
+	}
+
+	/** Return true if the specified transaction holds the lock on the specified tuple */
+	public boolean holdsRowLock(TransactionId tid, RecordId rid) {
+		return lockManager.holdsRowLock(tid, rid);
+	}
+
+	/**
+	 * Stores the specified tuple bytes (see {@link HeapPage#tupleData}) in a
+	 * slot of a page pinned by {@link #pinRowPage}, or empties the slot if
+	 * tuple is null.  Transaction tid must hold the slot's tuple lock.  The
+	 * change is logged before it is made (see {@link LogFile#logRowWrite}),
+	 * so the page may be written out at any time, and an abort undoes just
+	 * this slot.
+	 */
+	public void writeRow(TransactionId tid, HeapPage page, int slot, byte[] tuple)
+			throws IOException {
+		stolen.add(tid);
+		Database.getLogFile().logRowWrite(tid, page, slot, tuple);
+	}
+
+	private synchronized void pin(TransactionId tid, PageId pid) {
+		Integer count = pinCounts.get(pid);
+		pinCounts.put(pid, count == null ? 1 : count + 1);
+		HashMap<PageId, Integer> pins = txPins.get(tid);
+		if(pins == null) {
+			pins = new HashMap<PageId, Integer>();
+			txPins.put(tid, pins);
+		}
+		Integer held = pins.get(pid);
+		pins.put(pid, held == null ? 1 : held + 1);
+	}
+
+	/**
+	 * Releases one pin on the specified page, taken by {@link #pinPage}
+	 * for transaction tid.  Does nothing if tid holds no pin on the page,
+	 * as when tid has completed since.
+	 */
+	public synchronized void unpinPage(TransactionId tid, PageId pid) {
+		HashMap<PageId, Integer> pins = txPins.get(tid);
+		Integer held = pins == null ? null : pins.get(pid);
+		if(held == null)
+			return;
+		if(held == 1)
+			pins.remove(pid);
+		else
+			pins.put(pid, held - 1);
+		if(pins.isEmpty())
+			txPins.remove(tid);
+		release(pid, 1);
+	}
+
+	/**
+	 * Releases the pins transaction tid still holds, such as those of
+	 * iterators that were never closed.
+	 */
+	private synchronized void releasePins(TransactionId tid) {
+		HashMap<PageId, Integer> pins = txPins.remove(tid);
+		if(pins == null)
+			return;
+		for(Map.Entry<PageId, Integer> e : pins.entrySet())
+			release(e.getKey(), e.getValue());
+	}
+
+	private synchronized void release(PageId pid, int pins) {
+		int count = pinCounts.get(pid) - pins;
+		if(count == 0)
+			pinCounts.remove(pid);
+		else
+			pinCounts.put(pid, count);
+	}
+
+	/**
+	 * @return the number of pins held on the specified page
+	 */
+	public synchronized int getPinCount(PageId pid) {
+		Integer count = pinCounts.get(pid);
+		return count == null ? 0 : count;
+	}
+
+	/**
+	 * @return the number of pages in the buffer pool that are pinned
+	 */
+	public synchronized int getNumPinnedPages() {
+		int n = 0;
+		for(PageId pid : pinCounts.keySet())
+			if(idToPage.containsKey(pid))
+				n++;
+		return n;
+	}
+
+	/**
+	 * Reads the specified page into the buffer pool, evicting a page if the
+	 * pool is full. If another thread is already reading the same page, waits
+	 * for that read rather than issuing a second one.
+	 *
+	 * @param prefetch if true, give up and return null instead of throwing
+	 *        when no page can be evicted
+	 * @return the page now resident in the buffer pool
+	 */
+	private Page loadPage(final PageId pid, boolean prefetch) throws DbException {
+		while(true) {
+			// the arena frame the page is read into, if any
+			final int[] frame = { -1 };
+			FutureTask<Page> read = new FutureTask<Page>(new Callable<Page>() {
+				public Page call() throws IOException {
+					DbFile file = Database.getCatalog().getDbFile(pid.getTableId());
+					if(!(file instanceof HeapFile))
+						return file.readPage(pid);
+					HeapFile hf = (HeapFile) file;
+					CompressedPageCache tier = compressed;
+					if(arena != null && file.getPageSize() == arena.getFrameSize()) {
+						// with every frame in use the page goes on the heap
+						frame[0] = arena.allocate();
+						if(frame[0] >= 0) {
+							ByteBuffer f = arena.frame(frame[0]);
+							if(tier != null && tier.get(pid, f))
+								return hf.pageOf(pid, f, false);
+							return hf.readPage(pid, f);
+						}
+					}
+					if(tier != null) {
+						ByteBuffer image = ByteBuffer.allocate(file.getPageSize());
+						if(tier.get(pid, image))
+							return hf.pageOf(pid, image, true);
+					}
+					return file.readPage(pid);
+				}
+			});
+			FutureTask<Page> inFlight = loading.putIfAbsent(pid, read);
+			if(inFlight == null) {
+				try {
+					// the page may have been installed after our caller looked
+					Page resident = idToPage.get(pid);
+					if(resident != null)
+						return resident;
+					read.run();
+					return install(pid, waitFor(read), frame[0], prefetch);
+				} finally {
+					loading.remove(pid);
+				}
+			}
+
+			// someone else is reading this page; use their copy once it is resident
+			waitFor(inFlight);
+			Page resident = idToPage.get(pid);
+			if(resident != null || prefetch)
+				return resident;
+		}
+	}
+
+	/**
+	 * Puts a page just read into the buffer pool, evicting pages if the pool
+	 * is full, unless another copy of it became resident in the meantime.
+	 * Call with the page's entry in loading held.
+	 *
+	 * @param frame the arena frame the page was read into, or -1
+	 * @param prefetch if true, give up and return null instead of throwing
+	 *        when no page can be evicted
+	 * @return the page now resident in the buffer pool
+	 */
+	private synchronized Page install(PageId pid, Page fetchedPage, int frame, boolean prefetch)
+			throws DbException {
+		int size = Database.getCatalog().getPageSize(pid.getTableId());
+		String partition = Database.getCatalog().getPartition(pid.getTableId());
+		boolean installed = false;
+		try {
+			Page resident = idToPage.get(pid);
+			if(resident != null)
+				return resident;
+			// a full partition makes room among its own pages first
+			if(partition != null) {
+				long quota = (long) Database.getCatalog().getPartitionPages(partition) * PAGE_SIZE;
+				while(getPartitionBytes(partition) + size > quota && getPartitionBytes(partition) > 0) {
+					if(!prefetch)
+						evictPage(partition);
+					else if(!tryEvictPage(partition))
+						return null;
+				}
+			}
+			while(usedBytes + size > capacityBytes && !idToPage.isEmpty()) {
+				if(!prefetch)
+					evictPage(null);
+				else if(!tryEvictPage(null))
+					return null;
+			}
+			installed = true;
+		} finally {
+			if(!installed && frame >= 0) {
+				((HeapPage) fetchedPage).moveToHeap();
+				arena.free(frame);
+			}
+		}
+		if(frame >= 0)
+			frames.put(pid, frame);
+		idToPage.put(pid, fetchedPage);
+		frameBytes.put(pid, size);
+		accessCounts.put(pid, new AtomicInteger());
+		usedBytes += size;
+		if(partition != null) {
+			pagePartitions.put(pid, partition);
+			partitionBytes.put(partition, getPartitionBytes(partition) + size);
+		}
+		policy.pageAdded(pid);
+		return fetchedPage;
+	}
+
+	private Page waitFor(FutureTask<Page> read) throws DbException {
+		try {
+			return read.get();
+		} catch (ExecutionException e) {
+			throw new DbException("failed to read page: " + e.getCause());
+		} catch (InterruptedException e) {
+			throw new DbException("interrupted while reading page");
+		}
+	}
+
+	/**
+	 * Reads the specified page into the buffer pool ahead of time, without
+	 * taking any locks. Used by {@link ReadAhead} from a background thread.
+	 * Does nothing if the page is already resident, and never evicts a dirty
+	 * page to make room.
+	 */
+	public void prefetchPage(PageId pid) {
+		if(idToPage.containsKey(pid) || loading.containsKey(pid))
+			return;
+		try {
+			loadPage(pid, true);
+		} catch (Exception e) {
+			// read-ahead is only a hint; the reader will fetch the page itself
+		}
+	}
+
+	/**
+	 * Reads pages start to end - 1 of the specified table into the buffer
+	 * pool ahead of time, without taking any locks, with one read for each
+	 * run of consecutive pages that are neither resident nor being read.
+	 * Used by {@link ReadAhead} from a background thread.  Like
+	 * {@link #prefetchPage}, never evicts a dirty page to make room.
+	 */
+	public void prefetchPages(int tableId, int start, int end) {
+		DbFile file;
+		try {
+			file = Database.getCatalog().getDbFile(tableId);
+		} catch (NoSuchElementException e) {
+			// the table was dropped since the read-ahead was scheduled
+			return;
+		}
+		CompressedPageCache tier = compressed;
+		int p = start;
+		while(p < end) {
+			final int first = p;
+			final List<Page> pages = new ArrayList<Page>();
+			List<FutureTask<Page>> reads = new ArrayList<FutureTask<Page>>();
+			// claim pages until one is resident, being read or in the
+			// compressed tier, as loadPage would
+			for(; p < end && file instanceof HeapFile; p++) {
+				PageId pid = new HeapPageId(tableId, p);
+				if(idToPage.containsKey(pid) || (tier != null && tier.contains(pid)))
+					break;
+				final int k = reads.size();
+				FutureTask<Page> read = new FutureTask<Page>(new Callable<Page>() {
+					public Page call() {
+						// null if the read failed: the reader fetches the page itself
+						return k < pages.size() ? pages.get(k) : null;
+					}
+				});
+				if(loading.putIfAbsent(pid, read) != null)
+					break;
+				if(idToPage.containsKey(pid)) {
+					loading.remove(pid);
+					break;
+				}
+				reads.add(read);
+			}
+			if(reads.isEmpty()) {
+				prefetchPage(new HeapPageId(tableId, p++));
+				continue;
+			}
 			try {
-				DbFile dbf = Database.getCatalog().getDbFile(pid.getTableId());
-				Page fetchedPage = dbf.readPage(pid);
-				idToPage.put(pid, fetchedPage);
-				return fetchedPage;
+				pages.addAll(((HeapFile) file).readPages(first, reads.size()));
+				for(FutureTask<Page> read : reads)
+					read.run();
+				for(int k = 0; k < reads.size(); k++) {
+					if(install(new HeapPageId(tableId, first + k), waitFor(reads.get(k)), -1, true) == null)
+						break;
+				}
 			} catch (Exception e) {
-				e.printStackTrace();
-				System.exit(1);
-			}	
-			return null;
+				// read-ahead is only a hint
+			} finally {
+				// wakes anyone waiting for a page that wasn't installed
+				for(int k = 0; k < reads.size(); k++) {
+					reads.get(k).run();
+					loading.remove(new HeapPageId(tableId, first + k));
+				}
+			}
 		}
 	}
 
+	/**
+	 * Reads every page of the tables the catalog pins into the buffer pool,
+	 * so that they never miss.  Stops early, without evicting dirty pages,
+	 * if the pool fills up.
+	 *
+	 * @return the number of pages read
+	 * @see Catalog#setPinned
+	 */
+	public int preloadPinnedTables() {
+		int loaded = 0;
+		for(int tableId : Database.getCatalog().getPinnedTables()) {
+			DbFile file = Database.getCatalog().getDbFile(tableId);
+			int pages = WarmUp.numPages(file);
+			for(int p = 0; p < pages; p++) {
+				PageId pid = new HeapPageId(tableId, p);
+				prefetchPage(pid);
+				if(!isResident(pid))
+					return loaded;
+				loaded++;
+			}
+		}
+		return loaded;
+	}
+
 	/**
 	 * Releases the lock on a page. Calling this is very risky, and may result in
 	 * wrong behavior. Think hard about who needs to call this and why, and why they
@@ -120,21 +843,72 @@ public class BufferPool {
 	public void transactionComplete(TransactionId tid, boolean commit) throws IOException {
 		Set<PageId> lockedPageIds = lockManager.getPagesLockedByTx(tid);
 		if(lockedPageIds == null)
-			return;
+			lockedPageIds = Collections.emptySet();
 
-		for(PageId pid : lockedPageIds) {
-		    // pages missing from the buffer pool cannot be dirty, so we can ignore them
-			if(!idToPage.containsKey(pid))
-				continue;
-			Page p = idToPage.get(pid);
-			if(p.isDirty() != null)
-				if(commit)
-					flushPage(pid);
-				else
-					discardPage(pid);
+		// once this is set the page writer no longer steals tid's pages, so
+		// the log and the pages below are tid's to settle; pins of iterators
+		// tid left open go now
+		synchronized (this) {
+			completing.add(tid);
+			releasePins(tid);
+		}
+		try {
+			complete(tid, commit, lockedPageIds);
+		} finally {
+			completing.remove(tid);
+		}
+	}
+
+	private void complete(TransactionId tid, boolean commit, Set<PageId> lockedPageIds) throws IOException {
+		LogFile log = Database.getLogFile();
+		if(commit) {
+			if(forceAtCommit)
+				flushPages(lockedPageIds, false);
+			else
+				logPages(tid, lockedPageIds);
+			stolen.remove(tid);
+			// the commit record makes the logged pages stick
+			if(log.isActive(tid))
+				log.logCommit(tid);
+			versions.committed(tid);
+			versions.endSnapshot(tid);
+			// the committed contents are the before image for the next writer
+			for(PageId pid : lockedPageIds) {
+				Page p = idToPage.get(pid);
+				if(p != null)
+					p.setBeforeImage();
+			}
+		} else {
+			// one step as far as a checkpoint is concerned, which would
+			// otherwise log and write the pages the log rolled back as tid's
+			// changes, and so keep them, before they are discarded
+			synchronized (this) {
+				if(stolen.remove(tid)) {
+					// some of its pages reached the disk: put back their before images
+					log.logAbort(tid);
+				}
+				versions.aborted(tid);
+				versions.endSnapshot(tid);
+				for(PageId pid : lockedPageIds) {
+					// pages missing from the buffer pool cannot be dirty, so we can ignore them
+					Page p = idToPage.get(pid);
+					if(p == null)
+						continue;
+					// pages locked by tuple may be dirty with other transactions'
+					// changes; the log rolled back this one's
+					if(p.isDirty() != null && !isRowLocked(pid)) {
+						// an earlier commit's changes may exist only in memory and the log
+						if(unwritten.contains(pid))
+							restorePage(pid, p.getBeforeImage());
+						else
+							discardPage(pid);
+					}
+				}
+			}
 		}
 
 		lockManager.unlockAllPages(tid);
+		versions.collect();
 	}
 
 	/**
@@ -152,9 +926,9 @@ public class BufferPool {
 	 */
 	public void insertTuple(TransactionId tid, int tableId, Tuple t)
 			throws DbException, TransactionAbortedException {
-	    HeapFile hf = (HeapFile) Database.getCatalog().getDbFile(tableId);
+	    DbFile file = Database.getCatalog().getDbFile(tableId);
 	    try {
-	    	hf.addTuple(tid, t);
+	    	file.addTuple(tid, t);
 		} catch (IOException ioe) {
 	    	ioe.printStackTrace();
 	    	System.exit(1);
@@ -175,8 +949,8 @@ public class BufferPool {
 	 */
 	public void deleteTuple(TransactionId tid, Tuple t) throws DbException, TransactionAbortedException {
 		int tableId = t.getRecordId().getPageId().getTableId();
-		HeapFile hf = (HeapFile) Database.getCatalog().getDbFile(tableId);
-		hf.deleteTuple(tid, t);
+		DbFile file = Database.getCatalog().getDbFile(tableId);
+		file.deleteTuple(tid, t);
 	}
 
 	/**
@@ -184,10 +958,7 @@ public class BufferPool {
 	 * dirty data to disk so will break simpledb if running in NO STEAL mode.
 	 */
 	public synchronized void flushAllPages() throws IOException {
-		Set<PageId> pids = new HashSet<PageId>(idToPage.keySet());
-		for(PageId pid : pids) {
-			flushPage(pid);
-		}
+		flushPages(new HashSet<PageId>(idToPage.keySet()), false);
 	}
 
 	/**
@@ -196,7 +967,47 @@ public class BufferPool {
 	 * cache.
 	 */
 	public synchronized void discardPage(PageId pid) {
-	    idToPage.remove(pid);
+		CompressedPageCache tier = compressed;
+		if(tier != null)
+			tier.remove(pid);
+	    removePage(pid);
+	}
+
+	private synchronized void removePage(PageId pid) {
+		unwritten.remove(pid);
+		Page p = idToPage.remove(pid);
+		releaseFrame(pid, p);
+		if(p != null) {
+			int size = frameBytes.remove(pid);
+			usedBytes -= size;
+			String partition = pagePartitions.remove(pid);
+			if(partition != null)
+				partitionBytes.put(partition, getPartitionBytes(partition) - size);
+			accessCounts.remove(pid);
+			policy.pageRemoved(pid);
+		}
+	}
+
+	/**
+	 * Replaces a resident page with the specified copy of it, such as its
+	 * before image when its writer aborts.
+	 */
+	private synchronized void restorePage(PageId pid, Page p) {
+		if(idToPage.containsKey(pid))
+			releaseFrame(pid, idToPage.put(pid, p));
+	}
+
+	/**
+	 * Gives the arena frame of a page that is leaving the buffer pool back to
+	 * the arena.  The page's contents are copied to the heap first, for
+	 * anyone still using the page.
+	 */
+	private synchronized void releaseFrame(PageId pid, Page p) {
+		Integer frame = frames.remove(pid);
+		if(frame == null)
+			return;
+		((HeapPage) p).moveToHeap();
+		arena.free(frame);
 	}
 
 	/**
@@ -221,31 +1032,218 @@ public class BufferPool {
 	 * Write all pages of the specified transaction to disk.
 	 */
 	public synchronized void flushPages(TransactionId tid) throws IOException {
-		// some code goes here
-		// not necessary for lab1|lab2|lab3
+		Set<PageId> pids = lockManager.getPagesLockedByTx(tid);
+		if(pids != null)
+			flushPages(pids, false);
+	}
+
+	/**
+	 * Writes the dirty pages among the specified ones to disk, one batch per
+	 * file in page number order, so that runs of neighbouring pages go out
+	 * in one write and each file is forced to disk once.
+	 * <p>
+	 * The pages may belong to transactions that have not committed yet, so
+	 * each page's before and after images are logged, and the log forced,
+	 * before any page is written (write-ahead logging).  A page is marked
+	 * clean before its image is taken; if it changes while it is being
+	 * written, it is dirty again afterwards.  Pages committed without force
+	 * are already in the log and are written as they are.
+	 * <p>
+	 * Pages of row-locked tables log every change as it is made, so they
+	 * need no UPDATE record.  Other transactions may be changing them while
+	 * they are written, so a copy of each is taken before the log is
+	 * forced, and the copy is written.
+	 * <p>
+	 * The batch is logged and written with this pool's monitor held, as an
+	 * abort restores and discards pages with it held (see
+	 * {@link LogFile#logAbort}).  A steal, which writes pages of other
+	 * transactions than the caller, skips the pages that are pinned, and so
+	 * may be in the middle of a change, and those of transactions that are
+	 * completing, whose log records and pages it would race with.  Pages of
+	 * row-locked tables are logged a change at a time and can always be
+	 * written.
+	 *
+	 * @param steal true if the pages are written on behalf of no transaction
+	 * @return the number of pages written
+	 */
+	private synchronized int flushPages(Collection<PageId> pids, boolean steal) throws IOException {
+		LogFile log = Database.getLogFile();
+		Map<Integer, List<Page>> dirtyByTable = new HashMap<Integer, List<Page>>();
+		for(PageId pid : pids) {
+			// a page discarded since the caller chose it is not written
+			Page p = idToPage.get(pid);
+			if(p == null)
+				continue;
+			TransactionId dirtier = p.isDirty();
+			if(steal && (pinCounts.containsKey(pid)
+					|| (dirtier != null && completing.contains(dirtier) && !isRowLocked(pid))))
+				continue;
+			boolean committed = unwritten.remove(pid);
+			if(dirtier == null && !committed)
+				continue;
+			boolean rowLocked = isRowLocked(pid);
+			if(dirtier != null) {
+				p.markDirty(false, null);
+				if(!rowLocked) {
+					log.logWrite(dirtier, p.getBeforeImage(), p);
+					stolen.add(dirtier);
+				}
+			}
+			if(rowLocked)
+				p = new HeapPage((HeapPageId) pid, p.getPageData());
+			// the second tier's copy no longer matches the file
+			CompressedPageCache tier = compressed;
+			if(tier != null)
+				tier.remove(pid);
+			List<Page> dirty = dirtyByTable.get(pid.getTableId());
+			if(dirty == null) {
+				dirty = new ArrayList<Page>();
+				dirtyByTable.put(pid.getTableId(), dirty);
+			}
+			dirty.add(p);
+		}
+
+		if(dirtyByTable.isEmpty())
+			return 0;
+		log.force();
+		int written = 0;
+		for(Map.Entry<Integer, List<Page>> e : dirtyByTable.entrySet()) {
+			List<Page> dirty = e.getValue();
+			Collections.sort(dirty, new Comparator<Page>() {
+				public int compare(Page a, Page b) {
+					return Integer.compare(a.getId().pageno(), b.getId().pageno());
+				}
+			});
+			Database.getCatalog().getDbFile(e.getKey()).writePages(dirty);
+			written += dirty.size();
+		}
+		return written;
+	}
+
+	/**
+	 * Logs the pages the specified transaction dirtied, for a commit without
+	 * force.  The pages stay in the buffer pool, clean but unwritten, until
+	 * they are flushed.
+	 */
+	private void logPages(TransactionId tid, Collection<PageId> pids) throws IOException {
+		LogFile log = Database.getLogFile();
+		for(PageId pid : pids) {
+			Page p = idToPage.get(pid);
+			if(p == null || !tid.equals(p.isDirty()) || isRowLocked(pid))
+				continue;
+			log.logWrite(tid, p.getBeforeImage(), p);
+			// unwritten before clean, so the page writer never sees it as neither
+			unwritten.add(pid);
+			p.markDirty(false, null);
+		}
+	}
+
+	/**
+	 * Writes every dirty page that is not pinned to disk, except those of
+	 * transactions that are completing.  Called by the {@link PageWriter}
+	 * so that eviction finds clean pages.
+	 *
+	 * @return the number of pages written
+	 */
+	int flushUnpinnedPages() throws IOException {
+		List<PageId> pids = new ArrayList<PageId>();
+		synchronized (this) {
+			for(Map.Entry<PageId, Page> e : idToPage.entrySet())
+				if((e.getValue().isDirty() != null || unwritten.contains(e.getKey()))
+						&& !pinCounts.containsKey(e.getKey()))
+					pids.add(e.getKey());
+		}
+		return flushPages(pids, true);
+	}
+
+	/**
+	 * @return the number of bytes taken up by pages that differ from their
+	 *   copy on disk, including committed pages not written yet
+	 */
+	public long getDirtyBytes() {
+		long dirty = 0;
+		for(Map.Entry<PageId, Page> e : idToPage.entrySet()) {
+			Integer size = frameBytes.get(e.getKey());
+			if((e.getValue().isDirty() != null || unwritten.contains(e.getKey())) && size != null)
+				dirty += size;
+		}
+		return dirty;
+	}
+
+	/**
+	 * @return the number of bytes taken up by the pages of the specified
+	 *   partition of the catalog
+	 */
+	public synchronized long getPartitionBytes(String partition) {
+		Long bytes = partitionBytes.get(partition);
+		return bytes == null ? 0 : bytes;
+	}
+
+	private boolean isPinnedTable(PageId pid) {
+		return Database.getCatalog().isPinned(pid.getTableId());
+	}
+
+	private boolean isRowLocked(PageId pid) {
+		return Database.getCatalog().isRowLocked(pid.getTableId());
 	}
 
 	/**
-	 * Discards a page from the buffer pool. Flushes the page to disk to ensure
-	 * dirty pages are updated on disk.
+	 * Narrows the specified choice of pages to those of a partition.
+	 *
+	 * @param partition the partition, or null to leave the choice alone
 	 */
-	private synchronized void evictPage() throws DbException {
-	    // page eviction algorithm is NO-STEAL (meaning we dont evict dirty pages that are locked because they will
-		// interrupt an ongoing transaction). Since all modified pages are flushed upon committing a transaction, all
-		// current dirty pages must be locked as well
+	private ReplacementPolicy.Evictable in(final String partition, final ReplacementPolicy.Evictable evictable) {
+		if(partition == null)
+			return evictable;
+		return new ReplacementPolicy.Evictable() {
+			public boolean canEvict(PageId pid) {
+				return partition.equals(pagePartitions.get(pid)) && evictable.canEvict(pid);
+			}
+		};
+	}
 
-		PageId pageIdToEvict = null;
-		for(Map.Entry<PageId, Page> entry : idToPage.entrySet()) {
-			if(entry.getValue().isDirty() == null) {
-				pageIdToEvict = entry.getKey();
-				break;
+	/**
+	 * Discards a page from the buffer pool.  If every page is dirty, writes
+	 * the dirty pages that are not pinned to disk first (STEAL); the log
+	 * records written with them let an abort undo them.
+	 *
+	 * @param partition the partition to evict a page of, or null for any page
+	 */
+	private synchronized void evictPage(String partition) throws DbException {
+		while(!tryEvictPage(partition)) {
+			if(policy.chooseVictim(in(partition, unpinned)) == null)
+				throw new DbException("All pages in the buffer pool are pinned. Cannot perform page eviction");
+			int written;
+			try {
+				written = flushUnpinnedPages();
+			} catch (IOException e) {
+				throw new DbException("unable to write dirty pages: " + e);
 			}
+			// what is left belongs to transactions that are completing
+			if(written == 0)
+				throw new DbException("All unpinned pages in the buffer pool are dirty. Cannot perform page eviction");
 		}
+	}
 
+	/**
+	 * Evicts a clean, unpinned page if there is one.
+	 *
+	 * @param partition the partition to evict a page of, or null for any page
+	 * @return false if every page in the buffer pool is dirty or pinned
+	 */
+	private synchronized boolean tryEvictPage(String partition) {
+		PageId pageIdToEvict = policy.chooseVictim(in(partition, clean));
 		if(pageIdToEvict == null)
-			throw new DbException("All pages in the buffer pool are dirty. Cannot perform page eviction");
-		else
-			idToPage.remove(pageIdToEvict);
+			return false;
+		// the page is clean, so the second tier's copy will match the file
+		CompressedPageCache tier = compressed;
+		Page p = idToPage.get(pageIdToEvict);
+		byte[] image = tier != null && p instanceof HeapPage && !tier.contains(pageIdToEvict)
+				? p.getPageData() : null;
+		removePage(pageIdToEvict);
+		if(image != null)
+			tier.put(pageIdToEvict, image);
+		return true;
 	}
 
 }
@@ -19,6 +19,11 @@ public class Catalog {
 	private HashMap<String, DbFile> nameToDbFile;
 	private HashMap<Integer, DbFile> idToDbFile;
 	private HashMap<Integer, String> idToPrimaryKey;
+	// buffer pool partition of each table that has one, and the page quota of each partition
+	private HashMap<Integer, String> idToPartition;
+	private HashMap<String, Integer> partitionPages;
+	private HashSet<Integer> pinnedTables;
+	private HashSet<Integer> rowLockedTables;
     /**
      * Constructor.
      * Creates a new, empty catalog.
@@ -28,6 +33,10 @@ public class Catalog {
     	nameToDbFile = new HashMap<String, DbFile>();
     	idToDbFile = new HashMap<Integer, DbFile>();
     	idToPrimaryKey = new HashMap<Integer, String>();
+    	idToPartition = new HashMap<Integer, String>();
+    	partitionPages = new HashMap<String, Integer>();
+    	pinnedTables = new HashSet<Integer>();
+    	rowLockedTables = new HashSet<Integer>();
     }
 
     /**
@@ -82,6 +91,15 @@ public class Catalog {
         return getDbFile(tableid).getTupleDesc();
     }
 
+    /**
+     * Returns the number of bytes per page of the specified table
+     * @param tableid The id of the table, as specified by the DbFile.getId()
+     *     function passed to addTable
+     */
+    public int getPageSize(int tableid) throws NoSuchElementException {
+        return getDbFile(tableid).getPageSize();
+    }
+
     /**
      * Returns the DbFile that can be used to read the contents of the
      * specified table.
@@ -95,12 +113,127 @@ public class Catalog {
     		return idToDbFile.get(tableid);
     }
 
-    /** Delete all tables from the catalog */
+    /** Delete all tables from the catalog, closing their files */
     public void clear() {
         // some code goes here
+    	for(DbFile file : idToDbFile.values()) {
+    		try {
+    			file.close();
+    		} catch(IOException e) {
+    			e.printStackTrace();
+    		}
+    	}
     	nameToDbFile.clear();
     	idToDbFile.clear();
     	idToPrimaryKey.clear();
+    	idToPartition.clear();
+    	partitionPages.clear();
+    	pinnedTables.clear();
+    	rowLockedTables.clear();
+    }
+
+    /**
+     * Declares a buffer pool partition that may hold at most the specified
+     * number of pages of BufferPool.PAGE_SIZE bytes, replacing any earlier
+     * quota for it.  Tables are put in a partition with
+     * {@link #setPartition}; the tables of a partition share its quota, and
+     * a table in no partition is limited only by the size of the pool.
+     */
+    public void addPartition(String name, int pages) {
+    	partitionPages.put(name, pages);
+    }
+
+    /**
+     * Puts the specified table in the specified buffer pool partition, or
+     * in none if partition is null.
+     *
+     * @throws NoSuchElementException if the partition has not been declared
+     */
+    public void setPartition(int tableid, String partition) {
+    	if(partition == null) {
+    		idToPartition.remove(tableid);
+    		return;
+    	}
+    	if(!partitionPages.containsKey(partition))
+    		throw new NoSuchElementException("no partition " + partition);
+    	idToPartition.put(tableid, partition);
+    }
+
+    /**
+     * @return the buffer pool partition of the specified table, or null
+     */
+    public String getPartition(int tableid) {
+    	return idToPartition.get(tableid);
+    }
+
+    /**
+     * @return the number of pages the specified partition may hold
+     * @throws NoSuchElementException if the partition has not been declared
+     */
+    public int getPartitionPages(String partition) {
+    	Integer pages = partitionPages.get(partition);
+    	if(pages == null)
+    		throw new NoSuchElementException("no partition " + partition);
+    	return pages;
+    }
+
+    /**
+     * Pins or unpins all the pages of the specified table in the buffer
+     * pool: once read, a page of a pinned table is never evicted.  Meant for
+     * small tables that are read all the time.
+     *
+     * @see BufferPool#preloadPinnedTables
+     */
+    public void setPinned(int tableid, boolean pinned) {
+    	if(pinned)
+    		pinnedTables.add(tableid);
+    	else
+    		pinnedTables.remove(tableid);
+    }
+
+    /**
+     * @return true if the pages of the specified table are pinned in the
+     *   buffer pool
+     */
+    public boolean isPinned(int tableid) {
+    	return pinnedTables.contains(tableid);
+    }
+
+    /**
+     * @return the ids of the tables whose pages are pinned in the buffer pool
+     */
+    public Set<Integer> getPinnedTables() {
+    	return Collections.unmodifiableSet(pinnedTables);
+    }
+
+    /**
+     * Switches the specified table between page and tuple locking.  Writers
+     * of a row-locked table lock just the tuples they insert or delete, so
+     * transactions changing different tuples of the same page run at the
+     * same time; readers still lock whole pages.  Meant for small tables
+     * that many transactions update.  Changes to such a table are logged,
+     * and undone on abort, tuple by tuple.  Only plain HeapFiles can be
+     * locked by tuple, and the switch must be made while no transaction
+     * has written the table.
+     *
+     * @throws IllegalArgumentException if the table is not stored in a HeapFile
+     * @see BufferPool#pinRowPage
+     */
+    public void setRowLocked(int tableid, boolean rowLocked) {
+    	if(rowLocked && getDbFile(tableid).getClass() != HeapFile.class)
+    		throw new IllegalArgumentException("only heap files can be locked by tuple");
+    	if(rowLocked)
+    		rowLockedTables.add(tableid);
+    	else
+    		rowLockedTables.remove(tableid);
+    }
+
+    /**
+     * @return true if writers of the specified table lock tuples rather
+     *   than pages
+     */
+    public boolean isRowLocked(int tableid) {
+    	return rowLockedTables.contains(tableid);
     }
 
     public String getPrimaryKey(int tableid) {
@@ -121,6 +254,36 @@ public class Catalog {
     
     /**
      * Reads the schema from a file and creates the appropriate tables in the database.
+     * Each line describes one table:
+     * <pre>
+     *     name (field type [pk], field type, ...) [option ...]
+     * </pre>
+     * or declares a buffer pool partition that may hold up to N pages:
+     * <pre>
+     *     partition name N
+     * </pre>
+     * Table options:
+     * <ul>
+     * <li><code>mmap</code> reads the table's pages out of a memory mapping
+     *   of its file.
+     * <li><code>slotted</code> stores the table as a {@link SlottedFile},
+     *   with variable length records, instead of a HeapFile.
+     * <li><code>pax</code> stores the table as a {@link PaxFile}, which
+     *   keeps each column of a page together.  Can be combined with
+     *   <code>mmap</code>.
+     * <li><code>pagesize=N</code> gives the table's file pages of N bytes
+     *   instead of BufferPool.PAGE_SIZE.  N must be between 512 and 65536.
+     *   The file must have been written with the same page size.
+     * <li><code>partition=P</code> puts the table in buffer pool partition
+     *   P, which must be declared on an earlier line.
+     * <li><code>quota=N</code> limits the table to N pages of the buffer
+     *   pool, through a partition of its own named after the table.
+     * <li><code>pinned</code> keeps every page of the table in the buffer
+     *   pool once it has been read.
+     * <li><code>rowlocks</code> has writers lock the tuples they change
+     *   rather than whole pages; see {@link #setRowLocked}.  Not supported
+     *   for slotted and pax tables.
+     * </ul>
      * @param catalogFile
      */
     public void loadSchema(String catalogFile) {
@@ -129,6 +292,16 @@ public class Catalog {
             BufferedReader br = new BufferedReader(new FileReader(new File(catalogFile)));
 
             while ((line = br.readLine()) != null) {
+                String[] words = line.trim().split("\\s+");
+                if (words[0].equals("partition") && line.indexOf("(") < 0) {
+                    try {
+                        addPartition(words[1], Integer.parseInt(words[2]));
+                    } catch (NumberFormatException e) {
+                        System.out.println("Invalid page count in partition " + words[1]);
+                        System.exit(0);
+                    }
+                    continue;
+                }
                 //assume line is of the format name (field type, field type, ...)
                 String name = line.substring(0, line.indexOf("(")).trim();
                 //System.out.println("TABLE NAME: " + name);
@@ -157,11 +330,95 @@ public class Catalog {
                         }
                     }
                 }
+                // anything after the closing paren is a list of table options
+                boolean memoryMapped = false;
+                boolean slotted = false;
+                boolean pax = false;
+                int pageSize = BufferPool.PAGE_SIZE;
+                String partition = null;
+                int quota = -1;
+                boolean pinned = false;
+                boolean rowLocked = false;
+                String options = line.substring(line.indexOf(")") + 1).trim();
+                for (String option : options.split("\\s+")) {
+                    if (option.isEmpty())
+                        continue;
+                    if (option.toLowerCase().equals("mmap"))
+                        memoryMapped = true;
+                    else if (option.toLowerCase().equals("slotted"))
+                        slotted = true;
+                    else if (option.toLowerCase().equals("pax"))
+                        pax = true;
+                    else if (option.toLowerCase().startsWith("pagesize=")) {
+                        try {
+                            pageSize = Integer.parseInt(option.substring("pagesize=".length()));
+                        } catch (NumberFormatException e) {
+                            pageSize = -1;
+                        }
+                        if (pageSize < 512 || pageSize > SlottedPage.MAX_PAGE_SIZE) {
+                            System.out.println("Invalid page size in option " + option);
+                            System.exit(0);
+                        }
+                    } else if (option.toLowerCase().startsWith("partition=")) {
+                        partition = option.substring("partition=".length());
+                        if (!partitionPages.containsKey(partition)) {
+                            System.out.println("Undeclared partition in option " + option);
+                            System.exit(0);
+                        }
+                    } else if (option.toLowerCase().startsWith("quota=")) {
+                        try {
+                            quota = Integer.parseInt(option.substring("quota=".length()));
+                        } catch (NumberFormatException e) {
+                            quota = -1;
+                        }
+                        if (quota < 1) {
+                            System.out.println("Invalid page count in option " + option);
+                            System.exit(0);
+                        }
+                    } else if (option.toLowerCase().equals("pinned")) {
+                        pinned = true;
+                    } else if (option.toLowerCase().equals("rowlocks")) {
+                        rowLocked = true;
+                    } else {
+                        System.out.println("Unknown table option " + option);
+                        System.exit(0);
+                    }
+                }
+                if (slotted && memoryMapped) {
+                    System.out.println("Option mmap is not supported for slotted table " + name);
+                    System.exit(0);
+                }
+                if (slotted && pax) {
+                    System.out.println("Options slotted and pax can not be combined for table " + name);
+                    System.exit(0);
+                }
+                if (rowLocked && (slotted || pax)) {
+                    System.out.println("Option rowlocks is only supported for heap tables, not " + name);
+                    System.exit(0);
+                }
+                if (partition != null && quota > 0) {
+                    System.out.println("Options partition and quota can not be combined for table " + name);
+                    System.exit(0);
+                }
                 Type[] typeAr = types.toArray(new Type[0]);
                 String[] namesAr = names.toArray(new String[0]);
                 TupleDesc t = new TupleDesc(typeAr, namesAr);
-                HeapFile tabHf = new HeapFile(new File(name + ".dat"), t);
+                DbFile tabHf;
+                if (slotted)
+                    tabHf = new SlottedFile(new File(name + ".dat"), t, pageSize);
+                else if (pax)
+                    tabHf = new PaxFile(new File(name + ".dat"), t, memoryMapped, pageSize);
+                else
+                    tabHf = new HeapFile(new File(name + ".dat"), t, memoryMapped, pageSize);
                 addTable(tabHf,name,primaryKey);
+                if (quota > 0) {
+                    addPartition(name, quota);
+                    partition = name;
+                }
+                if (partition != null)
+                    setPartition(tabHf.getId(), partition);
+                setPinned(tabHf.getId(), pinned);
+                setRowLocked(tabHf.getId(), rowLocked);
                 System.out.println("Added table : " + name + " with schema " + t);
             }
         } catch (IOException e) {
@@ -0,0 +1,59 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * ClockPolicy is the CLOCK (second chance) approximation of LRU.  Resident
+ * pages sit on a circular list with a reference bit each.  Requesting a
+ * page sets its bit; to find a victim, the clock hand sweeps the list,
+ * clearing set bits, and stops at the first evictable page whose bit was
+ * already clear.
+ * <p>
+ * CLOCK is cheap, but, like LRU, a long scan sets the bits of all of its
+ * pages and pushes everything else out.
+ */
+public class ClockPolicy implements ReplacementPolicy {
+    private final ArrayList<PageId> ring = new ArrayList<PageId>();
+    private final HashMap<PageId, Boolean> referenced = new HashMap<PageId, Boolean>();
+    private int hand = 0;
+
+    public synchronized void pageAdded(PageId pid) {
+        if (referenced.containsKey(pid))
+            return;
+        // new pages go just behind the hand, so they are looked at last
+        ring.add(hand, pid);
+        hand = (hand + 1) % ring.size();
+        referenced.put(pid, false);
+    }
+
+    public synchronized void pageAccessed(PageId pid) {
+        if (referenced.containsKey(pid))
+            referenced.put(pid, true);
+    }
+
+    public synchronized void pageRemoved(PageId pid) {
+        if (referenced.remove(pid) == null)
+            return;
+        int i = ring.indexOf(pid);
+        ring.remove(i);
+        if (i < hand)
+            hand--;
+        if (hand >= ring.size())
+            hand = 0;
+    }
+
+    public synchronized PageId chooseVictim(Evictable evictable) {
+        // two sweeps clear every bit, so a third cannot find anything new
+        for (int step = 0; step < 2 * ring.size(); step++) {
+            PageId pid = ring.get(hand);
+            hand = (hand + 1) % ring.size();
+            if (referenced.get(pid)) {
+                referenced.put(pid, false);
+                continue;
+            }
+            if (evictable.canEvict(pid))
+                return pid;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,141 @@
+package simpledb;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * CompressedPageCache is a second cache tier behind the buffer pool.  When
+ * the pool evicts a clean HeapFile page it hands the page's image to this
+ * cache, which keeps it compressed with {@link PageCompressor}.  A later
+ * miss on the page in the pool is served by decompressing it from here
+ * instead of reading the file.  Pages padded with empty STRING slots shrink
+ * several times over, so the two tiers together hold far more of the
+ * working set than the pool alone.
+ * <p>
+ * Only clean pages are added.  A page read back into the pool stays here
+ * too, so evicting it again costs no compression, until the pool writes it
+ * to the file or discards it for rollback or recovery; then the pool drops
+ * it from this cache, so the copies here never differ from the file.  When
+ * the cache is full it drops its least recently added pages.
+ *
+ * @see BufferPool#setCompressedCache
+ */
+public class CompressedPageCache {
+    private final long capacityBytes;
+    private long usedBytes;
+    private long rawBytes;
+    private long hits;
+    private long misses;
+    // compressed images in insertion order, oldest first; guarded by this
+    private final LinkedHashMap<PageId, byte[]> pages = new LinkedHashMap<PageId, byte[]>();
+    // uncompressed size of each page
+    private final Map<PageId, Integer> sizes = new HashMap<PageId, Integer>();
+
+    /**
+     * Creates a cache holding up to the specified number of bytes of
+     * compressed pages.
+     */
+    public CompressedPageCache(long capacityBytes) {
+        this.capacityBytes = capacityBytes;
+    }
+
+    /**
+     * Adds the image of a clean page, replacing any older copy.  Images
+     * that don't compress to less than the capacity are not kept.
+     */
+    public void put(PageId pid, byte[] image) {
+        byte[] compressed = PageCompressor.compress(image);
+        synchronized (this) {
+            remove(pid);
+            if (compressed.length > capacityBytes)
+                return;
+            Iterator<Map.Entry<PageId, byte[]>> oldest = pages.entrySet().iterator();
+            while (usedBytes + compressed.length > capacityBytes) {
+                Map.Entry<PageId, byte[]> e = oldest.next();
+                usedBytes -= e.getValue().length;
+                rawBytes -= sizes.remove(e.getKey());
+                oldest.remove();
+            }
+            pages.put(pid, compressed);
+            sizes.put(pid, image.length);
+            usedBytes += compressed.length;
+            rawBytes += image.length;
+        }
+    }
+
+    /**
+     * Decompresses the specified page into dst, which must hold exactly one
+     * page.
+     *
+     * @return false, leaving dst alone, if the page is not cached
+     */
+    public boolean get(PageId pid, ByteBuffer dst) {
+        byte[] compressed;
+        synchronized (this) {
+            compressed = pages.get(pid);
+            if (compressed == null) {
+                misses++;
+                return false;
+            }
+            hits++;
+        }
+        PageCompressor.decompress(compressed, dst);
+        return true;
+    }
+
+    /**
+     * Drops the specified page from the cache, if it is there.
+     */
+    public synchronized void remove(PageId pid) {
+        byte[] compressed = pages.remove(pid);
+        if (compressed != null) {
+            usedBytes -= compressed.length;
+            rawBytes -= sizes.remove(pid);
+        }
+    }
+
+    /**
+     * @return true if the specified page is cached
+     */
+    public synchronized boolean contains(PageId pid) {
+        return pages.containsKey(pid);
+    }
+
+    /**
+     * @return the number of pages cached
+     */
+    public synchronized int getNumPages() {
+        return pages.size();
+    }
+
+    /**
+     * @return the number of bytes taken by the compressed pages
+     */
+    public synchronized long getUsedBytes() {
+        return usedBytes;
+    }
+
+    /**
+     * @return the number of bytes the cached pages take uncompressed
+     */
+    public synchronized long getRawBytes() {
+        return rawBytes;
+    }
+
+    /**
+     * @return the number of requests served from this cache
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return the number of requests for pages not in this cache
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+}
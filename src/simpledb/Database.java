@@ -54,8 +54,27 @@ public class Database {
         return _instance._bufferpool;
     }
 
+    /** Method used for testing -- create a new instance of the
+        buffer pool with the specified replacement policy and return it
+    */
+    public static BufferPool resetBufferPool(int pages, ReplacementPolicy policy) {
+        _instance._bufferpool = new BufferPool(pages, policy);
+        return _instance._bufferpool;
+    }
+
+    /** Method used for testing -- create a new instance of the
+        buffer pool holding the specified number of bytes of pages, off the
+        heap if offHeap is true, and return it
+    */
+    public static BufferPool resetBufferPool(long capacityBytes, boolean offHeap) {
+        _instance._bufferpool = new BufferPool(capacityBytes, new TwoQueuePolicy(), offHeap);
+        return _instance._bufferpool;
+    }
+
     //reset the database, used for unit tests only.
     public static void reset() {
+    	// release the file handles held by the tables of the old instance
+    	_instance._catalog.clear();
     	_instance = new Database();
     }
 
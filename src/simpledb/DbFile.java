@@ -28,6 +28,36 @@ public interface DbFile {
      */
     public void writePage(Page p) throws IOException;
 
+    /**
+     * Push the specified pages to disk and force them there, writing runs of
+     * consecutive pages together.
+     *
+     * @param pages the pages to write, sorted by page number
+     * @throws IOException if the write fails
+     */
+    public void writePages(List<Page> pages) throws IOException;
+
+    /**
+     * Returns the number of pages in this file.
+     */
+    public int numPages();
+
+    /**
+     * Returns the number of bytes in each page of this file.  Every page of
+     * a file is the same size, but different files may use different sizes;
+     * BufferPool.PAGE_SIZE is the default.
+     */
+    public int getPageSize();
+
+    /**
+     * Release any operating system resources (such as open file handles)
+     * held by this file.  The file stays usable: a later read or write
+     * reopens whatever it needs.
+     *
+     * @throws IOException if the underlying file can't be closed
+     */
+    public void close() throws IOException;
+
     /**
      * Adds the specified tuple to the file on behalf of transaction.
      * This method will acquire a lock on the affected pages of the file, and
@@ -0,0 +1,39 @@
+package simpledb;
+
+/**
+ * How the {@link LockManager} keeps transactions waiting for each other's
+ * locks from blocking forever.  The two prevention schemes rank
+ * transactions by {@link TransactionId#getId()}: a smaller id is older.
+ *
+ * @see BufferPool#setDeadlockPolicy
+ */
+public enum DeadlockPolicy {
+    /**
+     * Every wait is added to a wait-for graph, searching from the new
+     * waiter for a cycle; a request that would close one aborts.  The
+     * default.
+     */
+    DETECT,
+
+    /**
+     * Waits are added to the wait-for graph unchecked.  A background thread
+     * searches the whole graph every {@link LockManager#DETECTION_INTERVAL}
+     * ms and aborts the youngest waiter of each cycle it finds.  Blocking
+     * costs less, but a deadlock lasts until the next search.
+     */
+    BACKGROUND,
+
+    /**
+     * Wait-die: an older requester waits for younger holders; a younger
+     * requester aborts at once instead of waiting.
+     */
+    WAIT_DIE,
+
+    /**
+     * Wound-wait: an older requester aborts ("wounds") younger holders and
+     * waits for them to let go; a younger requester waits.  A wounded
+     * transaction aborts when it is waiting for a lock or asks for its
+     * next one.
+     */
+    WOUND_WAIT
+}
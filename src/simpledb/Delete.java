@@ -2,7 +2,9 @@ package simpledb;
 
 /**
  * The delete operator.  Delete reads tuples from its child operator and
- * removes them from the table they belong to.
+ * removes them from the table they belong to.  On a table locked by tuple
+ * (see {@link Catalog#setRowLocked}) each deletion locks just the tuple it
+ * removes, though a scan below still locks the pages it reads.
  */
 public class Delete extends AbstractDbIterator {
     private TransactionId tid;
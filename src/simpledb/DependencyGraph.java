@@ -1,112 +1,155 @@
 package simpledb;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Map;
-import java.util.Queue;
-import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
 
+/**
+ * DependencyGraph is the wait-for graph of the {@link LockManager}.  Each
+ * edge is labelled with the lock the waiter waits for: a page, or a table.
+ */
 public class DependencyGraph {
-    private HashMap<TransactionId, HashSet<Pair<PageId, TransactionId>>> blockingMe; // waiting tids are the keys
-    private HashMap<TransactionId, HashSet<Pair<PageId, TransactionId>>> waitingOnMe;
+    private HashMap<TransactionId, HashSet<Pair<Object, TransactionId>>> blockingMe; // waiting tids are the keys
+    private HashMap<TransactionId, HashSet<Pair<Object, TransactionId>>> waitingOnMe;
 
     public DependencyGraph() {
-        blockingMe = new  HashMap<TransactionId, HashSet<Pair<PageId, TransactionId>>>();
-        waitingOnMe = new HashMap<TransactionId, HashSet<Pair<PageId, TransactionId>>>();
+        blockingMe = new  HashMap<TransactionId, HashSet<Pair<Object, TransactionId>>>();
+        waitingOnMe = new HashMap<TransactionId, HashSet<Pair<Object, TransactionId>>>();
     }
 
-    public synchronized void addDependency(TransactionId waiter, TransactionId runner, PageId pid) throws TransactionAbortedException {
-        if(waiter.equals(runner)) // block self-looping dependencies
-            return;
-
-        // add runner to graph in order to properly keep track of graph size
-        if(!blockingMe.containsKey(runner))
-            blockingMe.put(runner, new HashSet<Pair<PageId, TransactionId>>());
-
-        // update incoming and outgoing edges in dependency graph
-        Pair<PageId, TransactionId> newBlockingMeValue = new Pair<PageId, TransactionId>(pid, runner);
-        if(!blockingMe.containsKey(waiter))
-            blockingMe.put(waiter, new HashSet<Pair<PageId, TransactionId>>());
-        blockingMe.get(waiter).add(newBlockingMeValue);
-
-        if(!waitingOnMe.containsKey(runner))
-            waitingOnMe.put(runner, new HashSet<Pair<PageId, TransactionId>>());
-        Pair<PageId, TransactionId> newWaitingOnMeValue = new Pair<PageId, TransactionId>(pid, waiter);
-        waitingOnMe.get(runner).add(newWaitingOnMeValue);
+    public synchronized void addDependency(TransactionId waiter, TransactionId runner, Object lock) throws TransactionAbortedException {
+        addDependencies(waiter, Collections.singleton(runner), lock);
+    }
 
-        if(detectDeadlock()) {
-            _removeDependency(waiter, runner, pid);
+    /**
+     * Records that waiter waits for each of runners to release lock.
+     *
+     * @throws TransactionAbortedException if one of the runners already
+     *   waits for waiter, directly or not; none of the edges are kept then
+     */
+    public synchronized void addDependencies(TransactionId waiter, Collection<TransactionId> runners, Object lock) throws TransactionAbortedException {
+        recordDependencies(waiter, runners, lock);
+        if(detectDeadlock(waiter, Collections.<TransactionId>emptySet())) {
+            for(TransactionId runner : runners)
+                _removeDependency(runner, waiter, lock);
             throw new TransactionAbortedException();
         }
     }
 
-    private  void _removeDependency(TransactionId finishedRunning, TransactionId waiting, PageId pid) {
+    /**
+     * Records that waiter waits for each of runners to release lock, without
+     * checking for a cycle.
+     */
+    public synchronized void recordDependencies(TransactionId waiter, Collection<TransactionId> runners, Object lock) {
+        for(TransactionId runner : runners) {
+            if(waiter.equals(runner)) // block self-looping dependencies
+                continue;
+
+            // update incoming and outgoing edges in dependency graph
+            Pair<Object, TransactionId> newBlockingMeValue = new Pair<Object, TransactionId>(lock, runner);
+            if(!blockingMe.containsKey(waiter))
+                blockingMe.put(waiter, new HashSet<Pair<Object, TransactionId>>());
+            blockingMe.get(waiter).add(newBlockingMeValue);
+
+            if(!waitingOnMe.containsKey(runner))
+                waitingOnMe.put(runner, new HashSet<Pair<Object, TransactionId>>());
+            Pair<Object, TransactionId> newWaitingOnMeValue = new Pair<Object, TransactionId>(lock, waiter);
+            waitingOnMe.get(runner).add(newWaitingOnMeValue);
+        }
+    }
+
+    private  void _removeDependency(TransactionId finishedRunning, TransactionId waiting, Object lock) {
         if(!blockingMe.containsKey(waiting))
             return;
-        HashSet<Pair<PageId, TransactionId>> waitingOn = blockingMe.get(waiting);
-        Pair<PageId, TransactionId> completed = new Pair<PageId, TransactionId>(pid, finishedRunning);
+        HashSet<Pair<Object, TransactionId>> waitingOn = blockingMe.get(waiting);
+        Pair<Object, TransactionId> completed = new Pair<Object, TransactionId>(lock, finishedRunning);
         waitingOn.remove(completed);
-        Pair<PageId, TransactionId> waitingOnMeValueToDelete = new Pair<PageId, TransactionId>(pid, waiting);
-        waitingOnMe.get(finishedRunning).remove(waitingOnMeValueToDelete);
+        if(waitingOn.isEmpty())
+            blockingMe.remove(waiting);
+        HashSet<Pair<Object, TransactionId>> waitingOnRunner = waitingOnMe.get(finishedRunning);
+        if(waitingOnRunner == null)
+            return;
+        waitingOnRunner.remove(new Pair<Object, TransactionId>(lock, waiting));
+        if(waitingOnRunner.isEmpty())
+            waitingOnMe.remove(finishedRunning);
     }
 
-    public synchronized void removeDependencies(TransactionId finishedRunning, PageId pid) {
-        if(!waitingOnMe.containsKey(finishedRunning))
+    public synchronized void removeDependency(TransactionId waiter, TransactionId runner, Object lock) {
+        _removeDependency(runner, waiter, lock);
+    }
+
+    /**
+     * Removes every edge from the specified transaction, once it no longer
+     * waits for anything.
+     */
+    public synchronized void removeWaiter(TransactionId waiter) {
+        HashSet<Pair<Object, TransactionId>> waitingOn = blockingMe.remove(waiter);
+        if(waitingOn == null)
             return;
-        HashSet<Pair<PageId, TransactionId>> blockedByMe = (HashSet<Pair<PageId, TransactionId>>) waitingOnMe.get(finishedRunning).clone();
-        for(Pair<PageId,TransactionId> blocked : blockedByMe) {
-            if(blocked.getKey().equals(pid))
-                _removeDependency(finishedRunning, blocked.getValue(), pid);
+        for(Pair<Object, TransactionId> p : waitingOn) {
+            HashSet<Pair<Object, TransactionId>> runnerWaiters = waitingOnMe.get(p.getValue());
+            if(runnerWaiters == null)
+                continue;
+            runnerWaiters.remove(new Pair<Object, TransactionId>(p.getKey(), waiter));
+            if(runnerWaiters.isEmpty())
+                waitingOnMe.remove(p.getValue());
         }
     }
 
-    // use topological sort to detect cycles in this disconnected DAG with parallel edges
-    private boolean detectDeadlock() {
-
-        // calculate in-degrees
-        HashMap<TransactionId, Integer> indegrees = new HashMap<TransactionId, Integer>();
-        for(Map.Entry<TransactionId, HashSet<Pair<PageId, TransactionId>>> entry : blockingMe.entrySet()) {
-            TransactionId source = entry.getKey();
-            if(!indegrees.containsKey(source))
-                indegrees.put(source, 0);
-
-            HashSet<Pair<PageId, TransactionId>> destinations = entry.getValue();
-            for(Pair<PageId, TransactionId> p : destinations) {
-                TransactionId dest = p.getValue();
-                if(!indegrees.containsKey(dest))
-                    indegrees.put(dest, 0);
-                indegrees.put(dest, indegrees.get(dest)+1);
-            }
+    public synchronized void removeDependencies(TransactionId finishedRunning, Object lock) {
+        if(!waitingOnMe.containsKey(finishedRunning))
+            return;
+        HashSet<Pair<Object, TransactionId>> blockedByMe = (HashSet<Pair<Object, TransactionId>>) waitingOnMe.get(finishedRunning).clone();
+        for(Pair<Object,TransactionId> blocked : blockedByMe) {
+            if(blocked.getKey().equals(lock))
+                _removeDependency(finishedRunning, blocked.getValue(), lock);
         }
+    }
 
-        // find sources
-        Queue<TransactionId> sources = new LinkedList<TransactionId>();
-        for(Map.Entry<TransactionId, Integer> entry : indegrees.entrySet()) {
-            TransactionId currSource = entry.getKey();
-            int indegree = entry.getValue();
-            if(indegree == 0) {
-                int outdegree = blockingMe.get(currSource).size();
-                if(outdegree == 0)
-                    blockingMe.remove(currSource); // remove nodes with zero indegree and outdegree
-                else
-                    sources.add(entry.getKey());
-            }
+    /**
+     * Picks one transaction on every cycle of the graph, the youngest of the
+     * cycle, so that aborting them all leaves no cycle.
+     */
+    public synchronized List<TransactionId> findVictims() {
+        ArrayList<TransactionId> victims = new ArrayList<TransactionId>();
+        HashSet<TransactionId> removed = new HashSet<TransactionId>();
+        while(true) {
+            TransactionId victim = null;
+            for(TransactionId waiter : blockingMe.keySet())
+                if(!removed.contains(waiter) && detectDeadlock(waiter, removed))
+                    if(victim == null || waiter.getId() > victim.getId())
+                        victim = waiter;
+            if(victim == null)
+                return victims;
+            victims.add(victim);
+            removed.add(victim);
         }
+    }
 
-        int visitedCount = 0;
-        // decrement in-degrees while removing sources
-        while(sources.size() > 0) {
-            TransactionId current = sources.poll();
-            visitedCount++;
-            HashSet<Pair<PageId, TransactionId>> children = blockingMe.get(current);
-            for(Pair<PageId, TransactionId> p : children) {
+    // search for a path from waiter back to itself that avoids the
+    // excluded transactions; when a new waiter's edges are checked, the
+    // graph had no cycle before them, so any cycle runs through waiter
+    private boolean detectDeadlock(TransactionId waiter, Set<TransactionId> excluded) {
+        HashSet<TransactionId> visited = new HashSet<TransactionId>();
+        ArrayDeque<TransactionId> stack = new ArrayDeque<TransactionId>();
+        stack.push(waiter);
+        while(!stack.isEmpty()) {
+            HashSet<Pair<Object, TransactionId>> children = blockingMe.get(stack.pop());
+            if(children == null)
+                continue;
+            for(Pair<Object, TransactionId> p : children) {
                 TransactionId childId = p.getValue();
-                indegrees.put(childId, indegrees.get(childId)-1);
-                if(indegrees.get(childId) == 0)
-                    sources.add(childId);
+                if(childId.equals(waiter))
+                    return true;
+                if(!excluded.contains(childId) && visited.add(childId))
+                    stack.push(childId);
             }
         }
-
-        return visitedCount != blockingMe.size();
+        return false;
     }
 }
@@ -0,0 +1,13 @@
+package simpledb;
+
+/**
+ * A page that tuples can read their fields out of on demand.
+ *
+ * @see Tuple
+ */
+interface FieldSource {
+    /**
+     * Decodes one field of the tuple stored in the specified slot.
+     */
+    Field readField(int slot, int field);
+}
@@ -0,0 +1,189 @@
+package simpledb;
+
+import java.io.*;
+import java.util.Arrays;
+
+/**
+ * FreeSpaceMap remembers how much free space each page of a file has, so
+ * that inserts can go straight to a page with room instead of visiting every
+ * page of the file.  The unit is up to the file: HeapFile records the number
+ * of empty tuple slots, SlottedFile the number of free bytes.  Either way, 0
+ * means the page has no room for another tuple at all.
+ * <p>
+ * The map is kept in memory and saved to a side file next to the data file
+ * (the data file's name plus ".fsm") when the file is closed.  The side file
+ * records the length and modification time the data file had when it was
+ * written; if the data file has changed since, the saved map is ignored and
+ * every page starts out as unknown.  The side file goes away with the data
+ * file: it is not written for a data file that was deleted, and it is
+ * deleted on exit along with temporary data files (see {@link #isTemporary}).
+ * <p>
+ * The map is only a hint.  The pages keep it up to date as tuples are added
+ * and deleted and the file refreshes it every time a page is read, but
+ * aborted transactions can leave it briefly wrong, so callers must still
+ * check the page itself before inserting.
+ */
+public class FreeSpaceMap {
+    /** Free space of a page that has not been looked at yet. */
+    public static final int UNKNOWN = -1;
+
+    private final File mapFile;
+    private final File dataFile;
+    private short[] free;
+    private int size;
+    // no page below this one can have room, except unknown pages
+    private int firstCandidate;
+    private boolean changed;
+
+    /**
+     * Creates the free space map for the specified file, loading the saved
+     * map if there is an up to date one.
+     *
+     * @param dataFile the file backing the table
+     */
+    public FreeSpaceMap(File dataFile) {
+        this.dataFile = dataFile;
+        this.mapFile = new File(dataFile.getPath() + ".fsm");
+        this.free = new short[16];
+        this.size = 0;
+        this.firstCandidate = 0;
+        load();
+    }
+
+    /**
+     * Records the free space on the specified page.
+     */
+    public synchronized void update(int pageNo, int freeSpace) {
+        // large pages can have more free bytes than fit; no tuple needs that many
+        if(freeSpace > Short.MAX_VALUE)
+            freeSpace = Short.MAX_VALUE;
+        if(pageNo >= size)
+            grow(pageNo + 1);
+        if(free[pageNo] == freeSpace)
+            return;
+        free[pageNo] = (short) freeSpace;
+        changed = true;
+        if(freeSpace != 0 && pageNo < firstCandidate)
+            firstCandidate = pageNo;
+    }
+
+    /**
+     * @return the free space recorded for the specified page, or UNKNOWN if
+     *   the page has not been looked at yet
+     */
+    public synchronized int getFreeSpace(int pageNo) {
+        if(pageNo >= size)
+            return UNKNOWN;
+        return free[pageNo];
+    }
+
+    /**
+     * Returns the lowest numbered page that may have room for another tuple:
+     * either the map says it has free space, or its free space is not known.
+     *
+     * @param numPages the number of pages currently in the file
+     * @return a page number, or -1 if every page is known to be full
+     */
+    public int findPage(int numPages) {
+        return findPage(numPages, 1);
+    }
+
+    /**
+     * Returns the lowest numbered page that may have the specified amount of
+     * free space: either the map says it has, or its free space is not known.
+     *
+     * @param numPages the number of pages currently in the file
+     * @param needed the free space needed
+     * @return a page number, or -1 if no page is known to have enough room
+     */
+    public synchronized int findPage(int numPages, int needed) {
+        if(numPages > size)
+            grow(numPages);
+        int first = -1;
+        for(int p = firstCandidate; p < numPages; p++) {
+            if(free[p] == 0)
+                continue;
+            if(first < 0)
+                first = p;
+            if(free[p] == UNKNOWN || free[p] >= needed) {
+                firstCandidate = first;
+                return p;
+            }
+        }
+        firstCandidate = first < 0 ? numPages : first;
+        return -1;
+    }
+
+    private void grow(int newSize) {
+        if(newSize > free.length)
+            free = Arrays.copyOf(free, Math.max(newSize, free.length * 2));
+        Arrays.fill(free, size, newSize, (short) UNKNOWN);
+        if(size < firstCandidate)
+            firstCandidate = size;
+        size = newSize;
+    }
+
+    /**
+     * Writes the map to its side file, if it changed since it was loaded,
+     * or deletes the side file if the data file is gone.
+     */
+    public synchronized void save() throws IOException {
+        if(!dataFile.exists()) {
+            mapFile.delete();
+            return;
+        }
+        if(!changed)
+            return;
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(mapFile)));
+        try {
+            out.writeLong(dataFile.length());
+            out.writeLong(dataFile.lastModified());
+            out.writeInt(size);
+            for(int p = 0; p < size; p++)
+                out.writeShort(free[p]);
+        } finally {
+            out.close();
+        }
+        if(isTemporary(dataFile))
+            mapFile.deleteOnExit();
+        changed = false;
+    }
+
+    /**
+     * @return true if the specified data file is in the temporary-file
+     *   directory, where files such as the tables tests create are deleted
+     *   on exit.  Side files of such files are deleted on exit too.
+     */
+    static boolean isTemporary(File dataFile) {
+        File dir = dataFile.getAbsoluteFile().getParentFile();
+        return dir != null && dir.equals(new File(System.getProperty("java.io.tmpdir")).getAbsoluteFile());
+    }
+
+    /**
+     * Reads the side file, leaving the map empty if there is none or the data
+     * file was modified after it was written.
+     */
+    private void load() {
+        if(!mapFile.exists())
+            return;
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(mapFile)));
+            try {
+                if(in.readLong() != dataFile.length() || in.readLong() != dataFile.lastModified())
+                    return;
+                int n = in.readInt();
+                short[] saved = new short[Math.max(n, 16)];
+                for(int p = 0; p < n; p++)
+                    saved[p] = in.readShort();
+                free = saved;
+                size = n;
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            // a damaged map is the same as no map; it is rebuilt as pages are read
+            free = new short[16];
+            size = 0;
+        }
+    }
+}
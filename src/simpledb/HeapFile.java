@@ -1,7 +1,9 @@
 package simpledb;
 
 import java.io.*;
-import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.*;
 
 /**
@@ -16,6 +18,16 @@ import java.util.*;
 public class HeapFile implements DbFile {
 	private File f;
 	private TupleDesc td;
+	private int pageSize;
+	private PageChannel channel;
+	private boolean memoryMapped;
+	// the file is mapped in pieces of whole pages, each no larger than
+	// maxMapping bytes, as a single mapping can't exceed 2 GB
+	private MappedByteBuffer[] mappings;
+	private int mappedPages;
+	int maxMapping = Integer.MAX_VALUE;
+	private FreeSpaceMap freeSpace;
+	private ZoneMap zoneMap;
 
     /**
      * Constructs a heap file backed by the specified file.
@@ -23,8 +35,38 @@ public class HeapFile implements DbFile {
      * @param f the file that stores the on-disk backing store for this heap file.
      */
     public HeapFile(File f, TupleDesc td) {
+    	this(f, td, false);
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file.
+     *
+     * @param f the file that stores the on-disk backing store for this heap file.
+     * @param memoryMapped if true, pages are decoded straight out of a
+     *   read-only memory mapping of the file rather than being copied into a
+     *   fresh array on every read. Writes still go through the file channel.
+     */
+    public HeapFile(File f, TupleDesc td, boolean memoryMapped) {
+    	this(f, td, memoryMapped, BufferPool.PAGE_SIZE);
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file whose pages are
+     * the specified number of bytes long, rather than BufferPool.PAGE_SIZE.
+     * Larger pages suit tables that are mostly scanned.
+     *
+     * @param f the file that stores the on-disk backing store for this heap file.
+     * @param memoryMapped see {@link #HeapFile(File, TupleDesc, boolean)}
+     * @param pageSize the number of bytes in each page of the file
+     */
+    public HeapFile(File f, TupleDesc td, boolean memoryMapped, int pageSize) {
     	this.f = f;
     	this.td = td;
+    	this.pageSize = pageSize;
+    	this.channel = new PageChannel(f);
+    	this.memoryMapped = memoryMapped;
+    	this.freeSpace = new FreeSpaceMap(f);
+    	this.zoneMap = new ZoneMap(f, td);
     }
 
     /**
@@ -57,21 +99,33 @@ public class HeapFile implements DbFile {
     	return td;
     }
 	public int getNumTuplesPerPage() {
-		return (int) Math.floor((BufferPool.PAGE_SIZE * 8) / (this.td.getSize() * 8 + 1));
+		return (int) Math.floor((pageSize * 8) / (this.td.getSize() * 8 + 1));
 	}
+
+    // see DbFile.java for javadocs
+    public int getPageSize() {
+    	return pageSize;
+    }
+
     // see DbFile.java for javadocs
     public Page readPage(PageId pid) {
     	if(pid == null)
     		return null;
     	int pageNum = pid.pageno();
-    	int fileOffset = pageNum * BufferPool.PAGE_SIZE;
-    	byte[] pageData = new byte[BufferPool.PAGE_SIZE];
+    	long fileOffset = (long) pageNum * pageSize;
     	try {
-    		FileInputStream fis = new FileInputStream(f.getAbsoluteFile());
-			fis.skip(fileOffset);
-			fis.read(pageData);
-    		fis.close();
-    		return new HeapPage((HeapPageId)pid, pageData);
+    		HeapPage page = null;
+    		if(memoryMapped) {
+    			ByteBuffer mapped = mappedPage(pageNum);
+    			if(mapped != null)
+    				page = newPage((HeapPageId)pid, mapped);
+    		}
+    		if(page == null) {
+    			byte[] pageData = new byte[pageSize];
+    			channel.read(ByteBuffer.wrap(pageData), fileOffset);
+    			return pageOf(pid, ByteBuffer.wrap(pageData), true);
+    		}
+    		return track(page);
     	} catch(Exception e) {
     		e.printStackTrace();
     		System.exit(1);
@@ -79,125 +133,455 @@ public class HeapFile implements DbFile {
     	return null;
     }
 
+    /**
+     * Reads the specified page into the specified buffer, such as a frame
+     * of a {@link PageArena}, and returns a page whose contents are that
+     * buffer.  The page does not keep the tuples it hands out.
+     *
+     * @param frame a buffer of exactly one page, starting at position 0
+     * @see HeapPage#stopCachingTuples
+     */
+    public HeapPage readPage(PageId pid, ByteBuffer frame) {
+    	int pageNum = pid.pageno();
+    	try {
+    		ByteBuffer dst = frame.duplicate();
+    		dst.clear();
+    		channel.read(dst, (long) pageNum * pageSize);
+    		// the frame held another page before; past the end of the file the page is empty
+    		while(dst.hasRemaining())
+    			dst.put((byte) 0);
+    		return pageOf(pid, frame, false);
+    	} catch(Exception e) {
+    		e.printStackTrace();
+    		System.exit(1);
+    	}
+    	return null;
+    }
+
+    /**
+     * Reads count consecutive pages, starting at page first, with one
+     * scattering read rather than one read per page.  Pages past the end of
+     * the file come back empty.
+     */
+    public List<Page> readPages(int first, int count) throws IOException {
+    	List<Page> pages = new ArrayList<Page>();
+    	if(memoryMapped) {
+    		for(int i = 0; i < count; i++)
+    			pages.add(readPage(new HeapPageId(getId(), first + i)));
+    		return pages;
+    	}
+    	ByteBuffer[] run = new ByteBuffer[count];
+    	for(int i = 0; i < count; i++)
+    		run[i] = ByteBuffer.allocate(pageSize);
+    	channel.readRun(run, (long) first * pageSize);
+    	for(int i = 0; i < count; i++) {
+    		run[i].clear();
+    		pages.add(pageOf(new HeapPageId(getId(), first + i), run[i], true));
+    	}
+    	return pages;
+    }
+
+    /**
+     * Returns the page for an image of one of this file's pages that is
+     * already in memory, such as one kept by a {@link CompressedPageCache},
+     * without reading the file.  The page's contents are the specified
+     * buffer.
+     *
+     * @param cacheTuples false if the page should not keep the tuples it
+     *   hands out
+     * @see HeapPage#stopCachingTuples
+     */
+    public HeapPage pageOf(PageId pid, ByteBuffer image, boolean cacheTuples) throws IOException {
+    	HeapPage page = newPage((HeapPageId)pid, image);
+    	if(!cacheTuples)
+    		page.stopCachingTuples();
+    	return track(page);
+    }
+
+    /**
+     * Keeps the free space and zone maps up to date with a page read in.
+     */
+    private HeapPage track(HeapPage page) {
+    	int pageNum = page.getId().pageno();
+    	page.trackFreeSpace(freeSpace);
+    	if(!zoneMap.isKnown(pageNum))
+    		zoneMap.update(pageNum, page.iterator());
+    	return page;
+    }
+
+    /**
+     * Creates the page object for the specified page image.  Subclasses that
+     * lay out their pages differently override this.
+     *
+     * @see HeapPage#HeapPage(HeapPageId, ByteBuffer)
+     */
+    protected HeapPage newPage(HeapPageId pid, ByteBuffer data) throws IOException {
+    	return new HeapPage(pid, data);
+    }
+
+    /**
+     * Returns the map of empty slots per page used to place new tuples.
+     */
+    public FreeSpaceMap getFreeSpaceMap() {
+    	return freeSpace;
+    }
+
+    /**
+     * Returns the per-page summaries of the INT fields used to skip pages
+     * during scans.
+     */
+    public ZoneMap getZoneMap() {
+    	return zoneMap;
+    }
+
+    /**
+     * Returns whether pages are read out of a memory mapping of the file.
+     */
+    public boolean isMemoryMapped() {
+    	return memoryMapped;
+    }
+
+    /**
+     * Returns a read-only view of the specified page inside the memory
+     * mapping of this file, remapping the file first if it has grown past the
+     * end of the current mapping.
+     *
+     * @return the page's bytes, or null if the page lies beyond the end of the file
+     */
+    private synchronized ByteBuffer mappedPage(int pageNum) throws IOException {
+    	if(mappings == null || pageNum >= mappedPages)
+    		remap();
+    	if(pageNum >= mappedPages)
+    		return null;
+    	int perMapping = maxMapping / pageSize;
+    	ByteBuffer page = mappings[pageNum / perMapping].duplicate();
+    	page.position(pageNum % perMapping * pageSize);
+    	page.limit(page.position() + pageSize);
+    	return page.slice();
+    }
+
+    /**
+     * Maps the whole file (in whole pages) read-only into memory, replacing
+     * the mappings of the pieces that grew.
+     */
+    private synchronized void remap() throws IOException {
+    	int pages = numPages();
+    	int perMapping = maxMapping / pageSize;
+    	MappedByteBuffer[] remapped = new MappedByteBuffer[(pages + perMapping - 1) / perMapping];
+    	for(int i = 0; i < remapped.length; i++) {
+    		long size = (long) Math.min(perMapping, pages - i * perMapping) * pageSize;
+    		if(mappings != null && i < mappings.length && mappings[i].capacity() == size)
+    			remapped[i] = mappings[i];
+    		else
+    			remapped[i] = channel.getChannel().map(FileChannel.MapMode.READ_ONLY,
+    					(long) i * perMapping * pageSize, size);
+    	}
+    	mappings = remapped;
+    	mappedPages = pages;
+    }
+
     // see DbFile.java for javadocs
     public void writePage(Page page) throws IOException {
-        int fileOffset = page.getId().pageno() * BufferPool.PAGE_SIZE;
+        long fileOffset = (long) page.getId().pageno() * pageSize;
         try {
-			RandomAccessFile raf = new RandomAccessFile(f.getAbsoluteFile(), "rw");
-			raf.seek(fileOffset);
-			raf.write(page.getPageData());
-			raf.close();
+			channel.write(ByteBuffer.wrap(page.getPageData()), fileOffset);
+			summarize(page);
 		} catch(Exception e) {
 			e.printStackTrace();
 			System.exit(1);
 		}
     }
 
+    // see DbFile.java for javadocs
+    public void writePages(List<Page> pages) throws IOException {
+    	channel.writePages(pages, pageSize);
+    	for(Page page : pages)
+    		summarize(page);
+    }
+
+    /**
+     * Brings the zone map up to date with a page just written.  Pages of
+     * row-locked tables are written as copies taken before the write (see
+     * {@link BufferPool#flushPages}), while inserts go on widening the
+     * summary of the page in the pool, so the copy only widens it.
+     */
+    private void summarize(Page page) {
+    	int pageNo = page.getId().pageno();
+    	if(Database.getCatalog().isRowLocked(getId()))
+    		zoneMap.merge(pageNo, ((HeapPage) page).iterator());
+    	else
+    		zoneMap.update(pageNo, ((HeapPage) page).iterator());
+    }
+
+    // see DbFile.java for javadocs
+    public void close() throws IOException {
+    	freeSpace.save();
+    	zoneMap.save();
+    	synchronized (this) {
+    		// the mappings themselves go away once they are garbage collected
+    		mappings = null;
+    		mappedPages = 0;
+    	}
+    	channel.close();
+    }
+
     /**
      * Returns the number of pages in this HeapFile.
      */
     public int numPages() {
-    	return (int) Math.ceil(f.length() / BufferPool.PAGE_SIZE);
+    	return (int) (f.length() / pageSize);
     }
 
 
     // see DbFile.java for javadocs
     public ArrayList<Page> addTuple(TransactionId tid, Tuple t)
         throws DbException, IOException, TransactionAbortedException {
-        int numPages = this.numPages();
         int tableId = getId();
+        if(Database.getCatalog().isRowLocked(tableId))
+        	return addRow(tid, t);
         BufferPool bp = Database.getBufferPool();
-        for(int p=0; p<numPages; p++) {
+        while(true) {
+        	int pages = this.numPages();
+        	// the free space map only leads us to pages that have room or that we know nothing about
+        	int p = freeSpace.findPage(pages);
+        	if(p < 0) {
+        		// an empty page, which the loop then inserts into through the
+        		// buffer pool, so that the insert is locked and logged like any
+        		// other.  Only one of the inserters that find the file full
+        		// appends a page.
+        		synchronized (Database.getCatalog()) {
+        			if(this.numPages() == pages) {
+        				writePage(newPage(new HeapPageId(tableId, pages),
+        						ByteBuffer.wrap(HeapPage.createEmptyPageData(pageSize))));
+        				if(memoryMapped)
+        					remap();
+        			}
+        		}
+        		continue;
+        	}
+
 			HeapPageId pId = new HeapPageId(tableId, p);
-			//TODO: maintain a free space list in order to avoid iterating through all pages
         	HeapPage hp = (HeapPage) bp.getPage(tid, pId, Permissions.READ_ONLY);
         	if(hp.getNumEmptySlots() > 0) {
         		// if there is space on this page, acquire write lock before inserting tuple into the page
-				hp = (HeapPage) bp.getPage(tid, pId, Permissions.READ_WRITE);
-				hp.addTuple(t);
-				hp.markDirty(true, tid);
+				// pinned so the page can't be written out and evicted halfway through the change
+				hp = (HeapPage) bp.pinPage(tid, pId, Permissions.READ_WRITE);
+				try {
+					hp.addTuple(t);
+					hp.markDirty(true, tid);
+				} finally {
+					bp.unpinPage(tid, pId);
+				}
+				zoneMap.widen(p, t);
         		return new ArrayList<Page>(Arrays.asList(new Page[] {hp}));
 			}
+			// the map was stale; the page may have been in the buffer pool since before it was tracked
+			freeSpace.update(p, 0);
 			// optimization: we can release page lock early since we did not actually look at the page's data
 			bp.releasePage(tid, pId);
 		}
-
-        // create new page if no space in previous pages. Prevent race condition where 2 new pages with the same
-		// page number are created, resulting in the first new page being overwritten by the second page
-        synchronized (Database.getCatalog()) {
-        	int synchronizedNumPages = this.numPages();
-			HeapPageId newPageId = new HeapPageId(tableId, synchronizedNumPages);
-			HeapPage newPage = new HeapPage(newPageId, new byte[BufferPool.PAGE_SIZE]);
-			newPage.addTuple(t);
-			writePage(newPage);
-			return new ArrayList<Page>(Arrays.asList(new Page[] {newPage}));
-		}
     }
 
 
+    /**
+     * Adds a tuple to a table locked by tuple (see
+     * {@link Catalog#setRowLocked}), where other transactions may be
+     * changing the same pages.  The tuple goes into the first empty slot
+     * that no other transaction holds the lock on: a slot emptied by a
+     * transaction that hasn't completed must stay free in case it aborts.
+     */
+    private ArrayList<Page> addRow(TransactionId tid, Tuple t)
+        throws DbException, IOException, TransactionAbortedException {
+        BufferPool bp = Database.getBufferPool();
+        while(true) {
+        	int pages = this.numPages();
+        	int p = freeSpace.findPage(pages);
+        	if(p < 0) {
+        		// an empty page, which the loop then inserts into like any other
+        		synchronized (Database.getCatalog()) {
+        			if(this.numPages() == pages) {
+        				writePage(newPage(new HeapPageId(getId(), pages),
+        						ByteBuffer.wrap(HeapPage.createEmptyPageData(pageSize))));
+        				if(memoryMapped)
+        					remap();
+        			}
+        		}
+        		continue;
+        	}
+
+        	HeapPageId pId = new HeapPageId(getId(), p);
+        	HeapPage hp = bp.pinRowPage(tid, pId);
+        	try {
+        		byte[] tuple = hp.tupleData(t);
+        		int slot = -1;
+        		// latched, so no other inserter fills the slot between our look and our lock
+        		synchronized (hp) {
+        			if(hp.getNumEmptySlots() > 0)
+        				for(int i = 0; i < hp.numSlots && slot < 0; i++)
+        					if(!hp.getSlot(i) && bp.lockRow(tid, new RecordId(pId, i), false))
+        						slot = i;
+        		}
+        		if(slot < 0) {
+        			// full, or its empty slots are held by transactions that may abort
+        			freeSpace.update(p, 0);
+        			continue;
+        		}
+        		bp.writeRow(tid, hp, slot, tuple);
+        		t.setRecordId(new RecordId(pId, slot));
+        	} finally {
+        		bp.unpinPage(tid, pId);
+        	}
+        	zoneMap.widen(p, t);
+        	return new ArrayList<Page>(Arrays.asList(new Page[] {hp}));
+        }
+    }
+
     // see DbFile.java for javadocs
     public Page deleteTuple(TransactionId tid, Tuple t)
         throws DbException, TransactionAbortedException {
-		HeapPage hp = (HeapPage) Database.getBufferPool().getPage(tid, t.getRecordId().getPageId(), Permissions.READ_WRITE);
+		if(Database.getCatalog().isRowLocked(getId()))
+			return deleteRow(tid, t);
+		BufferPool bp = Database.getBufferPool();
+		PageId pid = t.getRecordId().getPageId();
+		HeapPage hp = (HeapPage) bp.pinPage(tid, pid, Permissions.READ_WRITE);
 		//TODO: Figure out how to garbage collect empty pages and how to defragment data in heap files
-		hp.deleteTuple(t);
-		hp.markDirty(true, tid);
+		try {
+			hp.deleteTuple(t);
+			hp.markDirty(true, tid);
+		} finally {
+			bp.unpinPage(tid, pid);
+		}
 		return hp;
     }
     
+    /**
+     * Deletes a tuple from a table locked by tuple, locking just the tuple.
+     */
+    private Page deleteRow(TransactionId tid, Tuple t)
+        throws DbException, TransactionAbortedException {
+		if(t.getRecordId() == null)
+			throw new DbException("This tuple has already been deleted");
+		BufferPool bp = Database.getBufferPool();
+		RecordId rid = t.getRecordId();
+		PageId pid = rid.getPageId();
+		// wait for the tuple before pinning, so the pin isn't held while waiting
+		bp.lockRow(tid, rid, true);
+		// a snapshot may have read a tuple that has since changed
+		if(bp.changedSinceSnapshot(tid, rid))
+			throw new TransactionAbortedException();
+		HeapPage hp = bp.pinRowPage(tid, pid);
+		try {
+			if(hp.getSlotData(rid.tupleno()) == null)
+				throw new DbException(String.format("No tuple at index %d in page %s", rid.tupleno(), pid.toString()));
+			// the slot may be reused, so the tuple must stop reading the page
+			t.detach();
+			bp.writeRow(tid, hp, rid.tupleno(), null);
+			t.setRecordId(null);
+		} catch(IOException e) {
+			e.printStackTrace();
+			System.exit(1);
+		} finally {
+			bp.unpinPage(tid, pid);
+		}
+		return hp;
+    }
+
     public class HeapFileIterator implements DbFileIterator {
     	private HeapPage hp;
     	private Iterator<Tuple> it;
     	private TransactionId tid;
     	private int tableId;
     	private HeapFile hf;
+    	private ReadAhead readAhead;
+    	private Predicate[] predicates;
+    	// the next page to look at, or -1 if the iterator is not open
+    	private int nextPage = -1;
+    	// true if the tuples come from the transaction's snapshot
+    	private boolean snapshot;
     	
     	public HeapFileIterator(TransactionId tid, HeapFile hf) {
+    		this(tid, hf, null);
+    	}
+
+    	/**
+    	 * Creates an iterator that skips pages that the file's zone map says
+    	 * hold no tuple satisfying all of the specified predicates.  Tuples on
+    	 * the pages that are read are returned whether or not they satisfy
+    	 * the predicates; filtering them is still up to the caller.
+    	 * <p>
+    	 * The zone map describes the newest tuples, so an iterator that reads
+    	 * a snapshot (see {@link BufferPool#beginSnapshot}) reads every page.
+    	 *
+    	 * @param predicates the predicates, or null to read every page
+    	 */
+    	public HeapFileIterator(TransactionId tid, HeapFile hf, Predicate[] predicates) {
     		this.tableId = hf.getId();
     		this.tid = tid;
     		this.hf = hf;
+    		this.readAhead = new ReadAhead(hf);
+    		this.predicates = predicates;
     	}
 
 		@Override
 		public void open() throws DbException, TransactionAbortedException {
-    		HeapPageId pId = new HeapPageId(tableId, 0);
-    		hp = (HeapPage) Database.getBufferPool().getPage(tid, pId, null);
-    		it = hp.iterator();
+    		readAhead.reset();
+    		unpin();
+    		it = null;
+    		nextPage = 0;
+    		snapshot = Database.getBufferPool().readsSnapshot(tid, tableId);
+		}
+
+		// the page being read stays pinned until the iterator moves past it
+		private void unpin() {
+			if(hp != null)
+				Database.getBufferPool().unpinPage(tid, hp.getId());
+			hp = null;
 		}
 
 		@Override
-		public boolean hasNext() {
-			if(hp == null)
+		public boolean hasNext() throws DbException, TransactionAbortedException {
+			if(hf == null || nextPage < 0)
 				return false;
 
-			if(it.hasNext())
-				return true;
-
-			while(hp.pid.pageno() < hf.numPages() - 1) {
-				try {
-					HeapPageId pId = new HeapPageId(tableId, hp.pid.pageno()+1);
-					hp = (HeapPage) Database.getBufferPool().getPage(tid, pId, Permissions.READ_ONLY);
-					it = hp.iterator();
-					if(it.hasNext())
-						return true;
-				} catch (Exception e) {
-					e.printStackTrace();
-					System.exit(1);
+			while(it == null || !it.hasNext()) {
+				int numPages = hf.numPages();
+				if(predicates != null && !snapshot) {
+					while(nextPage < numPages && !zoneMap.mightMatch(nextPage, predicates))
+						nextPage++;
 				}
+				if(nextPage >= numPages) {
+					// nothing left to read, so nothing to keep resident
+					unpin();
+					return false;
+				}
+				HeapPageId pId = new HeapPageId(tableId, nextPage);
+				readAhead.pageAccessed(nextPage);
+				unpin();
+				if(snapshot) {
+					it = Database.getBufferPool().snapshotTuples(tid, pId).iterator();
+				} else {
+					hp = (HeapPage) Database.getBufferPool().pinPage(tid, pId, Permissions.READ_ONLY);
+					it = tuples(hp);
+				}
+				nextPage++;
 			}
 
-			return false;
+			return true;
+		}
+
+		/**
+		 * Returns the tuples of the specified page, in the order the scan
+		 * should return them.
+		 */
+		protected Iterator<Tuple> tuples(HeapPage hp) {
+			return hp.iterator();
 		}
 
 		@Override
-		public Tuple next() throws NoSuchElementException {
+		public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
 			if(this.hasNext() ==  false)
 				throw new NoSuchElementException();
-
-			if(it.hasNext())
-				return it.next();
-			else
-				return null;
+			return it.next();
 		}
 
 		@Override
@@ -207,7 +591,7 @@ public class HeapFile implements DbFile {
 
 		@Override
 		public void close() {
-			hp = null;
+			unpin();
 			it = null;
 			tid = null;
 			hf = null;
@@ -219,5 +603,17 @@ public class HeapFile implements DbFile {
     public DbFileIterator iterator(TransactionId tid) {
         return new HeapFileIterator(tid, this);
     }
+
+    /**
+     * Returns an iterator over the tuples of this file that does not read
+     * pages the zone map rules out for the specified predicates.  It may
+     * still return tuples that do not satisfy them.
+     *
+     * @param predicates predicates on the fields of this file's TupleDesc
+     * @see ZoneMap
+     */
+    public DbFileIterator iterator(TransactionId tid, Predicate[] predicates) {
+        return new HeapFileIterator(tid, this, predicates);
+    }
     
 }
@@ -2,6 +2,8 @@ package simpledb;
 
 import java.util.*;
 import java.io.*;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
 
 /**
  * HeapPage stores pages of HeapFiles and implements the Page interface that
@@ -10,25 +12,32 @@ import java.io.*;
  * @see HeapFile
  * @see BufferPool
  */
-public class HeapPage implements Page {
+public class HeapPage implements Page, FieldSource {
 
     HeapPageId pid;
     TupleDesc td;
-    byte header[];
+    int pageSize;
+    volatile ByteBuffer data;
+    int headerSize;
+    // tuples handed out so far, or null if the page doesn't keep them
     Tuple tuples[];
     int numSlots;
-    TransactionId dirtier;
+    int[] fieldOffsets;
+    volatile TransactionId dirtier;
 
     byte[] oldData;
+    FreeSpaceMap freeSpace;
 
     /**
      * Create a HeapPage from a set of bytes of data read from disk.
      * The format of a HeapPage is a set of header bytes indicating
      * the slots of the page that are in use, some number of tuple slots.
      *  Specifically, the number of tuples is equal to: <p>
-     *          floor((BufferPool.PAGE_SIZE*8) / (tuple size * 8 + 1))
+     *          floor((page size*8) / (tuple size * 8 + 1))
      * <p> where tuple size is the size of tuples in this
-     * database table, which can be determined via {@link Catalog#getTupleDesc}.
+     * database table, which can be determined via {@link Catalog#getTupleDesc},
+     * and page size is the page size of its file, given by
+     * {@link Catalog#getPageSize}.
      * The number of 8-bit header words is equal to:
      * <p>
      *      ceiling(no. tuple slots / 8)
@@ -36,38 +45,62 @@ public class HeapPage implements Page {
      * @throws Exception 
      * @see Database#getCatalog
      * @see Catalog#getTupleDesc
-     * @see BufferPool#PAGE_SIZE
+     * @see Catalog#getPageSize
      */
     public HeapPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, ByteBuffer.wrap(data.clone()));
+    }
+
+    /**
+     * Create a HeapPage from the page image starting at the current position
+     * of the specified buffer, without first copying it into an array.  This
+     * lets a page be decoded straight out of a memory-mapped file.  The
+     * buffer's position is not modified.
+     * <p>
+     * The page keeps using the buffer as its contents, so the caller must
+     * not modify it afterwards.  If the buffer is read-only, the page copies
+     * it the first time the page is modified.
+     * <p>
+     * Tuples are not decoded here: {@link #iterator} hands out tuples whose
+     * fields are read out of the page bytes the first time they are asked for.
+     *
+     * @see #HeapPage(HeapPageId, byte[])
+     */
+    public HeapPage(HeapPageId id, ByteBuffer data) throws IOException {
+        this(id, data, Database.getCatalog().getTupleDesc(id.getTableId()),
+                Database.getCatalog().getPageSize(id.getTableId()));
+    }
+
+    /**
+     * Create a HeapPage for a table with the specified schema and page size,
+     * which need not be in the catalog. Used by the file encoders.
+     */
+    HeapPage(HeapPageId id, ByteBuffer data, TupleDesc td, int pageSize) throws IOException {
         this.pid = id;
-        this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        this.td = td;
+        this.pageSize = pageSize;
         this.numSlots = getNumTuples();
-        this.oldData = new byte[BufferPool.PAGE_SIZE];
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
-
-        // allocate and read the header slots of this page
-        header = new byte[getHeaderSize()];
-        for (int i=0; i<header.length; i++)
-            header[i] = dis.readByte();
-
-        try{
-            // allocate and read the actual records of this page
-            tuples = new Tuple[numSlots];
-            for (int i=0; i<tuples.length; i++)
-                tuples[i] = readNextTuple(dis,i);
-        }catch(NoSuchElementException e){
-            e.printStackTrace();
+        this.headerSize = getHeaderSize();
+        if (data.remaining() < pageSize)
+            throw new IOException("page image is too short");
+        ByteBuffer buf = data.slice();
+        buf.limit(pageSize);
+        this.data = buf;
+        this.tuples = new Tuple[numSlots];
+
+        this.fieldOffsets = new int[td.numFields()];
+        int offset = 0;
+        for (int j=0; j<td.numFields(); j++) {
+            fieldOffsets[j] = offset;
+            offset += td.getType(j).getLen();
         }
-        dis.close();
-
-        setBeforeImage();
     }
 
     /** Retrieve the number of tuples on this page.
         @return the number of tuples on this page
     */
     private int getNumTuples() {        
-    	return (int) Math.floor((BufferPool.PAGE_SIZE * 8) / (this.td.getSize() * 8 + 1));
+    	return (int) Math.floor((pageSize * 8) / (this.td.getSize() * 8 + 1));
     }
 
     /**
@@ -83,6 +116,9 @@ public class HeapPage implements Page {
      * @throws Exception */
     public HeapPage getBeforeImage() {
         try {
+            // a page without a saved copy has not been modified
+            if (oldData == null)
+                return new HeapPage(pid, ByteBuffer.wrap(getPageData()));
             return new HeapPage(pid,oldData);
         } catch (IOException e) {
             e.printStackTrace();
@@ -93,12 +129,12 @@ public class HeapPage implements Page {
     }
     
     public void setBeforeImage() {
-    	try {
-    		oldData = getPageData().clone();
-    	} catch(Exception e) {
-    		e.printStackTrace();
-    		System.exit(1);
-    	}
+        oldData = null;
+    }
+
+    public void captureBeforeImage() {
+        if (oldData == null)
+            oldData = getPageData();
     }
 
     /**
@@ -109,38 +145,79 @@ public class HeapPage implements Page {
     }
 
     /**
-     * Suck up tuples from the source file.
-     * @throws Exception 
+     * Returns the tuple in the specified slot, creating a tuple that decodes
+     * its fields out of this page on demand if there is none yet.
      */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) {
-        // if associated bit is not set, read forward to the next tuple, and
-        // return null.
-        if (!getSlot(slotId)) {
-            for (int i=0; i<td.getSize(); i++) {
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty tuple");
-                }
-            }
-            return null;
+    Tuple tuple(int slot) {
+        Tuple t = tuples == null ? null : tuples[slot];
+        if (t == null) {
+            t = new Tuple(td, this, slot);
+            t.setRecordId(new RecordId(pid, slot));
+            if (tuples != null)
+                tuples[slot] = t;
         }
+        return t;
+    }
 
-        // read fields in the tuple
-        Tuple t = new Tuple(td);
-        RecordId rid = new RecordId(pid, slotId);
-        t.setRecordId(rid);
+    /**
+     * Stops keeping the tuples this page hands out: each request for a
+     * tuple gets a new view of its slot, which the caller may drop as soon
+     * as it is done with it.  Pages in an off-heap {@link PageArena} frame
+     * do this so that the heap doesn't grow with the pages cached.
+     * <p>
+     * Only the tuple passed to {@link #deleteTuple} is detached from its
+     * slot; other views of it see whatever is stored there later.
+     */
+    void stopCachingTuples() {
+        tuples = null;
+    }
+
+    /**
+     * Copies the page contents onto the heap, so that the buffer they were
+     * in (an arena frame) can be reused while the page or its tuples are
+     * still referenced.
+     */
+    synchronized void moveToHeap() {
+        ByteBuffer copy = ByteBuffer.allocate(pageSize);
+        copy.put(data.duplicate());
+        copy.clear();
+        data = copy;
+    }
+
+    /**
+     * @return the offset within the page of the specified field of the
+     *   tuple in the specified slot
+     */
+    int fieldOffset(int slot, int field) {
+        return headerSize + slot * td.getSize() + fieldOffsets[field];
+    }
+
+    /**
+     * Decodes one field of the tuple stored in the specified slot.
+     * Used by tuples returned from this page the first time a field is read.
+     */
+    public Field readField(int slot, int field) {
+        ByteBuffer buf = data.duplicate();
+        buf.position(fieldOffset(slot, field));
         try {
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = td.getType(j).parse(dis);
-                t.setField(j, f);
-            }
+            return td.getType(field).parse(buf);
         } catch (java.text.ParseException e) {
             e.printStackTrace();
             throw new NoSuchElementException("parsing error!");
         }
+    }
 
-        return t;
+    /**
+     * Copies the page contents out of a read-only buffer (such as a memory
+     * mapping of the file) before the first modification.
+     */
+    private void ensureWritable() {
+        if (!data.isReadOnly())
+            return;
+        ByteBuffer copy = ByteBuffer.allocate(pageSize);
+        copy.put(data.duplicate());
+        copy.clear();
+        data = copy;
     }
 
     /**
@@ -155,64 +232,12 @@ public class HeapPage implements Page {
      * @return A byte array correspond to the bytes of this page.
      * @throws Exception 
      */
-    public byte[] getPageData() {
-        int len = BufferPool.PAGE_SIZE;
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
-        DataOutputStream dos = new DataOutputStream(baos);
-
-        // create the header of the page
-        for (int i=0; i<header.length; i++) {
-            try {
-                dos.writeByte(header[i]);
-            } catch (IOException e) {
-                // this really shouldn't happen
-                e.printStackTrace();
-            }
-        }
-
-        // create the tuples
-        for (int i=0; i<tuples.length; i++) {
-
-            // empty slot
-            if (!getSlot(i)) {
-                for (int j=0; j<td.getSize(); j++) {
-                    try {
-                        dos.writeByte(0);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-
-                }
-                continue;
-            }
-
-            // non-empty slot
-            for (int j=0; j<td.numFields(); j++) {
-                try {
-                	Field f = tuples[i].getField(j);
-                    f.serialize(dos);
-                } catch (Exception e) {
-                    e.printStackTrace();
-                }
-            }
-        }
-
-        // padding
-        int zerolen = BufferPool.PAGE_SIZE - (header.length + td.getSize() * tuples.length); //- numSlots * td.getSize();
-        byte[] zeroes = new byte[zerolen];
-        try {
-            dos.write(zeroes, 0, zerolen);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        try {
-            dos.flush();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        return baos.toByteArray();
+    public synchronized byte[] getPageData() {
+        byte[] pageData = new byte[pageSize];
+        ByteBuffer buf = data.duplicate();
+        buf.clear();
+        buf.get(pageData);
+        return pageData;
     }
 
     /**
@@ -226,13 +251,20 @@ public class HeapPage implements Page {
      * @return The returned ByteArray.
      */
     public static byte[] createEmptyPageData() {
-        int len = BufferPool.PAGE_SIZE;
-        return new byte[len]; //all 0
+        return createEmptyPageData(BufferPool.PAGE_SIZE);
+    }
+
+    /**
+     * Static method to generate a byte array corresponding to an empty
+     * HeapPage of a file with the specified page size.
+     */
+    public static byte[] createEmptyPageData(int pageSize) {
+        return new byte[pageSize]; //all 0
     }
 
     public Tuple tupleSeek(int slot) {
         assert getSlot(slot);
-        return tuples[slot];
+        return tuple(slot);
     }
 
     /**
@@ -252,8 +284,23 @@ public class HeapPage implements Page {
         if(!getSlot(t_tupleno))
             throw new DbException(String.format("No tuple at index %d in page %s", t_tupleno, pid.toString()));
 
-        setSlot(t.getRecordId().tupleno(), false);
+        // the slot may be reused, so tuples handed out for it must stop reading the page
+        t.detach();
+        if (tuples != null && tuples[t_tupleno] != null) {
+            tuples[t_tupleno].detach();
+            tuples[t_tupleno] = null;
+        }
+        captureBeforeImage();
+        ensureWritable();
+        setSlot(t_tupleno, false);
+        for (int j=0; j<td.numFields(); j++) {
+            int offset = fieldOffset(t_tupleno, j);
+            for (int k=0; k<td.getType(j).getLen(); k++)
+                data.put(offset + k, (byte) 0);
+        }
         t.setRecordId(null);
+        if(freeSpace != null)
+            freeSpace.update(pid.pageno(), getNumEmptySlots());
     }
 
     /**
@@ -270,12 +317,10 @@ public class HeapPage implements Page {
             throw new DbException("No space left on this page");
 
         // find first empty slot
-        byte full = (byte) 0xFF;
         int firstEmpty = -1;
-        for (int x = 0; x < header.length; x++) {
-            if (header[x] != full) {
-                int startIndex = 8 * x;
-                for (int y = startIndex; y < startIndex + 8; y++)
+        for (int x = 0; x < headerSize && firstEmpty < 0; x++) {
+            if (data.get(x) != (byte) 0xFF) {
+                for (int y = 8 * x; y < 8 * x + 8 && y < numSlots; y++)
                     if (!getSlot(y)) {
                         firstEmpty = y;
                         break;
@@ -283,9 +328,108 @@ public class HeapPage implements Page {
             }
         }
 
+        // write the fields straight into the slot
+        captureBeforeImage();
+        ensureWritable();
+        for (int j=0; j<td.numFields(); j++) {
+            ByteBuffer buf = data.duplicate();
+            buf.position(fieldOffset(firstEmpty, j));
+            t.getField(j).serialize(buf);
+        }
         setSlot(firstEmpty, true);
-        tuples[firstEmpty] = t;
+        if (tuples != null)
+            tuples[firstEmpty] = t;
         t.setRecordId(new RecordId(pid, firstEmpty));
+        if(freeSpace != null)
+            freeSpace.update(pid.pageno(), getNumEmptySlots());
+    }
+
+    /**
+     * Returns a copy of the tuple stored in the specified slot, as bytes,
+     * or null if the slot is empty.
+     * <p>
+     * Tables locked by tuple (see {@link Catalog#setRowLocked}) change
+     * their pages one slot at a time, through this method and
+     * {@link #setSlotData}, while other transactions change other slots of
+     * the same page.  Both hold the page's monitor as a short latch, as do
+     * {@link #getPageData} and {@link #moveToHeap}, so no one sees a slot
+     * half written.
+     */
+    public synchronized byte[] getSlotData(int slot) {
+        if (!getSlot(slot))
+            return null;
+        byte[] tuple = new byte[td.getSize()];
+        ByteBuffer buf = data.duplicate();
+        buf.position(fieldOffset(slot, 0));
+        buf.get(tuple);
+        return tuple;
+    }
+
+    /**
+     * Stores a tuple, as bytes from {@link #getSlotData} or
+     * {@link #tupleData}, in the specified slot, or empties the slot if
+     * tuple is null.  Tuples handed out for the slot stop reading it.  No
+     * before image is kept; the log records the slot's old contents.
+     */
+    public synchronized void setSlotData(int slot, byte[] tuple) {
+        if (tuples != null && tuples[slot] != null) {
+            tuples[slot].detach();
+            tuples[slot] = null;
+        }
+        ensureWritable();
+        ByteBuffer buf = data.duplicate();
+        buf.position(fieldOffset(slot, 0));
+        if (tuple != null)
+            buf.put(tuple);
+        else
+            buf.put(new byte[td.getSize()]);
+        setSlot(slot, tuple != null);
+        if(freeSpace != null)
+            freeSpace.update(pid.pageno(), getNumEmptySlots());
+    }
+
+    /**
+     * @return the specified tuple as the bytes it takes up in a slot of
+     *   this page
+     * @throws DbException if the tuple's TupleDesc doesn't match the page's
+     */
+    public byte[] tupleData(Tuple t) throws DbException {
+        if (!t.getTupleDesc().equals(td))
+            throw new DbException("Tuple being added does not have the same tupledesc as this page");
+        ByteBuffer buf = ByteBuffer.allocate(td.getSize());
+        for (int j=0; j<td.numFields(); j++)
+            t.getField(j).serialize(buf);
+        return buf.array();
+    }
+
+    /**
+     * Decodes a tuple from its bytes (see {@link #tupleData}), as the tuple
+     * in the specified slot of this page.  Used by snapshot reads, which
+     * may see an older version of the slot than the page holds.
+     *
+     * @see BufferPool#snapshotTuples
+     */
+    public Tuple tupleOf(int slot, byte[] tuple) {
+        Tuple t = new Tuple(td);
+        ByteBuffer buf = ByteBuffer.wrap(tuple);
+        try {
+            for (int j=0; j<td.numFields(); j++)
+                t.setField(j, td.getType(j).parse(buf));
+        } catch (java.text.ParseException e) {
+            e.printStackTrace();
+            throw new NoSuchElementException("parsing error!");
+        }
+        t.setRecordId(new RecordId(pid, slot));
+        return t;
+    }
+
+    /**
+     * Keeps the specified free space map up to date with the number of
+     * empty slots on this page from now on.
+     */
+    void trackFreeSpace(FreeSpaceMap fsm) {
+        freeSpace = fsm;
+        fsm.update(pid.pageno(), getNumEmptySlots());
     }
 
     /**
@@ -312,15 +456,8 @@ public class HeapPage implements Page {
      */
     public int getNumEmptySlots() {
     	int usedSlots = 0;
-    	for(int x=0; x<header.length; x++) {
-    		int mask = 1;
-    		byte b = header[x];
-    		for(int y=0; y<8; y++) {
-    			if((b & mask) != 0)
-    				usedSlots++;
-    			mask = mask << 1;
-    		}
-    	}
+    	for(int x=0; x<headerSize; x++)
+    		usedSlots += Integer.bitCount(data.get(x) & 0xFF);
     	return numSlots - usedSlots;
     }
 
@@ -331,7 +468,7 @@ public class HeapPage implements Page {
     	int byteIndex = i/8;
     	int bitOffset = i % 8;
     	int bitMask = 1 << bitOffset;
-    	return (header[byteIndex] & bitMask) != 0;
+    	return (data.get(byteIndex) & bitMask) != 0;
     }
 
     /**
@@ -342,7 +479,7 @@ public class HeapPage implements Page {
         int bitOffset = i % 8;
         byte bitMask = (byte) ~(1 << bitOffset);
         byte bitValue = (byte) (value ? 1 : 0);
-        header[byteIndex] = (byte) ((header[byteIndex] & bitMask) | (bitValue << bitOffset));
+        data.put(byteIndex, (byte) ((data.get(byteIndex) & bitMask) | (bitValue << bitOffset)));
     }
 
     /**
@@ -351,9 +488,9 @@ public class HeapPage implements Page {
      */
     public Iterator<Tuple> iterator() {
     	ArrayList<Tuple> iteratorList = new ArrayList<Tuple>();
-    	for(int x=0; x<tuples.length; x++)
-    	    if(getSlot(x) && tuples[x] != null)
-    	        iteratorList.add(tuples[x]);
+    	for(int x=0; x<numSlots; x++)
+    	    if(getSlot(x))
+    	        iteratorList.add(tuple(x));
 
     	return iteratorList.iterator();
     }
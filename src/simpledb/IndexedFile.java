@@ -2,6 +2,7 @@ package simpledb;
 
 import javax.xml.crypto.Data;
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.*;
 
 /**
@@ -23,6 +24,7 @@ public class IndexedFile implements DbFile {
     private HeapFile hf;
     private Type type;
     private boolean indicesLoaded;
+    private PageChannel channel;
 
     /**
      * Constructs a heap file backed by the specified file.
@@ -35,7 +37,7 @@ public class IndexedFile implements DbFile {
         this.indexedColumnNumber = indexedColumnNumber;
         this.pageNumbers = new ArrayList<>();
         this.hf = hf;
-
+        this.channel = new PageChannel(f);
     }
 
     /**
@@ -77,10 +79,7 @@ public class IndexedFile implements DbFile {
         int fileOffset = pageNum * BufferPool.PAGE_SIZE;
         byte[] pageData = new byte[BufferPool.PAGE_SIZE];
         try {
-            FileInputStream fis = new FileInputStream(f.getAbsoluteFile());
-            fis.skip(fileOffset);
-            fis.read(pageData);
-            fis.close();
+            channel.read(ByteBuffer.wrap(pageData), (long) fileOffset);
             return new IndexedPage((IndexedPageId)pid, pageData, type, false);
         } catch(Exception e) {
             e.printStackTrace();
@@ -93,16 +92,23 @@ public class IndexedFile implements DbFile {
     public void writePage(Page page) throws IOException {
         int fileOffset = page.getId().pageno() * BufferPool.PAGE_SIZE;
         try {
-            RandomAccessFile raf = new RandomAccessFile(f.getAbsoluteFile(), "rw");
-            raf.seek(fileOffset);
-            raf.write(page.getPageData());
-            raf.close();
+            channel.write(ByteBuffer.wrap(page.getPageData()), (long) fileOffset);
         } catch(Exception e) {
             e.printStackTrace();
             System.exit(1);
         }
     }
 
+    // see DbFile.java for javadocs
+    public void writePages(List<Page> pages) throws IOException {
+        channel.writePages(pages, BufferPool.PAGE_SIZE);
+    }
+
+    // see DbFile.java for javadocs
+    public void close() throws IOException {
+        channel.close();
+    }
+
     /**
      * Returns the number of pages in this IndexedFile.
      */
@@ -110,6 +116,13 @@ public class IndexedFile implements DbFile {
         return pageNumbers.size();
     }
 
+    /**
+     * Index pages always use the default page size.
+     */
+    public int getPageSize() {
+        return BufferPool.PAGE_SIZE;
+    }
+
     private RecordId getRecordIdFromPointer(int tupId) {
         int pageNo = tupId / hf.getNumTuplesPerPage(); // Integer division to get the page number
         int tupleNo = tupId % hf.getNumTuplesPerPage();
@@ -403,14 +416,23 @@ public class IndexedFile implements DbFile {
                 throw new DbException("Issue with IO in IndexedFile open() load indices");
             }
             IndexedPageId pId = new IndexedPageId(tableId, findFirstLeaf(tid).pageno());
-            indexedPage = (IndexedPage) Database.getBufferPool().getPage(tid, pId, null);
+            unpin();
+            indexedPage = (IndexedPage) Database.getBufferPool().pinPage(tid, pId, null);
             it = indexedPage.iterator();
         }
 
+        // the leaf being read stays pinned until the iterator moves past it
+        private void unpin() {
+            if(indexedPage != null)
+                Database.getBufferPool().unpinPage(tid, indexedPage.getId());
+            indexedPage = null;
+        }
+
         public void seek(Field f) throws TransactionAbortedException, DbException {
             IndexedPageId pageId = (IndexedPageId) indexedFile.searchTuple(tid, f);
             int tupleSlot = indexedFile.seekTupleSlot(tid, f);
-            indexedPage = (IndexedPage) Database.getBufferPool().getPage(tid, pageId, Permissions.READ_ONLY);
+            unpin();
+            indexedPage = (IndexedPage) Database.getBufferPool().pinPage(tid, pageId, Permissions.READ_ONLY);
             it = indexedPage.iterator(tupleSlot);
         }
         @Override
@@ -419,13 +441,15 @@ public class IndexedFile implements DbFile {
                 return false;
             if(it.hasNext())
                 return true;
-            if (indexedPage.isRoot())
+            if (indexedPage.isRoot()) {
+                unpin();
                 return false;
+            }
             while(indexedPage.getNextId() != -1) {
                 try {
                     IndexedPageId newpId = new IndexedPageId(tableId, indexedPage.getNextId());
-                    IndexedPageId oldpId = indexedPage.pid;
-                    indexedPage = (IndexedPage) Database.getBufferPool().getPage(tid, newpId, Permissions.READ_ONLY);
+                    unpin();
+                    indexedPage = (IndexedPage) Database.getBufferPool().pinPage(tid, newpId, Permissions.READ_ONLY);
                     it = indexedPage.iterator();
                     if(it.hasNext())
                         return true;
@@ -435,6 +459,8 @@ public class IndexedFile implements DbFile {
                 }
             }
 
+            // nothing left to read, so nothing to keep resident
+            unpin();
             return false;
         }
 
@@ -462,6 +488,7 @@ public class IndexedFile implements DbFile {
 
         @Override
         public void close() {
+            unpin();
             hp = null;
             it = null;
             tid = null;
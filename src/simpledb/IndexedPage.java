@@ -23,7 +23,7 @@ public class IndexedPage implements Page {
     LinkedList<Field> tuples;
     LinkedList<Integer> leafPointers;
     int numSlots;
-    TransactionId dirtier;
+    volatile TransactionId dirtier;
     boolean isLeaf;
     IndexedPageId nextId;
     IndexedPageId prevId;
@@ -56,7 +56,6 @@ public class IndexedPage implements Page {
         this.pid = id;
         this.type = type;
         this.numSlots = getNumTuples();
-        this.oldData = new byte[BufferPool.PAGE_SIZE];
 
 
         DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
@@ -96,8 +95,6 @@ public class IndexedPage implements Page {
         this.indexedColumn = 0;
 
         dis.close();
-
-        setBeforeImage();
     }
 /*
     public IndexedPage(IndexedPageId id, Field[] tups, int[] pointers, int next, int prev, int parent,
@@ -427,6 +424,9 @@ public class IndexedPage implements Page {
      * @throws Exception */
     public IndexedPage getBeforeImage() {
         try {
+            // a page without a saved copy has not been modified
+            if (oldData == null)
+                return new IndexedPage(pid, getPageData(), type, false);
             return new IndexedPage(pid,oldData,type,false);
         } catch (IOException e) {
             e.printStackTrace();
@@ -437,12 +437,12 @@ public class IndexedPage implements Page {
     }
 
     public void setBeforeImage() {
-        try {
-            oldData = getPageData().clone();
-        } catch(Exception e) {
-            e.printStackTrace();
-            System.exit(1);
-        }
+        oldData = null;
+    }
+
+    public void captureBeforeImage() {
+        if (oldData == null)
+            oldData = getPageData();
     }
 
     /**
@@ -1,168 +1,764 @@
 package simpledb;
 
+import java.lang.ref.WeakReference;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
-import java.util.Iterator;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 
-class Lock {
-    TransactionId tid;
-    PageId pid;
-    boolean exclusive;
+/**
+ * The locks held on one page or table and the requests waiting for them.
+ * Guarded by the monitor of the stripe the lock hashes to.
+ */
+class LockEntry {
+    private static final LockMode[] MODES = LockMode.values();
 
-    public Lock(TransactionId tid, PageId pid, boolean exclusive) {
+    // the mode each holder holds
+    final HashMap<TransactionId, LockMode> holders = new HashMap<TransactionId, LockMode>();
+    // the number of holders of each mode, so requests are checked against
+    // the five modes rather than every holder
+    private final int[] held = new int[MODES.length];
+    // blocked requests, granted in FIFO order; upgrades go first
+    final ArrayDeque<LockRequest> waiters = new ArrayDeque<LockRequest>();
+
+    LockMode modeOf(TransactionId tid) {
+        return holders.get(tid);
+    }
+
+    /**
+     * @return true if tid may hold mode alongside the other holders
+     */
+    boolean allows(TransactionId tid, LockMode mode) {
+        LockMode own = holders.get(tid);
+        for(LockMode m : MODES) {
+            int others = held[m.ordinal()] - (m == own ? 1 : 0);
+            if(others > 0 && !mode.isCompatibleWith(m))
+                return false;
+        }
+        return true;
+    }
+
+    void set(TransactionId tid, LockMode mode) {
+        LockMode old = holders.put(tid, mode);
+        if(old != null)
+            held[old.ordinal()]--;
+        held[mode.ordinal()]++;
+    }
+
+    LockMode remove(TransactionId tid) {
+        LockMode old = holders.remove(tid);
+        if(old != null)
+            held[old.ordinal()]--;
+        return old;
+    }
+
+    boolean isFree() {
+        return holders.isEmpty() && waiters.isEmpty();
+    }
+}
+
+/**
+ * A queued lock request.  Its thread sleeps on the request's own monitor,
+ * so a release wakes only the threads it grants locks to.
+ */
+class LockRequest {
+    final TransactionId tid;
+    // the mode asked for, joined with the mode already held
+    final LockMode mode;
+    // the mode held when the request was made, if this is an upgrade
+    final LockMode held;
+    // set, with the stripe's monitor held, by the thread that grants the request
+    private boolean granted;
+    // set by the thread that chooses the request's transaction to abort
+    private boolean aborted;
+
+    LockRequest(TransactionId tid, LockMode mode, LockMode held) {
         this.tid = tid;
-        this.pid = pid;
-        this.exclusive = exclusive;
+        this.mode = mode;
+        this.held = held;
+    }
+
+    boolean isUpgrade() {
+        return held != null;
+    }
+
+    synchronized void grant() {
+        granted = true;
+        notify();
+    }
+
+    synchronized void abort() {
+        aborted = true;
+        notify();
+    }
+
+    synchronized boolean isGranted() {
+        return granted;
+    }
+
+    /**
+     * Sleeps until the request is granted or aborted.
+     */
+    synchronized void await() throws InterruptedException {
+        while(!granted && !aborted)
+            wait();
+    }
+}
+
+/**
+ * The lock on a whole table, as a key of the lock table.
+ */
+class TableLockId {
+    final int tableId;
+
+    TableLockId(int tableId) {
+        this.tableId = tableId;
     }
 
     public boolean equals(Object o) {
-        if(!(o instanceof Lock))
-            return false;
-        Lock other = (Lock) o;
-        return this.tid.equals(other.tid) && this.pid.equals(other.pid) && this.exclusive == other.exclusive;
+        return o instanceof TableLockId && ((TableLockId) o).tableId == tableId;
     }
 
-    @Override
     public int hashCode() {
-        return (tid != null ? tid.hashCode() : 0) + pid.hashCode() + (exclusive ? 1 : 0);
+        return tableId;
     }
+
+    public String toString() {
+        return "table " + tableId;
+    }
+}
+
+/**
+ * A transaction's lock on one table, as the transaction's own thread sees
+ * it.
+ */
+class TableHold {
+    // the mode held on the table, or null before the first page
+    volatile LockMode mode;
+    // the number of page locks held on the table's pages
+    final AtomicInteger pageLocks = new AtomicInteger();
 }
 
 
 
+/**
+ * LockManager keeps the locks of all transactions.  The lock table is
+ * split into {@link #STRIPES} stripes by hash, each with its own monitor,
+ * so requests for different pages rarely contend.
+ * <p>
+ * Locks are taken on two levels, tables and their pages, in the
+ * {@link LockMode}s of multi-granularity locking.  Before locking a page a
+ * transaction takes IS or IX on its table; if it already holds S, SIX or X
+ * on the table, that covers the page and no page lock is taken.  Once a
+ * transaction holds more than {@link #getEscalationThreshold()} page locks
+ * on a table, the lock is escalated: the transaction takes S on the table,
+ * or X if it has written any of its pages, and drops the page locks.  If
+ * other transactions' intention locks are in the way, escalation is skipped
+ * rather than waited for, and tried again at the next page.  A scan or bulk
+ * delete of a large table thus ends up holding one lock.
+ * <p>
+ * A request compatible with the holders of a lock and with no queued
+ * requests ahead of it is granted at once.  Any other request joins the
+ * lock's wait queue and its thread sleeps; releasing a lock grants queued
+ * requests in arrival order and wakes just the threads it granted.  A
+ * transaction upgrading its mode goes ahead of the queue, since the
+ * requests there are waiting for it anyway.
+ * <p>
+ * Tables the catalog row-locks (see {@link Catalog#setRowLocked}) add a
+ * third level for writers: a transaction changing a tuple takes IX on the
+ * table and on the page and X on the tuple's {@link RecordId}, so writers
+ * of different tuples share a page.  Readers still take S on the page,
+ * which waits for the page's writers to finish.
+ * <p>
+ * The {@link DeadlockPolicy} chosen when the manager is created decides
+ * how waits are kept from deadlocking: by checking each wait against the
+ * {@link DependencyGraph}, by searching the graph in the background, or by
+ * ordering waits by transaction age.
+ */
 public class LockManager {
-    private HashMap<PageId, ArrayList<Lock>> pageIdToLocks;
-    private HashMap<TransactionId, HashSet<PageId>> txIdToPageIds;
-    private DependencyGraph dependencyGraph;
+    /** Number of stripes the lock table is split into */
+    static final int STRIPES = 64;
+    /** Milliseconds between searches for deadlocks under {@link DeadlockPolicy#BACKGROUND} */
+    static final long DETECTION_INTERVAL = 10;
+    /** Page locks a transaction may hold on one table before they are escalated, by default */
+    public static final int DEFAULT_ESCALATION_THRESHOLD = 1000;
+
+    private final DeadlockPolicy policy;
+    private volatile int escalationThreshold = DEFAULT_ESCALATION_THRESHOLD;
+    private final HashMap<Object, LockEntry>[] stripes;
+    // the pages each transaction holds locks on, or may have written under a table lock
+    private final ConcurrentHashMap<TransactionId, Set<PageId>> txIdToPageIds;
+    // the table locks of each transaction, by table id
+    private final ConcurrentHashMap<TransactionId, ConcurrentHashMap<Integer, TableHold>> txIdToTables;
+    // the tuples each transaction holds locks on
+    private final ConcurrentHashMap<TransactionId, Set<RecordId>> txIdToRecordIds;
+    // the wait-for graph; null under the prevention policies
+    private final DependencyGraph dependencyGraph;
+    // the queued request of each waiting transaction
+    private final ConcurrentHashMap<TransactionId, LockRequest> waiting;
+    // transactions an older one has wounded under WOUND_WAIT
+    private final Set<TransactionId> wounded;
 
     public LockManager() {
-        pageIdToLocks = new HashMap<PageId, ArrayList<Lock>>();
-        txIdToPageIds = new HashMap<TransactionId, HashSet<PageId>>();
-        dependencyGraph = new DependencyGraph();
-    }
-
-    public synchronized boolean lockPage(TransactionId tid, PageId pid, boolean exclusiveLock) throws TransactionAbortedException {
-        // return early if requestor is asking for a lock they already have
-        Permissions existingPermissions = getLockHeldType(tid, pid);
-        if(existingPermissions != null)
-            if(existingPermissions.isReadWrite() || (!exclusiveLock && existingPermissions.isReadOnly()))
-                return true;
-
-        boolean canAquire = false;
-        ArrayList<Lock> otherLocks = null;
-        if(pageIdToLocks.containsKey(pid)) {
-            otherLocks = pageIdToLocks.get(pid);
-            if(otherLocks.isEmpty())
-                canAquire = true;
-            else {
-                if(upgradeLock(tid, pid))
-                    return true;
-                boolean otherExclusiveLock = false;
-                for(Lock l : otherLocks)
-                    if(l.exclusive)
-                        otherExclusiveLock = true;
-                if(!exclusiveLock && !otherExclusiveLock)
-                    canAquire = true;
-            }
-        } else {
-            canAquire = true;
+        this(DeadlockPolicy.DETECT);
+    }
+
+    @SuppressWarnings("unchecked")
+    public LockManager(DeadlockPolicy policy) {
+        this.policy = policy;
+        stripes = new HashMap[STRIPES];
+        for(int i = 0; i < STRIPES; i++)
+            stripes[i] = new HashMap<Object, LockEntry>();
+        txIdToPageIds = new ConcurrentHashMap<TransactionId, Set<PageId>>();
+        txIdToTables = new ConcurrentHashMap<TransactionId, ConcurrentHashMap<Integer, TableHold>>();
+        txIdToRecordIds = new ConcurrentHashMap<TransactionId, Set<RecordId>>();
+        if(policy == DeadlockPolicy.DETECT || policy == DeadlockPolicy.BACKGROUND)
+            dependencyGraph = new DependencyGraph();
+        else
+            dependencyGraph = null;
+        waiting = new ConcurrentHashMap<TransactionId, LockRequest>();
+        wounded = Collections.newSetFromMap(new ConcurrentHashMap<TransactionId, Boolean>());
+        if(policy == DeadlockPolicy.BACKGROUND)
+            new Detector(this).start();
+    }
+
+    public DeadlockPolicy getDeadlockPolicy() {
+        return policy;
+    }
+
+    /**
+     * Sets how many page locks a transaction may hold on one table before
+     * they are escalated to a table lock.
+     */
+    public void setEscalationThreshold(int pageLocks) {
+        escalationThreshold = pageLocks;
+    }
+
+    public int getEscalationThreshold() {
+        return escalationThreshold;
+    }
+
+    private HashMap<Object, LockEntry> stripeFor(Object key) {
+        int h = key.hashCode();
+        h ^= (h >>> 16);
+        return stripes[h & (STRIPES - 1)];
+    }
+
+    /**
+     * Acquires a lock on the specified page, and the intention lock on its
+     * table, waiting for as long as another transaction holds a conflicting
+     * lock or an earlier request for a conflicting lock is queued.  The
+     * waiting thread sleeps, without holding the stripe, until a release
+     * grants it the lock.
+     *
+     * @throws TransactionAbortedException if the deadlock policy aborts tid,
+     *   or the waiting thread is interrupted
+     */
+    public void acquireLock(TransactionId tid, PageId pid, boolean exclusiveLock) throws TransactionAbortedException {
+        // nothing could ever release a lock taken outside a transaction
+        if(tid == null)
+            return;
+        if(wounded.contains(tid))
+            throw new TransactionAbortedException();
+
+        LockMode need = exclusiveLock ? LockMode.X : LockMode.S;
+        TableHold table = tableHold(tid, pid.getTableId());
+        LockMode tableMode = table.mode;
+        if(tableMode != null && tableMode.covers(need)) {
+            // no page lock; the commit still needs the pages it may write
+            if(exclusiveLock)
+                lockedBy(tid).add(pid);
+            return;
         }
 
-        if(!canAquire) {
-            addDependencies(tid, pid, exclusiveLock, otherLocks);
+        LockMode intent = exclusiveLock ? LockMode.IX : LockMode.IS;
+        if(tableMode == null || !tableMode.covers(intent))
+            table.mode = intent.join(lock(tid, new TableLockId(pid.getTableId()), intent));
+
+        boolean newLock = lock(tid, pid, need) == null;
+        lockedBy(tid).add(pid);
+        if(newLock && table.pageLocks.incrementAndGet() > escalationThreshold)
+            escalate(tid, pid.getTableId(), table);
+    }
+
+    /**
+     * Acquires IX on the specified page and its table, for a transaction
+     * about to change some of the page's tuples under tuple locks.  Waits as
+     * acquireLock does.
+     *
+     * @return true if tid's lock on the page or table already covers
+     *   writing the whole page, so that no tuple locks are needed
+     * @throws TransactionAbortedException if the deadlock policy aborts tid
+     */
+    public boolean acquireRowIntent(TransactionId tid, PageId pid) throws TransactionAbortedException {
+        if(tid == null)
+            return true;
+        if(wounded.contains(tid))
+            throw new TransactionAbortedException();
+
+        TableHold table = tableHold(tid, pid.getTableId());
+        LockMode tableMode = table.mode;
+        if(tableMode != null && tableMode.covers(LockMode.X)) {
+            lockedBy(tid).add(pid);
+            return true;
+        }
+        if(tableMode == null || !tableMode.covers(LockMode.IX))
+            table.mode = LockMode.IX.join(lock(tid, new TableLockId(pid.getTableId()), LockMode.IX));
+
+        LockMode held = lock(tid, pid, LockMode.IX);
+        lockedBy(tid).add(pid);
+        if(held == null && table.pageLocks.incrementAndGet() > escalationThreshold)
+            escalate(tid, pid.getTableId(), table);
+        return LockMode.IX.join(held).covers(LockMode.X) || table.mode.covers(LockMode.X);
+    }
+
+    /**
+     * Acquires an exclusive lock on the specified tuple, and IX on its page
+     * and table.  If wait is false and another transaction holds the tuple,
+     * returns false at once instead of queueing; the intention locks may
+     * still be waited for.
+     *
+     * @return true if tid now holds the tuple
+     * @throws TransactionAbortedException if the deadlock policy aborts tid
+     */
+    public boolean acquireRowLock(TransactionId tid, RecordId rid, boolean wait) throws TransactionAbortedException {
+        if(acquireRowIntent(tid, rid.getPageId()))
+            return true;
+        if(wait)
+            lock(tid, rid, LockMode.X);
+        else if(!lockIfFree(tid, rid, LockMode.X))
             return false;
+        rowsLockedBy(tid).add(rid);
+        return true;
+    }
+
+    /**
+     * Acquires mode on the specified lock if that needs no waiting.
+     *
+     * @return false if tid would have to wait
+     */
+    private boolean lockIfFree(TransactionId tid, Object key, LockMode mode) {
+        HashMap<Object, LockEntry> stripe = stripeFor(key);
+        synchronized(stripe) {
+            LockEntry lock = stripe.get(key);
+            if(lock == null) {
+                lock = new LockEntry();
+                stripe.put(key, lock);
+            }
+            LockMode held = lock.modeOf(tid);
+            LockMode target = mode.join(held);
+            return target == held || tryLock(lock, tid, target);
         }
+    }
 
-        Lock newLock = new Lock(tid, pid, exclusiveLock);
-        if(!pageIdToLocks.containsKey(pid))
-            pageIdToLocks.put(pid, new ArrayList<Lock>());
-        pageIdToLocks.get(pid).add(newLock);
+    /**
+     * Acquires mode on the specified lock, waiting as acquireLock does.
+     *
+     * @return the mode tid held on the lock before, or null
+     */
+    private LockMode lock(TransactionId tid, Object key, LockMode mode) throws TransactionAbortedException {
+        HashMap<Object, LockEntry> stripe = stripeFor(key);
+        LockEntry lock;
+        LockMode held;
+        LockRequest request = null;
+        synchronized(stripe) {
+            lock = stripe.get(key);
+            if(lock == null) {
+                lock = new LockEntry();
+                stripe.put(key, lock);
+            }
+            held = lock.modeOf(tid);
+            // return early if requestor is asking for a lock they already have
+            LockMode target = mode.join(held);
+            if(target == held)
+                return held;
 
-        if(!txIdToPageIds.containsKey(tid))
-            txIdToPageIds.put(tid, new HashSet<PageId>());
-        txIdToPageIds.get(tid).add(pid);
+            if(!tryLock(lock, tid, target)) {
+                request = new LockRequest(tid, target, held);
+                if(request.isUpgrade())
+                    lock.waiters.addFirst(request);
+                else
+                    lock.waiters.addLast(request);
+                try {
+                    checkWait(lock, request, key);
+                } catch (TransactionAbortedException e) {
+                    cancel(stripe, key, lock, request);
+                    throw e;
+                }
+                waiting.put(tid, request);
+            }
+        }
+        if(request != null) {
+            // an older transaction may have wounded tid before it was waiting
+            if(wounded.contains(tid))
+                request.abort();
+            await(stripe, key, lock, request);
+        }
+        return held;
+    }
 
+    /**
+     * Grants the lock right away if nothing stands in the way.
+     */
+    private boolean tryLock(LockEntry lock, TransactionId tid, LockMode target) {
+        // a new holder queues behind earlier requests; an upgrade needn't,
+        // since the queued requests wait for its lock anyway
+        if(!lock.waiters.isEmpty() && lock.modeOf(tid) == null)
+            return false;
+        if(!lock.allows(tid, target))
+            return false;
+        lock.set(tid, target);
         return true;
     }
 
-    private Permissions getLockHeldType(TransactionId tid, PageId pid) {
-       if(pageIdToLocks.containsKey(pid)) {
-            ArrayList<Lock> locks = pageIdToLocks.get(pid);
-            for(Lock l : locks)
-                if(l.tid.equals(tid))
-                    return l.exclusive ? Permissions.READ_WRITE : Permissions.READ_ONLY;
-       }
-       return null;
+    /**
+     * Sleeps until the queued request is granted.
+     *
+     * @throws TransactionAbortedException if the request is aborted instead
+     */
+    private void await(HashMap<Object, LockEntry> stripe, Object key, LockEntry lock, LockRequest request)
+            throws TransactionAbortedException {
+        boolean granted = false;
+        try {
+            request.await();
+        } catch (InterruptedException e) {
+            // fall through: the lock may have been granted meanwhile
+        } finally {
+            waiting.remove(request.tid, request);
+            synchronized(stripe) {
+                // aborted, interrupted or a stopped thread: leave the queue
+                granted = request.isGranted();
+                if(!granted)
+                    cancel(stripe, key, lock, request);
+            }
+            if(dependencyGraph != null)
+                dependencyGraph.removeWaiter(request.tid);
+        }
+        if(!granted)
+            throw new TransactionAbortedException();
     }
 
-    public synchronized boolean holdsLock(TransactionId tid, PageId pid) {
-        if(!txIdToPageIds.containsKey(tid))
-            return false;
-        return txIdToPageIds.get(tid).contains(pid);
+    /**
+     * Takes a request that will not be granted out of the queue.  Called
+     * with the stripe's monitor held.
+     */
+    private void cancel(HashMap<Object, LockEntry> stripe, Object key, LockEntry lock, LockRequest request) {
+        lock.waiters.remove(request);
+        if(dependencyGraph != null) {
+            if(request.isUpgrade()) {
+                // tid still holds its old mode; only the edges from the
+                // requests that its new mode alone was in the way of are gone
+                for(LockRequest other : lock.waiters)
+                    if(other.mode.isCompatibleWith(request.held) && !other.mode.isCompatibleWith(request.mode))
+                        dependencyGraph.removeDependency(other.tid, request.tid, key);
+            } else {
+                dependencyGraph.removeDependencies(request.tid, key);
+            }
+            dependencyGraph.removeWaiter(request.tid);
+        }
+        grant(lock);
+        if(lock.isFree())
+            stripe.remove(key);
     }
 
-    public synchronized void unlockPage(TransactionId tid, PageId pid) {
-        if(!pageIdToLocks.containsKey(pid))
+    /**
+     * Grants the queued requests at the head of the queue that no longer
+     * conflict with the holders, and wakes their threads.  Called with the
+     * stripe's monitor held.
+     */
+    private void grant(LockEntry lock) {
+        while(!lock.waiters.isEmpty()) {
+            LockRequest head = lock.waiters.peekFirst();
+            if(!lock.allows(head.tid, head.mode))
+                break;
+            lock.set(head.tid, head.mode);
+            lock.waiters.removeFirst();
+            head.grant();
+        }
+    }
+
+    /**
+     * Replaces tid's page locks on a table with a table lock, if no other
+     * transaction's lock is in the way.
+     */
+    private void escalate(TransactionId tid, int tableId, TableHold table) {
+        LockMode target = table.mode.covers(LockMode.IX) ? LockMode.X : LockMode.S;
+        TableLockId key = new TableLockId(tableId);
+        HashMap<Object, LockEntry> stripe = stripeFor(key);
+        synchronized(stripe) {
+            LockEntry lock = stripe.get(key);
+            if(lock == null || !tryLock(lock, tid, target))
+                return;
+        }
+        table.mode = target;
+
+        Set<PageId> pids = txIdToPageIds.get(tid);
+        if(pids == null)
             return;
+        for(PageId pid : pids) {
+            if(pid.getTableId() != tableId)
+                continue;
+            // pages read under a page lock need nothing more at commit
+            if(release(tid, pid) == LockMode.S)
+                pids.remove(pid);
+        }
+        table.pageLocks.set(0);
+    }
 
-        Iterator<Lock> pageLockIterator = pageIdToLocks.get(pid).iterator();
-        while(pageLockIterator.hasNext()) {
-            Lock l = pageLockIterator.next();
-            if(l.tid.equals(tid))
-                pageLockIterator.remove();
+    /**
+     * Releases tid's lock on the specified page or table, and hands it to
+     * the requests waiting for it.
+     *
+     * @return the mode tid held, or null
+     */
+    private LockMode release(TransactionId tid, Object key) {
+        HashMap<Object, LockEntry> stripe = stripeFor(key);
+        synchronized(stripe) {
+            LockEntry lock = stripe.get(key);
+            if(lock == null)
+                return null;
+            LockMode old = lock.remove(tid);
+            if(dependencyGraph != null)
+                dependencyGraph.removeDependencies(tid, key);
+
+            grant(lock);
+            if(lock.isFree())
+                stripe.remove(key);
+            return old;
         }
+    }
 
-        dependencyGraph.removeDependencies(tid, pid);
+    private Set<PageId> lockedBy(TransactionId tid) {
+        Set<PageId> pids = txIdToPageIds.get(tid);
+        if(pids == null) {
+            pids = Collections.newSetFromMap(new ConcurrentHashMap<PageId, Boolean>());
+            Set<PageId> raced = txIdToPageIds.putIfAbsent(tid, pids);
+            if(raced != null)
+                pids = raced;
+        }
+        return pids;
+    }
 
-        if(txIdToPageIds.containsKey(tid))
-            txIdToPageIds.get(tid).remove(pid);
+    private Set<RecordId> rowsLockedBy(TransactionId tid) {
+        Set<RecordId> rids = txIdToRecordIds.get(tid);
+        if(rids == null) {
+            rids = Collections.newSetFromMap(new ConcurrentHashMap<RecordId, Boolean>());
+            Set<RecordId> raced = txIdToRecordIds.putIfAbsent(tid, rids);
+            if(raced != null)
+                rids = raced;
+        }
+        return rids;
     }
 
-    public void unlockAllPages(TransactionId tid) {
-        HashSet<PageId> pageIds;
+    private TableHold tableHold(TransactionId tid, int tableId) {
+        ConcurrentHashMap<Integer, TableHold> tables = txIdToTables.get(tid);
+        if(tables == null) {
+            tables = new ConcurrentHashMap<Integer, TableHold>();
+            ConcurrentHashMap<Integer, TableHold> raced = txIdToTables.putIfAbsent(tid, tables);
+            if(raced != null)
+                tables = raced;
+        }
+        TableHold table = tables.get(tableId);
+        if(table == null) {
+            table = new TableHold();
+            TableHold raced = tables.putIfAbsent(tableId, table);
+            if(raced != null)
+                table = raced;
+        }
+        return table;
+    }
 
-        synchronized (this) {
-            if(!txIdToPageIds.containsKey(tid))
-                return;
+    /**
+     * @return the mode tid holds on the specified table, or null
+     */
+    public LockMode getTableLock(TransactionId tid, int tableId) {
+        ConcurrentHashMap<Integer, TableHold> tables = tid == null ? null : txIdToTables.get(tid);
+        TableHold table = tables == null ? null : tables.get(tableId);
+        return table == null ? null : table.mode;
+    }
+
+    public boolean holdsLock(TransactionId tid, PageId pid) {
+        Set<PageId> pids = tid == null ? null : txIdToPageIds.get(tid);
+        if(pids != null && pids.contains(pid))
+            return true;
+        LockMode tableMode = getTableLock(tid, pid.getTableId());
+        return tableMode != null && tableMode.covers(LockMode.S);
+    }
+
+    /**
+     * @return true if tid holds the specified tuple, by a lock on it or on
+     *   its whole table
+     */
+    public boolean holdsRowLock(TransactionId tid, RecordId rid) {
+        Set<RecordId> rids = tid == null ? null : txIdToRecordIds.get(tid);
+        if(rids != null && rids.contains(rid))
+            return true;
+        LockMode tableMode = getTableLock(tid, rid.getPageId().getTableId());
+        return tableMode != null && tableMode.covers(LockMode.X);
+    }
 
-            pageIds = txIdToPageIds.get(tid);
-            txIdToPageIds.remove(tid);
+    public void unlockPage(TransactionId tid, PageId pid) {
+        if(tid == null)
+            return;
+        if(release(tid, pid) != null) {
+            ConcurrentHashMap<Integer, TableHold> tables = txIdToTables.get(tid);
+            TableHold table = tables == null ? null : tables.get(pid.getTableId());
+            if(table != null)
+                table.pageLocks.decrementAndGet();
         }
 
-        for(PageId pid : pageIds)
-            unlockPage(tid, pid);
+        Set<PageId> pids = txIdToPageIds.get(tid);
+        if(pids != null)
+            pids.remove(pid);
+    }
+
+    public void unlockAllPages(TransactionId tid) {
+        if(tid == null)
+            return;
+        wounded.remove(tid);
+
+        Set<RecordId> rids = txIdToRecordIds.remove(tid);
+        if(rids != null)
+            for(RecordId rid : rids)
+                release(tid, rid);
+
+        Set<PageId> pageIds = txIdToPageIds.remove(tid);
+        if(pageIds != null)
+            for(PageId pid : pageIds)
+                release(tid, pid);
+
+        Map<Integer, TableHold> tables = txIdToTables.remove(tid);
+        if(tables != null)
+            for(Integer tableId : tables.keySet())
+                release(tid, new TableLockId(tableId));
+    }
+
+    public Set<PageId> getPagesLockedByTx(TransactionId tid) {
+        return tid == null ? null : txIdToPageIds.get(tid);
     }
 
-    public synchronized Set<PageId> getPagesLockedByTx(TransactionId tid) {
-        return txIdToPageIds.get(tid);
+    /**
+     * @return the number of tuples, pages and tables with locks held or
+     *   requested
+     */
+    public int getNumLocks() {
+        int n = 0;
+        for(HashMap<Object, LockEntry> stripe : stripes)
+            synchronized(stripe) {
+                n += stripe.size();
+            }
+        return n;
     }
 
-    private boolean upgradeLock(TransactionId tid, PageId pid) {
-        if(pageIdToLocks.containsKey(pid)) {
-            ArrayList<Lock> pageLocks = pageIdToLocks.get(pid);
-            if(pageLocks.size() == 1) {
-               Lock onlyLock = pageLocks.iterator().next();
-               if(onlyLock.tid.equals(tid)) {
-                   onlyLock.exclusive = true;
-                   return true;
-               }
+    /**
+     * Applies the deadlock policy to a request that has to wait: what it
+     * waits for are the conflicting holders and the conflicting requests
+     * ahead of it.  An upgrade goes ahead of the queue, so the requests
+     * that only its new mode conflicts with now wait for it too.  Called
+     * with the stripe's monitor held.
+     *
+     * @throws TransactionAbortedException if the requester must abort
+     */
+    private void checkWait(LockEntry lock, LockRequest request, Object key) throws TransactionAbortedException {
+        TransactionId tid = request.tid;
+        ArrayList<TransactionId> runners = new ArrayList<TransactionId>();
+        ArrayList<TransactionId> behind = new ArrayList<TransactionId>();
+        for(Map.Entry<TransactionId, LockMode> holder : lock.holders.entrySet())
+            if(!holder.getKey().equals(tid) && !request.mode.isCompatibleWith(holder.getValue()))
+                runners.add(holder.getKey());
+
+        for(LockRequest other : lock.waiters) {
+            if(other == request)
+                continue;
+            if(request.isUpgrade()) {
+                if(other.mode.isCompatibleWith(request.held) && !other.mode.isCompatibleWith(request.mode))
+                    behind.add(other.tid);
+            } else if(!request.mode.isCompatibleWith(other.mode)) {
+                runners.add(other.tid);
             }
         }
-        return false;
+
+        switch(policy) {
+        case DETECT:
+            for(TransactionId other : behind)
+                dependencyGraph.addDependency(other, tid, key);
+            dependencyGraph.addDependencies(tid, runners, key);
+            break;
+        case BACKGROUND:
+            for(TransactionId other : behind)
+                dependencyGraph.recordDependencies(other, Collections.singleton(tid), key);
+            dependencyGraph.recordDependencies(tid, runners, key);
+            break;
+        case WAIT_DIE:
+            // only an older transaction waits for a younger one
+            for(TransactionId runner : runners)
+                if(runner.getId() < tid.getId())
+                    throw new TransactionAbortedException();
+            for(TransactionId other : behind)
+                if(other.getId() > tid.getId())
+                    abort(other);
+            break;
+        case WOUND_WAIT:
+            // only a younger transaction waits for an older one
+            for(TransactionId other : behind)
+                if(other.getId() < tid.getId())
+                    throw new TransactionAbortedException();
+            for(TransactionId runner : runners)
+                if(runner.getId() > tid.getId()) {
+                    wounded.add(runner);
+                    abort(runner);
+                }
+            break;
+        }
     }
 
-    private void addDependencies(TransactionId tid, PageId pid, boolean exclusiveLock, ArrayList<Lock> otherLocks) throws TransactionAbortedException {
-        // if requested lock is exclusive, we must wait for all other locks to be released
-        if(exclusiveLock) {
-            for(Lock l : otherLocks)
-                dependencyGraph.addDependency(tid, l.tid, pid);
-        } else {
-            for(Lock l : otherLocks)
-                if(l.exclusive)
-                    dependencyGraph.addDependency(tid, l.tid, pid);
+    /**
+     * Aborts the request the specified transaction waits on, if it waits.
+     */
+    private void abort(TransactionId tid) {
+        LockRequest request = waiting.get(tid);
+        if(request != null)
+            request.abort();
+    }
+
+    /**
+     * Aborts the youngest waiter of each cycle in the wait-for graph.
+     */
+    void breakDeadlocks() {
+        for(TransactionId victim : dependencyGraph.findVictims())
+            abort(victim);
+    }
+
+    /**
+     * Searches for deadlocks every {@link #DETECTION_INTERVAL} ms, for as
+     * long as its lock manager is in use.
+     */
+    private static class Detector extends Thread {
+        private final WeakReference<LockManager> manager;
+
+        Detector(LockManager manager) {
+            super("deadlock detector");
+            setDaemon(true);
+            this.manager = new WeakReference<LockManager>(manager);
+        }
+
+        public void run() {
+            while(true) {
+                try {
+                    Thread.sleep(DETECTION_INTERVAL);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                LockManager lm = manager.get();
+                if(lm == null)
+                    return;
+                lm.breakDeadlocks();
+            }
         }
     }
 }
@@ -0,0 +1,55 @@
+package simpledb;
+
+/**
+ * The modes of multi-granularity locking.  A transaction takes S or X on
+ * the pages it reads or writes, and first the matching intention mode, IS
+ * or IX, on their table.  S, SIX or X on a table lock all of its pages at
+ * once: S and X for reading and writing, SIX for reading all of them while
+ * writing some under page X locks.
+ */
+public enum LockMode {
+    IS, IX, S, SIX, X;
+
+    private static final boolean[][] COMPATIBLE = {
+        //          IS     IX     S      SIX    X
+        /* IS  */ { true,  true,  true,  true,  false },
+        /* IX  */ { true,  true,  false, false, false },
+        /* S   */ { true,  false, true,  false, false },
+        /* SIX */ { true,  false, false, false, false },
+        /* X   */ { false, false, false, false, false },
+    };
+
+    /**
+     * @return true if one transaction may hold this mode while another
+     *   holds the specified one
+     */
+    public boolean isCompatibleWith(LockMode other) {
+        return COMPATIBLE[ordinal()][other.ordinal()];
+    }
+
+    /**
+     * @return the weakest mode granting everything this mode and the
+     *   specified one grant; this mode if other is null
+     */
+    public LockMode join(LockMode other) {
+        if (other == null || other == this)
+            return this;
+        if (this == X || other == X)
+            return X;
+        if (this == SIX || other == SIX)
+            return SIX;
+        // two different modes among IS, IX and S
+        if (this == IS)
+            return other;
+        if (other == IS)
+            return this;
+        return SIX;
+    }
+
+    /**
+     * @return true if this mode grants everything the specified one does
+     */
+    public boolean covers(LockMode other) {
+        return join(other) == this;
+    }
+}
@@ -51,8 +51,8 @@ transaction id.
 <li> Each log record ends with a long integer file offset representing
 the position in the log file where the record began.
 
-<li> There are five record types: ABORT, COMMIT, UPDATE, BEGIN, and
-CHECKPOINT
+<li> There are six record types: ABORT, COMMIT, UPDATE, BEGIN,
+CHECKPOINT and ROW
 
 <li> ABORT, COMMIT, and BEGIN records contain no additional data
 
@@ -61,6 +61,14 @@ after image.  These images are serialized Page objects, and can be
 accessed with the LogFile.readPageData() and LogFile.writePageData()
 methods.  See LogFile.print() for an example.
 
+<li> ROW records log a change to one tuple slot of a table locked by
+tuple (see Catalog.setRowLocked), whose pages several transactions
+change at once.  They consist of the table id, page number and slot
+number, followed by the slot's contents before and after the change:
+each an integer length and that many bytes of tuple, or a length of -1
+for an empty slot.  Aborts and recovery undo these changes slot by slot,
+logging the undo as another ROW record, rather than putting back pages.
+
 <li> CHECKPOINT records consist of active transactions at the time
 the checkpoint was taken and their first log record on disk.  The format
 of the record is an integer count of the number of transactions, as well
@@ -82,6 +90,7 @@ public class LogFile {
     static final int UPDATE_RECORD = 3;
     static final int BEGIN_RECORD = 4;
     static final int CHECKPOINT_RECORD = 5;
+    static final int ROW_RECORD = 6;
     static final long NO_CHECKPOINT_ID = -1;
 
     static int INT_SIZE = 4;
@@ -150,9 +159,11 @@ public class LogFile {
         synchronized (Database.getBufferPool()) {
 
             synchronized(this) {
+                // already aborted, or never wrote anything that needs undoing
+                if (!isActive(tid))
+                    return;
                 preAppend();
                 //Debug.log("ABORT");
-                //should we verify that this is a live transaction?
 
                 // must do this here, since rollback only works for
                 // live transactions (needs tidToFirstLogRecord)
@@ -207,6 +218,9 @@ public class LogFile {
            after page data
            start offset
         */
+        // transactions that never logged a BEGIN start at their first update
+        if (!tidToFirstLogRecord.containsKey(tid.getId()))
+            tidToFirstLogRecord.put(tid.getId(), currentOffset);
         raf.writeInt(UPDATE_RECORD);
         raf.writeLong(tid.getId());
 
@@ -218,6 +232,110 @@ public class LogFile {
         Debug.log("WRITE OFFSET = " + currentOffset);
     }
 
+    /** Write a ROW record for a change to one slot of a page of a
+        row-locked table, and make the change.  The record is appended and
+        the slot changed under this log's monitor, so a checkpoint, which
+        holds the monitor while it writes out every page, finds either both
+        or neither; and no page write can have the change without the
+        record before it in the log.
+        @param tid The transaction making the change, which holds the
+        tuple lock on the slot
+        @param page The page to change
+        @param slot The slot to change
+        @param after The slot's new contents (see HeapPage.tupleData), or
+        null to empty it
+    */
+    public synchronized void logRowWrite(TransactionId tid, HeapPage page,
+                                         int slot, byte[] after)
+        throws IOException {
+        preAppend();
+        if (!tidToFirstLogRecord.containsKey(tid.getId()))
+            tidToFirstLogRecord.put(tid.getId(), currentOffset);
+        HeapPageId pid = page.getId();
+        byte[] before = page.getSlotData(slot);
+        writeRowRecord(tid.getId(), pid.getTableId(), pid.pageno(), slot,
+                       before, after);
+        // snapshots that don't see this change read the old contents
+        VersionStore versions = Database.getBufferPool().getVersionStore();
+        synchronized (versions.latch(pid)) {
+            versions.recordWrite(tid, new RecordId(pid, slot), before);
+            page.setSlotData(slot, after);
+        }
+        page.markDirty(true, tid);
+    }
+
+    /** Append a ROW record.  The record goes out in one write, as there
+        may be many of them. */
+    void writeRowRecord(long tid, int tableId, int pageno, int slot,
+                        byte[] before, byte[] after) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(ROW_RECORD);
+        out.writeLong(tid);
+        out.writeInt(tableId);
+        out.writeInt(pageno);
+        out.writeInt(slot);
+        for (byte[] tuple : new byte[][] { before, after }) {
+            if (tuple == null) {
+                out.writeInt(-1);
+            } else {
+                out.writeInt(tuple.length);
+                out.write(tuple);
+            }
+        }
+        out.writeLong(currentOffset);
+        raf.write(bytes.toByteArray());
+        currentOffset = raf.getFilePointer();
+    }
+
+    /** The contents of a ROW record, after its type and transaction id. */
+    static class RowRecord {
+        final long tid;
+        final int tableId;
+        final int pageno;
+        final int slot;
+        final byte[] before;
+        final byte[] after;
+
+        RowRecord(long tid, RandomAccessFile raf) throws IOException {
+            this.tid = tid;
+            tableId = raf.readInt();
+            pageno = raf.readInt();
+            slot = raf.readInt();
+            before = readSlotData(raf);
+            after = readSlotData(raf);
+        }
+
+        private static byte[] readSlotData(RandomAccessFile raf) throws IOException {
+            int length = raf.readInt();
+            if (length < 0)
+                return null;
+            byte[] tuple = new byte[length];
+            raf.readFully(tuple);
+            return tuple;
+        }
+
+        HeapPageId getPageId() {
+            return new HeapPageId(tableId, pageno);
+        }
+    }
+
+    /** Undo the specified ROW records of a transaction, last first, on the
+        pages in the buffer pool, logging each undo as a ROW record of its
+        own. */
+    void undoRows(TransactionId tid, List<RowRecord> rows) throws IOException {
+        for (int i = rows.size() - 1; i >= 0; i--) {
+            RowRecord r = rows.get(i);
+            HeapPage page;
+            try {
+                page = (HeapPage) Database.getBufferPool().fetchPage(r.getPageId());
+            } catch (DbException e) {
+                throw new IOException("can't read page to undo: " + e.getMessage());
+            }
+            logRowWrite(tid, page, r.slot, r.before);
+        }
+    }
+
     void writePageData(RandomAccessFile raf, Page p) throws IOException{
         PageId pid = p.getId();
         int pageInfo[] = pid.serialize();
@@ -265,7 +383,7 @@ public class LogFile {
             }
             pid = (PageId)idConsts[0].newInstance(idArgs);
 
-            Constructor<?>[] pageConsts = pageClass.getDeclaredConstructors();
+            Constructor<?> pageConst = getPageConstructor(pageClass);
             int pageSize = raf.readInt();
 
             byte[] pageData = new byte[pageSize];
@@ -275,7 +393,7 @@ public class LogFile {
             pageArgs[0] = pid;
             pageArgs[1] = pageData;
 
-            newPage = (Page)pageConsts[0].newInstance(pageArgs);
+            newPage = (Page)pageConst.newInstance(pageArgs);
 
             //            Debug.log("READ PAGE OF TYPE " + pageClassName + ", table = " + newPage.getId().getTableId() + ", page = " + newPage.getId().pageno());
         } catch (ClassNotFoundException e){
@@ -295,6 +413,19 @@ public class LogFile {
 
     }
 
+    /** Find the Page(PageId id, byte[] data) constructor of a page class;
+        pages may declare other constructors as well.
+    */
+    static Constructor<?> getPageConstructor(Class<?> pageClass) throws IOException {
+        for (Constructor<?> c : pageClass.getDeclaredConstructors()) {
+            Class<?>[] params = c.getParameterTypes();
+            if (params.length == 2 && PageId.class.isAssignableFrom(params[0])
+                && params[1] == byte[].class)
+                return c;
+        }
+        throw new IOException("no (PageId, byte[]) constructor in " + pageClass.getName());
+    }
+
     /** Write a BEGIN record for the specified transaction
         @param tid The transaction that is beginning
 
@@ -328,6 +459,13 @@ public class LogFile {
                 Iterator<Long> els = keys.iterator();
                 force();
                 Database.getBufferPool().flushAllPages();
+                // remember what was cached so a restart can warm up the buffer
+                // pool; the checkpoint doesn't depend on it
+                try {
+                    WarmUp.save(Database.getBufferPool(), getWarmUpFile());
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
                 startCpOffset = raf.getFilePointer();
                 raf.writeInt(CHECKPOINT_RECORD);
                 raf.writeLong(-1); //no tid , but leave space for convenience
@@ -357,6 +495,13 @@ public class LogFile {
         logTruncate();
     }
 
+    /** Return the file the buffer pool contents are saved to at each
+        checkpoint, for {@link WarmUp}: the log's name plus ".warm".
+    */
+    public File getWarmUpFile() {
+        return new File(logFile.getPath() + ".warm");
+    }
+
     /** Truncate any unneeded portion of the log to reduce its space
         consumption */
     public synchronized void logTruncate() throws IOException {
@@ -396,6 +541,9 @@ public class LogFile {
 
         raf.seek(minLogRecord);
 
+        // transactions that are still running, whose first records move
+        Set<Long> relocated = new HashSet<Long>();
+
         //have to rewrite log records since offsets are different after truncation
         while (true) {
             try {
@@ -408,6 +556,10 @@ public class LogFile {
                 logNew.writeInt(type);
                 logNew.writeLong(record_tid);
 
+                if ((type == BEGIN_RECORD || type == UPDATE_RECORD || type == ROW_RECORD)
+                    && tidToFirstLogRecord.containsKey(record_tid) && relocated.add(record_tid))
+                    tidToFirstLogRecord.put(record_tid, newStart);
+
                 switch (type) {
                 case UPDATE_RECORD:
                     Page before = readPageData(raf);
@@ -416,6 +568,15 @@ public class LogFile {
                     writePageData(logNew, before);
                     writePageData(logNew, after);
                     break;
+                case ROW_RECORD:
+                    // copy the rest of the record, short of its start offset
+                    long rowStart = raf.getFilePointer();
+                    new RowRecord(record_tid, raf);
+                    byte[] row = new byte[(int) (raf.getFilePointer() - rowStart)];
+                    raf.seek(rowStart);
+                    raf.readFully(row);
+                    logNew.write(row);
+                    break;
                 case CHECKPOINT_RECORD:
                     int numXactions = raf.readInt();
                     logNew.writeInt(numXactions);
@@ -426,9 +587,6 @@ public class LogFile {
                         logNew.writeLong((xoffset - minLogRecord) + LONG_SIZE);
                     }
                     break;
-                case BEGIN_RECORD:
-                    tidToFirstLogRecord.put(record_tid,newStart);
-                    break;
                 }
 
                 //all xactions finish with a pointer
@@ -454,7 +612,9 @@ public class LogFile {
     }
 
     /** Rollback the specified transaction, setting the state of any
-        of pages it updated to their pre-updated state.  To preserve
+        of pages it updated to their pre-updated state.  Its changes to
+        row-locked tables are undone tuple by tuple instead, since other
+        transactions may have changed the same pages.  To preserve
         transaction semantics, this should not be called on
         transactions that have already committed (though this may not
         be enforced by this method.)
@@ -466,11 +626,55 @@ public class LogFile {
         synchronized (Database.getBufferPool()) {
             synchronized(this) {
                 preAppend();
-                // some code goes here
+                Long firstRecord = tidToFirstLogRecord.get(tid.getId());
+                if (firstRecord == null)
+                    return;
+
+                // the oldest before image of each page is its committed state
+                LinkedHashMap<PageId, Page> beforeImages = new LinkedHashMap<PageId, Page>();
+                ArrayList<RowRecord> rows = new ArrayList<RowRecord>();
+                raf.seek(firstRecord);
+                while (raf.getFilePointer() < currentOffset) {
+                    int type = raf.readInt();
+                    long recordTid = raf.readLong();
+                    switch (type) {
+                    case UPDATE_RECORD:
+                        Page before = readPageData(raf);
+                        readPageData(raf);
+                        if (recordTid == tid.getId() && !beforeImages.containsKey(before.getId()))
+                            beforeImages.put(before.getId(), before);
+                        break;
+                    case ROW_RECORD:
+                        RowRecord row = new RowRecord(recordTid, raf);
+                        if (recordTid == tid.getId())
+                            rows.add(row);
+                        break;
+                    case CHECKPOINT_RECORD:
+                        int numXactions = raf.readInt();
+                        raf.skipBytes(numXactions * 2 * LONG_SIZE);
+                        break;
+                    }
+                    raf.readLong();
+                }
+                raf.seek(currentOffset);
+
+                for (Page before : beforeImages.values()) {
+                    PageId pid = before.getId();
+                    Database.getCatalog().getDbFile(pid.getTableId()).writePage(before);
+                    Database.getBufferPool().discardPage(pid);
+                }
+                undoRows(tid, rows);
             }
         }
     }
 
+    /** Return true if the specified transaction has log records and has
+        not committed or aborted yet.
+    */
+    public synchronized boolean isActive(TransactionId tid) {
+        return tidToFirstLogRecord.containsKey(tid.getId());
+    }
+
     /** Shutdown the logging system, writing out whatever state
         is necessary so that start up can happen quickly (without
         extensive recovery.)
@@ -488,19 +692,232 @@ public class LogFile {
     /** Recover the database system by ensuring that the updates of
         committed transactions are installed and that the
         updates of uncommitted transactions are not installed.
+        <p>
+        The last checkpoint wrote every page, so the log is replayed from
+        there in order: the after images of committed transactions are
+        written again (redo), and at each ABORT record the before images of
+        that transaction are put back.  ROW records are all redone, whoever
+        wrote them: the undo of an aborted transaction's rows is in the log
+        as ROW records too.  Then the transactions with no COMMIT or ABORT
+        record are undone, their rows last change first with the undo
+        logged, and an ABORT record is written for each of them, so that a
+        later recovery replays the same history.
+        Records of tables that are no longer in the catalog are skipped.
     */
     public void recover() throws IOException {
         synchronized (Database.getBufferPool()) {
             synchronized (this) {
                 recoveryUndecided = false;
-                // some code goes here
+                if (raf.length() < LONG_SIZE) {
+                    raf.setLength(0);
+                    raf.writeLong(NO_CHECKPOINT_ID);
+                }
+                raf.seek(0);
+                long cpLoc = raf.readLong();
+                long end = raf.length();
+
+                // redo starts at the checkpoint; undo may need the earlier
+                // records of transactions that were running at it
+                long redoStart = LONG_SIZE;
+                long scanStart = LONG_SIZE;
+                HashSet<Long> losers = new HashSet<Long>();
+                if (cpLoc != NO_CHECKPOINT_ID) {
+                    redoStart = scanStart = cpLoc;
+                    raf.seek(cpLoc + INT_SIZE + LONG_SIZE);
+                    int numXactions = raf.readInt();
+                    while (numXactions-- > 0) {
+                        losers.add(raf.readLong());
+                        scanStart = Math.min(scanStart, raf.readLong());
+                    }
+                }
+
+                // first pass: which transactions finished, and how
+                HashSet<Long> committed = new HashSet<Long>();
+                raf.seek(scanStart);
+                while (raf.getFilePointer() < end) {
+                    int type = raf.readInt();
+                    long tid = raf.readLong();
+                    switch (type) {
+                    case BEGIN_RECORD:
+                        losers.add(tid);
+                        break;
+                    case UPDATE_RECORD:
+                        readPageData(raf);
+                        readPageData(raf);
+                        losers.add(tid);
+                        break;
+                    case ROW_RECORD:
+                        new RowRecord(tid, raf);
+                        losers.add(tid);
+                        break;
+                    case COMMIT_RECORD:
+                        committed.add(tid);
+                        losers.remove(tid);
+                        break;
+                    case ABORT_RECORD:
+                        losers.remove(tid);
+                        break;
+                    case CHECKPOINT_RECORD:
+                        raf.skipBytes(raf.readInt() * 2 * LONG_SIZE);
+                        break;
+                    }
+                    raf.readLong();
+                }
+
+                // second pass: repeat history
+                HashMap<Long, LinkedHashMap<PageId, Page>> beforeImages =
+                    new HashMap<Long, LinkedHashMap<PageId, Page>>();
+                HashMap<Long, ArrayList<RowRecord>> rows = new HashMap<Long, ArrayList<RowRecord>>();
+                raf.seek(scanStart);
+                while (raf.getFilePointer() < end) {
+                    long offset = raf.getFilePointer();
+                    int type = raf.readInt();
+                    long tid = raf.readLong();
+                    switch (type) {
+                    case UPDATE_RECORD:
+                        Page before = readPageData(raf);
+                        Page after = readPageData(raf);
+                        if (!beforeImages.containsKey(tid))
+                            beforeImages.put(tid, new LinkedHashMap<PageId, Page>());
+                        if (!beforeImages.get(tid).containsKey(before.getId()))
+                            beforeImages.get(tid).put(before.getId(), before);
+                        if (offset >= redoStart && committed.contains(tid))
+                            installPage(after);
+                        break;
+                    case ROW_RECORD:
+                        RowRecord row = new RowRecord(tid, raf);
+                        if (offset >= redoStart)
+                            installRow(row, row.after);
+                        if (losers.contains(tid)) {
+                            if (!rows.containsKey(tid))
+                                rows.put(tid, new ArrayList<RowRecord>());
+                            rows.get(tid).add(row);
+                        }
+                        break;
+                    case ABORT_RECORD:
+                        if (offset >= redoStart && beforeImages.containsKey(tid))
+                            for (Page p : beforeImages.get(tid).values())
+                                installPage(p);
+                        break;
+                    case CHECKPOINT_RECORD:
+                        raf.skipBytes(raf.readInt() * 2 * LONG_SIZE);
+                        break;
+                    }
+                    raf.readLong();
+                }
+
+                tidToFirstLogRecord.clear();
+                raf.seek(end);
+                currentOffset = end;
+                for (Long tid : losers) {
+                    if (beforeImages.containsKey(tid))
+                        for (Page p : beforeImages.get(tid).values())
+                            installPage(p);
+                    List<RowRecord> undo = rows.containsKey(tid)
+                        ? rows.get(tid) : Collections.<RowRecord>emptyList();
+                    for (int i = undo.size() - 1; i >= 0; i--) {
+                        RowRecord r = undo.get(i);
+                        writeRowRecord(tid, r.tableId, r.pageno, r.slot, r.after, r.before);
+                        installRow(r, r.before);
+                    }
+                    raf.writeInt(ABORT_RECORD);
+                    raf.writeLong(tid);
+                    raf.writeLong(currentOffset);
+                    currentOffset = raf.getFilePointer();
+                }
+                force();
             }
          }
     }
 
+    /** Write the specified page image to its file during recovery, and make
+        sure the buffer pool doesn't hold an older copy of it.
+    */
+    void installPage(Page p) throws IOException {
+        PageId pid = p.getId();
+        DbFile file;
+        try {
+            file = Database.getCatalog().getDbFile(pid.getTableId());
+        } catch (NoSuchElementException e) {
+            return;
+        }
+        file.writePage(p);
+        Database.getBufferPool().discardPage(pid);
+    }
+
+    /** Store the specified slot contents, from a ROW record, in the slot's
+        page on disk during recovery, and make sure the buffer pool doesn't
+        hold an older copy of the page.
+    */
+    void installRow(RowRecord r, byte[] tuple) throws IOException {
+        DbFile file;
+        try {
+            file = Database.getCatalog().getDbFile(r.tableId);
+        } catch (NoSuchElementException e) {
+            return;
+        }
+        HeapPage page = (HeapPage) file.readPage(r.getPageId());
+        page.setSlotData(r.slot, tuple);
+        file.writePage(page);
+        Database.getBufferPool().discardPage(page.getId());
+    }
+
     /** Print out a human readable represenation of the log */
     public void print() throws IOException {
-        // some code goes here
+        synchronized (this) {
+            if (raf.length() < LONG_SIZE) {
+                System.out.println("<empty log>");
+                return;
+            }
+            long position = raf.getFilePointer();
+            try {
+                raf.seek(0);
+                System.out.println("LAST CHECKPOINT: " + raf.readLong());
+                while (raf.getFilePointer() < raf.length()) {
+                    long offset = raf.getFilePointer();
+                    int type = raf.readInt();
+                    long tid = raf.readLong();
+                    switch (type) {
+                    case ABORT_RECORD:
+                        System.out.println(offset + ": ABORT tid " + tid);
+                        break;
+                    case COMMIT_RECORD:
+                        System.out.println(offset + ": COMMIT tid " + tid);
+                        break;
+                    case BEGIN_RECORD:
+                        System.out.println(offset + ": BEGIN tid " + tid);
+                        break;
+                    case UPDATE_RECORD:
+                        Page before = readPageData(raf);
+                        readPageData(raf);
+                        PageId pid = before.getId();
+                        System.out.println(offset + ": UPDATE tid " + tid + ", table "
+                                           + pid.getTableId() + ", page " + pid.pageno());
+                        break;
+                    case ROW_RECORD:
+                        RowRecord row = new RowRecord(tid, raf);
+                        System.out.println(offset + ": ROW tid " + tid + ", table " + row.tableId
+                                           + ", page " + row.pageno + ", slot " + row.slot
+                                           + (row.before == null ? ", insert"
+                                              : row.after == null ? ", delete" : ", update"));
+                        break;
+                    case CHECKPOINT_RECORD:
+                        int numXactions = raf.readInt();
+                        System.out.print(offset + ": CHECKPOINT, " + numXactions + " active:");
+                        while (numXactions-- > 0)
+                            System.out.print(" tid " + raf.readLong() + " from " + raf.readLong());
+                        System.out.println();
+                        break;
+                    default:
+                        System.out.println(offset + ": UNKNOWN RECORD TYPE " + type);
+                        return;
+                    }
+                    raf.readLong();
+                }
+            } finally {
+                raf.seek(position);
+            }
+        }
     }
 
     public  synchronized void force() throws IOException {
@@ -8,6 +8,7 @@ import java.io.IOException;
 import java.util.NoSuchElementException;
 import java.util.Set;
 import java.util.HashSet;
+import java.util.Arrays;
 
 import java.awt.*;
 
@@ -243,6 +244,93 @@ public  class LogicalPlan {
 
     }
 
+    /** Find the fields of the specified table that the query reads: those
+     *   named in the select list, the WHERE clause, and the GROUP BY and ORDER
+     *   BY clauses.  Scans of tables that store their fields separately
+     *   (such as {@link PaxFile}) use this to decode only these fields.
+     *  @return the indexes of the fields in the table's TupleDesc, or null
+     *   if the query may read every field (e.g., SELECT *)
+     */
+    int[] usedColumns(LogicalScanNode table) {
+        ArrayList<String> names = new ArrayList<String>();
+        for (LogicalSelectListNode si : selectList)
+            names.add(si.fname);
+        for (LogicalFilterNode lf : filters)
+            names.add(lf.f);
+        for (LogicalJoinNode lj : joins) {
+            names.add(lj.f1);
+            if (!(lj instanceof LogicalSubplanJoinNode))
+                names.add(lj.f2);
+        }
+        if (hasAgg) {
+            names.add(aggField);
+            if (groupByField != null)
+                names.add(groupByField);
+        }
+        if (hasOrderBy)
+            names.add(oByField);
+
+        TupleDesc td = Database.getCatalog().getTupleDesc(table.t);
+        Set<Integer> used = new HashSet<Integer>();
+        for (String name : names) {
+            String qualified;
+            try {
+                qualified = disambiguateName(name);
+            } catch (ParsingException e) {
+                // the plan will report it; don't guess here
+                return null;
+            }
+            String[] parts = qualified.split("[.]");
+            if (parts[parts.length - 1].equals("*"))
+                return null;
+            if (parts.length != 2 || !parts[0].equals(table.alias))
+                continue;
+            try {
+                used.add(td.nameToId(parts[1]));
+            } catch (NoSuchElementException e) {
+                return null;
+            }
+        }
+        int[] columns = new int[used.size()];
+        int i = 0;
+        for (int c : used)
+            columns[i++] = c;
+        Arrays.sort(columns);
+        return columns;
+    }
+
+    /** Build predicates on the fields of the specified table from the
+     *   filters in the WHERE clause that apply to it, so that the table's scan
+     *   can skip pages that hold no matching tuple.  The filters are still
+     *   applied by Filter operators above the scan.
+     *  @return the predicates, or null if no filter applies to the table
+     */
+    Predicate[] pushedPredicates(LogicalScanNode table) {
+        TupleDesc td = Database.getCatalog().getTupleDesc(table.t);
+        ArrayList<Predicate> preds = new ArrayList<Predicate>();
+        for (LogicalFilterNode lf : filters) {
+            if (!lf.t.equals(table.alias))
+                continue;
+            String[] parts = lf.f.split("[.]");
+            try {
+                int id = td.nameToId(parts[parts.length - 1]);
+                Field f;
+                if (td.getType(id) == Type.INT_TYPE)
+                    f = new IntField(Integer.parseInt(lf.c));
+                else
+                    f = new StringField(lf.c, Type.STRING_LEN);
+                preds.add(new Predicate(id, lf.p, f));
+            } catch (NoSuchElementException e) {
+                // the plan will report it
+            } catch (NumberFormatException e) {
+                // likewise
+            }
+        }
+        if (preds.isEmpty())
+            return null;
+        return preds.toArray(new Predicate[0]);
+    }
+
     /** Convert the aggregate operator name s into an Aggregator.op operation.
      *  @throws ParsingException if s is not a valid operator name 
      */
@@ -279,7 +367,8 @@ public  class LogicalPlan {
             LogicalScanNode table = tableIt.next();
             SeqScan ss = null;
             try {
-                 ss = new SeqScan(t, Database.getCatalog().getDbFile(table.t).getId(), table.alias);
+                 ss = new SeqScan(t, Database.getCatalog().getDbFile(table.t).getId(), table.alias,
+                         usedColumns(table), pushedPredicates(table));
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown table " + table.t);
             }
@@ -0,0 +1,76 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * LruKPolicy implements LRU-K (O'Neil et al.): it evicts the page whose K-th
+ * most recent request is furthest in the past.  Pages that have been
+ * requested fewer than K times count as infinitely old and go first, least
+ * recently used first.  With the default K of 2, pages read once by a scan
+ * are evicted before pages that keep being requested, however recently the
+ * scan touched them.
+ * <p>
+ * Finding a victim looks at every resident page, which is fine for buffer
+ * pools of a few thousand pages.
+ */
+public class LruKPolicy implements ReplacementPolicy {
+    private final int k;
+    // request times of each resident page, most recent first; 0 if none
+    private final HashMap<PageId, long[]> history = new HashMap<PageId, long[]>();
+    private final HashMap<PageId, Long> added = new HashMap<PageId, Long>();
+    private long clock = 0;
+
+    /** Creates an LRU-2 policy. */
+    public LruKPolicy() {
+        this(2);
+    }
+
+    /**
+     * @param k the number of past requests to remember per page
+     */
+    public LruKPolicy(int k) {
+        if (k < 1)
+            throw new IllegalArgumentException("k must be at least 1");
+        this.k = k;
+    }
+
+    public synchronized void pageAdded(PageId pid) {
+        if (history.containsKey(pid))
+            return;
+        history.put(pid, new long[k]);
+        added.put(pid, ++clock);
+    }
+
+    public synchronized void pageAccessed(PageId pid) {
+        long[] times = history.get(pid);
+        if (times == null)
+            return;
+        System.arraycopy(times, 0, times, 1, k - 1);
+        times[0] = ++clock;
+    }
+
+    public synchronized void pageRemoved(PageId pid) {
+        history.remove(pid);
+        added.remove(pid);
+    }
+
+    public synchronized PageId chooseVictim(Evictable evictable) {
+        PageId victim = null;
+        long victimKth = 0;
+        long victimLast = 0;
+        for (Map.Entry<PageId, long[]> e : history.entrySet()) {
+            long[] times = e.getValue();
+            long kth = times[k - 1];
+            // a page that was read ahead and not yet requested counts from when it arrived
+            long last = Math.max(times[0], added.get(e.getKey()));
+            if (victim != null && (kth > victimKth || (kth == victimKth && last >= victimLast)))
+                continue;
+            if (!evictable.canEvict(e.getKey()))
+                continue;
+            victim = e.getKey();
+            victimKth = kth;
+            victimLast = last;
+        }
+        return victim;
+    }
+}
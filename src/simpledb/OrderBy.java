@@ -41,7 +41,9 @@ public class OrderBy extends AbstractDbIterator {
     }
 
     public void close() {
+        child.close();
         it = null;
+        super.close();
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
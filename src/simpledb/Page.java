@@ -54,6 +54,17 @@ public interface Page {
     /*
      * a transaction that wrote this page just committed it.
      * copy current content to the before image.
+     * <p>
+     * Pages only keep a separate copy of their before image while they are
+     * being modified, so this simply drops that copy: from now on the
+     * current content is the before image.
      */
     public void setBeforeImage();
+
+    /**
+     * Saves the current content as the before image, unless a copy has
+     * already been saved since the last call to setBeforeImage.  Called when
+     * a transaction gets a write lock on the page, before it modifies it.
+     */
+    public void captureBeforeImage();
 }
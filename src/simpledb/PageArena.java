@@ -0,0 +1,97 @@
+package simpledb;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * PageArena is a fixed set of equally sized page frames allocated once, off
+ * the Java heap, in direct ByteBuffers.  A BufferPool created off-heap reads
+ * pages into these frames instead of into new byte arrays, so the bytes of
+ * cached pages are never seen by the garbage collector and the heap holds
+ * only a small page object per frame.
+ * <p>
+ * Frames are handed out by number and must be given back with {@link #free}
+ * once the page in them is no longer cached.
+ *
+ * @see BufferPool#BufferPool(long, ReplacementPolicy, boolean)
+ */
+public class PageArena {
+    /** Direct buffers are allocated in chunks of at most this many bytes. */
+    public static final int CHUNK_BYTES = 64 << 20;
+
+    private final int frameSize;
+    private final int numFrames;
+    private final int framesPerChunk;
+    private final ByteBuffer[] chunks;
+    // numbers of the frames not in use; guarded by this
+    private final ArrayDeque<Integer> free;
+
+    /**
+     * Allocates enough frames of the specified size to hold the specified
+     * number of bytes.
+     */
+    public PageArena(long capacityBytes, int frameSize) {
+        this.frameSize = frameSize;
+        this.numFrames = (int) (capacityBytes / frameSize);
+        this.framesPerChunk = Math.max(1, CHUNK_BYTES / frameSize);
+        int numChunks = (numFrames + framesPerChunk - 1) / framesPerChunk;
+        chunks = new ByteBuffer[numChunks];
+        for (int i = 0; i < numChunks; i++) {
+            int frames = Math.min(framesPerChunk, numFrames - i * framesPerChunk);
+            chunks[i] = ByteBuffer.allocateDirect(frames * frameSize);
+        }
+        free = new ArrayDeque<Integer>(numFrames);
+        for (int i = 0; i < numFrames; i++)
+            free.add(i);
+    }
+
+    /**
+     * @return the size in bytes of each frame
+     */
+    public int getFrameSize() {
+        return frameSize;
+    }
+
+    /**
+     * @return the number of frames in the arena
+     */
+    public int getNumFrames() {
+        return numFrames;
+    }
+
+    /**
+     * @return the number of frames not in use
+     */
+    public synchronized int getNumFree() {
+        return free.size();
+    }
+
+    /**
+     * Takes a frame that is not in use.
+     *
+     * @return the number of the frame, or -1 if every frame is in use
+     */
+    public synchronized int allocate() {
+        Integer frame = free.poll();
+        return frame == null ? -1 : frame;
+    }
+
+    /**
+     * Gives back a frame taken with {@link #allocate}.
+     */
+    public synchronized void free(int frame) {
+        free.push(frame);
+    }
+
+    /**
+     * Returns a buffer over the specified frame, with position 0 and limit
+     * the frame size.  Writes to it change the frame.
+     */
+    public ByteBuffer frame(int frame) {
+        ByteBuffer buf = chunks[frame / framesPerChunk].duplicate();
+        int offset = (frame % framesPerChunk) * frameSize;
+        buf.position(offset);
+        buf.limit(offset + frameSize);
+        return buf.slice();
+    }
+}
@@ -0,0 +1,184 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.util.List;
+
+/**
+ * PageChannel keeps a single long-lived FileChannel open on the file backing
+ * a DbFile and performs positional page reads and writes against it.
+ * <p>
+ * Positional reads and writes ({@link FileChannel#read(ByteBuffer, long)} and
+ * {@link FileChannel#write(ByteBuffer, long)}) do not touch the channel's
+ * position, so any number of threads may call {@link #read} and
+ * {@link #write} at the same time.  The channel is opened lazily and is
+ * reopened if it has been closed, either by {@link #close} or because some
+ * other thread was interrupted in the middle of an I/O call.
+ * <p>
+ * {@link #writePages} writes a batch of pages with one gathering write per
+ * run of consecutive pages and forces them to disk once, and
+ * {@link #readRun} reads a run of pages with one scattering read.  Gathering
+ * writes and scattering reads go through the channel's position, so they
+ * are issued one at a time.
+ */
+public class PageChannel {
+    private final File f;
+    private volatile FileChannel channel;
+
+    /**
+     * @param f the file that all reads and writes go to
+     */
+    public PageChannel(File f) {
+        this.f = f;
+    }
+
+    /**
+     * Returns the open channel for this file, opening it if necessary.
+     */
+    public FileChannel getChannel() throws IOException {
+        FileChannel ch = channel;
+        if(ch != null && ch.isOpen())
+            return ch;
+        synchronized (this) {
+            if(channel == null || !channel.isOpen())
+                channel = new RandomAccessFile(f.getAbsoluteFile(), "rw").getChannel();
+            return channel;
+        }
+    }
+
+    /**
+     * Fills dst with bytes starting at the specified file offset.  Bytes past
+     * the end of the file are left untouched (zero for a freshly allocated
+     * buffer.)
+     *
+     * @return the number of bytes actually read from the file
+     */
+    public int read(ByteBuffer dst, long offset) throws IOException {
+        int start = dst.position();
+        while(true) {
+            try {
+                FileChannel ch = getChannel();
+                while(dst.hasRemaining()) {
+                    int n = ch.read(dst, offset + (dst.position() - start));
+                    if(n < 0)
+                        break;
+                }
+                return dst.position() - start;
+            } catch (ClosedByInterruptException e) {
+                throw e;
+            } catch (ClosedChannelException e) {
+                // another thread closed the channel under us; reopen and retry
+                dst.position(start);
+            }
+        }
+    }
+
+    /**
+     * Fills the buffers of a run of consecutive pages, in order, starting at
+     * the specified file offset, with a single scattering read.  Like
+     * gathering writes, scattering reads go through the channel's position.
+     * Bytes past the end of the file are left untouched.
+     */
+    public synchronized void readRun(ByteBuffer[] run, long offset) throws IOException {
+        while(true) {
+            try {
+                FileChannel ch = getChannel();
+                ch.position(offset);
+                long n = 0;
+                while(n >= 0 && run[run.length - 1].hasRemaining())
+                    n = ch.read(run);
+                return;
+            } catch (ClosedByInterruptException e) {
+                throw e;
+            } catch (ClosedChannelException e) {
+                for(ByteBuffer b : run)
+                    b.clear();
+            }
+        }
+    }
+
+    /**
+     * Writes all remaining bytes of src at the specified file offset.
+     */
+    public void write(ByteBuffer src, long offset) throws IOException {
+        int start = src.position();
+        while(true) {
+            try {
+                FileChannel ch = getChannel();
+                while(src.hasRemaining())
+                    ch.write(src, offset + (src.position() - start));
+                return;
+            } catch (ClosedByInterruptException e) {
+                throw e;
+            } catch (ClosedChannelException e) {
+                src.position(start);
+            }
+        }
+    }
+
+    /**
+     * Writes the specified pages, sorted by page number, and forces them to
+     * disk.  Each run of consecutive pages is written with a single
+     * gathering write.
+     *
+     * @param pages the pages to write, in increasing page number order
+     * @param pageSize the number of bytes in each page
+     */
+    public synchronized void writePages(List<Page> pages, int pageSize) throws IOException {
+        int i = 0;
+        while(i < pages.size()) {
+            int first = pages.get(i).getId().pageno();
+            int end = i + 1;
+            while(end < pages.size() && pages.get(end).getId().pageno() == first + (end - i))
+                end++;
+            ByteBuffer[] run = new ByteBuffer[end - i];
+            for(int j = i; j < end; j++)
+                run[j - i] = ByteBuffer.wrap(pages.get(j).getPageData());
+            writeRun(run, (long) first * pageSize);
+            i = end;
+        }
+        force();
+    }
+
+    private void writeRun(ByteBuffer[] run, long offset) throws IOException {
+        while(true) {
+            try {
+                FileChannel ch = getChannel();
+                long total = 0;
+                for(ByteBuffer b : run)
+                    total += b.remaining();
+                long written = 0;
+                ch.position(offset);
+                while(written < total)
+                    written += ch.write(run);
+                return;
+            } catch (ClosedByInterruptException e) {
+                throw e;
+            } catch (ClosedChannelException e) {
+                for(ByteBuffer b : run)
+                    b.rewind();
+            }
+        }
+    }
+
+    /**
+     * Forces all writes to this file to disk.
+     */
+    public void force() throws IOException {
+        getChannel().force(false);
+    }
+
+    /**
+     * Closes the underlying channel.  Later reads and writes transparently
+     * reopen it.
+     */
+    public synchronized void close() throws IOException {
+        if(channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+}
@@ -0,0 +1,152 @@
+package simpledb;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * PageCompressor is a small LZ77 codec for page images, used by
+ * {@link CompressedPageCache}.  It is tuned for what pages hold: fixed-size
+ * STRING slots padded with zeros, empty slots and repeated values, all of
+ * which turn into back-references.
+ * <p>
+ * A compressed page is a sequence of (literals, match) pairs.  Each pair is
+ * the number of literal bytes, the literal bytes, the length of the match
+ * and the distance back to where the match starts; lengths and distances
+ * are unsigned varints.  A match length of 0 ends the page.  Matches may
+ * overlap the bytes they produce, so a run of zeros is one short match.
+ */
+public class PageCompressor {
+    /** Matches shorter than this are stored as literals. */
+    static final int MIN_MATCH = 4;
+
+    static final int HASH_BITS = 12;
+    // the most bytes a varint of an int takes
+    private static final int MAX_VARINT = 5;
+
+    // the hash table compress uses, one per thread so it isn't allocated per page
+    private static final ThreadLocal<int[]> TABLE = new ThreadLocal<int[]>() {
+        protected int[] initialValue() {
+            return new int[1 << HASH_BITS];
+        }
+    };
+
+    /**
+     * Compresses the specified page image.  A page that doesn't compress
+     * is stored as one run of literals.
+     */
+    public static byte[] compress(byte[] page) {
+        // worst case: as many bytes as the input they stand for, one match
+        // more, and the final run of literals with its length and the end
+        byte[] out = new byte[page.length + 4 * MAX_VARINT + 1];
+        // last position at which each hash of MIN_MATCH bytes was seen
+        int[] table = TABLE.get();
+        Arrays.fill(table, -1);
+
+        int n = 0;
+        int literalStart = 0;
+        int i = 0;
+        while (i + MIN_MATCH <= page.length) {
+            int h = hash(page, i);
+            int candidate = table[h];
+            table[h] = i;
+            if (candidate < 0 || !matches(page, candidate, i)) {
+                i++;
+                continue;
+            }
+            // short matches far back can take more bytes than they replace;
+            // once the output outgrows its input, store the page as it is
+            if (n > literalStart) {
+                n = 0;
+                literalStart = 0;
+                break;
+            }
+            int len = MIN_MATCH;
+            while (i + len < page.length && page[candidate + len] == page[i + len])
+                len++;
+            n = writeLiterals(out, n, page, literalStart, i);
+            n = writeVarint(out, n, len);
+            n = writeVarint(out, n, i - candidate);
+            i += len;
+            literalStart = i;
+        }
+        n = writeLiterals(out, n, page, literalStart, page.length);
+        n = writeVarint(out, n, 0);
+        return Arrays.copyOf(out, n);
+    }
+
+    /**
+     * Decompresses a page compressed with {@link #compress} into the
+     * remaining bytes of dst, which must hold exactly the page.  The
+     * position of dst is not modified.
+     */
+    public static void decompress(byte[] in, ByteBuffer dst) {
+        if (dst.hasArray()) {
+            decompress(in, dst.array(), dst.arrayOffset() + dst.position(), dst.remaining());
+        } else {
+            byte[] out = new byte[dst.remaining()];
+            decompress(in, out, 0, out.length);
+            dst.duplicate().put(out);
+        }
+    }
+
+    private static void decompress(byte[] in, byte[] out, int base, int length) {
+        int n = base;
+        int[] pos = { 0 };
+        while (true) {
+            int literals = readVarint(in, pos);
+            if (n + literals > base + length)
+                throw new IllegalArgumentException("compressed page is too long");
+            System.arraycopy(in, pos[0], out, n, literals);
+            n += literals;
+            pos[0] += literals;
+            int len = readVarint(in, pos);
+            if (len == 0)
+                break;
+            if (n + len > base + length)
+                throw new IllegalArgumentException("compressed page is too long");
+            int from = n - readVarint(in, pos);
+            // byte by byte: the match may overlap what it is producing
+            for (int k = 0; k < len; k++)
+                out[n++] = out[from + k];
+        }
+        if (n - base != length)
+            throw new IllegalArgumentException("compressed page is too short");
+    }
+
+    static int hash(byte[] b, int i) {
+        int v = (b[i] & 0xFF) | (b[i + 1] & 0xFF) << 8 | (b[i + 2] & 0xFF) << 16 | (b[i + 3] & 0xFF) << 24;
+        return (v * 0x9E3779B1) >>> (32 - HASH_BITS);
+    }
+
+    private static boolean matches(byte[] b, int candidate, int i) {
+        for (int k = 0; k < MIN_MATCH; k++)
+            if (b[candidate + k] != b[i + k])
+                return false;
+        return true;
+    }
+
+    private static int writeLiterals(byte[] out, int n, byte[] b, int from, int to) {
+        n = writeVarint(out, n, to - from);
+        System.arraycopy(b, from, out, n, to - from);
+        return n + to - from;
+    }
+
+    private static int writeVarint(byte[] out, int n, int v) {
+        while ((v & ~0x7F) != 0) {
+            out[n++] = (byte) ((v & 0x7F) | 0x80);
+            v >>>= 7;
+        }
+        out[n++] = (byte) v;
+        return n;
+    }
+
+    private static int readVarint(byte[] in, int[] pos) {
+        int v = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = in[pos[0]++];
+            v |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+                return v;
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package simpledb;
+
+import java.io.IOException;
+
+/**
+ * PageWriter is the background thread that writes dirty pages of a buffer
+ * pool to disk, so that a page the pool wants to evict is usually clean
+ * already and transactions don't stall on the write.
+ * <p>
+ * Every INTERVAL milliseconds the writer looks at how much of the pool is
+ * dirty, and once that is more than DIRTY_FRACTION of its capacity it
+ * writes every dirty page that is not pinned.  Pages of running
+ * transactions are written too (STEAL): the buffer pool logs their before
+ * and after images first, so an abort or a crash can undo them.  The thread
+ * stops once its pool is no longer the database's buffer pool.
+ *
+ * @see BufferPool#flushUnpinnedPages
+ */
+public class PageWriter extends Thread {
+    public static final long INTERVAL = 100;
+    public static final double DIRTY_FRACTION = 0.5;
+
+    private final BufferPool pool;
+
+    private PageWriter(BufferPool pool) {
+        super("simpledb-pagewriter");
+        this.pool = pool;
+        setDaemon(true);
+    }
+
+    /**
+     * Starts the writer for the specified buffer pool.
+     */
+    public static void startFor(BufferPool pool) {
+        new PageWriter(pool).start();
+    }
+
+    public void run() {
+        do {
+            try {
+                Thread.sleep(INTERVAL);
+                if (pool.getDirtyBytes() > pool.getCapacityBytes() * DIRTY_FRACTION)
+                    pool.flushUnpinnedPages();
+            } catch (InterruptedException e) {
+                return;
+            } catch (IOException e) {
+                // the pages stay dirty; eviction or commit will write them
+                e.printStackTrace();
+            }
+        } while (Database.getBufferPool() == pool);
+    }
+}
@@ -245,16 +245,20 @@ public class Parser {
         }
         System.out.println("");
         
-        sdbq.start();
-        System.out.println("Started?");
-        int cnt = 0;
-        while (sdbq.hasNext()) {
-            Tuple tup = sdbq.next();
-            System.out.println(tup);
-            cnt++;
+        // closed even if the query fails, so its scans let go of their pages
+        try {
+            sdbq.start();
+            System.out.println("Started?");
+            int cnt = 0;
+            while (sdbq.hasNext()) {
+                Tuple tup = sdbq.next();
+                System.out.println(tup);
+                cnt++;
+            }
+            System.out.println("\n " + cnt + " rows.");
+        } finally {
+            sdbq.close();
         }
-        System.out.println("\n " + cnt + " rows.");
-        sdbq.close();
     }
 
     public static void handleInsertStatement(ZInsert s) throws TransactionAbortedException, DbException, IOException, simpledb.ParsingException, Zql.ParseException  {
@@ -311,13 +315,16 @@ public class Parser {
 
         Query sdbq = new Query(new Insert(curtrans.getId(), newTups, id), curtrans.getId());
         // XXX print field names
-        sdbq.start();
-        System.out.print("Inserted ");
-        while (sdbq.hasNext()) {
-            Tuple tup = sdbq.next();
-            System.out.println(tup);
+        try {
+            sdbq.start();
+            System.out.print("Inserted ");
+            while (sdbq.hasNext()) {
+                Tuple tup = sdbq.next();
+                System.out.println(tup);
+            }
+        } finally {
+            sdbq.close();
         }
-        sdbq.close();
 
     }
 
@@ -340,13 +347,16 @@ public class Parser {
 
         Query sdbq = new Query(new Delete(curtrans.getId(), lp.physicalPlan(curtrans.getId(), statsMap, false)), curtrans.getId());
         // XXX print field names
-        sdbq.start();
-        System.out.print("Deleted ");
-        while (sdbq.hasNext()) {
-            Tuple tup = sdbq.next();
-            System.out.println(tup);
+        try {
+            sdbq.start();
+            System.out.print("Deleted ");
+            while (sdbq.hasNext()) {
+                Tuple tup = sdbq.next();
+                System.out.println(tup);
+            }
+        } finally {
+            sdbq.close();
         }
-        sdbq.close();
 
     }
 
@@ -455,9 +465,9 @@ public class Parser {
 
     public static void main(String argv[]) throws IOException {
 
-        String usage = "Usage: parser catalogFile [-explain] [-f queryFile]";
+        String usage = "Usage: parser catalogFile [-explain] [-f queryFile] [-warmup all|none|table,...] [-noforce] [-deadlock detect|background|wait-die|wound-wait]";
 
-        if (argv.length < 1 || argv.length > 4) {
+        if (argv.length < 1 || argv.length > 9) {
             System.out.println("Invalid number of arguments.\n" + usage);
             System.exit(0);
         }
@@ -465,6 +475,15 @@ public class Parser {
         //first add tables to database
         Database.getCatalog().loadSchema(argv[0]);
 
+        // install what committed before the last exit, and only that
+        try {
+            Database.getLogFile().recover();
+        } catch (IOException e) {
+            System.out.println("Unable to recover from the log: " + e);
+        }
+        // small tables the catalog pins are read in once, up front
+        Database.getBufferPool().preloadPinnedTables();
+
         Iterator<Integer> tableIt = Database.getCatalog().tableIdIterator();
 
         System.out.println("Computing table stats.");
@@ -477,6 +496,7 @@ public class Parser {
 
         boolean interactive = true;
         String queryFile = null;
+        String warmUpTables = "all";
 
         if (argv.length > 1) {
             for (int i = 1; i<argv.length; i++) {
@@ -491,11 +511,54 @@ public class Parser {
                     }
                     queryFile = argv[i];
 
+                } else if (argv[i].equals("-warmup")) {
+                    if (++i == argv.length) {
+                        System.out.println("Expected table names after -warmup\n" + usage);
+                        System.exit(0);
+                    }
+                    warmUpTables = argv[i];
+                } else if (argv[i].equals("-noforce")) {
+                    // commits force the log only; pages are written later
+                    Database.getBufferPool().setForceAtCommit(false);
+                } else if (argv[i].equals("-deadlock")) {
+                    if (++i == argv.length) {
+                        System.out.println("Expected a deadlock policy after -deadlock\n" + usage);
+                        System.exit(0);
+                    }
+                    try {
+                        Database.getBufferPool().setDeadlockPolicy(
+                                DeadlockPolicy.valueOf(argv[i].toUpperCase().replace('-', '_')));
+                    } catch (IllegalArgumentException e) {
+                        System.out.println("Unknown deadlock policy " + argv[i] + "\n " + usage);
+                        System.exit(0);
+                    }
                 } else {
                     System.out.println("Unknown argument " + argv[i] + "\n " + usage);
                 }
             }
         }
+
+        // reload the pages that were cached at the last checkpoint while queries run
+        File warmUpFile = Database.getLogFile().getWarmUpFile();
+        if (!warmUpTables.equals("none")) {
+            HashSet<Integer> tableIds = null;
+            if (!warmUpTables.equals("all")) {
+                tableIds = new HashSet<Integer>();
+                for (String name : warmUpTables.split(",")) {
+                    try {
+                        tableIds.add(Database.getCatalog().getTableId(name));
+                    } catch (NoSuchElementException e) {
+                        System.out.println("Unknown table " + name + " for -warmup");
+                    }
+                }
+            }
+            try {
+                WarmUp.start(warmUpFile, tableIds);
+            } catch (IOException e) {
+                System.out.println("Unable to read warm-up file " + warmUpFile);
+            }
+        }
+
         if (!interactive) {
                 try {
                     curtrans = new Transaction();
@@ -543,6 +606,9 @@ public class Parser {
                 }
             }
         }
+
+        // nothing here writes a checkpoint, so save the cached pages on the way out
+        WarmUp.save(Database.getBufferPool(), warmUpFile);
     }
 }
 
@@ -0,0 +1,99 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * PaxFile is an implementation of a DbFile that stores a collection of
+ * tuples in no particular order, like HeapFile, but on PaxPages, which store
+ * each field of the tuples on a page together in its own minipage.  The file
+ * holds the same number of tuples per page as a HeapFile with the same
+ * schema; only the layout within the page differs.  The format of PaxPages is
+ * described in the PaxPage class comment.
+ * <p>
+ * Scans that only use some of the fields of the table can say so with
+ * {@link #iterator(TransactionId, int[])}; the iterator then decodes just
+ * those fields, one minipage at a time.
+ *
+ * @see simpledb.PaxPage
+ */
+public class PaxFile extends HeapFile {
+
+    /**
+     * Constructs a PAX file backed by the specified file.
+     *
+     * @param f the file that stores the on-disk backing store for this file.
+     */
+    public PaxFile(File f, TupleDesc td) {
+    	super(f, td);
+    }
+
+    /**
+     * Constructs a PAX file backed by the specified file.
+     *
+     * @param f the file that stores the on-disk backing store for this file.
+     * @param memoryMapped if true, pages are decoded straight out of a
+     *   read-only memory mapping of the file.
+     * @see HeapFile#HeapFile(File, TupleDesc, boolean)
+     */
+    public PaxFile(File f, TupleDesc td, boolean memoryMapped) {
+    	super(f, td, memoryMapped);
+    }
+
+    /**
+     * Constructs a PAX file backed by the specified file whose pages are the
+     * specified number of bytes long.
+     *
+     * @see HeapFile#HeapFile(File, TupleDesc, boolean, int)
+     */
+    public PaxFile(File f, TupleDesc td, boolean memoryMapped, int pageSize) {
+    	super(f, td, memoryMapped, pageSize);
+    }
+
+    @Override
+    protected HeapPage newPage(HeapPageId pid, ByteBuffer data) throws IOException {
+    	return new PaxPage(pid, data);
+    }
+
+    public class PaxFileIterator extends HeapFileIterator {
+    	private int[] columns;
+
+    	public PaxFileIterator(TransactionId tid, int[] columns, Predicate[] predicates) {
+    		super(tid, PaxFile.this, predicates);
+    		this.columns = columns;
+    	}
+
+		@Override
+		protected Iterator<Tuple> tuples(HeapPage hp) {
+			if(columns == null)
+				return hp.iterator();
+			return ((PaxPage) hp).iterator(columns);
+		}
+    }
+
+    /**
+     * Returns an iterator over the tuples of this file that decodes only
+     * the specified fields of each tuple up front.  The tuples still have
+     * every field: the others are decoded if they are read.
+     *
+     * @param columns the indexes of the fields the caller is going to read
+     */
+    public DbFileIterator iterator(TransactionId tid, int[] columns) {
+    	return new PaxFileIterator(tid, columns, null);
+    }
+
+    /**
+     * Returns an iterator that decodes only the specified fields up front
+     * and skips the pages the zone map rules out for the specified
+     * predicates.
+     *
+     * @param columns the fields to decode, or null to decode fields lazily
+     * @param predicates the predicates, or null to read every page
+     * @see #iterator(TransactionId, int[])
+     * @see HeapFile#iterator(TransactionId, Predicate[])
+     */
+    public DbFileIterator iterator(TransactionId tid, int[] columns, Predicate[] predicates) {
+    	return new PaxFileIterator(tid, columns, predicates);
+    }
+}
@@ -0,0 +1,83 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+
+/**
+ * PaxFileEncoder reads a comma delimited text file and writes it out as
+ * a PaxFile, in the same way HeapFileEncoder does for HeapFiles.
+ */
+public class PaxFileEncoder {
+
+  /** Convert the specified input text file into a PaxFile.
+    * The input has the same format HeapFileEncoder accepts: one tuple per
+    * line, with comma separated fields.  Strings longer than
+    * Type.STRING_LEN are truncated.
+    *
+    * @see PaxPage
+    * @see HeapFileEncoder
+    * @param inFile The input file to read data from
+    * @param outFile The output file to write data to
+    * @param typeAr The type of each field in a line
+    * @throws IOException if the input/output file can't be opened
+    */
+  public static void convert(File inFile, File outFile, Type[] typeAr) throws IOException {
+      convert(inFile, outFile, typeAr, BufferPool.PAGE_SIZE);
+  }
+
+  /** Convert the specified input text file into a PaxFile whose pages are
+    * the specified number of bytes long.
+    *
+    * @see #convert(File, File, Type[])
+    * @param npagebytes The number of bytes per page in the output file
+    */
+  public static void convert(File inFile, File outFile, Type[] typeAr, int npagebytes) throws IOException {
+      TupleDesc td = new TupleDesc(typeAr);
+      BufferedReader br = new BufferedReader(new FileReader(inFile));
+      FileOutputStream os = new FileOutputStream(outFile);
+      HeapPageId pid = new HeapPageId(0, 0);
+      PaxPage page = new PaxPage(pid, ByteBuffer.wrap(HeapPage.createEmptyPageData(npagebytes)), td, npagebytes);
+      int npages = 0;
+
+      String line;
+      while ((line = br.readLine()) != null) {
+          if (line.trim().isEmpty())
+              continue;
+          String[] values = line.split(",", -1);
+          if (values.length < typeAr.length) {
+              System.out.println ("BAD LINE : " + line);
+              continue;
+          }
+          Tuple t = new Tuple(td);
+          try {
+              for (int i = 0; i < typeAr.length; i++) {
+                  String s = values[i].trim();
+                  if (typeAr[i] == Type.INT_TYPE)
+                      t.setField(i, new IntField(Integer.parseInt(s)));
+                  else
+                      t.setField(i, new StringField(s, Type.STRING_LEN));
+              }
+          } catch (NumberFormatException e) {
+              System.out.println ("BAD LINE : " + line);
+              continue;
+          }
+
+          try {
+              if (page.getNumEmptySlots() == 0) {
+                  os.write(page.getPageData());
+                  npages++;
+                  page = new PaxPage(pid, ByteBuffer.wrap(HeapPage.createEmptyPageData(npagebytes)), td, npagebytes);
+              }
+              page.addTuple(t);
+          } catch (DbException e) {
+              throw new IOException("couldn't add tuple: " + e.getMessage());
+          }
+      }
+
+      // like HeapFileEncoder, write out an empty page rather than an empty file
+      if (page.getNumEmptySlots() < page.numSlots || npages == 0)
+          os.write(page.getPageData());
+      br.close();
+      os.close();
+  }
+}
@@ -0,0 +1,112 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * PaxPage stores pages of PaxFiles.  A PaxPage holds the same tuples a
+ * HeapPage would, behind the same header bitmap of used slots, but lays the
+ * rest of the page out by column (PAX, "partition attributes across"):
+ * <pre>
+ *     header | minipage of field 0 | minipage of field 1 | ...
+ * </pre>
+ * The minipage of field j holds that field of every slot, one after
+ * another, so field j of slot i starts at
+ * <pre>
+ *     headerSize + numSlots * (size of fields 0..j-1) + i * (size of field j)
+ * </pre>
+ * A scan that only needs a few fields reads just their minipages instead of
+ * stepping over whole rows.
+ *
+ * @see PaxFile
+ * @see HeapPage
+ */
+public class PaxPage extends HeapPage {
+
+    /**
+     * Create a PaxPage from a set of bytes of data read from disk.
+     *
+     * @see HeapPage#HeapPage(HeapPageId, byte[])
+     */
+    public PaxPage(HeapPageId id, byte[] data) throws IOException {
+        super(id, data);
+    }
+
+    /**
+     * Create a PaxPage from the page image starting at the current position
+     * of the specified buffer.
+     *
+     * @see HeapPage#HeapPage(HeapPageId, ByteBuffer)
+     */
+    public PaxPage(HeapPageId id, ByteBuffer data) throws IOException {
+        super(id, data);
+    }
+
+    /**
+     * Create a PaxPage for a table with the specified schema and page size,
+     * which need not be in the catalog. Used by PaxFileEncoder.
+     */
+    PaxPage(HeapPageId id, ByteBuffer data, TupleDesc td, int pageSize) throws IOException {
+        super(id, data, td, pageSize);
+    }
+
+    @Override
+    int fieldOffset(int slot, int field) {
+        return headerSize + numSlots * fieldOffsets[field] + slot * td.getType(field).getLen();
+    }
+
+    @Override
+    public PaxPage getBeforeImage() {
+        try {
+            if (oldData == null)
+                return new PaxPage(pid, ByteBuffer.wrap(getPageData()));
+            return new PaxPage(pid, oldData);
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    /**
+     * Returns an iterator over all tuples on this page, like
+     * {@link #iterator()}, with the specified fields already decoded.  Each
+     * field is decoded for every tuple in one pass over its minipage.  The
+     * other fields are left to be decoded if and when they are read.
+     *
+     * @param columns the indexes of the fields to decode
+     */
+    public Iterator<Tuple> iterator(int[] columns) {
+        int[] slots = new int[numSlots - getNumEmptySlots()];
+        Tuple[] page = new Tuple[slots.length];
+        int n = 0;
+        for (int x = 0; x < numSlots; x++) {
+            if (getSlot(x)) {
+                slots[n] = x;
+                page[n] = tuple(x);
+                n++;
+            }
+        }
+
+        ByteBuffer buf = data.duplicate();
+        for (int c : columns) {
+            Type type = td.getType(c);
+            int base = fieldOffset(0, c);
+            int len = type.getLen();
+            try {
+                for (int i = 0; i < n; i++) {
+                    if (page[i].hasField(c))
+                        continue;
+                    buf.position(base + slots[i] * len);
+                    page[i].setField(c, type.parse(buf));
+                }
+            } catch (java.text.ParseException e) {
+                e.printStackTrace();
+                throw new NoSuchElementException("parsing error!");
+            }
+        }
+        return Arrays.asList(page).iterator();
+    }
+}
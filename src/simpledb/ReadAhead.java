@@ -0,0 +1,106 @@
+package simpledb;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * ReadAhead watches the sequence of pages a file iterator visits and, once
+ * the access pattern looks sequential, asks the buffer pool to load the
+ * pages ahead of the iterator on a background thread.
+ * <p>
+ * The window works like an operating system's read-ahead: the first
+ * sequential access schedules INITIAL_WINDOW pages, and every time the
+ * iterator gets halfway into the pages that were last scheduled, the next
+ * window is scheduled at twice the size (capped at MAX_WINDOW, or a quarter
+ * of the buffer pool if that is smaller).  A non-sequential access resets
+ * the window.
+ * <p>
+ * Prefetching is only a hint: each window is read with
+ * {@link BufferPool#prefetchPages}, one read per run of pages that aren't in
+ * the buffer pool yet, which takes no locks and gives up rather than
+ * evicting dirty pages.
+ */
+public class ReadAhead {
+    public static final int INITIAL_WINDOW = 4;
+    public static final int MAX_WINDOW = 32;
+    private static final int NUM_THREADS = 2;
+
+    private static final ExecutorService executor = Executors.newFixedThreadPool(NUM_THREADS,
+            new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "simpledb-readahead");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+
+    private final int tableId;
+    private final DbFile file;
+    private int lastPage;
+    private int window;
+    private int scheduledEnd; // one past the last page handed to the executor
+
+    /**
+     * @param file the file whose pages are being read
+     */
+    public ReadAhead(DbFile file) {
+        this.file = file;
+        this.tableId = file.getId();
+        reset();
+    }
+
+    /** Forget the access history, e.g. when the iterator is rewound. */
+    public void reset() {
+        lastPage = -1;
+        window = 0;
+        scheduledEnd = 0;
+    }
+
+    /**
+     * Tells the read-ahead that the iterator is about to read the specified
+     * page, scheduling a prefetch of the following pages if appropriate.
+     */
+    public void pageAccessed(int pageNo) {
+        boolean sequential = pageNo == lastPage + 1;
+        lastPage = pageNo;
+        if(!sequential) {
+            window = 0;
+            scheduledEnd = pageNo + 1;
+            return;
+        }
+
+        // never prefetch more than a quarter of the buffer pool, or the
+        // prefetched pages start evicting each other before they are used
+        long poolPages = Database.getBufferPool().getCapacityBytes() / file.getPageSize();
+        int maxWindow = (int) Math.min(MAX_WINDOW, poolPages / 4);
+        if(maxWindow == 0)
+            return;
+        if(window == 0) {
+            window = Math.min(INITIAL_WINDOW, maxWindow);
+            scheduledEnd = pageNo + 1;
+            schedule(scheduledEnd, window);
+        } else if(pageNo >= scheduledEnd - window / 2) {
+            window = Math.min(window * 2, maxWindow);
+            schedule(Math.max(scheduledEnd, pageNo + 1), window);
+        }
+    }
+
+    /** @return the number of pages the next window will prefetch */
+    public int getWindow() {
+        return window;
+    }
+
+    private void schedule(final int start, int count) {
+        final int end = Math.min(start + count, file.numPages());
+        scheduledEnd = start + count;
+        if(start >= end)
+            return;
+        final BufferPool bp = Database.getBufferPool();
+        executor.execute(new Runnable() {
+            public void run() {
+                bp.prefetchPages(tableId, start, end);
+            }
+        });
+    }
+}
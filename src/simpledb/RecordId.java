@@ -50,7 +50,8 @@ public class RecordId {
      */
     @Override
     public int hashCode() {
-    	return new Integer(String.valueOf(pid.hashCode()) + String.valueOf(tupleNum));
+    	// row locks are hashed by RecordId, so neighbouring slots must spread out
+    	return 31 * pid.hashCode() + tupleNum;
     }
     
 }
@@ -0,0 +1,44 @@
+package simpledb;
+
+/**
+ * ReplacementPolicy decides which page the BufferPool evicts when it needs
+ * room for another one.  The buffer pool tells the policy when pages come
+ * and go and every time a page is requested; the policy keeps whatever
+ * history it needs to rank the resident pages.
+ * <p>
+ * Implementations are {@link ClockPolicy}, {@link LruKPolicy} (LRU-2) and
+ * {@link TwoQueuePolicy} (2Q).  A policy instance belongs to a single
+ * BufferPool, and may be called from several threads at once.
+ *
+ * @see BufferPool#BufferPool(int, ReplacementPolicy)
+ */
+public interface ReplacementPolicy {
+
+    /** Tells the policy which pages it may choose. */
+    public interface Evictable {
+        /** @return true if the specified resident page may be evicted now */
+        public boolean canEvict(PageId pid);
+    }
+
+    /**
+     * Called when a page is put into the buffer pool, before it is
+     * requested.  Pages read ahead of time are added without being
+     * requested.
+     */
+    public void pageAdded(PageId pid);
+
+    /** Called every time a page in the buffer pool is requested. */
+    public void pageAccessed(PageId pid);
+
+    /** Called when a page leaves the buffer pool, whatever the reason. */
+    public void pageRemoved(PageId pid);
+
+    /**
+     * Picks the page to evict.  Does not remove it; the buffer pool calls
+     * {@link #pageRemoved} once it has.
+     *
+     * @param evictable which of the resident pages may be evicted
+     * @return the page to evict, or null if no resident page may be
+     */
+    public PageId chooseVictim(Evictable evictable);
+}
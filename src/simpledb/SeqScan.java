@@ -12,6 +12,8 @@ public class SeqScan implements DbIterator {
     private String tableAlias;
     private DbFile tableFile;
     private DbFileIterator fileIterator;
+    private int[] columns;
+    private Predicate[] predicates;
 
     /**
      * Creates a sequential scan over the specified table as a part of the
@@ -37,9 +39,47 @@ public class SeqScan implements DbIterator {
         }
     }
 
+    /**
+     * Creates a sequential scan over the specified table that tells the
+     * table which fields the rest of the plan is going to read.  Tables that
+     * store their fields separately (PaxFile) decode only those fields up
+     * front; other tables ignore this.  The returned tuples still have every
+     * field.
+     *
+     * @param columns the indexes of the fields that will be read, or null
+     *   if any of them may be
+     * @see #SeqScan(TransactionId, int, String)
+     */
+    public SeqScan(TransactionId tid, int tableid, String tableAlias, int[] columns) {
+        this(tid, tableid, tableAlias, columns, null);
+    }
+
+    /**
+     * Creates a sequential scan that also passes the plan's filters on this
+     * table down to the table.  HeapFiles (and PaxFiles) use them to skip
+     * pages that their zone maps say hold no matching tuple.  The scan may
+     * still return tuples that do not match, so the filters must still be
+     * applied above it.
+     *
+     * @param predicates predicates on the fields of the table, or null
+     * @see #SeqScan(TransactionId, int, String, int[])
+     * @see ZoneMap
+     */
+    public SeqScan(TransactionId tid, int tableid, String tableAlias, int[] columns,
+            Predicate[] predicates) {
+        this(tid, tableid, tableAlias);
+        this.columns = columns;
+        this.predicates = predicates;
+    }
+
     public void open()
         throws DbException, TransactionAbortedException {
-        fileIterator = tableFile.iterator(tid);
+        if ((columns != null || predicates != null) && tableFile instanceof PaxFile)
+            fileIterator = ((PaxFile) tableFile).iterator(tid, columns, predicates);
+        else if (predicates != null && tableFile instanceof HeapFile)
+            fileIterator = ((HeapFile) tableFile).iterator(tid, predicates);
+        else
+            fileIterator = tableFile.iterator(tid);
         fileIterator.open();
     }
 
@@ -65,7 +105,9 @@ public class SeqScan implements DbIterator {
     }
 
     public void close() {
-        fileIterator.close();
+        // open() may have failed before it got to the table
+        if (fileIterator != null)
+            fileIterator.close();
     }
 
     public void rewind()
@@ -14,7 +14,7 @@ public class SimpleDb {
                         BufferPool.PAGE_SIZE,
                         Integer.parseInt(args[2]));
         }
-        else if (args.length == 4) {
+        else if (args.length >= 4 && args.length <= 6) {
             ArrayList<Type> ts = new ArrayList<Type>();
             String[] typeStringAr = args[3].split(",");
             for (String s: typeStringAr) {
@@ -27,9 +27,30 @@ public class SimpleDb {
                 return;
             }
             }
+            // optional trailing arguments pick the file format and page size
+            String format = "heap";
+            int pageSize = BufferPool.PAGE_SIZE;
+            for (int i = 4; i < args.length; i++) {
+                if (args[i].startsWith("pagesize="))
+                    pageSize = Integer.parseInt(args[i].substring("pagesize=".length()));
+                else
+                    format = args[i];
+            }
+            if (format.equals("slotted"))
+                SlottedFileEncoder.convert(new File(args[1]),
+                        new File(args[1].replaceAll(".txt", ".dat")),
+                        ts.toArray(new Type[0]), pageSize);
+            else if (format.equals("pax"))
+                PaxFileEncoder.convert(new File(args[1]),
+                        new File(args[1].replaceAll(".txt", ".dat")),
+                        ts.toArray(new Type[0]), pageSize);
+            else if (!format.equals("heap")) {
+                System.out.println("Unknown file format " + format);
+                return;
+            } else
             HeapFileEncoder.convert(new File(args[1]),
                         new File(args[1].replaceAll(".txt", ".dat")),
-                        BufferPool.PAGE_SIZE,
+                        pageSize,
                         Integer.parseInt(args[2]), ts.toArray(new Type[0]));
 
         } else {
@@ -0,0 +1,252 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * SlottedFile is an implementation of a DbFile that, like HeapFile, stores
+ * a collection of tuples in no particular order, but stores them on
+ * SlottedPages: records are variable length, so STRING fields are not
+ * padded out to Type.STRING_LEN bytes and many more tuples fit on a page
+ * when strings are short.  How many tuples fit is a property of each page
+ * rather than of the table.  The format of SlottedPages is described in
+ * the SlottedPage class comment.
+ * <p>
+ * Pages are addressed with HeapPageIds.
+ *
+ * @see simpledb.SlottedPage
+ */
+public class SlottedFile implements DbFile {
+	private File f;
+	private TupleDesc td;
+	private int pageSize;
+	private PageChannel channel;
+	private FreeSpaceMap freeSpace;
+
+    /**
+     * Constructs a slotted file backed by the specified file.
+     *
+     * @param f the file that stores the on-disk backing store for this file.
+     */
+    public SlottedFile(File f, TupleDesc td) {
+    	this(f, td, BufferPool.PAGE_SIZE);
+    }
+
+    /**
+     * Constructs a slotted file backed by the specified file whose pages are
+     * the specified number of bytes long, up to SlottedPage.MAX_PAGE_SIZE.
+     *
+     * @param f the file that stores the on-disk backing store for this file.
+     * @param pageSize the number of bytes in each page of the file
+     */
+    public SlottedFile(File f, TupleDesc td, int pageSize) {
+    	this.f = f;
+    	this.td = td;
+    	this.pageSize = pageSize;
+    	this.channel = new PageChannel(f);
+    	this.freeSpace = new FreeSpaceMap(f);
+    }
+
+    /**
+     * Returns the File backing this SlottedFile on disk.
+     */
+    public File getFile() {
+    	return f;
+    }
+
+    // see DbFile.java for javadocs
+    public int getId() {
+        return f.getAbsoluteFile().hashCode();
+    }
+
+    // see DbFile.java for javadocs
+    public TupleDesc getTupleDesc() {
+    	return td;
+    }
+
+    // see DbFile.java for javadocs
+    public int getPageSize() {
+    	return pageSize;
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+    	if(pid == null)
+    		return null;
+    	try {
+    		byte[] pageData = new byte[pageSize];
+    		channel.read(ByteBuffer.wrap(pageData), (long) pid.pageno() * pageSize);
+    		SlottedPage page = new SlottedPage((HeapPageId) pid, ByteBuffer.wrap(pageData));
+    		page.trackFreeSpace(freeSpace);
+    		return page;
+    	} catch(Exception e) {
+    		e.printStackTrace();
+    		System.exit(1);
+    	}
+    	return null;
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+    	channel.write(ByteBuffer.wrap(page.getPageData()), (long) page.getId().pageno() * pageSize);
+    }
+
+    // see DbFile.java for javadocs
+    public void writePages(List<Page> pages) throws IOException {
+    	channel.writePages(pages, pageSize);
+    }
+
+    // see DbFile.java for javadocs
+    public void close() throws IOException {
+    	freeSpace.save();
+    	channel.close();
+    }
+
+    /**
+     * Returns the number of pages in this SlottedFile.
+     */
+    public int numPages() {
+    	return (int) (f.length() / pageSize);
+    }
+
+    /**
+     * Returns the map of free bytes per page used to place new tuples.
+     */
+    public FreeSpaceMap getFreeSpaceMap() {
+    	return freeSpace;
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> addTuple(TransactionId tid, Tuple t)
+        throws DbException, IOException, TransactionAbortedException {
+        int tableId = getId();
+        int needed = SlottedPage.recordSize(t);
+        BufferPool bp = Database.getBufferPool();
+        while(true) {
+        	int pages = numPages();
+        	int p = freeSpace.findPage(pages, needed);
+        	if(p < 0) {
+        		// same as HeapFile: an empty page, which the loop then inserts
+        		// into through the buffer pool, appended by only one of the
+        		// inserters that find the file full
+        		synchronized (Database.getCatalog()) {
+        			if(numPages() == pages) {
+        				SlottedPage newPage = new SlottedPage(new HeapPageId(tableId, pages),
+        						SlottedPage.createEmptyPageData(pageSize));
+        				if(newPage.getFreeSpace() < needed)
+        					throw new DbException("No space left on this page");
+        				newPage.trackFreeSpace(freeSpace);
+        				writePage(newPage);
+        			}
+        		}
+        		continue;
+        	}
+
+        	HeapPageId pId = new HeapPageId(tableId, p);
+        	SlottedPage sp = (SlottedPage) bp.getPage(tid, pId, Permissions.READ_ONLY);
+        	if(sp.getFreeSpace() >= needed) {
+        		// pinned so the page can't be written out and evicted halfway through the change
+        		sp = (SlottedPage) bp.pinPage(tid, pId, Permissions.READ_WRITE);
+        		try {
+        			sp.addTuple(t);
+        			sp.markDirty(true, tid);
+        		} finally {
+        			bp.unpinPage(tid, pId);
+        		}
+        		return new ArrayList<Page>(Arrays.asList(new Page[] {sp}));
+        	}
+        	// the map was stale; record what the page really has so we don't come back
+        	freeSpace.update(p, Math.min(sp.getFreeSpace(), needed - 1));
+        	bp.releasePage(tid, pId);
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public Page deleteTuple(TransactionId tid, Tuple t)
+        throws DbException, TransactionAbortedException {
+    	BufferPool bp = Database.getBufferPool();
+    	PageId pid = t.getRecordId().getPageId();
+    	SlottedPage sp = (SlottedPage) bp.pinPage(tid, pid, Permissions.READ_WRITE);
+    	try {
+    		sp.deleteTuple(t);
+    		sp.markDirty(true, tid);
+    	} finally {
+    		bp.unpinPage(tid, pid);
+    	}
+    	return sp;
+    }
+
+    public class SlottedFileIterator implements DbFileIterator {
+    	private SlottedPage sp;
+    	private Iterator<Tuple> it;
+    	private TransactionId tid;
+    	private ReadAhead readAhead;
+
+    	public SlottedFileIterator(TransactionId tid) {
+    		this.tid = tid;
+    		this.readAhead = new ReadAhead(SlottedFile.this);
+    	}
+
+		@Override
+		public void open() throws DbException, TransactionAbortedException {
+			readAhead.reset();
+			unpin();
+			it = null;
+			if(numPages() == 0)
+				return;
+			readAhead.pageAccessed(0);
+			sp = (SlottedPage) Database.getBufferPool().pinPage(tid, new HeapPageId(getId(), 0), Permissions.READ_ONLY);
+			it = sp.iterator();
+		}
+
+		// the page being read stays pinned until the iterator moves past it
+		private void unpin() {
+			if(sp != null)
+				Database.getBufferPool().unpinPage(tid, sp.getId());
+			sp = null;
+		}
+
+		@Override
+		public boolean hasNext() throws DbException, TransactionAbortedException {
+			if(sp == null)
+				return false;
+			while(!it.hasNext()) {
+				int next = sp.getId().pageno() + 1;
+				if(next >= numPages()) {
+					// nothing left to read, so nothing to keep resident
+					unpin();
+					return false;
+				}
+				readAhead.pageAccessed(next);
+				unpin();
+				sp = (SlottedPage) Database.getBufferPool().pinPage(tid, new HeapPageId(getId(), next), Permissions.READ_ONLY);
+				it = sp.iterator();
+			}
+			return true;
+		}
+
+		@Override
+		public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
+			if(!hasNext())
+				throw new NoSuchElementException();
+			return it.next();
+		}
+
+		@Override
+		public void rewind() throws DbException, TransactionAbortedException {
+			open();
+		}
+
+		@Override
+		public void close() {
+			unpin();
+			it = null;
+		}
+    }
+
+    // see DbFile.java for javadocs
+    public DbFileIterator iterator(TransactionId tid) {
+        return new SlottedFileIterator(tid);
+    }
+}
@@ -0,0 +1,489 @@
+package simpledb;
+
+import java.util.*;
+import java.io.*;
+import java.nio.ByteBuffer;
+
+/**
+ * SlottedPage stores pages of SlottedFiles.  Unlike HeapPage, whose slots
+ * all have the size of the largest possible tuple, a SlottedPage stores
+ * variable length records, so a STRING field only takes as many bytes as
+ * the string it holds.
+ * <p>
+ * The page starts with a 4 byte header: the number of entries in the slot
+ * directory and the offset where the record area begins (both unsigned
+ * shorts).  The slot directory follows, one 4 byte entry per slot holding
+ * the offset and length of the slot's record; an offset of 0 marks an empty
+ * slot.  Records are packed against the end of the page and grow towards
+ * the slot directory.  Deleting a record leaves a hole that is reclaimed by
+ * compacting the record area the next time an insert needs the room.  A
+ * tuple keeps its slot number for as long as it is on the page.
+ * <p>
+ * Within a record, an INT field takes 4 bytes, and a STRING field takes a
+ * 2 byte length followed by the characters of the string.
+ *
+ * @see SlottedFile
+ * @see BufferPool
+ */
+public class SlottedPage implements Page, FieldSource {
+    static final int HEADER_SIZE = 4;
+    static final int SLOT_SIZE = 4;
+    /** The largest page size whose offsets fit in the slot directory. */
+    public static final int MAX_PAGE_SIZE = 65536;
+
+    HeapPageId pid;
+    TupleDesc td;
+    int pageSize;
+    ByteBuffer data;
+    Tuple tuples[];
+    volatile TransactionId dirtier;
+
+    byte[] oldData;
+    FreeSpaceMap freeSpace;
+
+    /**
+     * Create a SlottedPage from a set of bytes of data read from disk.  An
+     * all-zero array is an empty page.
+     *
+     * @see #SlottedPage(HeapPageId, ByteBuffer)
+     */
+    public SlottedPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, ByteBuffer.wrap(data.clone()));
+    }
+
+    /**
+     * Create a SlottedPage from the page image starting at the current
+     * position of the specified buffer.  The page keeps using the buffer as
+     * its contents, so the caller must not modify it afterwards.
+     * <p>
+     * As with HeapPage, tuples are decoded lazily, a field at a time.
+     */
+    public SlottedPage(HeapPageId id, ByteBuffer data) throws IOException {
+        this(id, data, Database.getCatalog().getTupleDesc(id.getTableId()),
+                Database.getCatalog().getPageSize(id.getTableId()));
+    }
+
+    /**
+     * Create a SlottedPage of a table that is not in the catalog, e.g. while
+     * building a new file.  Pages are at most 64KB, since offsets within the
+     * page are stored as unsigned shorts.
+     */
+    SlottedPage(HeapPageId id, ByteBuffer data, TupleDesc td, int pageSize) throws IOException {
+        this.pid = id;
+        this.td = td;
+        this.pageSize = pageSize;
+        if (pageSize > MAX_PAGE_SIZE)
+            throw new IOException("page size " + pageSize + " is too large for a slotted page");
+        if (data.remaining() < pageSize)
+            throw new IOException("page image is too short");
+        ByteBuffer buf = data.slice();
+        buf.limit(pageSize);
+        this.data = buf;
+        if (directoryEnd() > freeEnd())
+            throw new IOException("corrupt slot directory in page " + id.pageno());
+        this.tuples = new Tuple[getNumSlots()];
+    }
+
+    /**
+     * @return the number of bytes the specified tuple takes up in a record
+     */
+    public static int recordSize(Tuple t) {
+        int size = 0;
+        TupleDesc td = t.getTupleDesc();
+        for (int j=0; j<td.numFields(); j++) {
+            if (td.getType(j) == Type.STRING_TYPE)
+                size += 2 + Math.min(((StringField) t.getField(j)).getValue().length(), Type.STRING_LEN);
+            else
+                size += td.getType(j).getLen();
+        }
+        return size;
+    }
+
+    /**
+     * @return the number of bytes taken up by the smallest possible record
+     *   of the specified schema, i.e. one whose strings are all empty
+     */
+    public static int minRecordSize(TupleDesc td) {
+        int size = 0;
+        for (int j=0; j<td.numFields(); j++)
+            size += td.getType(j) == Type.STRING_TYPE ? 2 : td.getType(j).getLen();
+        return size;
+    }
+
+    /**
+     * @return the number of entries in the slot directory, used or not
+     */
+    public int getNumSlots() {
+        return data.getShort(0) & 0xFFFF;
+    }
+
+    private void setNumSlots(int n) {
+        data.putShort(0, (short) n);
+    }
+
+    /** @return the offset of the first byte of the record area */
+    private int freeEnd() {
+        int end = data.getShort(2) & 0xFFFF;
+        // an all-zero page has an empty record area
+        return end == 0 ? pageSize : end;
+    }
+
+    private void setFreeEnd(int end) {
+        data.putShort(2, (short) (end == pageSize ? 0 : end));
+    }
+
+    private int directoryEnd() {
+        return HEADER_SIZE + getNumSlots() * SLOT_SIZE;
+    }
+
+    private int slotOffset(int slot) {
+        return data.getShort(HEADER_SIZE + slot * SLOT_SIZE) & 0xFFFF;
+    }
+
+    private int slotLength(int slot) {
+        return data.getShort(HEADER_SIZE + slot * SLOT_SIZE + 2) & 0xFFFF;
+    }
+
+    private void setSlotEntry(int slot, int offset, int length) {
+        data.putShort(HEADER_SIZE + slot * SLOT_SIZE, (short) offset);
+        data.putShort(HEADER_SIZE + slot * SLOT_SIZE + 2, (short) length);
+    }
+
+    /**
+     * Returns true if associated slot on this page is filled.
+     */
+    public boolean getSlot(int i) {
+        return i < getNumSlots() && slotOffset(i) != 0;
+    }
+
+    private int firstEmptySlot() {
+        int n = getNumSlots();
+        for (int i=0; i<n; i++)
+            if (slotOffset(i) == 0)
+                return i;
+        return -1;
+    }
+
+    /**
+     * Returns the number of record bytes that can still be added to this
+     * page, counting the holes left by deleted records and the room a new
+     * slot directory entry would need.
+     */
+    public int getFreeSpace() {
+        int used = 0;
+        int n = getNumSlots();
+        for (int i=0; i<n; i++)
+            if (slotOffset(i) != 0)
+                used += slotLength(i);
+        int free = pageSize - directoryEnd() - used;
+        if (firstEmptySlot() < 0)
+            free -= SLOT_SIZE;
+        return Math.max(free, 0);
+    }
+
+    /**
+     * The free space recorded in the free space map: the free bytes, or 0 if
+     * not even the smallest possible record would fit.
+     */
+    private int usableFreeSpace() {
+        int free = getFreeSpace();
+        return free < minRecordSize(td) ? 0 : free;
+    }
+
+    /**
+     * Returns the number of tuples stored on this page.
+     */
+    public int getNumTuples() {
+        int count = 0;
+        int n = getNumSlots();
+        for (int i=0; i<n; i++)
+            if (slotOffset(i) != 0)
+                count++;
+        return count;
+    }
+
+    /** Return a view of this page before it was modified
+        -- used by recovery */
+    public SlottedPage getBeforeImage() {
+        try {
+            // a page without a saved copy has not been modified
+            if (oldData == null)
+                return new SlottedPage(pid, ByteBuffer.wrap(getPageData()), td, pageSize);
+            return new SlottedPage(pid, ByteBuffer.wrap(oldData.clone()), td, pageSize);
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    public void setBeforeImage() {
+        oldData = null;
+    }
+
+    public void captureBeforeImage() {
+        if (oldData == null)
+            oldData = getPageData();
+    }
+
+    /**
+     * @return the PageId associated with this page.
+     */
+    public HeapPageId getId() {
+        return pid;
+    }
+
+    /**
+     * Returns the tuple in the specified slot, creating a tuple that decodes
+     * its fields out of this page on demand if there is none yet.
+     */
+    private Tuple tuple(int slot) {
+        Tuple t = tuples[slot];
+        if (t == null) {
+            t = new Tuple(td, this, slot);
+            t.setRecordId(new RecordId(pid, slot));
+            tuples[slot] = t;
+        }
+        return t;
+    }
+
+    /**
+     * Decodes one field of the tuple stored in the specified slot.  The
+     * record is located through the slot directory every time, so tuples
+     * stay valid when the page is compacted.
+     */
+    public Field readField(int slot, int field) {
+        ByteBuffer buf = data.duplicate();
+        buf.position(slotOffset(slot));
+        for (int j=0; j<field; j++) {
+            if (td.getType(j) == Type.STRING_TYPE)
+                buf.position(buf.position() + 2 + buf.getShort());
+            else
+                buf.position(buf.position() + td.getType(j).getLen());
+        }
+        if (td.getType(field) == Type.STRING_TYPE) {
+            byte bs[] = new byte[buf.getShort()];
+            buf.get(bs);
+            return new StringField(new String(bs), Type.STRING_LEN);
+        }
+        try {
+            return td.getType(field).parse(buf);
+        } catch (java.text.ParseException e) {
+            e.printStackTrace();
+            throw new NoSuchElementException("parsing error!");
+        }
+    }
+
+    private void writeRecord(Tuple t, int offset) {
+        ByteBuffer buf = data.duplicate();
+        buf.position(offset);
+        for (int j=0; j<td.numFields(); j++) {
+            if (td.getType(j) == Type.STRING_TYPE) {
+                String s = ((StringField) t.getField(j)).getValue();
+                if (s.length() > Type.STRING_LEN)
+                    s = s.substring(0, Type.STRING_LEN);
+                buf.putShort((short) s.length());
+                for (int i=0; i<s.length(); i++)
+                    buf.put((byte) s.charAt(i));
+            } else {
+                t.getField(j).serialize(buf);
+            }
+        }
+    }
+
+    /**
+     * Moves all records to the end of the page so that the holes left by
+     * deleted records become one free area.
+     */
+    private void compact() {
+        byte[] records = new byte[pageSize];
+        int end = pageSize;
+        int n = getNumSlots();
+        for (int i=0; i<n; i++) {
+            int offset = slotOffset(i);
+            if (offset == 0)
+                continue;
+            int length = slotLength(i);
+            end -= length;
+            ByteBuffer src = data.duplicate();
+            src.position(offset);
+            src.get(records, end, length);
+            setSlotEntry(i, end, length);
+        }
+        ByteBuffer dst = data.duplicate();
+        dst.position(directoryEnd());
+        dst.put(new byte[end - directoryEnd()]);
+        dst.put(records, end, pageSize - end);
+        setFreeEnd(end);
+    }
+
+    /**
+     * Copies the page contents out of a read-only buffer before the first
+     * modification.
+     */
+    private void ensureWritable() {
+        if (!data.isReadOnly())
+            return;
+        ByteBuffer copy = ByteBuffer.allocate(pageSize);
+        copy.put(data.duplicate());
+        copy.clear();
+        data = copy;
+    }
+
+    /**
+     * Generates a byte array representing the contents of this page.
+     * Used to serialize this page to disk.
+     *
+     * @see #SlottedPage
+     * @return A byte array correspond to the bytes of this page.
+     */
+    public byte[] getPageData() {
+        byte[] pageData = new byte[pageSize];
+        ByteBuffer buf = data.duplicate();
+        buf.clear();
+        buf.get(pageData);
+        return pageData;
+    }
+
+    /**
+     * Static method to generate a byte array corresponding to an empty
+     * SlottedPage.
+     *
+     * @return The returned ByteArray.
+     */
+    public static byte[] createEmptyPageData() {
+        return createEmptyPageData(BufferPool.PAGE_SIZE);
+    }
+
+    /**
+     * Static method to generate a byte array corresponding to an empty
+     * SlottedPage of a file with the specified page size.
+     */
+    public static byte[] createEmptyPageData(int pageSize) {
+        return new byte[pageSize]; //all 0
+    }
+
+    /**
+     * Delete the specified tuple from the page;  the tuple should be updated to reflect
+     *   that it is no longer stored on any page.
+     * @throws DbException if this tuple is not on this page, or tuple slot is
+     *         already empty.
+     * @param t The tuple to delete
+     */
+    public void deleteTuple(Tuple t) throws DbException {
+        if (t.getRecordId() == null)
+            throw new DbException("This tuple has already been deleted");
+        int slot = t.getRecordId().tupleno();
+        if (!pid.equals(t.getRecordId().getPageId()))
+            throw new DbException(String.format("Tuple is not on page %s", pid.toString()));
+        if (!getSlot(slot))
+            throw new DbException(String.format("No tuple at index %d in page %s", slot, pid.toString()));
+
+        // the slot may be reused, so tuples handed out for it must stop reading the page
+        t.detach();
+        if (tuples[slot] != null) {
+            tuples[slot].detach();
+            tuples[slot] = null;
+        }
+        captureBeforeImage();
+        ensureWritable();
+        int offset = slotOffset(slot);
+        int length = slotLength(slot);
+        ByteBuffer buf = data.duplicate();
+        buf.position(offset);
+        buf.put(new byte[length]);
+        if (offset == freeEnd())
+            setFreeEnd(offset + length);
+        setSlotEntry(slot, 0, 0);
+
+        // trailing empty slots can go, since no tuple refers to them
+        int n = getNumSlots();
+        while (n > 0 && slotOffset(n - 1) == 0)
+            n--;
+        setNumSlots(n);
+        if (n == 0)
+            setFreeEnd(pageSize);
+
+        t.setRecordId(null);
+        if (freeSpace != null)
+            freeSpace.update(pid.pageno(), usableFreeSpace());
+    }
+
+    /**
+     * Adds the specified tuple to the page;  the tuple should be updated to reflect
+     *  that it is now stored on this page.
+     * @throws DbException if the page does not have room for the tuple or
+     *         tupledesc is mismatch.
+     * @param t The tuple to add.
+     */
+    public void addTuple(Tuple t) throws DbException {
+        if (!t.getTupleDesc().equals(td))
+            throw new DbException("Tuple being added does not have the same tupledesc as this page");
+        int length = recordSize(t);
+        if (length > getFreeSpace())
+            throw new DbException("No space left on this page");
+
+        captureBeforeImage();
+        ensureWritable();
+        int slot = firstEmptySlot();
+        int needed = slot < 0 ? length + SLOT_SIZE : length;
+        if (freeEnd() - directoryEnd() < needed)
+            compact();
+        if (slot < 0) {
+            slot = getNumSlots();
+            setNumSlots(slot + 1);
+            setSlotEntry(slot, 0, 0);
+            if (tuples.length <= slot)
+                tuples = Arrays.copyOf(tuples, Math.max(slot + 1, tuples.length * 2));
+        }
+
+        int offset = freeEnd() - length;
+        writeRecord(t, offset);
+        setFreeEnd(offset);
+        setSlotEntry(slot, offset, length);
+        tuples[slot] = t;
+        t.setRecordId(new RecordId(pid, slot));
+        if (freeSpace != null)
+            freeSpace.update(pid.pageno(), usableFreeSpace());
+    }
+
+    /**
+     * Keeps the specified free space map up to date with the number of free
+     * bytes on this page from now on.
+     */
+    void trackFreeSpace(FreeSpaceMap fsm) {
+        freeSpace = fsm;
+        fsm.update(pid.pageno(), usableFreeSpace());
+    }
+
+    /**
+     * Marks this page as dirty/not dirty and record that transaction
+     * that did the dirtying
+     */
+    public void markDirty(boolean dirty, TransactionId tid) {
+        if (dirty)
+            dirtier = tid;
+        else
+            dirtier = null;
+    }
+
+    /**
+     * Returns the tid of the transaction that last dirtied this page, or null if the page is not dirty
+     */
+    public TransactionId isDirty() {
+        return dirtier;
+    }
+
+    /**
+     * @return an iterator over all tuples on this page (calling remove on this iterator throws an UnsupportedOperationException)
+     */
+    public Iterator<Tuple> iterator() {
+        ArrayList<Tuple> iteratorList = new ArrayList<Tuple>();
+        int n = getNumSlots();
+        for (int x=0; x<n; x++)
+            if (slotOffset(x) != 0)
+                iteratorList.add(tuple(x));
+        return Collections.unmodifiableList(iteratorList).iterator();
+    }
+}
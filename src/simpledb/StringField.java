@@ -1,6 +1,7 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Instance of Field that stores a single String of a fixed length.
@@ -59,6 +60,24 @@ public class StringField implements Field {
         dos.write((byte)0);
     }
 
+    /** Write this string to buf, in the same format as
+    {@link #serialize(DataOutputStream)}.
+    @param buf Where the string is written
+    */
+    public void serialize(ByteBuffer buf) {
+    String s = value;
+    int overflow = maxSize - s.length();
+    if (overflow < 0) {
+        String news = s.substring(0,maxSize);
+        s  = news;
+    }
+    buf.putInt(s.length());
+    for (int i = 0; i < s.length(); i++)
+        buf.put((byte) s.charAt(i));
+    while (overflow-- > 0)
+        buf.put((byte)0);
+    }
+
     /**
      * Compare the specified field to the value of this Field.
      * Return semantics are as specified by Field.compare
@@ -125,7 +125,7 @@ public class TableStats {
      * @return The estimated cost of scanning the table.
      */ 
     public double estimateScanCost() {
-        return ((HeapFile)dbFile).numPages() * ioCostPerPage;
+        return dbFile.numPages() * ioCostPerPage;
     }
 
     /** 
@@ -15,7 +15,10 @@ public class Transaction {
         tid = new TransactionId();
     }
 
-    /** Start the transaction running */
+    /**
+     * Start the transaction running.  The transaction reads row-locked
+     * tables as they are now; see {@link BufferPool#beginSnapshot}.
+     */
     public void start() {
         started = true;
         try {
@@ -23,6 +26,8 @@ public class Transaction {
         } catch (IOException e) {
             e.printStackTrace();
         }
+        // scans of row-locked tables read from here on without locks
+        Database.getBufferPool().beginSnapshot(tid);
     }
 
     public TransactionId getId() {
@@ -41,18 +46,19 @@ public class Transaction {
             //write commit / abort records
             if (abort) {
                 Database.getLogFile().logAbort(tid); //does rollback too
-            } else {
-                //write all the dirty pages for this transaction out
-                Database.getBufferPool().flushPages(tid);
-                Database.getLogFile().logCommit(tid);
-            }
 
-            try {
+                try {
 
-                Database.getBufferPool().transactionComplete(tid, !abort); // release locks
+                    Database.getBufferPool().transactionComplete(tid, false); // release locks
 
-            } catch (IOException e) {
-                e.printStackTrace();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            } else {
+                // the buffer pool writes or logs the dirty pages, as its
+                // force setting says, writes the commit record and releases
+                // the locks
+                Database.getBufferPool().transactionComplete(tid, true);
             }
 
             //setting this here means we could possibly write multiple abort records -- OK?
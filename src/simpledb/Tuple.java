@@ -12,6 +12,9 @@ public class Tuple {
 	private TupleDesc td;
 	private RecordId rId;
 	private Field[] fields;
+	// page the unset fields are decoded from on first access, or null
+	private FieldSource page;
+	private int slot;
 
     public static Tuple combine(Tuple t1, Tuple t2) {
         TupleDesc newTd = TupleDesc.combine(t1.getTupleDesc(), t2.getTupleDesc());
@@ -38,6 +41,36 @@ public class Tuple {
     	this.fields = new Field[td.numFields()];
     }
 
+    /**
+     * Create a tuple whose fields are decoded out of the specified slot of a
+     * page the first time they are read, rather than up front.
+     */
+    Tuple(TupleDesc td, FieldSource page, int slot) {
+    	this(td);
+    	this.page = page;
+    	this.slot = slot;
+    }
+
+    /**
+     * Decodes any fields that have not been read yet and stops reading from
+     * the page this tuple came from. Called by the page before the tuple's
+     * slot is reused.
+     */
+    void detach() {
+    	if(page == null)
+    		return;
+    	for(int i=0; i<fields.length; i++)
+    		getField(i);
+    	page = null;
+    }
+
+    /**
+     * @return true if the ith field has been set or already decoded.
+     */
+    boolean hasField(int i) {
+    	return fields[i] != null;
+    }
+
     /**
      * @return The TupleDesc representing the schema of this tuple.
      */
@@ -84,7 +117,13 @@ public class Tuple {
     public Field getField(int i) throws NoSuchElementException {
     	if(i >= td.numFields())
     		throw new NoSuchElementException("Trying to access a field that is out of bounds");
-    	return fields[i];
+    	Field f = fields[i];
+    	FieldSource p = page;
+    	if(f == null && p != null) {
+    		f = p.readField(slot, i);
+    		fields[i] = f;
+    	}
+    	return f;
     }
 
     /**
@@ -98,8 +137,8 @@ public class Tuple {
      */
     public String toString() {
     	StringBuilder retVal = new StringBuilder(); 
-    	for(Field f: fields) {
-    		retVal.append(f.toString());
+    	for(int i=0; i<fields.length; i++) {
+    		retVal.append(getField(i).toString());
     		retVal.append("\t");
     	}
     	retVal.append("\n");
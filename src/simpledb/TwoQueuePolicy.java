@@ -0,0 +1,86 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * TwoQueuePolicy implements the simplified 2Q algorithm (Johnson and
+ * Shasha).  A page read for the first time goes on a FIFO queue, A1in.  When
+ * it is evicted from A1in its id is remembered on a second FIFO, A1out, of
+ * pages that are no longer resident, and a page that is read again while
+ * its id is on A1out is considered hot and goes on the main LRU list, Am.
+ * Unlike the paper, which leaves A1in alone until its pages are evicted, a
+ * page is also promoted to Am the second time it is requested while on
+ * A1in, so that pages that are hot from the start need not be evicted once
+ * to be recognized.  (A page read ahead is not requested until the scan
+ * gets to it.)
+ * <p>
+ * A scan therefore cycles its pages through A1in and leaves Am, the
+ * working set of repeatedly requested pages, alone.  A1in is kept to a
+ * quarter of the resident pages and A1out remembers as many pages as half
+ * of the resident pages, the sizes the paper recommends.
+ */
+public class TwoQueuePolicy implements ReplacementPolicy {
+    // value: whether the page has been requested since it was added
+    private final LinkedHashMap<PageId, Boolean> a1in = new LinkedHashMap<PageId, Boolean>();
+    private final LinkedHashSet<PageId> a1out = new LinkedHashSet<PageId>();
+    // least recently used first
+    private final LinkedHashSet<PageId> am = new LinkedHashSet<PageId>();
+
+    public synchronized void pageAdded(PageId pid) {
+        if (a1in.containsKey(pid) || am.contains(pid))
+            return;
+        if (a1out.remove(pid))
+            am.add(pid);
+        else
+            a1in.put(pid, false);
+    }
+
+    public synchronized void pageAccessed(PageId pid) {
+        if (am.remove(pid)) {
+            am.add(pid);
+        } else if (a1in.containsKey(pid)) {
+            if (a1in.get(pid)) {
+                a1in.remove(pid);
+                am.add(pid);
+            } else {
+                a1in.put(pid, true);
+            }
+        }
+    }
+
+    public synchronized void pageRemoved(PageId pid) {
+        if (a1in.remove(pid) != null) {
+            a1out.add(pid);
+            int maxOut = Math.max(1, (a1in.size() + am.size() + 1) / 2);
+            Iterator<PageId> it = a1out.iterator();
+            while (a1out.size() > maxOut) {
+                it.next();
+                it.remove();
+            }
+        } else {
+            am.remove(pid);
+        }
+    }
+
+    public synchronized PageId chooseVictim(Evictable evictable) {
+        int kin = Math.max(1, (a1in.size() + am.size()) / 4);
+        PageId victim;
+        if (a1in.size() > kin) {
+            victim = first(a1in.keySet(), evictable);
+            if (victim == null)
+                victim = first(am, evictable);
+        } else {
+            victim = first(am, evictable);
+            if (victim == null)
+                victim = first(a1in.keySet(), evictable);
+        }
+        return victim;
+    }
+
+    private static PageId first(Collection<PageId> queue, Evictable evictable) {
+        for (PageId pid : queue)
+            if (evictable.canEvict(pid))
+                return pid;
+        return null;
+    }
+}
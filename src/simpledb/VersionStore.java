@@ -0,0 +1,254 @@
+package simpledb;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The old versions of the tuples of row-locked tables (see
+ * {@link Catalog#setRowLocked}), which let a transaction read those tables
+ * as they were when it started (snapshot isolation) without taking locks.
+ * <p>
+ * A page holds the newest version of each of its tuples, committed or not.
+ * Every change to a slot first pushes the slot's old contents, stamped
+ * with the transaction making the change, onto the slot's chain of
+ * versions, newest first; these are the before images that
+ * {@link LogFile#logRowWrite} logs.  Commits of transactions that changed
+ * tuples are numbered in order, and a snapshot is the number of the last
+ * such commit when the snapshot was taken.  A reader sees a version if
+ * the reader wrote it or its writer committed no later than the snapshot;
+ * it takes the slot's contents if it sees their writer and otherwise walks
+ * down the chain to the first version whose writer it sees.
+ * <p>
+ * When a transaction aborts, its versions leave the chains once the log
+ * has put back its slots.  Once every snapshot sees a committed
+ * transaction's changes, its versions and those below them are dropped.
+ * <p>
+ * A slot and its chain only change, and are only read, under the latch of
+ * the slot's page (see {@link #latch}), so readers never see them out of
+ * step.
+ */
+class VersionStore {
+    // the commit number of a writer that hasn't committed yet
+    private static final long ACTIVE = Long.MAX_VALUE;
+    private static final int LATCHES = 64;
+
+    /** A slot's contents before writer changed it. */
+    static class Version {
+        final TransactionId writer;
+        // the tuple's bytes, or null if the slot was empty
+        final byte[] before;
+        Version older;
+
+        Version(TransactionId writer, byte[] before, Version older) {
+            this.writer = writer;
+            this.before = before;
+            this.older = older;
+        }
+    }
+
+    private final Object[] latches = new Object[LATCHES];
+    // the newest version of each slot that has any; guarded by the latch
+    // of the slot's page
+    private final ConcurrentHashMap<RecordId, Version> chains = new ConcurrentHashMap<RecordId, Version>();
+    // the commit number of each transaction with versions in the chains,
+    // or ACTIVE; a writer that has none left is seen by every snapshot
+    private final ConcurrentHashMap<TransactionId, Long> commits = new ConcurrentHashMap<TransactionId, Long>();
+    // the snapshot of each transaction that reads from one
+    private final ConcurrentHashMap<TransactionId, Long> snapshots = new ConcurrentHashMap<TransactionId, Long>();
+    // the slots each writer changed, and the committed writers in commit
+    // order; guarded by this, as are lastCommit and the taking of snapshots
+    private final HashMap<TransactionId, Set<RecordId>> written = new HashMap<TransactionId, Set<RecordId>>();
+    private final ArrayDeque<TransactionId> committed = new ArrayDeque<TransactionId>();
+    private long lastCommit;
+
+    VersionStore() {
+        for(int i = 0; i < LATCHES; i++)
+            latches[i] = new Object();
+    }
+
+    /**
+     * @return the monitor that guards the slots and chains of the
+     *   specified page.  It is taken before the page's own monitor, and
+     *   after the log's.
+     */
+    Object latch(PageId pid) {
+        return latches[(pid.hashCode() & 0x7fffffff) % LATCHES];
+    }
+
+    /**
+     * Gives transaction tid a snapshot of the committed changes, unless it
+     * already has one.
+     */
+    synchronized void beginSnapshot(TransactionId tid) {
+        if(!snapshots.containsKey(tid))
+            snapshots.put(tid, lastCommit);
+    }
+
+    /**
+     * @return the snapshot of transaction tid, or null if it has none
+     */
+    Long snapshotOf(TransactionId tid) {
+        return tid == null ? null : snapshots.get(tid);
+    }
+
+    /**
+     * Records the contents of a slot that transaction tid is about to
+     * change.  Called with the latch of the slot's page held.
+     *
+     * @param before the slot's contents, or null if it is empty
+     */
+    void recordWrite(TransactionId tid, RecordId rid, byte[] before) {
+        synchronized (this) {
+            Set<RecordId> rids = written.get(tid);
+            if(rids == null) {
+                rids = new HashSet<RecordId>();
+                written.put(tid, rids);
+                commits.put(tid, ACTIVE);
+            }
+            rids.add(rid);
+        }
+        chains.put(rid, new Version(tid, before, chains.get(rid)));
+    }
+
+    /**
+     * Returns the contents of a slot that transaction tid sees from the
+     * specified snapshot.  Called with the latch of the slot's page held.
+     *
+     * @param current the slot's contents, or null if it is empty
+     * @return the tuple's bytes, or null if tid sees no tuple there
+     */
+    byte[] read(TransactionId tid, long snapshot, RecordId rid, byte[] current) {
+        byte[] tuple = current;
+        for(Version v = chains.get(rid); v != null && !sees(tid, snapshot, v.writer); v = v.older)
+            tuple = v.before;
+        return tuple;
+    }
+
+    private boolean sees(TransactionId tid, long snapshot, TransactionId writer) {
+        if(writer.equals(tid))
+            return true;
+        Long commit = commits.get(writer);
+        return commit == null || commit <= snapshot;
+    }
+
+    /**
+     * @return true if the newest version of a tuple was written by a
+     *   transaction that the snapshot of tid doesn't see.  Under snapshot
+     *   isolation tid must not change such a tuple: the first writer to
+     *   commit wins.  Call with the tuple's lock held, so that the newest
+     *   version is committed.
+     */
+    boolean changedSince(TransactionId tid, RecordId rid) {
+        Long snapshot = snapshotOf(tid);
+        if(snapshot == null)
+            return false;
+        synchronized (latch(rid.getPageId())) {
+            Version v = chains.get(rid);
+            return v != null && !sees(tid, snapshot, v.writer);
+        }
+    }
+
+    /**
+     * Makes the changes of transaction tid visible to the snapshots taken
+     * from now on.  Call before tid releases its locks.
+     */
+    synchronized void committed(TransactionId tid) {
+        if(!written.containsKey(tid))
+            return;
+        commits.put(tid, ++lastCommit);
+        committed.add(tid);
+    }
+
+    /**
+     * Takes the versions of an aborted transaction off the chains.  Call
+     * once the log has put back its slots, and before it releases its
+     * locks, so that its versions are the newest of their chains.
+     */
+    void aborted(TransactionId tid) {
+        Set<RecordId> rids;
+        synchronized (this) {
+            rids = written.remove(tid);
+        }
+        if(rids == null)
+            return;
+        for(RecordId rid : rids) {
+            synchronized (latch(rid.getPageId())) {
+                Version v = chains.get(rid);
+                while(v != null && v.writer.equals(tid))
+                    v = v.older;
+                if(v == null)
+                    chains.remove(rid);
+                else
+                    chains.put(rid, v);
+            }
+        }
+        commits.remove(tid);
+    }
+
+    /**
+     * Ends the snapshot of transaction tid, if it has one.
+     */
+    void endSnapshot(TransactionId tid) {
+        snapshots.remove(tid);
+    }
+
+    /**
+     * Drops the versions that no snapshot, present or future, needs: those
+     * of the transactions that committed no later than the oldest snapshot
+     * and the versions below them.
+     */
+    void collect() {
+        List<TransactionId> seen = new ArrayList<TransactionId>();
+        List<Set<RecordId>> slots = new ArrayList<Set<RecordId>>();
+        synchronized (this) {
+            long oldest = lastCommit;
+            for(Long snapshot : snapshots.values())
+                oldest = Math.min(oldest, snapshot);
+            while(!committed.isEmpty() && commits.get(committed.peek()) <= oldest) {
+                TransactionId tid = committed.poll();
+                seen.add(tid);
+                slots.add(written.remove(tid));
+            }
+        }
+        for(int i = 0; i < seen.size(); i++) {
+            TransactionId tid = seen.get(i);
+            for(RecordId rid : slots.get(i)) {
+                synchronized (latch(rid.getPageId())) {
+                    Version newer = null;
+                    Version v = chains.get(rid);
+                    // a later writer's collection may have cut it already
+                    while(v != null && !v.writer.equals(tid)) {
+                        newer = v;
+                        v = v.older;
+                    }
+                    if(v == null)
+                        continue;
+                    if(newer == null)
+                        chains.remove(rid);
+                    else
+                        newer.older = null;
+                }
+            }
+            commits.remove(tid);
+        }
+    }
+
+    /**
+     * @return the number of old versions kept, across all chains
+     */
+    int getNumVersions() {
+        int n = 0;
+        for(RecordId rid : chains.keySet()) {
+            synchronized (latch(rid.getPageId())) {
+                for(Version v = chains.get(rid); v != null; v = v.older)
+                    n++;
+            }
+        }
+        return n;
+    }
+}
@@ -0,0 +1,202 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * WarmUp saves the set of pages in the buffer pool so that a restarted
+ * database can read them back in before queries miss on them one at a time.
+ * <p>
+ * {@link #save} writes the id of every resident page of a HeapFile or
+ * SlottedFile with the number of times it was requested (index pages are
+ * left out).  The log saves this file at every checkpoint, including the one
+ * written at shutdown.  {@link #start} reads the file back, keeps the most
+ * requested pages that fit in the buffer pool, and loads them with
+ * {@link BufferPool#prefetchPage} on background threads, one table per
+ * thread and each table in file-offset order so the reads are sequential.
+ * Pages that no longer exist, and pages of tables that are no longer in the
+ * catalog, are skipped.
+ * <p>
+ * The file holds the number of pages, then the table id, page number and
+ * request count of each page.
+ */
+public class WarmUp {
+    public static final int NUM_THREADS = 4;
+
+    private static class Entry {
+        final HeapPageId pid;
+        final int accesses;
+
+        Entry(HeapPageId pid, int accesses) {
+            this.pid = pid;
+            this.accesses = accesses;
+        }
+    }
+
+    /**
+     * Writes the pages resident in the specified buffer pool to the
+     * specified file.
+     */
+    public static void save(BufferPool bp, File f) throws IOException {
+        List<Entry> entries = new ArrayList<Entry>();
+        for (Map.Entry<PageId, Integer> e : bp.getResidentPages().entrySet())
+            if (e.getKey() instanceof HeapPageId)
+                entries.add(new Entry((HeapPageId) e.getKey(), e.getValue()));
+
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(f)));
+        try {
+            out.writeInt(entries.size());
+            for (Entry e : entries) {
+                out.writeInt(e.pid.getTableId());
+                out.writeInt(e.pid.pageno());
+                out.writeInt(e.accesses);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Starts loading the pages saved in the specified file into the current
+     * buffer pool on background threads.  Queries can run meanwhile; call
+     * get() on the result to wait for the warm-up to finish instead.
+     *
+     * @param f the file written by {@link #save}
+     * @param tableIds the tables to warm up, or null for all of them
+     * @return the number of pages warmed up
+     */
+    public static Future<Integer> start(File f, Set<Integer> tableIds) throws IOException {
+        final Map<Integer, List<HeapPageId>> tables = pagesToLoad(f, tableIds);
+        FutureTask<Integer> task = new FutureTask<Integer>(new Callable<Integer>() {
+            public Integer call() throws Exception {
+                return load(tables);
+            }
+        });
+        Thread t = new Thread(task, "simpledb-warmup");
+        t.setDaemon(true);
+        t.start();
+        return task;
+    }
+
+    /**
+     * Reads the specified file and picks the pages to load: the most
+     * requested ones that fit in the buffer pool, grouped by table and
+     * sorted by page number.
+     */
+    static Map<Integer, List<HeapPageId>> pagesToLoad(File f, Set<Integer> tableIds) throws IOException {
+        Map<Integer, List<HeapPageId>> tables = new HashMap<Integer, List<HeapPageId>>();
+        if (!f.exists())
+            return tables;
+
+        List<Entry> entries = new ArrayList<Entry>();
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(f)));
+        try {
+            int n = in.readInt();
+            for (int i = 0; i < n; i++) {
+                HeapPageId pid = new HeapPageId(in.readInt(), in.readInt());
+                int accesses = in.readInt();
+                if (tableIds == null || tableIds.contains(pid.getTableId()))
+                    entries.add(new Entry(pid, accesses));
+            }
+        } finally {
+            in.close();
+        }
+
+        Collections.sort(entries, new Comparator<Entry>() {
+            public int compare(Entry a, Entry b) {
+                return b.accesses - a.accesses;
+            }
+        });
+        Catalog catalog = Database.getCatalog();
+        long room = Database.getBufferPool().getCapacityBytes();
+        for (Entry e : entries) {
+            int tableId = e.pid.getTableId();
+            DbFile file;
+            try {
+                file = catalog.getDbFile(tableId);
+            } catch (NoSuchElementException ex) {
+                continue;
+            }
+            if (e.pid.pageno() >= numPages(file))
+                continue;
+            if (room < file.getPageSize())
+                break;
+            room -= file.getPageSize();
+            if (!tables.containsKey(tableId))
+                tables.put(tableId, new ArrayList<HeapPageId>());
+            tables.get(tableId).add(e.pid);
+        }
+
+        for (List<HeapPageId> pages : tables.values()) {
+            Collections.sort(pages, new Comparator<HeapPageId>() {
+                public int compare(HeapPageId a, HeapPageId b) {
+                    return a.pageno() - b.pageno();
+                }
+            });
+        }
+        return tables;
+    }
+
+    /**
+     * @return the number of pages of the specified file, or 0 if it is not
+     *   a HeapFile or SlottedFile
+     */
+    static int numPages(DbFile file) {
+        if (file instanceof HeapFile)
+            return ((HeapFile) file).numPages();
+        if (file instanceof SlottedFile)
+            return ((SlottedFile) file).numPages();
+        return 0;
+    }
+
+    private static int load(Map<Integer, List<HeapPageId>> tables) throws InterruptedException {
+        if (tables.isEmpty())
+            return 0;
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(NUM_THREADS, tables.size()),
+                new ThreadFactory() {
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "simpledb-warmup");
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+        try {
+            List<Callable<Integer>> tasks = new ArrayList<Callable<Integer>>();
+            for (final List<HeapPageId> pages : tables.values()) {
+                tasks.add(new Callable<Integer>() {
+                    public Integer call() {
+                        BufferPool bp = Database.getBufferPool();
+                        int loaded = 0;
+                        for (HeapPageId pid : pages) {
+                            bp.prefetchPage(pid);
+                            // prefetching gives up once only dirty pages are left to evict
+                            if (!bp.isResident(pid))
+                                break;
+                            loaded++;
+                        }
+                        return loaded;
+                    }
+                });
+            }
+            int loaded = 0;
+            for (Future<Integer> f : executor.invokeAll(tasks)) {
+                try {
+                    loaded += f.get();
+                } catch (ExecutionException e) {
+                    // warm-up is only a hint; queries will read what's missing
+                    e.printStackTrace();
+                }
+            }
+            return loaded;
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
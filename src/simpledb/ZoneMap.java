@@ -0,0 +1,292 @@
+package simpledb;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * ZoneMap keeps a small summary of every page of a file: the number of
+ * tuples on the page and the smallest and largest value of each INT field.
+ * A scan with a predicate such as <code>id &gt; 5000</code> can then skip
+ * every page whose values of <code>id</code> are all at most 5000 without
+ * reading it.
+ * <p>
+ * The summary of a page is recomputed whenever the page is written to disk
+ * and filled in the first time a page is read.  Between flushes, tuples
+ * added to a page only widen its summary, and deleted tuples are ignored
+ * until the page is next written, so the summary always covers every tuple
+ * the page may hold.  Pages of row-locked tables (see
+ * {@link Catalog#setRowLocked}) are written from copies while other
+ * transactions go on adding tuples, so writing one only widens its summary
+ * (see {@link #merge}).  A page that has no summary yet is never skipped.
+ * <p>
+ * Like FreeSpaceMap, the zone map is kept in memory and saved to a side file
+ * next to the data file (the data file's name plus ".zm") when the file is
+ * closed, and a saved map is ignored if the data file changed after it was
+ * written.  As with FreeSpaceMap, the side file is not written for a data
+ * file that was deleted and is deleted on exit along with temporary files.
+ *
+ * @see FreeSpaceMap
+ */
+public class ZoneMap {
+    /** Tuple count of a page that has no summary yet. */
+    public static final int UNKNOWN = -1;
+
+    private final File mapFile;
+    private final File dataFile;
+    // the INT fields of the table; zone j describes field columns[j]
+    private final int[] columns;
+    private int[] rows;
+    // min and max of zone j of page p are at index p * columns.length + j
+    private int[] min;
+    private int[] max;
+    private int size;
+    private boolean changed;
+
+    /**
+     * Creates the zone map for the specified file, loading the saved map if
+     * there is an up to date one.
+     *
+     * @param dataFile the file backing the table
+     * @param td the schema of the table
+     */
+    public ZoneMap(File dataFile, TupleDesc td) {
+        this.dataFile = dataFile;
+        this.mapFile = new File(dataFile.getPath() + ".zm");
+        int n = 0;
+        for (int i = 0; i < td.numFields(); i++)
+            if (td.getType(i) == Type.INT_TYPE)
+                n++;
+        this.columns = new int[n];
+        n = 0;
+        for (int i = 0; i < td.numFields(); i++)
+            if (td.getType(i) == Type.INT_TYPE)
+                columns[n++] = i;
+        clear();
+        load();
+    }
+
+    private void clear() {
+        rows = new int[16];
+        Arrays.fill(rows, UNKNOWN);
+        min = new int[16 * columns.length];
+        max = new int[16 * columns.length];
+        size = 0;
+    }
+
+    private void grow(int newSize) {
+        if (newSize > rows.length) {
+            int length = Math.max(newSize, rows.length * 2);
+            int oldLength = rows.length;
+            rows = Arrays.copyOf(rows, length);
+            Arrays.fill(rows, oldLength, length, UNKNOWN);
+            min = Arrays.copyOf(min, length * columns.length);
+            max = Arrays.copyOf(max, length * columns.length);
+        }
+        size = Math.max(size, newSize);
+    }
+
+    /**
+     * @return true if the specified page has a summary
+     */
+    public synchronized boolean isKnown(int pageNo) {
+        return pageNo < size && rows[pageNo] != UNKNOWN;
+    }
+
+    /**
+     * @return the number of tuples on the specified page, or UNKNOWN
+     */
+    public synchronized int getRowCount(int pageNo) {
+        if (pageNo >= size)
+            return UNKNOWN;
+        return rows[pageNo];
+    }
+
+    /**
+     * @return the smallest value of the specified INT field on the specified
+     *   page.  Only meaningful if the page is known and not empty.
+     */
+    public synchronized int getMin(int pageNo, int field) {
+        return min[pageNo * columns.length + zone(field)];
+    }
+
+    /**
+     * @return the largest value of the specified INT field on the specified
+     *   page.  Only meaningful if the page is known and not empty.
+     */
+    public synchronized int getMax(int pageNo, int field) {
+        return max[pageNo * columns.length + zone(field)];
+    }
+
+    private int zone(int field) {
+        int j = Arrays.binarySearch(columns, field);
+        if (j < 0)
+            throw new NoSuchElementException("field " + field + " is not an INT field");
+        return j;
+    }
+
+    /**
+     * Replaces the summary of the specified page with one computed from the
+     * tuples it holds now.
+     */
+    public synchronized void update(int pageNo, Iterator<Tuple> tuples) {
+        if (pageNo >= size)
+            grow(pageNo + 1);
+        rows[pageNo] = 0;
+        while (tuples.hasNext())
+            add(pageNo, tuples.next());
+        changed = true;
+    }
+
+    /**
+     * Widens the summary of the specified page to cover the specified
+     * tuples, without narrowing it.  Used for pages that other transactions
+     * may have added tuples to since the tuples were taken from the page.
+     * Does nothing if the page has no summary.
+     */
+    public synchronized void merge(int pageNo, Iterator<Tuple> tuples) {
+        if (!isKnown(pageNo))
+            return;
+        while (tuples.hasNext())
+            widen(pageNo, tuples.next());
+    }
+
+    /**
+     * Widens the summary of the specified page to cover a tuple that has
+     * just been added to it.  Does nothing if the page has no summary.
+     */
+    public synchronized void widen(int pageNo, Tuple t) {
+        if (!isKnown(pageNo))
+            return;
+        add(pageNo, t);
+        changed = true;
+    }
+
+    private void add(int pageNo, Tuple t) {
+        int base = pageNo * columns.length;
+        boolean first = rows[pageNo] == 0;
+        for (int j = 0; j < columns.length; j++) {
+            int v = ((IntField) t.getField(columns[j])).getValue();
+            if (first || v < min[base + j])
+                min[base + j] = v;
+            if (first || v > max[base + j])
+                max[base + j] = v;
+        }
+        rows[pageNo]++;
+    }
+
+    /**
+     * Returns whether the specified page may hold a tuple that satisfies all
+     * of the specified predicates.  Predicates on fields that are not INT
+     * fields, or with operators a range can't rule out, never exclude a page.
+     *
+     * @return false only if the page is known to hold no such tuple
+     */
+    public synchronized boolean mightMatch(int pageNo, Predicate[] predicates) {
+        if (!isKnown(pageNo))
+            return true;
+        if (rows[pageNo] == 0)
+            return false;
+        int base = pageNo * columns.length;
+        for (Predicate p : predicates) {
+            int j = Arrays.binarySearch(columns, p.getField());
+            if (j < 0 || !(p.getOperand() instanceof IntField))
+                continue;
+            int v = ((IntField) p.getOperand()).getValue();
+            int lo = min[base + j];
+            int hi = max[base + j];
+            switch (p.getOp()) {
+            case EQUALS:
+                if (v < lo || v > hi)
+                    return false;
+                break;
+            case GREATER_THAN:
+                if (hi <= v)
+                    return false;
+                break;
+            case GREATER_THAN_OR_EQ:
+                if (hi < v)
+                    return false;
+                break;
+            case LESS_THAN:
+                if (lo >= v)
+                    return false;
+                break;
+            case LESS_THAN_OR_EQ:
+                if (lo > v)
+                    return false;
+                break;
+            case NOT_EQUALS:
+                if (lo == v && hi == v)
+                    return false;
+                break;
+            default:
+                break;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Writes the map to its side file, if it changed since it was loaded,
+     * or deletes the side file if the data file is gone.
+     */
+    public synchronized void save() throws IOException {
+        if (!dataFile.exists()) {
+            mapFile.delete();
+            return;
+        }
+        if (!changed)
+            return;
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(mapFile)));
+        try {
+            out.writeLong(dataFile.length());
+            out.writeLong(dataFile.lastModified());
+            out.writeInt(columns.length);
+            out.writeInt(size);
+            for (int p = 0; p < size; p++) {
+                out.writeInt(rows[p]);
+                for (int j = 0; j < columns.length; j++) {
+                    out.writeInt(min[p * columns.length + j]);
+                    out.writeInt(max[p * columns.length + j]);
+                }
+            }
+        } finally {
+            out.close();
+        }
+        if (FreeSpaceMap.isTemporary(dataFile))
+            mapFile.deleteOnExit();
+        changed = false;
+    }
+
+    /**
+     * Reads the side file, leaving the map empty if there is none or the data
+     * file was modified after it was written.
+     */
+    private void load() {
+        if (!mapFile.exists())
+            return;
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(mapFile)));
+            try {
+                if (in.readLong() != dataFile.length() || in.readLong() != dataFile.lastModified())
+                    return;
+                if (in.readInt() != columns.length)
+                    return;
+                int n = in.readInt();
+                grow(n);
+                for (int p = 0; p < n; p++) {
+                    rows[p] = in.readInt();
+                    for (int j = 0; j < columns.length; j++) {
+                        min[p * columns.length + j] = in.readInt();
+                        max[p * columns.length + j] = in.readInt();
+                    }
+                }
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            // a damaged map is the same as no map; it is rebuilt as pages are read
+            clear();
+        }
+    }
+}
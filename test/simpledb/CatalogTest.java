@@ -1,7 +1,11 @@
 package simpledb;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
+import java.io.File;
+import java.io.FileWriter;
 import java.util.NoSuchElementException;
 
 import junit.framework.Assert;
@@ -68,6 +72,63 @@ public class CatalogTest extends SimpleDbTestBase {
         assertEquals(-1, f.getId());
     }
 
+    /**
+     * Unit test for Catalog.loadSchema() table options
+     */
+    @Test public void loadSchemaOptions() throws Exception {
+        File schema = File.createTempFile("catalog", ".txt");
+        schema.deleteOnExit();
+        FileWriter w = new FileWriter(schema);
+        w.write("plain (a int, b string)\n");
+        w.write("mapped (a int pk, b int) mmap\n");
+        w.write("packed (a int, b string) slotted\n");
+        w.write("columns (a int, b int, c string) pax\n");
+        w.write("wide (a int, b int) pagesize=16384\n");
+        w.close();
+        Database.getCatalog().loadSchema(schema.getAbsolutePath());
+
+        HeapFile plain = (HeapFile) Database.getCatalog().getDbFile(
+                Database.getCatalog().getTableId("plain"));
+        HeapFile mapped = (HeapFile) Database.getCatalog().getDbFile(
+                Database.getCatalog().getTableId("mapped"));
+        assertFalse(plain.isMemoryMapped());
+        assertTrue(mapped.isMemoryMapped());
+        assertEquals("a", Database.getCatalog().getPrimaryKey(mapped.getId()));
+        assertTrue(Database.getCatalog().getDbFile(
+                Database.getCatalog().getTableId("packed")) instanceof SlottedFile);
+        assertTrue(Database.getCatalog().getDbFile(
+                Database.getCatalog().getTableId("columns")) instanceof PaxFile);
+        assertEquals(16384, Database.getCatalog().getPageSize(
+                Database.getCatalog().getTableId("wide")));
+        assertEquals(BufferPool.PAGE_SIZE, Database.getCatalog().getPageSize(plain.getId()));
+    }
+
+    /**
+     * Unit test for Catalog.loadSchema() buffer pool partitions
+     */
+    @Test public void loadSchemaPartitions() throws Exception {
+        File schema = File.createTempFile("catalog", ".txt");
+        schema.deleteOnExit();
+        FileWriter w = new FileWriter(schema);
+        w.write("partition reports 100\n");
+        w.write("facts (a int, b int) partition=reports\n");
+        w.write("history (a int, b int) partition=reports\n");
+        w.write("orders (a int, b int) quota=50\n");
+        w.write("researchers (a int, b string) pinned\n");
+        w.close();
+        Database.getCatalog().loadSchema(schema.getAbsolutePath());
+
+        Catalog c = Database.getCatalog();
+        assertEquals("reports", c.getPartition(c.getTableId("facts")));
+        assertEquals("reports", c.getPartition(c.getTableId("history")));
+        assertEquals(100, c.getPartitionPages("reports"));
+        assertEquals("orders", c.getPartition(c.getTableId("orders")));
+        assertEquals(50, c.getPartitionPages("orders"));
+        assertEquals(null, c.getPartition(c.getTableId("researchers")));
+        assertTrue(c.isPinned(c.getTableId("researchers")));
+        assertFalse(c.isPinned(c.getTableId("facts")));
+    }
+
     /**
      * JUnit suite target
      */
@@ -0,0 +1,147 @@
+package simpledb;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+public class CompressedPageCacheTest extends TestUtil.CreateHeapFile {
+
+  /**
+   * Set up initial resources for each unit test.
+   */
+  @Before public void setUp() throws Exception {
+    super.setUp();
+
+    // five full pages on disk
+    BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    TransactionId tid = new TransactionId();
+    for (int i = 0; i < 504 * 5; ++i)
+      empty.addTuple(tid, Utility.getHeapTuple(i, 2));
+    bp.transactionComplete(tid);
+  }
+
+  private void roundTrip(byte[] page) {
+    byte[] out = new byte[page.length];
+    PageCompressor.decompress(PageCompressor.compress(page), ByteBuffer.wrap(out));
+    assertArrayEquals(page, out);
+  }
+
+  /**
+   * Pages come back exactly as they went in, whatever they hold.
+   */
+  @Test public void roundTrips() throws Exception {
+    byte[] page = new byte[BufferPool.PAGE_SIZE];
+    roundTrip(page);
+    new Random(1).nextBytes(page);
+    roundTrip(page);
+    Arrays.fill(page, 100, 3000, (byte) 7);
+    roundTrip(page);
+    roundTrip(empty.readPage(new HeapPageId(empty.getId(), 2)).getPageData());
+  }
+
+  /**
+   * A page whose matches take more bytes than they replace comes out no
+   * longer than it went in, plus a few bytes.
+   */
+  @Test public void incompressiblePagesFit() throws Exception {
+    byte[] page = new byte[64 * 1024];
+    Random r = new Random(1);
+    r.nextBytes(page);
+    // 2000 words, then filler whose hashes leave the words' in the
+    // compressor's table, then the words again, each after a literal, so
+    // that each is a 4 byte match more than 16 KB back
+    int words = 2000, filler = 20000;
+    boolean[] used = new boolean[1 << PageCompressor.HASH_BITS];
+    for (int k = 0; k < words; k++)
+      used[PageCompressor.hash(page, k * 4)] = true;
+    for (int i = words * 4; i < words * 4 + filler; i++)
+      while (i >= 3 && used[PageCompressor.hash(page, i - 3)])
+        page[i] = (byte) r.nextInt();
+    for (int k = 0; k < words; k++)
+      System.arraycopy(page, k * 4, page, words * 4 + filler + k * 5 + 1, 4);
+    assertTrue(PageCompressor.compress(page).length <= page.length + 8);
+    roundTrip(page);
+  }
+
+  /**
+   * A page of short strings in STRING slots shrinks more than five times.
+   */
+  @Test public void stringPagesCompress() throws Exception {
+    TupleDesc td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE });
+    HeapPage page = new HeapPage(new HeapPageId(-1, 0),
+        ByteBuffer.wrap(HeapPage.createEmptyPageData()), td, BufferPool.PAGE_SIZE);
+    for (int i = 0; page.getNumEmptySlots() > 0; i++) {
+      Tuple t = new Tuple(td);
+      t.setField(0, new IntField(i));
+      t.setField(1, new StringField("customer#" + i, Type.STRING_LEN));
+      page.addTuple(t);
+    }
+    byte[] image = page.getPageData();
+    assertTrue(PageCompressor.compress(image).length * 5 < image.length);
+    roundTrip(image);
+  }
+
+  private int scan(BufferPool bp) throws Exception {
+    TransactionId tid = new TransactionId();
+    DbFileIterator it = empty.iterator(tid);
+    it.open();
+    int n = 0;
+    while (it.hasNext()) {
+      it.next();
+      n++;
+    }
+    it.close();
+    bp.transactionComplete(tid);
+    return n;
+  }
+
+  /**
+   * Pages evicted from a small pool are read back from the second tier.
+   */
+  @Test public void missesServedFromTier() throws Exception {
+    BufferPool bp = Database.resetBufferPool(2);
+    CompressedPageCache tier = new CompressedPageCache(1 << 20);
+    bp.setCompressedCache(tier);
+
+    assertEquals(504 * 5, scan(bp));
+    assertEquals(0, tier.getHits());
+    assertEquals(3, tier.getNumPages());
+    assertTrue(tier.getUsedBytes() < tier.getRawBytes());
+
+    // every page missing from the pool is in the tier
+    bp.resetStatistics();
+    assertEquals(504 * 5, scan(bp));
+    assertTrue(tier.getHits() >= 3);
+    assertEquals(bp.getMisses(), tier.getHits());
+  }
+
+  /**
+   * Discarding a page, as rollback does, drops the second tier's copy too.
+   */
+  @Test public void discardDropsCopy() throws Exception {
+    BufferPool bp = Database.resetBufferPool(2);
+    CompressedPageCache tier = new CompressedPageCache(1 << 20);
+    bp.setCompressedCache(tier);
+    scan(bp);
+
+    HeapPageId p0 = new HeapPageId(empty.getId(), 0);
+    assertTrue(tier.contains(p0));
+    bp.discardPage(p0);
+    assertFalse(tier.contains(p0));
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(CompressedPageCacheTest.class);
+  }
+}
@@ -7,6 +7,9 @@ import org.junit.Before;
 import org.junit.Test;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 import junit.framework.JUnit4TestAdapter;
 
 public class DeadlockTest extends TestUtil.CreateHeapFile {
@@ -211,6 +214,63 @@ public class DeadlockTest extends TestUtil.CreateHeapFile {
     System.out.println("testUpgradeWriteDeadlock resolved deadlock");
   }
 
+  /**
+   * Under wait-die an older transaction waits for a younger one, and a
+   * younger one aborts instead of waiting.
+   */
+  @Test public void testWaitDie() throws Exception {
+    bp.setDeadlockPolicy(DeadlockPolicy.WAIT_DIE);
+    bp.getPage(tid1, p0, Permissions.READ_WRITE);
+    bp.getPage(tid2, p1, Permissions.READ_WRITE);
+
+    LockGrabber younger = startGrabber(tid2, p0, Permissions.READ_WRITE);
+    LockGrabber older = startGrabber(tid1, p1, Permissions.READ_WRITE);
+    Thread.sleep(POLL_INTERVAL);
+    assertNotNull(younger.getError());
+
+    // the younger one's abort released p1
+    older.join(10 * POLL_INTERVAL);
+    assertTrue(older.acquired());
+    assertNull(older.getError());
+  }
+
+  /**
+   * Under wound-wait an older transaction aborts a younger holder and
+   * waits for it, and a younger one waits for an older holder.
+   */
+  @Test public void testWoundWait() throws Exception {
+    bp.setDeadlockPolicy(DeadlockPolicy.WOUND_WAIT);
+    bp.getPage(tid2, p0, Permissions.READ_WRITE);
+    bp.getPage(tid1, p1, Permissions.READ_WRITE);
+
+    LockGrabber older = startGrabber(tid1, p0, Permissions.READ_WRITE);
+    Thread.sleep(POLL_INTERVAL);
+    assertFalse(older.acquired());
+
+    // tid2 is wounded: it aborts at its next request
+    LockGrabber younger = startGrabber(tid2, p1, Permissions.READ_WRITE);
+    older.join(10 * POLL_INTERVAL);
+    assertNotNull(younger.getError());
+    assertTrue(older.acquired());
+    assertNull(older.getError());
+  }
+
+  /**
+   * The background detector finds the deadlock of testReadWriteDeadlock
+   * and aborts its younger transaction.
+   */
+  @Test public void testBackgroundDetection() throws Exception {
+    bp.setDeadlockPolicy(DeadlockPolicy.BACKGROUND);
+    bp.getPage(tid1, p0, Permissions.READ_ONLY);
+    bp.getPage(tid2, p1, Permissions.READ_ONLY);
+
+    LockGrabber lg1Write = startGrabber(tid1, p1, Permissions.READ_WRITE);
+    LockGrabber lg2Write = startGrabber(tid2, p0, Permissions.READ_WRITE);
+    lg1Write.join(10 * LockManager.DETECTION_INTERVAL);
+    assertTrue(lg1Write.acquired());
+    assertNotNull(lg2Write.getError());
+  }
+
   /**
    * JUnit suite target
    */
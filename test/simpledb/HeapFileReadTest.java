@@ -77,6 +77,106 @@ public class HeapFileReadTest extends SimpleDbTestBase {
         assertFalse(page.getSlot(20));
     }
 
+    /**
+     * Unit test for HeapFile.close(): the file must stay readable afterwards.
+     */
+    @Test
+    public void readPageAfterClose() throws Exception {
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        hf.readPage(pid);
+        hf.close();
+        HeapPage page = (HeapPage) hf.readPage(pid);
+        assertEquals(484, page.getNumEmptySlots());
+        // close twice is harmless
+        hf.close();
+        hf.close();
+    }
+
+    /**
+     * Many threads reading pages through the shared channel at once must all
+     * see the same data.
+     */
+    @Test
+    public void concurrentReadPage() throws Exception {
+        final HeapFile bigFile = SystemTestUtil.createRandomHeapFile(2, 504 * 8, null, null);
+        final byte[][] expected = new byte[bigFile.numPages()][];
+        for (int i = 0; i < expected.length; i++)
+            expected[i] = bigFile.readPage(new HeapPageId(bigFile.getId(), i)).getPageData();
+
+        final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+        Thread[] readers = new Thread[8];
+        for (int t = 0; t < readers.length; t++) {
+            final int seed = t;
+            readers[t] = new Thread() {
+                public void run() {
+                    Random r = new Random(seed);
+                    try {
+                        for (int i = 0; i < 200; i++) {
+                            int pgNo = r.nextInt(expected.length);
+                            Page p = bigFile.readPage(new HeapPageId(bigFile.getId(), pgNo));
+                            if (!Arrays.equals(expected[pgNo], p.getPageData()))
+                                throw new AssertionError("page " + pgNo + " differs");
+                        }
+                    } catch (Throwable e) {
+                        errors.add(e);
+                    }
+                }
+            };
+            readers[t].start();
+        }
+        for (Thread t : readers)
+            t.join();
+        assertTrue(errors.toString(), errors.isEmpty());
+    }
+
+    /**
+     * A memory-mapped HeapFile must decode the same pages as a regular one,
+     * including pages appended after the file was first mapped.
+     */
+    @Test
+    public void readPageMemoryMapped() throws Exception {
+        HeapFile mapped = new HeapFile(hf.getFile(), td, true);
+        Database.getCatalog().addTable(mapped, SystemTestUtil.getUUID());
+        assertTrue(mapped.isMemoryMapped());
+
+        HeapPageId pid = new HeapPageId(mapped.getId(), 0);
+        assertArrayEquals(hf.readPage(pid).getPageData(), mapped.readPage(pid).getPageData());
+
+        // fill up the first page so that the next insert grows the file
+        for (int i = 0; i < 484 + 1; i++)
+            mapped.addTuple(tid, Utility.getHeapTuple(i, 2));
+        assertEquals(2, mapped.numPages());
+        // the insert reaches the file when it commits
+        Database.getBufferPool().transactionComplete(tid);
+        HeapPage second = (HeapPage) mapped.readPage(new HeapPageId(mapped.getId(), 1));
+        assertEquals(504 - 1, second.getNumEmptySlots());
+        mapped.close();
+    }
+
+    /**
+     * A file too large for one mapping is mapped in pieces of whole pages,
+     * and pages appended later extend the last piece or start a new one.
+     */
+    @Test
+    public void readPageMappedInPieces() throws Exception {
+        HeapFile big = SystemTestUtil.createRandomHeapFile(2, 504 * 5, null, null);
+        HeapFile mapped = new HeapFile(big.getFile(), td, true);
+        Database.getCatalog().addTable(mapped, SystemTestUtil.getUUID());
+        // two and a half pages: two pages per piece
+        mapped.maxMapping = BufferPool.PAGE_SIZE * 5 / 2;
+        for (int i = 0; i < 5; i++) {
+            HeapPageId pid = new HeapPageId(mapped.getId(), i);
+            assertArrayEquals(big.readPage(pid).getPageData(), mapped.readPage(pid).getPageData());
+        }
+
+        mapped.addTuple(tid, Utility.getHeapTuple(1, 2));
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(6, mapped.numPages());
+        HeapPage last = (HeapPage) mapped.readPage(new HeapPageId(mapped.getId(), 5));
+        assertEquals(504 - 1, last.getNumEmptySlots());
+        mapped.close();
+    }
+
     @Test
     public void testIteratorBasic() throws Exception {
         HeapFile smallFile = SystemTestUtil.createRandomHeapFile(2, 3, null,
@@ -1,5 +1,10 @@
 package simpledb;
 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -43,6 +48,124 @@ public class HeapFileWriteTest extends TestUtil.CreateHeapFile {
         assertEquals(3, empty.numPages());
     }
 
+    /**
+     * Unit test for the free space map: once a page has room again, inserts
+     * go back to it instead of to the end of the file.
+     */
+    @Test public void addTupleReusesFreedSlot() throws Exception {
+        for (int i = 0; i < 504 * 3; ++i)
+            empty.addTuple(tid, Utility.getHeapTuple(i, 2));
+        assertEquals(3, empty.numPages());
+        FreeSpaceMap fsm = empty.getFreeSpaceMap();
+        assertEquals(0, fsm.getFreeSpace(0));
+        assertEquals(0, fsm.getFreeSpace(1));
+
+        HeapPageId pid = new HeapPageId(empty.getId(), 1);
+        HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
+        Tuple victim = page.iterator().next();
+        Database.getBufferPool().deleteTuple(tid, victim);
+        assertEquals(1, fsm.getFreeSpace(1));
+
+        Tuple t = Utility.getHeapTuple(7, 2);
+        empty.addTuple(tid, t);
+        assertEquals(pid, t.getRecordId().getPageId());
+        assertEquals(0, fsm.getFreeSpace(1));
+        assertEquals(3, empty.numPages());
+    }
+
+    /**
+     * Unit test for saving the free space map when the file is closed.
+     */
+    @Test public void freeSpaceMapSurvivesClose() throws Exception {
+        for (int i = 0; i < 600; ++i)
+            empty.addTuple(tid, Utility.getHeapTuple(i, 2));
+        Database.getBufferPool().transactionComplete(tid);
+        empty.close();
+
+        HeapFile reopened = new HeapFile(empty.getFile(), empty.getTupleDesc());
+        assertEquals(0, reopened.getFreeSpaceMap().getFreeSpace(0));
+        assertEquals(504 - 96, reopened.getFreeSpaceMap().getFreeSpace(1));
+        reopened.close();
+        new File(empty.getFile().getPath() + ".fsm").delete();
+    }
+
+    /**
+     * Closing a file that was deleted leaves no free space map behind.
+     */
+    @Test public void freeSpaceMapGoesWithFile() throws Exception {
+        File fsm = new File(empty.getFile().getPath() + ".fsm");
+        for (int i = 0; i < 600; ++i)
+            empty.addTuple(tid, Utility.getHeapTuple(i, 2));
+        Database.getBufferPool().transactionComplete(tid);
+        empty.close();
+        assertTrue(fsm.exists());
+
+        HeapFile reopened = new HeapFile(empty.getFile(), empty.getTupleDesc());
+        assertTrue(empty.getFile().delete());
+        reopened.close();
+        assertFalse(fsm.exists());
+    }
+
+    /**
+     * Unit test for HeapFile.writePages(): runs of neighbouring pages and
+     * pages on their own all land at their own offsets.
+     */
+    @Test public void writePages() throws Exception {
+        List<Page> pages = new ArrayList<Page>();
+        for (int p : new int[] {0, 1, 2, 4}) {
+            HeapPage hp = new HeapPage(new HeapPageId(empty.getId(), p), HeapPage.createEmptyPageData());
+            hp.addTuple(Utility.getHeapTuple(new int[] {p, p}));
+            pages.add(hp);
+        }
+        empty.writePages(pages);
+        assertEquals(5, empty.numPages());
+
+        for (int p = 0; p < 5; p++) {
+            HeapPage hp = (HeapPage) empty.readPage(new HeapPageId(empty.getId(), p));
+            Iterator<Tuple> it = hp.iterator();
+            if (p == 3) {
+                assertFalse(it.hasNext());
+                continue;
+            }
+            assertEquals(new IntField(p), it.next().getField(0));
+            assertFalse(it.hasNext());
+        }
+    }
+
+    /**
+     * Committing writes every dirty page of the transaction to disk.
+     */
+    @Test public void commitFlushesDirtyPages() throws Exception {
+        for (int i = 0; i < 504 * 3; ++i)
+            empty.addTuple(tid, Utility.getHeapTuple(i, 2));
+        Database.getBufferPool().transactionComplete(tid);
+
+        int tuples = 0;
+        for (int p = 0; p < empty.numPages(); p++) {
+            HeapPage hp = (HeapPage) empty.readPage(new HeapPageId(empty.getId(), p));
+            tuples += 504 - hp.getNumEmptySlots();
+        }
+        assertEquals(504 * 3, tuples);
+    }
+
+    /**
+     * Tuples added to pages the file grew by go away when their
+     * transaction aborts, like any others.
+     */
+    @Test public void abortUndoesNewPages() throws Exception {
+        for (int i = 0; i < 504 * 4; ++i)
+            empty.addTuple(tid, Utility.getHeapTuple(i, 2));
+        assertEquals(4, empty.numPages());
+        Database.getBufferPool().transactionComplete(tid, false);
+
+        TransactionId reader = new TransactionId();
+        DbFileIterator it = empty.iterator(reader);
+        it.open();
+        assertFalse(it.hasNext());
+        it.close();
+        Database.getBufferPool().transactionComplete(reader);
+    }
+
     /**
      * JUnit suite target
      */
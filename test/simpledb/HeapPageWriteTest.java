@@ -1,6 +1,8 @@
 package simpledb;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import java.io.IOException;
@@ -126,6 +128,48 @@ public class HeapPageWriteTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * Unit test for tuples that are read lazily out of the page: a deleted
+     * tuple keeps its values after its slot is reused, and changes made to
+     * the page show up in getPageData().
+     */
+    @Test public void deleteTupleThenReuseSlot() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        Tuple victim = page.iterator().next();
+        int slot = victim.getRecordId().tupleno();
+        int[] expected = HeapPageReadTest.EXAMPLE_VALUES[0];
+
+        page.deleteTuple(victim);
+        Tuple addition = Utility.getHeapTuple(new int[] {-1, -2});
+        page.addTuple(addition);
+        assertEquals(slot, addition.getRecordId().tupleno());
+        assertEquals(expected[0], ((IntField) victim.getField(0)).getValue());
+        assertEquals(expected[1], ((IntField) victim.getField(1)).getValue());
+
+        HeapPage copy = new HeapPage(pid, page.getPageData());
+        Tuple reread = copy.tupleSeek(slot);
+        assertTrue(TestUtil.compareTuples(addition, reread));
+        assertEquals(page.getNumEmptySlots(), copy.getNumEmptySlots());
+    }
+
+    /**
+     * Unit test for HeapPage.getBeforeImage(): the before image is only
+     * copied when the page is first modified, and dropped again by
+     * setBeforeImage() when the change is committed.
+     */
+    @Test public void beforeImage() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        assertNull(page.oldData);
+        assertArrayEquals(HeapPageReadTest.EXAMPLE_DATA, page.getBeforeImage().getPageData());
+
+        page.addTuple(Utility.getHeapTuple(new int[] {-1, -2}));
+        assertArrayEquals(HeapPageReadTest.EXAMPLE_DATA, page.getBeforeImage().getPageData());
+
+        page.setBeforeImage();
+        assertNull(page.oldData);
+        assertArrayEquals(page.getPageData(), page.getBeforeImage().getPageData());
+    }
+
     /**
      * JUnit suite target
      */
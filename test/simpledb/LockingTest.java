@@ -3,6 +3,8 @@ package simpledb;
 import org.junit.Before;
 import org.junit.Test;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.assertNull;
 import junit.framework.JUnit4TestAdapter;
 
@@ -186,6 +188,112 @@ public class LockingTest extends TestUtil.CreateHeapFile {
     bp.getPage(tid1, p1, Permissions.READ_WRITE);
   }
 
+  /**
+   * Unit test for BufferPool.getPage() assuming locking.
+   * A blocked request should sleep until the lock is released, then
+   * acquire it.
+   */
+  @Test public void blockedRequestWaits() throws Exception {
+    bp.getPage(tid1, p0, Permissions.READ_WRITE);
+    TestUtil.LockGrabber t = new TestUtil.LockGrabber(tid2, p0, Permissions.READ_WRITE);
+    t.start();
+
+    Thread.sleep(TIMEOUT);
+    assertFalse(t.acquired());
+    assertEquals(Thread.State.WAITING, t.getState());
+
+    bp.transactionComplete(tid1);
+    t.join(10 * TIMEOUT);
+    assertTrue(t.acquired());
+    assertNull(t.getError());
+  }
+
+  /**
+   * Unit test for BufferPool.getPage() assuming locking.
+   * A read request behind a waiting write request queues behind it instead
+   * of overtaking it, and each is granted in turn as the locks are released.
+   */
+  @Test public void waitersGrantedInOrder() throws Exception {
+    TransactionId tid3 = new TransactionId();
+    bp.getPage(tid1, p0, Permissions.READ_ONLY);
+    TestUtil.LockGrabber writer = new TestUtil.LockGrabber(tid2, p0, Permissions.READ_WRITE);
+    writer.start();
+    Thread.sleep(TIMEOUT);
+    TestUtil.LockGrabber reader = new TestUtil.LockGrabber(tid3, p0, Permissions.READ_ONLY);
+    reader.start();
+    Thread.sleep(TIMEOUT);
+    assertFalse(writer.acquired());
+    assertFalse(reader.acquired());
+
+    bp.transactionComplete(tid1);
+    writer.join(10 * TIMEOUT);
+    assertTrue(writer.acquired());
+    Thread.sleep(TIMEOUT);
+    assertFalse(reader.acquired());
+
+    bp.transactionComplete(tid2);
+    reader.join(10 * TIMEOUT);
+    assertTrue(reader.acquired());
+    assertNull(writer.getError());
+    assertNull(reader.getError());
+  }
+
+  /**
+   * A transaction that reads more pages of a table than the escalation
+   * threshold trades its page locks for a shared lock on the table, which
+   * lets others read the table but not write it.
+   */
+  @Test public void readLocksEscalate() throws Exception {
+    bp.setLockEscalationThreshold(2);
+    LockManager lm = bp.getLockManager();
+    bp.getPage(tid1, p0, Permissions.READ_ONLY);
+    bp.getPage(tid1, p1, Permissions.READ_ONLY);
+    assertEquals(LockMode.IS, lm.getTableLock(tid1, empty.getId()));
+    assertEquals(3, lm.getNumLocks());
+
+    bp.getPage(tid1, p2, Permissions.READ_ONLY);
+    assertEquals(LockMode.S, lm.getTableLock(tid1, empty.getId()));
+    assertEquals(1, lm.getNumLocks());
+    assertTrue(bp.holdsLock(tid1, p0));
+
+    grabLock(tid2, p1, Permissions.READ_ONLY, true);
+    grabLock(tid2, p1, Permissions.READ_WRITE, false);
+  }
+
+  /**
+   * Writes escalate to an exclusive table lock; the pages written stay
+   * with the transaction for its commit.
+   */
+  @Test public void writeLocksEscalate() throws Exception {
+    bp.setLockEscalationThreshold(2);
+    LockManager lm = bp.getLockManager();
+    bp.getPage(tid1, p0, Permissions.READ_WRITE);
+    bp.getPage(tid1, p1, Permissions.READ_ONLY);
+    bp.getPage(tid1, p2, Permissions.READ_WRITE);
+    assertEquals(LockMode.X, lm.getTableLock(tid1, empty.getId()));
+    assertEquals(1, lm.getNumLocks());
+    assertEquals(2, bp.getLockManager().getPagesLockedByTx(tid1).size());
+
+    grabLock(tid2, p1, Permissions.READ_ONLY, false);
+  }
+
+  /**
+   * Escalation doesn't wait for another transaction's intention lock; the
+   * page locks stay until the table lock can be had.
+   */
+  @Test public void escalationWaitsForWriters() throws Exception {
+    bp.setLockEscalationThreshold(1);
+    LockManager lm = bp.getLockManager();
+    bp.getPage(tid2, p2, Permissions.READ_WRITE);
+    bp.getPage(tid1, p0, Permissions.READ_ONLY);
+    bp.getPage(tid1, p1, Permissions.READ_ONLY);
+    assertEquals(LockMode.IS, lm.getTableLock(tid1, empty.getId()));
+
+    bp.transactionComplete(tid2);
+    bp.getPage(tid1, p2, Permissions.READ_ONLY);
+    assertEquals(LockMode.S, lm.getTableLock(tid1, empty.getId()));
+  }
+
   /**
    * JUnit suite target
    */
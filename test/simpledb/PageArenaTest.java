@@ -0,0 +1,100 @@
+package simpledb;
+
+import java.util.Iterator;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+public class PageArenaTest extends TestUtil.CreateHeapFile {
+
+  /**
+   * Set up initial resources for each unit test.
+   */
+  @Before public void setUp() throws Exception {
+    super.setUp();
+
+    // five full pages on disk, tuple i holds (i, i)
+    BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    TransactionId tid = new TransactionId();
+    for (int i = 0; i < 504 * 5; ++i)
+      empty.addTuple(tid, Utility.getHeapTuple(new int[] { i, i }));
+    bp.transactionComplete(tid);
+  }
+
+  private int[] scan(BufferPool bp) throws Exception {
+    TransactionId tid = new TransactionId();
+    DbFileIterator it = empty.iterator(tid);
+    it.open();
+    int n = 0, sum = 0;
+    while (it.hasNext()) {
+      sum += ((IntField) it.next().getField(1)).getValue();
+      n++;
+    }
+    it.close();
+    bp.transactionComplete(tid);
+    return new int[] { n, sum };
+  }
+
+  /**
+   * Frames are allocated up front, and a scan through a pool smaller than
+   * the table reads every tuple out of them.
+   */
+  @Test public void scanThroughFrames() throws Exception {
+    BufferPool bp = Database.resetBufferPool(3L * BufferPool.PAGE_SIZE, true);
+    PageArena arena = bp.getArena();
+    assertEquals(3 + BufferPool.SPARE_FRAMES, arena.getNumFrames());
+    assertEquals(arena.getNumFrames(), arena.getNumFree());
+
+    int n = 504 * 5;
+    int[] result = scan(bp);
+    assertEquals(n, result[0]);
+    assertEquals(n * (n - 1) / 2, result[1]);
+    assertEquals(arena.getNumFrames() - bp.getResidentPages().size(), arena.getNumFree());
+    assertTrue(bp.getResidentPages().size() <= 3);
+  }
+
+  /**
+   * A tuple of a page that is evicted still reads its own values after the
+   * page's frame has been reused.
+   */
+  @Test public void evictedPageStillReadable() throws Exception {
+    BufferPool bp = Database.resetBufferPool(1L * BufferPool.PAGE_SIZE, true);
+    TransactionId tid = new TransactionId();
+    HeapPage p0 = (HeapPage) bp.getPage(tid, new HeapPageId(empty.getId(), 0), Permissions.READ_ONLY);
+    Iterator<Tuple> it = p0.iterator();
+    it.next();
+    Tuple second = it.next();
+
+    for (int p = 1; p < 5; p++)
+      bp.getPage(tid, new HeapPageId(empty.getId(), p), Permissions.READ_ONLY);
+    assertEquals(1, ((IntField) second.getField(1)).getValue());
+    bp.transactionComplete(tid);
+  }
+
+  /**
+   * Changes made to pages in frames reach the file.
+   */
+  @Test public void writeFromFrames() throws Exception {
+    BufferPool bp = Database.resetBufferPool(2L * BufferPool.PAGE_SIZE, true);
+    TransactionId tid = new TransactionId();
+    DbFileIterator it = empty.iterator(tid);
+    it.open();
+    for (int i = 0; i < 504; i++)
+      bp.deleteTuple(tid, it.next());
+    it.close();
+    bp.transactionComplete(tid);
+
+    bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    assertEquals(504 * 4, scan(bp)[0]);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(PageArenaTest.class);
+  }
+}
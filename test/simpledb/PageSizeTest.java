@@ -0,0 +1,89 @@
+package simpledb;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class PageSizeTest extends SimpleDbTestBase {
+    private static final int BIG = 4 * BufferPool.PAGE_SIZE;
+
+    private File f;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        f = File.createTempFile("pagesize", ".dat");
+        f.deleteOnExit();
+    }
+
+    private HeapFile write(int rows) throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < rows; i++)
+            tuples.add(new ArrayList<Integer>(Arrays.asList(i, -i)));
+        HeapFileEncoder.convert(tuples, f, BIG, 2);
+        HeapFile hf = new HeapFile(f, Utility.getTupleDesc(2), false, BIG);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        return hf;
+    }
+
+    /**
+     * A file written with larger pages is read back with the same page size.
+     */
+    @Test public void readLargePages() throws Exception {
+        HeapFile hf = write(3000);
+        assertEquals(BIG, hf.getPageSize());
+        assertEquals(BIG, Database.getCatalog().getPageSize(hf.getId()));
+        int perPage = hf.getNumTuplesPerPage();
+        assertEquals((BIG * 8) / (8 * 8 + 1), perPage);
+        assertEquals((3000 + perPage - 1) / perPage, hf.numPages());
+
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            assertEquals(-((IntField) t.getField(0)).getValue(), ((IntField) t.getField(1)).getValue());
+            count++;
+        }
+        it.close();
+        assertEquals(3000, count);
+
+        // inserted tuples land on large pages too
+        Tuple t = Utility.getHeapTuple(new int[] {5000, -5000});
+        Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(0, f.length() % BIG);
+    }
+
+    /**
+     * The buffer pool accounts for pages by their size: a pool of eight
+     * default pages holds only two pages that are four times as large.
+     */
+    @Test public void poolAccountsForBytes() throws Exception {
+        HeapFile hf = write(5000);
+        assertTrue(hf.numPages() >= 3);
+        BufferPool bp = Database.resetBufferPool(8);
+        TransactionId tid = new TransactionId();
+        for (int p = 0; p < 3; p++) {
+            bp.getPage(tid, new HeapPageId(hf.getId(), p), Permissions.READ_ONLY);
+            assertTrue(bp.getUsedBytes() <= bp.getCapacityBytes());
+        }
+        assertEquals(2 * BIG, bp.getUsedBytes());
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageSizeTest.class);
+    }
+}
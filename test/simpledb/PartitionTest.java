@@ -0,0 +1,85 @@
+package simpledb;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+public class PartitionTest extends SimpleDbTestBase {
+    private HeapFile hot;
+    private HeapFile big;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        // two int columns -> 504 tuples per page
+        hot = SystemTestUtil.createRandomHeapFile(2, 3 * 504, null, null);
+        big = SystemTestUtil.createRandomHeapFile(2, 20 * 504, null, null);
+    }
+
+    private void read(BufferPool bp, HeapFile f, int from, int to) throws Exception {
+        TransactionId tid = new TransactionId();
+        for (int p = from; p < to; p++)
+            bp.getPage(tid, new HeapPageId(f.getId(), p), Permissions.READ_ONLY);
+        bp.transactionComplete(tid);
+    }
+
+    private int resident(BufferPool bp, HeapFile f) {
+        int n = 0;
+        for (PageId pid : bp.getResidentPages().keySet())
+            if (pid.getTableId() == f.getId())
+                n++;
+        return n;
+    }
+
+    /**
+     * A scan of a table in a partition only evicts pages of that partition.
+     */
+    @Test public void scanStaysInQuota() throws Exception {
+        Database.getCatalog().addPartition("reports", 4);
+        Database.getCatalog().setPartition(big.getId(), "reports");
+        BufferPool bp = Database.resetBufferPool(10);
+
+        read(bp, hot, 0, 3);
+        read(bp, big, 0, 20);
+        assertEquals(3, resident(bp, hot));
+        assertEquals(4, resident(bp, big));
+        assertEquals(4L * BufferPool.PAGE_SIZE, bp.getPartitionBytes("reports"));
+    }
+
+    /**
+     * Without a partition the same scan pushes the other table out.
+     */
+    @Test public void scanWithoutQuota() throws Exception {
+        BufferPool bp = Database.resetBufferPool(10);
+        read(bp, hot, 0, 3);
+        read(bp, big, 0, 20);
+        assertTrue(resident(bp, hot) < 3);
+    }
+
+    /**
+     * The pages of a pinned table are read in up front and never evicted.
+     */
+    @Test public void pinnedTableStays() throws Exception {
+        Database.getCatalog().setPinned(hot.getId(), true);
+        BufferPool bp = Database.resetBufferPool(10);
+        assertEquals(3, bp.preloadPinnedTables());
+
+        read(bp, big, 0, 20);
+        assertEquals(3, resident(bp, hot));
+        bp.resetStatistics();
+        read(bp, hot, 0, 3);
+        assertEquals(0, bp.getMisses());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PartitionTest.class);
+    }
+}
@@ -0,0 +1,146 @@
+package simpledb;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.nio.ByteBuffer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class PaxFileTest extends SimpleDbTestBase {
+    private TupleDesc td;
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        td = new TupleDesc(new Type[] {Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE},
+                new String[] {"id", "name", "score"});
+        tid = new TransactionId();
+    }
+
+    @After public void tearDown() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private PaxFile create(File f) {
+        f.deleteOnExit();
+        PaxFile pf = new PaxFile(f, td);
+        Database.getCatalog().addTable(pf, SystemTestUtil.getUUID());
+        return pf;
+    }
+
+    private Tuple tuple(int n) {
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(n));
+        t.setField(1, new StringField("name " + n, Type.STRING_LEN));
+        t.setField(2, new IntField(-n));
+        return t;
+    }
+
+    /**
+     * Each field is stored in its own minipage: the ids of consecutive slots
+     * are next to each other in the page image.
+     */
+    @Test public void columnLayout() throws Exception {
+        PaxPage page = new PaxPage(new HeapPageId(0, 0),
+                ByteBuffer.wrap(HeapPage.createEmptyPageData()), td, BufferPool.PAGE_SIZE);
+        for (int i = 0; i < 10; i++)
+            page.addTuple(tuple(i));
+        ByteBuffer data = ByteBuffer.wrap(page.getPageData());
+        int base = page.fieldOffset(0, 0);
+        for (int i = 0; i < 10; i++)
+            assertEquals(i, data.getInt(base + 4 * i));
+        assertEquals(page.fieldOffset(0, 1), base + page.numSlots * 4);
+
+        // deleting a tuple clears its fields in every minipage
+        page.deleteTuple(page.tupleSeek(3));
+        data = ByteBuffer.wrap(page.getPageData());
+        assertEquals(0, data.getInt(base + 4 * 3));
+        assertEquals(0, data.getInt(page.fieldOffset(3, 2)));
+        assertEquals(4, data.getInt(base + 4 * 4));
+    }
+
+    /**
+     * A scan asked for some fields decodes just those, and the others are
+     * still there when read.
+     */
+    @Test public void scanDecodesRequestedColumns() throws Exception {
+        PaxFile pf = create(File.createTempFile("pax", ".dat"));
+        for (int i = 0; i < 500; i++)
+            Database.getBufferPool().insertTuple(tid, pf.getId(), tuple(i));
+        Database.getBufferPool().flushAllPages();
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+
+        DbFileIterator it = pf.iterator(tid, new int[] {2});
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            assertTrue(t.hasField(2));
+            assertFalse(t.hasField(0));
+            assertFalse(t.hasField(1));
+            int id = ((IntField) t.getField(0)).getValue();
+            assertEquals(-id, ((IntField) t.getField(2)).getValue());
+            assertEquals("name " + id, ((StringField) t.getField(1)).getValue());
+            count++;
+        }
+        it.close();
+        assertEquals(500, count);
+    }
+
+    /**
+     * Unit test for PaxFileEncoder.convert()
+     */
+    @Test public void convert() throws Exception {
+        File txt = File.createTempFile("pax", ".txt");
+        txt.deleteOnExit();
+        FileWriter w = new FileWriter(txt);
+        for (int i = 0; i < 500; i++)
+            w.write(i + ",name " + i + "," + (-i) + "\n");
+        w.close();
+        File dat = File.createTempFile("pax", ".dat");
+        PaxFileEncoder.convert(txt, dat, new Type[] {Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE});
+        PaxFile pf = create(dat);
+
+        DbFileIterator it = pf.iterator(tid, new int[] {0, 1});
+        it.open();
+        for (int i = 0; i < 500; i++) {
+            Tuple t = it.next();
+            assertEquals(i, ((IntField) t.getField(0)).getValue());
+            assertEquals("name " + i, ((StringField) t.getField(1)).getValue());
+            assertEquals(-i, ((IntField) t.getField(2)).getValue());
+        }
+        assertFalse(it.hasNext());
+        it.close();
+        assertEquals((500 + pf.getNumTuplesPerPage() - 1) / pf.getNumTuplesPerPage(), pf.numPages());
+    }
+
+    /**
+     * The logical plan passes only the fields a query reads to the scan.
+     */
+    @Test public void usedColumns() throws Exception {
+        PaxFile pf = create(File.createTempFile("pax", ".dat"));
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(pf.getId(), "p");
+        lp.addFilter("p.score", Predicate.Op.GREATER_THAN, "3");
+        lp.addProjectField("p.id", null);
+        LogicalScanNode scan = new LogicalScanNode(pf.getId(), "p");
+        assertArrayEquals(new int[] {0, 2}, lp.usedColumns(scan));
+
+        lp.addProjectField("null.*", null);
+        assertNull(lp.usedColumns(scan));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PaxFileTest.class);
+    }
+}
@@ -0,0 +1,146 @@
+package simpledb;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+import junit.framework.JUnit4TestAdapter;
+
+public class PinTest extends TestUtil.CreateHeapFile {
+  private PageId p0, p1, p2;
+
+  /**
+   * Set up initial resources for each unit test.
+   */
+  @Before public void setUp() throws Exception {
+    super.setUp();
+
+    // fill two pages of the empty file and start a third
+    BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    TransactionId tid = new TransactionId();
+    for (int i = 0; i < 1025; ++i) {
+      empty.addTuple(tid, Utility.getHeapTuple(i, 2));
+    }
+    assertEquals(3, empty.numPages());
+    bp.flushAllPages();
+
+    this.p0 = new HeapPageId(empty.getId(), 0);
+    this.p1 = new HeapPageId(empty.getId(), 1);
+    this.p2 = new HeapPageId(empty.getId(), 2);
+  }
+
+  /**
+   * A scan pins the page it is reading, and only that page.
+   */
+  @Test public void scanPinsCurrentPage() throws Exception {
+    BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    DbFileIterator it = empty.iterator(new TransactionId());
+    it.open();
+    assertEquals(0, bp.getNumPinnedPages());
+
+    it.next();
+    assertEquals(1, bp.getPinCount(p0));
+    assertEquals(1, bp.getNumPinnedPages());
+
+    for (int i = 0; i < 512; i++)
+      it.next();
+    assertEquals(0, bp.getPinCount(p0));
+    assertEquals(1, bp.getPinCount(p1));
+    assertEquals(1, bp.getNumPinnedPages());
+
+    it.close();
+    assertEquals(0, bp.getNumPinnedPages());
+  }
+
+  /**
+   * The page a scan is reading stays resident while other pages come and
+   * go, so later requests get the same copy.
+   */
+  @Test public void pinnedPageNotEvicted() throws Exception {
+    BufferPool bp = Database.resetBufferPool(2);
+    TransactionId tid = new TransactionId();
+    DbFileIterator it = empty.iterator(tid);
+    it.open();
+    it.next();
+    Page scanned = bp.getPage(tid, p0, Permissions.READ_ONLY);
+
+    bp.getPage(tid, p1, Permissions.READ_ONLY);
+    bp.getPage(tid, p2, Permissions.READ_ONLY);
+    bp.getPage(tid, p1, Permissions.READ_ONLY);
+    assertSame(scanned, bp.getPage(tid, p0, Permissions.READ_ONLY));
+    it.close();
+  }
+
+  /**
+   * Pins nest, and a pool full of pinned pages can't load another one.
+   */
+  @Test public void allPagesPinned() throws Exception {
+    BufferPool bp = Database.resetBufferPool(1);
+    TransactionId tid = new TransactionId();
+    bp.pinPage(tid, p0, Permissions.READ_ONLY);
+    bp.pinPage(tid, p0, Permissions.READ_ONLY);
+    assertEquals(2, bp.getPinCount(p0));
+
+    bp.unpinPage(tid, p0);
+    try {
+      bp.getPage(tid, p1, Permissions.READ_ONLY);
+      fail("expected DbException");
+    } catch (DbException e) {
+      // the only page is pinned
+    }
+
+    bp.unpinPage(tid, p0);
+    assertEquals(0, bp.getPinCount(p0));
+    bp.getPage(tid, p1, Permissions.READ_ONLY);
+    bp.unpinPage(tid, p0);
+    assertEquals(0, bp.getNumPinnedPages());
+  }
+
+  /**
+   * A scan lets go of its last page once it has read it, even if it is
+   * never closed, as when ORDER BY reads all of its input up front.
+   */
+  @Test public void exhaustedScanUnpins() throws Exception {
+    BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    TransactionId tid = new TransactionId();
+    OrderBy sort = new OrderBy(0, true, new SeqScan(tid, empty.getId(), ""));
+    sort.open();
+    assertEquals(0, bp.getNumPinnedPages());
+    sort.close();
+    bp.transactionComplete(tid);
+    assertEquals(0, bp.getNumPinnedPages());
+  }
+
+  /**
+   * The pins a transaction still holds go when it completes.
+   */
+  @Test public void completionReleasesPins() throws Exception {
+    BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    TransactionId tid = new TransactionId();
+    DbFileIterator it = empty.iterator(tid);
+    it.open();
+    it.next();
+    bp.pinPage(tid, p1, Permissions.READ_ONLY);
+    TransactionId other = new TransactionId();
+    bp.pinPage(other, p1, Permissions.READ_ONLY);
+    assertEquals(2, bp.getNumPinnedPages());
+
+    bp.transactionComplete(tid);
+    assertEquals(0, bp.getPinCount(p0));
+    assertEquals(1, bp.getPinCount(p1));
+    // a late close releases nothing the transaction no longer holds
+    it.close();
+    bp.unpinPage(tid, p1);
+    assertEquals(1, bp.getPinCount(p1));
+    bp.transactionComplete(other);
+    assertEquals(0, bp.getNumPinnedPages());
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(PinTest.class);
+  }
+}
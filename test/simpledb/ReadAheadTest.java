@@ -0,0 +1,128 @@
+package simpledb;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class ReadAheadTest extends SimpleDbTestBase {
+    private static final int PAGES = 200;
+
+    /** Counts the number of pages read, and the reads of runs of pages. */
+    static class InstrumentedHeapFile extends HeapFile {
+        public volatile int readCount = 0;
+        public volatile int runCount = 0;
+
+        public InstrumentedHeapFile(File f, TupleDesc td) {
+            super(f, td);
+        }
+
+        @Override
+        public Page readPage(PageId pid) throws NoSuchElementException {
+            readCount += 1;
+            return super.readPage(pid);
+        }
+
+        @Override
+        public List<Page> readPages(int first, int count) throws IOException {
+            readCount += count;
+            runCount += 1;
+            return super.readPages(first, count);
+        }
+    }
+
+    private InstrumentedHeapFile hf;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        File f = SystemTestUtil.createRandomHeapFileUnopened(1, 992 * PAGES, 1000, null, null);
+        hf = new InstrumentedHeapFile(f, Utility.getTupleDesc(1));
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+    }
+
+    /**
+     * Unit test for ReadAhead.pageAccessed(): the window starts small, grows
+     * while the access pattern stays sequential, and resets on a jump.
+     */
+    @Test public void windowGrowth() {
+        ReadAhead ra = new ReadAhead(hf);
+        assertEquals(0, ra.getWindow());
+        ra.pageAccessed(0);
+        assertEquals(ReadAhead.INITIAL_WINDOW, ra.getWindow());
+
+        int last = ReadAhead.INITIAL_WINDOW;
+        for (int p = 1; p < 100; p++) {
+            ra.pageAccessed(p);
+            assertTrue(ra.getWindow() >= last);
+            last = ra.getWindow();
+        }
+        assertEquals(ReadAhead.MAX_WINDOW, ra.getWindow());
+
+        ra.pageAccessed(10);
+        assertEquals(0, ra.getWindow());
+    }
+
+    /**
+     * A prefetched page is served out of the buffer pool without another read.
+     */
+    @Test public void prefetchedPageIsCached() throws Exception {
+        HeapPageId pid = new HeapPageId(hf.getId(), 3);
+        Database.getBufferPool().prefetchPage(pid);
+        assertEquals(1, hf.readCount);
+
+        TransactionId tid = new TransactionId();
+        Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
+        assertEquals(1, hf.readCount);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Pages prefetched together are read with one read per run of pages
+     * that aren't resident yet.
+     */
+    @Test public void prefetchReadsRuns() throws Exception {
+        Database.getBufferPool().prefetchPage(new HeapPageId(hf.getId(), 4));
+        Database.getBufferPool().prefetchPages(hf.getId(), 0, 8);
+        assertEquals(8, hf.readCount);
+        assertEquals(2, hf.runCount);
+
+        TransactionId tid = new TransactionId();
+        for (int p = 0; p < 8; p++)
+            Database.getBufferPool().getPage(tid, new HeapPageId(hf.getId(), p), Permissions.READ_ONLY);
+        assertEquals(8, hf.readCount);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * A full scan with read-ahead running still reads every page exactly once.
+     */
+    @Test public void scanReadsEachPageOnce() throws Exception {
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        it.close();
+        assertEquals(992 * PAGES, count);
+        assertEquals(PAGES, hf.readCount);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ReadAheadTest.class);
+    }
+}
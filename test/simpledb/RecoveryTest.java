@@ -0,0 +1,108 @@
+package simpledb;
+
+import java.util.Iterator;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import junit.framework.JUnit4TestAdapter;
+
+public class RecoveryTest extends TestUtil.CreateHeapFile {
+  private BufferPool bp;
+  private HeapPageId pid;
+
+  /**
+   * Set up initial resources for each unit test.
+   */
+  @Before public void setUp() throws Exception {
+    super.setUp();
+
+    // ten committed tuples on the first page, written with force
+    bp = Database.getBufferPool();
+    Transaction t = new Transaction();
+    t.start();
+    for (int i = 0; i < 10; ++i)
+      bp.insertTuple(t.getId(), empty.getId(), Utility.getHeapTuple(i, 2));
+    t.commit();
+    pid = new HeapPageId(empty.getId(), 0);
+  }
+
+  private int countOnDisk() {
+    HeapPage p = (HeapPage) empty.readPage(pid);
+    int n = 0;
+    for (Iterator<Tuple> it = p.iterator(); it.hasNext(); it.next())
+      n++;
+    return n;
+  }
+
+  /** Throws away the buffer pool, as a crash would, and recovers. */
+  private void crashAndRecover() throws Exception {
+    bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    Database.getLogFile().recover();
+  }
+
+  /**
+   * Without force a commit leaves the page in the buffer pool, and
+   * recovery redoes it from the log.
+   */
+  @Test public void noForceCommitIsRedone() throws Exception {
+    bp.setForceAtCommit(false);
+    Transaction t = new Transaction();
+    t.start();
+    bp.insertTuple(t.getId(), empty.getId(), Utility.getHeapTuple(99, 2));
+    t.commit();
+    assertEquals(10, countOnDisk());
+
+    crashAndRecover();
+    assertEquals(11, countOnDisk());
+  }
+
+  /**
+   * Pages of a transaction that never finished are put back.
+   */
+  @Test public void uncommittedIsUndone() throws Exception {
+    Transaction t = new Transaction();
+    t.start();
+    DbFileIterator it = empty.iterator(t.getId());
+    it.open();
+    while (it.hasNext())
+      bp.deleteTuple(t.getId(), it.next());
+    it.close();
+    bp.flushAllPages();
+    assertEquals(0, countOnDisk());
+
+    crashAndRecover();
+    assertEquals(10, countOnDisk());
+
+    // recovering again must not undo anything a second time
+    crashAndRecover();
+    assertEquals(10, countOnDisk());
+  }
+
+  /**
+   * A page committed without force, then changed by a transaction that
+   * aborts, keeps the committed changes.
+   */
+  @Test public void abortKeepsUnwrittenCommit() throws Exception {
+    bp.setForceAtCommit(false);
+    Transaction t = new Transaction();
+    t.start();
+    bp.insertTuple(t.getId(), empty.getId(), Utility.getHeapTuple(99, 2));
+    t.commit();
+
+    t = new Transaction();
+    t.start();
+    bp.insertTuple(t.getId(), empty.getId(), Utility.getHeapTuple(100, 2));
+    t.transactionComplete(true);
+
+    bp.flushAllPages();
+    assertEquals(11, countOnDisk());
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(RecoveryTest.class);
+  }
+}
@@ -0,0 +1,140 @@
+package simpledb;
+
+import java.io.File;
+import java.util.HashSet;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class ReplacementPolicyTest extends SimpleDbTestBase {
+    private static final int CAPACITY = 20;
+    private static final int HOT = 8;
+
+    private static final ReplacementPolicy.Evictable ANY = new ReplacementPolicy.Evictable() {
+        public boolean canEvict(PageId pid) {
+            return true;
+        }
+    };
+
+    /**
+     * A buffer pool of CAPACITY pages in miniature: returns true on a hit.
+     */
+    private static boolean request(ReplacementPolicy policy, HashSet<PageId> resident, int page) {
+        PageId pid = new HeapPageId(1, page);
+        boolean hit = resident.contains(pid);
+        if (!hit) {
+            if (resident.size() >= CAPACITY) {
+                PageId victim = policy.chooseVictim(ANY);
+                assertNotNull(victim);
+                assertTrue(resident.remove(victim));
+                policy.pageRemoved(victim);
+            }
+            resident.add(pid);
+            policy.pageAdded(pid);
+        }
+        policy.pageAccessed(pid);
+        return hit;
+    }
+
+    /**
+     * Warms up a hot set, runs a scan three times the size of the pool
+     * over other pages, and returns how many hot pages are still resident.
+     */
+    private static int hotPagesAfterScan(ReplacementPolicy policy) {
+        HashSet<PageId> resident = new HashSet<PageId>();
+        for (int round = 0; round < 5; round++)
+            for (int p = 0; p < HOT; p++)
+                request(policy, resident, p);
+        for (int p = 1000; p < 1000 + 3 * CAPACITY; p++)
+            request(policy, resident, p);
+        int left = 0;
+        for (int p = 0; p < HOT; p++)
+            if (resident.contains(new HeapPageId(1, p)))
+                left++;
+        return left;
+    }
+
+    @Test public void lru2ResistsScans() {
+        assertEquals(HOT, hotPagesAfterScan(new LruKPolicy()));
+    }
+
+    @Test public void twoQueueResistsScans() {
+        assertEquals(HOT, hotPagesAfterScan(new TwoQueuePolicy()));
+    }
+
+    /**
+     * CLOCK gives referenced pages a second chance but, like LRU, is flushed
+     * by a long enough scan.
+     */
+    @Test public void clockSecondChance() {
+        ClockPolicy clock = new ClockPolicy();
+        HashSet<PageId> resident = new HashSet<PageId>();
+        for (int p = 0; p < CAPACITY; p++)
+            request(clock, resident, p);
+        // every bit is set, so the first sweep clears them and the hand comes back to page 0
+        request(clock, resident, 100);
+        assertFalse(resident.contains(new HeapPageId(1, 0)));
+        request(clock, resident, 1);
+        request(clock, resident, 101);
+        assertTrue(resident.contains(new HeapPageId(1, 1)));
+        assertFalse(resident.contains(new HeapPageId(1, 2)));
+        assertEquals(0, hotPagesAfterScan(new ClockPolicy()));
+    }
+
+    /**
+     * Policies never pick a page the buffer pool says it can't evict.
+     */
+    @Test public void respectsEvictable() {
+        ReplacementPolicy[] policies = {new ClockPolicy(), new LruKPolicy(), new TwoQueuePolicy()};
+        for (ReplacementPolicy policy : policies) {
+            HashSet<PageId> resident = new HashSet<PageId>();
+            for (int p = 0; p < CAPACITY; p++)
+                request(policy, resident, p);
+            final PageId only = new HeapPageId(1, CAPACITY - 1);
+            assertEquals(only, policy.chooseVictim(new ReplacementPolicy.Evictable() {
+                public boolean canEvict(PageId pid) {
+                    return pid.equals(only);
+                }
+            }));
+            assertNull(policy.chooseVictim(new ReplacementPolicy.Evictable() {
+                public boolean canEvict(PageId pid) {
+                    return false;
+                }
+            }));
+        }
+    }
+
+    /**
+     * The buffer pool counts hits and misses and evicts through its policy.
+     */
+    @Test public void bufferPoolCountsHits() throws Exception {
+        File f = SystemTestUtil.createRandomHeapFileUnopened(2, 504 * 30, 1000, null, null);
+        HeapFile hf = new HeapFile(f, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        BufferPool bp = Database.resetBufferPool(CAPACITY, new LruKPolicy());
+        TransactionId tid = new TransactionId();
+        for (int round = 0; round < 2; round++)
+            for (int p = 0; p < HOT; p++)
+                bp.getPage(tid, new HeapPageId(hf.getId(), p), Permissions.READ_ONLY);
+        assertEquals(HOT, bp.getMisses());
+        assertEquals(HOT, bp.getHits());
+        for (int p = HOT; p < 30; p++)
+            bp.getPage(tid, new HeapPageId(hf.getId(), p), Permissions.READ_ONLY);
+        bp.resetStatistics();
+        for (int p = 0; p < HOT; p++)
+            bp.getPage(tid, new HeapPageId(hf.getId(), p), Permissions.READ_ONLY);
+        assertEquals(HOT, bp.getHits());
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ReplacementPolicyTest.class);
+    }
+}
@@ -0,0 +1,199 @@
+package simpledb;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+public class RowLockTest extends TestUtil.CreateHeapFile {
+  private BufferPool bp;
+  private HeapPageId p0;
+  private TransactionId tid1, tid2;
+
+  /** Time to wait before deciding that a thread is blocked, in ms */
+  private static final int TIMEOUT = 100;
+
+  /**
+   * Set up initial resources for each unit test.
+   */
+  @Before public void setUp() throws Exception {
+    super.setUp();
+
+    // one full page, written with page locks, then locked by tuple
+    bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    TransactionId tid = new TransactionId();
+    for (int i = 0; i < 504; ++i)
+      empty.addTuple(tid, Utility.getHeapTuple(i, 2));
+    bp.transactionComplete(tid);
+    assertEquals(1, empty.numPages());
+    bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    Database.getCatalog().setRowLocked(empty.getId(), true);
+
+    p0 = new HeapPageId(empty.getId(), 0);
+    tid1 = new TransactionId();
+    tid2 = new TransactionId();
+  }
+
+  /** A tuple that refers to the specified slot of the first page. */
+  private Tuple inSlot(int slot) {
+    Tuple t = Utility.getHeapTuple(slot, 2);
+    t.setRecordId(new RecordId(p0, slot));
+    return t;
+  }
+
+  private boolean onDisk(int slot) {
+    return ((HeapPage) empty.readPage(p0)).getSlot(slot);
+  }
+
+  /**
+   * Runs the deletion of a tuple in another thread.
+   *
+   * @return the thread, which has finished unless the deletion blocked
+   */
+  private Thread deleteInThread(final TransactionId tid, final int slot) throws Exception {
+    Thread t = new Thread() {
+      public void run() {
+        try {
+          bp.deleteTuple(tid, inSlot(slot));
+        } catch (Exception e) {
+          e.printStackTrace();
+        }
+      }
+    };
+    t.setDaemon(true);
+    t.start();
+    t.join(TIMEOUT);
+    return t;
+  }
+
+  /**
+   * Two transactions delete different tuples of one page at once.
+   */
+  @Test public void writersShareAPage() throws Exception {
+    bp.deleteTuple(tid1, inSlot(0));
+    assertFalse(deleteInThread(tid2, 1).isAlive());
+    assertTrue(bp.holdsRowLock(tid1, new RecordId(p0, 0)));
+    assertFalse(bp.holdsRowLock(tid1, new RecordId(p0, 1)));
+    bp.transactionComplete(tid1);
+    bp.transactionComplete(tid2);
+    assertFalse(onDisk(0));
+    assertFalse(onDisk(1));
+    assertTrue(onDisk(2));
+  }
+
+  /**
+   * A second writer of the same tuple waits for the first to complete.
+   */
+  @Test public void writersOfATupleQueue() throws Exception {
+    bp.deleteTuple(tid1, inSlot(0));
+    assertFalse(bp.lockRow(tid2, new RecordId(p0, 0), false));
+
+    TransactionId tid3 = new TransactionId();
+    Thread t = deleteInThread(tid3, 0);
+    assertTrue(t.isAlive());
+    bp.transactionComplete(tid1, false);
+    t.join();
+    assertTrue(bp.holdsRowLock(tid3, new RecordId(p0, 0)));
+    bp.transactionComplete(tid3);
+    assertFalse(onDisk(0));
+  }
+
+  /**
+   * Readers still lock the page, and wait for its writers to complete.
+   */
+  @Test public void readersWaitForWriters() throws Exception {
+    bp.deleteTuple(tid1, inSlot(0));
+    TestUtil.LockGrabber t = new TestUtil.LockGrabber(tid2, p0, Permissions.READ_ONLY);
+    t.setDaemon(true);
+    t.start();
+    Thread.sleep(TIMEOUT);
+    assertFalse(t.acquired());
+    bp.transactionComplete(tid1);
+    t.join();
+    assertTrue(t.acquired());
+    bp.transactionComplete(tid2);
+  }
+
+  /**
+   * An insert does not take a slot emptied by a transaction that may yet
+   * abort, and the abort puts back just that transaction's tuple.
+   */
+  @Test public void insertSkipsUncommittedDelete() throws Exception {
+    bp.deleteTuple(tid1, inSlot(3));
+    Tuple t = Utility.getHeapTuple(1000, 2);
+    bp.insertTuple(tid2, empty.getId(), t);
+    assertEquals(1, t.getRecordId().getPageId().pageno());
+
+    // tid2 now takes another tuple of the first page
+    bp.deleteTuple(tid2, inSlot(4));
+    bp.transactionComplete(tid1, false);
+    bp.transactionComplete(tid2);
+    assertTrue(onDisk(3));
+    assertFalse(onDisk(4));
+    assertEquals(2, empty.numPages());
+  }
+
+  /**
+   * An abort undoes its own tuples on a page that a committed transaction
+   * changed too, even once the page was written to disk.
+   */
+  @Test public void abortKeepsOtherWriters() throws Exception {
+    bp.deleteTuple(tid1, inSlot(0));
+    bp.deleteTuple(tid2, inSlot(1));
+    bp.transactionComplete(tid2);
+    bp.flushAllPages();
+    assertFalse(onDisk(0));
+
+    bp.transactionComplete(tid1, false);
+    HeapPage page = (HeapPage) bp.getPage(tid1, p0, Permissions.READ_ONLY);
+    assertTrue(page.getSlot(0));
+    assertFalse(page.getSlot(1));
+    bp.flushAllPages();
+    assertTrue(onDisk(0));
+    assertFalse(onDisk(1));
+  }
+
+  /**
+   * Recovery redoes the committed tuples and undoes the others, however
+   * they share pages.
+   */
+  @Test public void recoveryUndoesUncommittedTuples() throws Exception {
+    bp.setForceAtCommit(false);
+    Transaction t1 = new Transaction();
+    t1.start();
+    bp.deleteTuple(t1.getId(), inSlot(0));
+    Transaction t2 = new Transaction();
+    t2.start();
+    bp.deleteTuple(t2.getId(), inSlot(1));
+    t2.commit();
+    assertTrue(onDisk(1));
+
+    for (int i = 0; i < 2; i++) {
+      // crash, losing the buffer pool, and recover
+      bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+      Database.getLogFile().recover();
+      assertTrue(onDisk(0));
+      assertFalse(onDisk(1));
+    }
+  }
+
+  /**
+   * Only heap files can be locked by tuple.
+   */
+  @Test(expected = IllegalArgumentException.class) public void slottedFilesCannot() throws Exception {
+    java.io.File file = java.io.File.createTempFile("slotted", ".dat");
+    file.deleteOnExit();
+    SlottedFile f = new SlottedFile(file, Utility.getTupleDesc(2));
+    Database.getCatalog().addTable(f, "slotted");
+    Database.getCatalog().setRowLocked(f.getId(), true);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(RowLockTest.class);
+  }
+}
@@ -0,0 +1,124 @@
+package simpledb;
+
+import java.io.File;
+import java.io.FileWriter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class SlottedFileTest extends SimpleDbTestBase {
+    private TupleDesc td;
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        td = new TupleDesc(new Type[] {Type.INT_TYPE, Type.STRING_TYPE}, new String[] {"id", "name"});
+        tid = new TransactionId();
+    }
+
+    @After public void tearDown() throws Exception {
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private SlottedFile create(File f) {
+        f.deleteOnExit();
+        SlottedFile sf = new SlottedFile(f, td);
+        Database.getCatalog().addTable(sf, SystemTestUtil.getUUID());
+        return sf;
+    }
+
+    private Tuple tuple(int n) {
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(n));
+        t.setField(1, new StringField("name " + n, Type.STRING_LEN));
+        return t;
+    }
+
+    /**
+     * Tuples added through the buffer pool come back from a scan, and
+     * deleting one makes room that the next insert reuses.
+     */
+    @Test public void insertScanDelete() throws Exception {
+        SlottedFile sf = create(File.createTempFile("slotted", ".dat"));
+        for (int i = 0; i < 1000; i++)
+            Database.getBufferPool().insertTuple(tid, sf.getId(), tuple(i));
+        int pages = sf.numPages();
+        assertTrue(pages < 1000 / 30 + 1);
+
+        DbFileIterator it = sf.iterator(tid);
+        it.open();
+        int count = 0;
+        Tuple first = null;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            if (first == null)
+                first = t;
+            count++;
+        }
+        it.close();
+        assertEquals(1000, count);
+
+        Database.getBufferPool().deleteTuple(tid, first);
+        Tuple again = tuple(5000);
+        Database.getBufferPool().insertTuple(tid, sf.getId(), again);
+        assertEquals(0, again.getRecordId().getPageId().pageno());
+        assertEquals(pages, sf.numPages());
+    }
+
+    /**
+     * Unit test for SlottedFileEncoder.convert()
+     */
+    @Test public void convert() throws Exception {
+        File txt = File.createTempFile("slotted", ".txt");
+        txt.deleteOnExit();
+        FileWriter w = new FileWriter(txt);
+        for (int i = 0; i < 500; i++)
+            w.write(i + ",name " + i + "\n");
+        w.close();
+        File dat = File.createTempFile("slotted", ".dat");
+        SlottedFileEncoder.convert(txt, dat, new Type[] {Type.INT_TYPE, Type.STRING_TYPE});
+        SlottedFile sf = create(dat);
+
+        DbFileIterator it = sf.iterator(tid);
+        it.open();
+        for (int i = 0; i < 500; i++) {
+            Tuple t = it.next();
+            assertEquals(i, ((IntField) t.getField(0)).getValue());
+            assertEquals("name " + i, ((StringField) t.getField(1)).getValue());
+        }
+        assertFalse(it.hasNext());
+        it.close();
+        assertTrue(sf.numPages() < 500 / 30 + 1);
+    }
+
+    /**
+     * Tuples added to pages the file grew by go away when their
+     * transaction aborts, like any others.
+     */
+    @Test public void abortUndoesNewPages() throws Exception {
+        SlottedFile sf = create(File.createTempFile("slotted", ".dat"));
+        for (int i = 0; i < 1000; i++)
+            Database.getBufferPool().insertTuple(tid, sf.getId(), tuple(i));
+        assertTrue(sf.numPages() > 1);
+        Database.getBufferPool().transactionComplete(tid, false);
+
+        tid = new TransactionId();
+        DbFileIterator it = sf.iterator(tid);
+        it.open();
+        assertFalse(it.hasNext());
+        it.close();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SlottedFileTest.class);
+    }
+}
@@ -0,0 +1,124 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+import simpledb.TestUtil.SkeletonFile;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class SlottedPageTest extends SimpleDbTestBase {
+    private HeapPageId pid;
+    private TupleDesc td;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void addTable() throws Exception {
+        td = new TupleDesc(new Type[] {Type.INT_TYPE, Type.STRING_TYPE});
+        this.pid = new HeapPageId(-1, -1);
+        Database.getCatalog().addTable(new SkeletonFile(-1, td), SystemTestUtil.getUUID());
+    }
+
+    private Tuple tuple(int n, String s) {
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(n));
+        t.setField(1, new StringField(s, Type.STRING_LEN));
+        return t;
+    }
+
+    /**
+     * Short strings take only the bytes they need, so a page holds many more
+     * tuples than a HeapPage, whose slots are sized for the longest string.
+     */
+    @Test public void fillPage() throws Exception {
+        SlottedPage page = new SlottedPage(pid, SlottedPage.createEmptyPageData());
+        int n = 0;
+        while (page.getFreeSpace() >= SlottedPage.recordSize(tuple(n, "row " + n))) {
+            page.addTuple(tuple(n, "row " + n));
+            n++;
+        }
+        int heapTuples = (BufferPool.PAGE_SIZE * 8) / (td.getSize() * 8 + 1);
+        assertTrue(n > 4 * heapTuples);
+        assertEquals(n, page.getNumTuples());
+
+        try {
+            page.addTuple(tuple(n, "row " + n));
+            fail("page should be full; expected DbException");
+        } catch (DbException e) {
+            // explicitly ignored
+        }
+
+        // the page reads back the same from its bytes
+        SlottedPage copy = new SlottedPage(pid, page.getPageData());
+        Iterator<Tuple> it = copy.iterator();
+        for (int i = 0; i < n; i++) {
+            Tuple t = it.next();
+            assertEquals(i, ((IntField) t.getField(0)).getValue());
+            assertEquals("row " + i, ((StringField) t.getField(1)).getValue());
+            assertEquals(i, t.getRecordId().tupleno());
+        }
+        assertFalse(it.hasNext());
+    }
+
+    /**
+     * Space freed by deletes is reused, compacting the page when needed,
+     * and the remaining tuples keep their slots and values.
+     */
+    @Test public void deleteAndCompact() throws Exception {
+        SlottedPage page = new SlottedPage(pid, SlottedPage.createEmptyPageData());
+        String big = "";
+        while (big.length() < Type.STRING_LEN)
+            big += "x";
+        ArrayList<Tuple> added = new ArrayList<Tuple>();
+        while (page.getFreeSpace() >= SlottedPage.recordSize(tuple(0, big))) {
+            Tuple t = tuple(added.size(), big);
+            page.addTuple(t);
+            added.add(t);
+        }
+
+        // free every other record, leaving holes all over the page
+        Tuple survivor = page.iterator().next();
+        for (int i = 1; i < added.size(); i += 2)
+            page.deleteTuple(added.get(i));
+        int free = page.getFreeSpace();
+        Tuple deleted = added.get(1);
+        assertNull(deleted.getRecordId());
+        assertEquals(1, ((IntField) deleted.getField(0)).getValue());
+
+        Tuple small = tuple(-1, "short");
+        page.addTuple(small);
+        assertEquals(1, small.getRecordId().tupleno());
+        assertEquals(free - SlottedPage.recordSize(small), page.getFreeSpace());
+        assertEquals(0, ((IntField) survivor.getField(0)).getValue());
+        assertEquals(big, ((StringField) survivor.getField(1)).getValue());
+
+        while (page.getFreeSpace() >= SlottedPage.recordSize(tuple(0, big)))
+            page.addTuple(tuple(0, big));
+        SlottedPage copy = new SlottedPage(pid, page.getPageData());
+        assertEquals(page.getNumTuples(), copy.getNumTuples());
+    }
+
+    /**
+     * Unit test for SlottedPage.getBeforeImage()
+     */
+    @Test public void beforeImage() throws Exception {
+        SlottedPage page = new SlottedPage(pid, SlottedPage.createEmptyPageData());
+        page.addTuple(tuple(1, "a"));
+        assertEquals(0, page.getBeforeImage().getNumTuples());
+        page.setBeforeImage();
+        assertEquals(1, page.getBeforeImage().getNumTuples());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SlottedPageTest.class);
+    }
+}
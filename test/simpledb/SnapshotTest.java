@@ -0,0 +1,164 @@
+package simpledb;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import junit.framework.JUnit4TestAdapter;
+
+public class SnapshotTest extends TestUtil.CreateHeapFile {
+  private BufferPool bp;
+  private HeapPageId p0;
+
+  /**
+   * Set up initial resources for each unit test.
+   */
+  @Before public void setUp() throws Exception {
+    super.setUp();
+
+    // one full page, written with page locks, then locked by tuple
+    bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    TransactionId tid = new TransactionId();
+    for (int i = 0; i < 504; ++i)
+      empty.addTuple(tid, Utility.getHeapTuple(i, 2));
+    bp.transactionComplete(tid);
+    bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    Database.getCatalog().setRowLocked(empty.getId(), true);
+    p0 = new HeapPageId(empty.getId(), 0);
+  }
+
+  /** A tuple that refers to the specified slot of the first page. */
+  private Tuple inSlot(int slot) {
+    Tuple t = Utility.getHeapTuple(slot, 2);
+    t.setRecordId(new RecordId(p0, slot));
+    return t;
+  }
+
+  /** @return the number of tuples a scan by tid returns */
+  private int count(TransactionId tid) throws Exception {
+    DbFileIterator it = empty.iterator(tid);
+    it.open();
+    int n = 0;
+    while (it.hasNext()) {
+      it.next();
+      n++;
+    }
+    it.close();
+    return n;
+  }
+
+  /** @return true if a scan by tid returns a tuple whose first field is v */
+  private boolean sees(TransactionId tid, int v) throws Exception {
+    DbFileIterator it = empty.iterator(tid);
+    it.open();
+    boolean found = false;
+    while (it.hasNext())
+      found |= ((IntField) it.next().getField(0)).getValue() == v;
+    it.close();
+    return found;
+  }
+
+  /**
+   * A snapshot reads past uncommitted changes without taking locks, and
+   * the writer goes on while it reads.
+   */
+  @Test public void readersTakeNoLocks() throws Exception {
+    TransactionId writer = new TransactionId();
+    bp.deleteTuple(writer, inSlot(0));
+    bp.insertTuple(writer, empty.getId(), Utility.getHeapTuple(1000, 2));
+
+    Transaction reader = new Transaction();
+    reader.start();
+    assertEquals(504, count(reader.getId()));
+    assertTrue(sees(reader.getId(), 0));
+    assertFalse(sees(reader.getId(), 1000));
+    assertFalse(bp.holdsLock(reader.getId(), p0));
+
+    bp.deleteTuple(writer, inSlot(1));
+    bp.transactionComplete(writer);
+    assertEquals(504, count(reader.getId()));
+    reader.commit();
+  }
+
+  /**
+   * Changes committed after a snapshot was taken stay hidden from it, and
+   * a transaction sees its own changes.
+   */
+  @Test public void snapshotIsStable() throws Exception {
+    Transaction old = new Transaction();
+    old.start();
+    TransactionId writer = new TransactionId();
+    bp.deleteTuple(writer, inSlot(0));
+    bp.insertTuple(writer, empty.getId(), Utility.getHeapTuple(1000, 2));
+    bp.transactionComplete(writer);
+
+    Transaction t = new Transaction();
+    t.start();
+    assertFalse(sees(t.getId(), 0));
+    assertTrue(sees(t.getId(), 1000));
+    assertTrue(sees(old.getId(), 0));
+    assertFalse(sees(old.getId(), 1000));
+
+    bp.deleteTuple(old.getId(), inSlot(2));
+    assertEquals(503, count(old.getId()));
+    assertFalse(sees(old.getId(), 2));
+    assertTrue(sees(t.getId(), 2));
+    old.commit();
+    t.commit();
+  }
+
+  /**
+   * A snapshot can't delete a tuple that changed after it was taken: the
+   * first writer to commit wins.
+   */
+  @Test public void firstCommitterWins() throws Exception {
+    Transaction t = new Transaction();
+    t.start();
+    TransactionId writer = new TransactionId();
+    bp.deleteTuple(writer, inSlot(0));
+    bp.transactionComplete(writer);
+    try {
+      bp.deleteTuple(t.getId(), inSlot(0));
+      fail("expected the snapshot's delete to abort");
+    } catch (TransactionAbortedException e) {
+      t.transactionComplete(true);
+    }
+  }
+
+  /**
+   * Old versions are kept while a snapshot may read them, and dropped
+   * afterwards, as are those of aborted transactions.
+   */
+  @Test public void oldVersionsAreCollected() throws Exception {
+    VersionStore versions = bp.getVersionStore();
+    TransactionId writer = new TransactionId();
+    bp.deleteTuple(writer, inSlot(0));
+    bp.transactionComplete(writer);
+    assertEquals(0, versions.getNumVersions());
+
+    Transaction t = new Transaction();
+    t.start();
+    writer = new TransactionId();
+    bp.deleteTuple(writer, inSlot(1));
+    bp.deleteTuple(writer, inSlot(2));
+    bp.transactionComplete(writer);
+    assertEquals(2, versions.getNumVersions());
+    t.commit();
+    assertEquals(0, versions.getNumVersions());
+
+    writer = new TransactionId();
+    bp.deleteTuple(writer, inSlot(3));
+    bp.transactionComplete(writer, false);
+    assertEquals(0, versions.getNumVersions());
+    assertEquals(501, count(new TransactionId()));
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(SnapshotTest.class);
+  }
+}
@@ -0,0 +1,98 @@
+package simpledb;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+public class StealTest extends TestUtil.CreateHeapFile {
+  private BufferPool bp;
+
+  /**
+   * Set up initial resources for each unit test.
+   */
+  @Before public void setUp() throws Exception {
+    super.setUp();
+
+    // five full pages on disk
+    bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    TransactionId tid = new TransactionId();
+    for (int i = 0; i < 504 * 5; ++i)
+      empty.addTuple(tid, Utility.getHeapTuple(i, 2));
+    bp.transactionComplete(tid);
+    bp = Database.resetBufferPool(3);
+  }
+
+  private int countTuples() throws Exception {
+    TransactionId tid = new TransactionId();
+    DbFileIterator it = empty.iterator(tid);
+    it.open();
+    int n = 0;
+    while (it.hasNext()) {
+      it.next();
+      n++;
+    }
+    it.close();
+    bp.transactionComplete(tid);
+    return n;
+  }
+
+  private void deleteAll(TransactionId tid) throws Exception {
+    DbFileIterator it = empty.iterator(tid);
+    it.open();
+    while (it.hasNext())
+      bp.deleteTuple(tid, it.next());
+    it.close();
+  }
+
+  /**
+   * A transaction that dirties more pages than the pool holds can run
+   * and commit.
+   */
+  @Test public void largeTransactionCommits() throws Exception {
+    TransactionId tid = new TransactionId();
+    deleteAll(tid);
+    bp.transactionComplete(tid, true);
+    assertFalse(Database.getLogFile().isActive(tid));
+    assertEquals(0, countTuples());
+  }
+
+  /**
+   * Aborting it puts back the pages that were written to disk early.
+   */
+  @Test public void largeTransactionAborts() throws Exception {
+    TransactionId tid = new TransactionId();
+    deleteAll(tid);
+    bp.transactionComplete(tid, false);
+    assertEquals(504 * 5, countTuples());
+  }
+
+  /**
+   * The page writer leaves a page alone while it is pinned, as its writer
+   * may be in the middle of changing it.
+   */
+  @Test public void pinnedPagesAreNotStolen() throws Exception {
+    TransactionId tid = new TransactionId();
+    HeapPageId pid = new HeapPageId(empty.getId(), 0);
+    HeapPage p = (HeapPage) bp.pinPage(tid, pid, Permissions.READ_WRITE);
+    p.deleteTuple(p.iterator().next());
+    p.markDirty(true, tid);
+    assertEquals(0, bp.flushUnpinnedPages());
+    assertFalse(Database.getLogFile().isActive(tid));
+
+    bp.unpinPage(tid, pid);
+    assertEquals(1, bp.flushUnpinnedPages());
+    assertTrue(Database.getLogFile().isActive(tid));
+    bp.transactionComplete(tid, false);
+    assertEquals(504 * 5, countTuples());
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(StealTest.class);
+  }
+}
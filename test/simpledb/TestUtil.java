@@ -214,6 +214,13 @@ public class TestUtil {
             throw new RuntimeException("not implemented");
         }
 
+        public void writePages(List<Page> pages) throws IOException {
+            throw new RuntimeException("not implemented");
+        }
+
+        public void close() throws IOException {
+        }
+
         public ArrayList<Page> addTuple(TransactionId tid, Tuple t)
             throws DbException, IOException, TransactionAbortedException {
             throw new RuntimeException("not implemented");
@@ -224,6 +231,10 @@ public class TestUtil {
             throw new RuntimeException("not implemented");
         }
 
+        public int getPageSize() {
+            return BufferPool.PAGE_SIZE;
+        }
+
         public int bytesPerPage() {
             throw new RuntimeException("not implemented");
         }
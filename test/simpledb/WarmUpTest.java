@@ -0,0 +1,116 @@
+package simpledb;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.assertFalse;
+import junit.framework.JUnit4TestAdapter;
+
+public class WarmUpTest extends SimpleDbTestBase {
+    private HeapFile a;
+    private HeapFile b;
+    private File saved;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        // two int columns -> 504 tuples per page
+        a = SystemTestUtil.createRandomHeapFile(2, 10 * 504, null, null);
+        b = SystemTestUtil.createRandomHeapFile(2, 10 * 504, null, null);
+        saved = File.createTempFile("warmup", ".warm");
+        saved.deleteOnExit();
+    }
+
+    private void read(BufferPool bp, HeapFile f, int... pages) throws Exception {
+        TransactionId tid = new TransactionId();
+        for (int p : pages)
+            bp.getPage(tid, new HeapPageId(f.getId(), p), Permissions.READ_ONLY);
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * Pages saved from one buffer pool are resident in a new one after
+     * warm-up, so reading them again costs no misses.
+     */
+    @Test public void reloadSavedPages() throws Exception {
+        BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        read(bp, a, 7, 2, 5);
+        read(bp, b, 3);
+        WarmUp.save(bp, saved);
+
+        bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        assertEquals(4, (int) WarmUp.start(saved, null).get());
+        assertEquals(4, bp.getResidentPages().size());
+        read(bp, a, 2, 5, 7);
+        read(bp, b, 3);
+        assertEquals(0, bp.getMisses());
+    }
+
+    /**
+     * Warm-up can be limited to some tables.
+     */
+    @Test public void onlyChosenTables() throws Exception {
+        BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        read(bp, a, 1, 2);
+        read(bp, b, 1, 2);
+        WarmUp.save(bp, saved);
+
+        bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        WarmUp.start(saved, Collections.singleton(b.getId())).get();
+        Map<PageId, Integer> resident = bp.getResidentPages();
+        assertEquals(2, resident.size());
+        assertTrue(resident.containsKey(new HeapPageId(b.getId(), 1)));
+        assertFalse(resident.containsKey(new HeapPageId(a.getId(), 1)));
+    }
+
+    /**
+     * A smaller buffer pool gets the most requested pages.
+     */
+    @Test public void hottestPagesFirst() throws Exception {
+        BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        read(bp, a, 0, 1, 2, 3);
+        for (int i = 0; i < 3; i++)
+            read(bp, a, 1, 3);
+        WarmUp.save(bp, saved);
+
+        bp = Database.resetBufferPool(2);
+        WarmUp.start(saved, null).get();
+        Map<PageId, Integer> resident = bp.getResidentPages();
+        assertEquals(2, resident.size());
+        assertTrue(resident.containsKey(new HeapPageId(a.getId(), 1)));
+        assertTrue(resident.containsKey(new HeapPageId(a.getId(), 3)));
+    }
+
+    /**
+     * Pages that warm-up couldn't load, because only dirty pages were left
+     * to evict, aren't counted as warmed up.
+     */
+    @Test public void fullPoolLoadsNothing() throws Exception {
+        BufferPool bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        read(bp, a, 1, 2);
+        WarmUp.save(bp, saved);
+
+        bp = Database.resetBufferPool(2);
+        TransactionId tid = new TransactionId();
+        for (int p = 0; p < 2; p++)
+            bp.getPage(tid, new HeapPageId(b.getId(), p), Permissions.READ_WRITE).markDirty(true, tid);
+        assertEquals(0, (int) WarmUp.start(saved, null).get());
+        assertEquals(2, bp.getResidentPages().size());
+        bp.transactionComplete(tid, false);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(WarmUpTest.class);
+    }
+}
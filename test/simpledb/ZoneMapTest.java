@@ -0,0 +1,212 @@
+package simpledb;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class ZoneMapTest extends SimpleDbTestBase {
+    private static final int PAGES = 50;
+
+    /** Counts the number of pages read. */
+    static class InstrumentedHeapFile extends HeapFile {
+        public volatile int readCount = 0;
+
+        public InstrumentedHeapFile(File f, TupleDesc td) {
+            super(f, td);
+        }
+
+        @Override
+        public Page readPage(PageId pid) throws NoSuchElementException {
+            readCount += 1;
+            return super.readPage(pid);
+        }
+
+        @Override
+        public List<Page> readPages(int first, int count) throws IOException {
+            readCount += count;
+            return super.readPages(first, count);
+        }
+    }
+
+    private File f;
+    private int rows;
+
+    /** Writes a two column table whose first column is sorted. */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        f = File.createTempFile("zonemap", ".dat");
+        f.deleteOnExit();
+        new File(f.getPath() + ".zm").deleteOnExit();
+        new File(f.getPath() + ".fsm").deleteOnExit();
+        HeapFile probe = new HeapFile(f, Utility.getTupleDesc(2));
+        rows = probe.getNumTuplesPerPage() * PAGES;
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < rows; i++)
+            tuples.add(new ArrayList<Integer>(Arrays.asList(i, i % 7)));
+        HeapFileEncoder.convert(tuples, f, BufferPool.PAGE_SIZE, 2);
+    }
+
+    private InstrumentedHeapFile open() {
+        InstrumentedHeapFile hf = new InstrumentedHeapFile(f, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        return hf;
+    }
+
+    private int scan(HeapFile hf, Predicate[] predicates) throws Exception {
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = hf.iterator(tid, predicates);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            boolean match = true;
+            for (Predicate p : predicates)
+                match &= p.filter(t);
+            if (match)
+                count++;
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return count;
+    }
+
+    /**
+     * Unit test for ZoneMap.mightMatch()
+     */
+    @Test public void mightMatch() throws Exception {
+        HeapFile hf = open();
+        ZoneMap zm = hf.getZoneMap();
+        assertTrue(zm.mightMatch(0, new Predicate[] {
+                new Predicate(0, Predicate.Op.EQUALS, new IntField(-1))}));
+
+        scan(hf, new Predicate[0]);
+        int perPage = hf.getNumTuplesPerPage();
+        assertEquals(perPage, zm.getRowCount(1));
+        assertEquals(perPage, zm.getMin(1, 0));
+        assertEquals(2 * perPage - 1, zm.getMax(1, 0));
+        assertTrue(zm.mightMatch(1, new Predicate[] {
+                new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(2 * perPage - 2))}));
+        assertFalse(zm.mightMatch(1, new Predicate[] {
+                new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(2 * perPage - 1))}));
+        assertFalse(zm.mightMatch(1, new Predicate[] {
+                new Predicate(0, Predicate.Op.LESS_THAN, new IntField(perPage))}));
+        assertTrue(zm.mightMatch(1, new Predicate[] {
+                new Predicate(0, Predicate.Op.EQUALS, new IntField(perPage)),
+                new Predicate(1, Predicate.Op.LESS_THAN_OR_EQ, new IntField(0))}));
+        assertFalse(zm.mightMatch(1, new Predicate[] {
+                new Predicate(0, Predicate.Op.EQUALS, new IntField(perPage)),
+                new Predicate(1, Predicate.Op.GREATER_THAN, new IntField(6))}));
+    }
+
+    /**
+     * Once the zone map is known, a range scan on the sorted column only
+     * reads the pages that can hold matches, and the map survives closing
+     * and reopening the file.
+     */
+    @Test public void rangeScanSkipsPages() throws Exception {
+        InstrumentedHeapFile hf = open();
+        Predicate[] range = new Predicate[] {
+                new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(rows - 10))};
+        assertEquals(10, scan(hf, range));
+        assertEquals(PAGES, hf.readCount);
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        hf.readCount = 0;
+        assertEquals(10, scan(hf, range));
+        assertEquals(1, hf.readCount);
+
+        hf.close();
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        InstrumentedHeapFile reopened = open();
+        assertEquals(10, scan(reopened, range));
+        assertEquals(1, reopened.readCount);
+    }
+
+    /**
+     * Closing a file that was deleted leaves no zone map behind.
+     */
+    @Test public void zoneMapGoesWithFile() throws Exception {
+        File zm = new File(f.getPath() + ".zm");
+        HeapFile hf = open();
+        scan(hf, new Predicate[0]);
+        hf.close();
+        assertTrue(zm.exists());
+
+        HeapFile reopened = open();
+        assertTrue(f.delete());
+        reopened.close();
+        assertFalse(zm.exists());
+    }
+
+    /**
+     * A tuple inserted into a page widens its zone map right away, before the
+     * page is written out.
+     */
+    @Test public void insertWidensZone() throws Exception {
+        HeapFile hf = open();
+        scan(hf, new Predicate[0]);
+        TransactionId tid = new TransactionId();
+        Database.getBufferPool().deleteTuple(tid, firstTuple(hf, tid));
+        Tuple t = Utility.getHeapTuple(new int[] {-5, 3});
+        Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+        assertEquals(0, t.getRecordId().getPageId().pageno());
+        assertEquals(-5, hf.getZoneMap().getMin(0, 0));
+        Database.getBufferPool().transactionComplete(tid);
+
+        Predicate[] p = new Predicate[] {new Predicate(0, Predicate.Op.LESS_THAN, new IntField(0))};
+        assertEquals(1, scan(hf, p));
+    }
+
+    /**
+     * Pages of row-locked tables are written from copies taken before
+     * other transactions went on inserting; writing such a copy leaves the
+     * tuples inserted since then in the zone map.
+     */
+    @Test public void staleCopyOnlyWidensZone() throws Exception {
+        HeapFile hf = new HeapFile(f, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        Database.getCatalog().setRowLocked(hf.getId(), true);
+        scan(hf, new Predicate[0]);
+        TransactionId tid = new TransactionId();
+        Database.getBufferPool().deleteTuple(tid, firstTuple(hf, tid));
+        Database.getBufferPool().transactionComplete(tid);
+
+        Page copy = hf.readPage(new HeapPageId(hf.getId(), 0));
+        tid = new TransactionId();
+        Tuple t = Utility.getHeapTuple(new int[] {-5, 3});
+        Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+        assertEquals(0, t.getRecordId().getPageId().pageno());
+        Database.getBufferPool().transactionComplete(tid);
+        hf.writePage(copy);
+        assertEquals(-5, hf.getZoneMap().getMin(0, 0));
+
+        Predicate[] p = new Predicate[] {new Predicate(0, Predicate.Op.LESS_THAN, new IntField(0))};
+        assertEquals(1, scan(hf, p));
+    }
+
+    private Tuple firstTuple(HeapFile hf, TransactionId tid) throws Exception {
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        Tuple t = it.next();
+        it.close();
+        return t;
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ZoneMapTest.class);
+    }
+}
@@ -7,6 +7,7 @@ import static org.junit.Assert.*;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.Random;
 
@@ -72,7 +73,7 @@ public class ScanTest extends SimpleDbTestBase {
      * @throws TransactionAbortedException
      * @throws DbException */
     @Test public void testCache() throws IOException, DbException, TransactionAbortedException, Exception {
-        /** Counts the number of readPage operations. */
+        /** Counts the number of pages read. */
         class InstrumentedHeapFile extends HeapFile {
             public InstrumentedHeapFile(File f, TupleDesc td) {
                 super(f, td);
@@ -84,6 +85,12 @@ public class ScanTest extends SimpleDbTestBase {
                 return super.readPage(pid);
             }
 
+            @Override
+            public List<Page> readPages(int first, int count) throws IOException {
+                readCount += count;
+                return super.readPages(first, count);
+            }
+
             public int readCount = 0;
         }
 
@@ -105,6 +112,31 @@ public class ScanTest extends SimpleDbTestBase {
         assertEquals(0, table.readCount);
     }
 
+    /**
+     * A plan whose open() failed part of the way can still be closed, so
+     * that callers closing it in a finally block see the real error.
+     */
+    @Test public void closeAfterFailedOpen() throws Exception {
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, 10, null, null);
+        TransactionId tid = new TransactionId();
+        DbIterator failing = new TestUtil.MockScan(0, 10, 2) {
+            public void open() {
+                throw new RuntimeException("open failed");
+            }
+        };
+        Join join = new Join(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                failing, new SeqScan(tid, table.getId(), "t"));
+        try {
+            join.open();
+            fail("expected open to fail");
+        } catch (RuntimeException e) {
+            assertEquals("open failed", e.getMessage());
+        } finally {
+            join.close();
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
     /** Make test compatible with older version of ant. */
     public static junit.framework.Test suite() {
         return new junit.framework.JUnit4TestAdapter(ScanTest.class);